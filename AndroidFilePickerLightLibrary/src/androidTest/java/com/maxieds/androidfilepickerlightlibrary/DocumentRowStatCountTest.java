@@ -0,0 +1,212 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts the stat-type calls made per document row by the projection-aware row fill, against the
+ * per-column calls the provider used to make, and times both over a folder of files.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentRowStatCountTest {
+
+    private static String LOGTAG = DocumentRowStatCountTest.class.getSimpleName();
+
+    private static final int TEST_FILES_COUNT = 500;
+    private static final int TIMED_ROUNDS = 5;
+
+    /* Counts every File call that goes to the disk. Each toPath() call is counted as the single
+     * Files.readAttributes (or getPosixFilePermissions) call that follows it in the row fills:
+     */
+    private static class StatCountingFile extends File {
+
+        private int statCallsCount;
+
+        StatCountingFile(File parentFolder, String fileName) {
+            super(parentFolder, fileName);
+        }
+
+        int getStatCallsCount() { return statCallsCount; }
+
+        @Override
+        public boolean exists() { statCallsCount++; return super.exists(); }
+
+        @Override
+        public boolean isDirectory() { statCallsCount++; return super.isDirectory(); }
+
+        @Override
+        public boolean isFile() { statCallsCount++; return super.isFile(); }
+
+        @Override
+        public boolean isHidden() { statCallsCount++; return super.isHidden(); }
+
+        @Override
+        public boolean canRead() { statCallsCount++; return super.canRead(); }
+
+        @Override
+        public boolean canWrite() { statCallsCount++; return super.canWrite(); }
+
+        @Override
+        public long length() { statCallsCount++; return super.length(); }
+
+        @Override
+        public long lastModified() { statCallsCount++; return super.lastModified(); }
+
+        @Override
+        public Path toPath() { statCallsCount++; return super.toPath(); }
+
+    }
+
+    private File testFolder;
+    private ActivityScenario<FileChooserActivity> pickerScenario;
+    private BasicFileProvider fileProvider;
+
+    @Before
+    public void setUp() throws IOException {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        testFolder = PickerTestFolders.createTestFolder(appContext, "row-stat-counts", TEST_FILES_COUNT);
+        pickerScenario = PickerTestFolders.launchPickerAt(testFolder);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        fileProvider = BasicFileProvider.getInstance();
+        assertNotNull(fileProvider);
+    }
+
+    @After
+    public void tearDown() {
+        pickerScenario.close();
+        FileChooserActivity.initialFileChooserBuilderInst = null;
+        PickerTestFolders.deleteTestFolder(testFolder);
+    }
+
+    /* The calls the provider made for each row before the attributes were read with a single stat: */
+    private static void fillLegacyRowValues(File file, Object[] rowValues) {
+        int flags = 0;
+        if(file.isDirectory()) {
+            if(file.isDirectory() && file.canWrite()) {
+                flags |= DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE;
+            }
+        } else if(file.canWrite()) {
+            flags |= DocumentsContract.Document.FLAG_SUPPORTS_WRITE;
+            flags |= DocumentsContract.Document.FLAG_SUPPORTS_DELETE;
+        }
+        String displayName = file.getName();
+        String mimeType = file.isDirectory() ? DocumentsContract.Document.MIME_TYPE_DIR :
+                MimeTypeMap.getSingleton().getMimeTypeFromExtension(displayName.substring(displayName.lastIndexOf('.') + 1));
+        int colIdx = 0;
+        rowValues[colIdx++] = displayName;
+        rowValues[colIdx++] = mimeType;
+        rowValues[colIdx++] = file.length();
+        rowValues[colIdx++] = file.lastModified();
+        rowValues[colIdx++] = flags;
+        rowValues[colIdx++] = FileUtils.getFileSizeString(file.length());
+        try {
+            rowValues[colIdx++] = PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath()));
+        } catch(IOException ioe) {
+            rowValues[colIdx - 1] = "---------";
+        }
+        rowValues[colIdx++] = file.isDirectory() ? "true" : "false";
+        rowValues[colIdx] = file.isHidden() ? "true" : "false";
+    }
+
+    private StatCountingFile[] getCountingTestFiles() {
+        String[] fileNames = testFolder.list();
+        assertNotNull(fileNames);
+        StatCountingFile[] testFiles = new StatCountingFile[fileNames.length];
+        for(int fidx = 0; fidx < fileNames.length; fidx++) {
+            testFiles[fidx] = new StatCountingFile(testFolder, fileNames[fidx]);
+        }
+        return testFiles;
+    }
+
+    private static int getStatCallsCount(StatCountingFile[] testFiles) {
+        int statCallsCount = 0;
+        for(StatCountingFile testFile : testFiles) {
+            statCallsCount += testFile.getStatCallsCount();
+        }
+        return statCallsCount;
+    }
+
+    @Test
+    public void defaultProjection_statsOncePerRow() {
+        String[] columnNames = BasicFileProvider.DEFAULT_DOCUMENT_PROJECTION;
+        Object[] rowValues = new Object[columnNames.length];
+        FileUtils.FileAttributes rowAttrs = new FileUtils.FileAttributes();
+        StatCountingFile[] projectedFiles = getCountingTestFiles();
+        for(StatCountingFile testFile : projectedFiles) {
+            fileProvider.fillDocumentRowValues(testFile, columnNames, rowValues, rowAttrs);
+        }
+        StatCountingFile[] legacyFiles = getCountingTestFiles();
+        for(StatCountingFile testFile : legacyFiles) {
+            fillLegacyRowValues(testFile, rowValues);
+        }
+        float projectedStatsPerRow = (float) getStatCallsCount(projectedFiles) / projectedFiles.length;
+        float legacyStatsPerRow = (float) getStatCallsCount(legacyFiles) / legacyFiles.length;
+        Log.i(LOGTAG, String.format(Locale.US, "Stat-type calls per row: %.2f (before: %.2f)", projectedStatsPerRow, legacyStatsPerRow));
+        // The single attributes read, plus the write access check behind the flags column:
+        assertEquals(2.0f, projectedStatsPerRow, 0.0f);
+        assertTrue(legacyStatsPerRow >= 8.0f);
+    }
+
+    @Test
+    public void namesOnlyProjection_neverStats() {
+        String[] columnNames = new String[] {
+                DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                BasicFileProvider.DOCUMENT_COLUMN_NAME_ABSPATH,
+                BasicFileProvider.DOCUMENT_COLUMN_NAME_ISHIDDEN
+        };
+        Object[] rowValues = new Object[columnNames.length];
+        FileUtils.FileAttributes rowAttrs = new FileUtils.FileAttributes();
+        StatCountingFile[] testFiles = getCountingTestFiles();
+        for(StatCountingFile testFile : testFiles) {
+            fileProvider.fillDocumentRowValues(testFile, columnNames, rowValues, rowAttrs);
+            assertEquals(testFile.getName(), rowValues[1]);
+        }
+        assertEquals(0, getStatCallsCount(testFiles));
+    }
+
+    @Test
+    public void defaultProjection_rowFillTimings() {
+        String[] columnNames = BasicFileProvider.DEFAULT_DOCUMENT_PROJECTION;
+        Object[] rowValues = new Object[columnNames.length];
+        FileUtils.FileAttributes rowAttrs = new FileUtils.FileAttributes();
+        File[] testFiles = testFolder.listFiles();
+        assertNotNull(testFiles);
+        long projectedMillis = Long.MAX_VALUE, legacyMillis = Long.MAX_VALUE;
+        for(int round = 0; round < TIMED_ROUNDS; round++) {
+            long startTime = SystemClock.elapsedRealtime();
+            for(File testFile : testFiles) {
+                fileProvider.fillDocumentRowValues(testFile, columnNames, rowValues, rowAttrs);
+            }
+            projectedMillis = Math.min(projectedMillis, SystemClock.elapsedRealtime() - startTime);
+            startTime = SystemClock.elapsedRealtime();
+            for(File testFile : testFiles) {
+                fillLegacyRowValues(testFile, rowValues);
+            }
+            legacyMillis = Math.min(legacyMillis, SystemClock.elapsedRealtime() - startTime);
+        }
+        Log.i(LOGTAG, String.format(Locale.US, "Filled %d rows in %d ms (before: %d ms)", testFiles.length, projectedMillis, legacyMillis));
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.Debug;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that rebinding recycled file rows to other items allocates nothing on the UI thread
+ * (the labels are precomputed with the items and the views are cached in the holders).
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileRowsBindAllocationTest {
+
+    private static final int TEST_FILES_COUNT = 64;
+    private static final int RECYCLED_ROWS_COUNT = 12;
+    private static final int BIND_ROUNDS = 20;
+
+    @Test
+    public void rebindRecycledRows_allocatesNothing() {
+        ActivityScenario<FileChooserActivity> pickerScenario = ActivityScenario.launch(FileChooserActivity.class);
+        try {
+            pickerScenario.onActivity(new ActivityScenario.ActivityAction<FileChooserActivity>() {
+                @Override
+                public void perform(FileChooserActivity pickerActivity) {
+                    FileChooserRecyclerView mainRecyclerView = pickerActivity.findViewById(R.id.mainRecyclerView);
+                    File testFolder = new File(pickerActivity.getCacheDir(), "bind-allocations");
+                    DisplayTypes.FileType[] fileItems = createTestFileItems(testFolder);
+                    DisplayAdapters.FileListAdapter rowsAdapter = new DisplayAdapters.FileListAdapter(new ArrayList<DisplayTypes.FileType>());
+                    DisplayAdapters.BaseViewHolder[] recycledRows = new DisplayAdapters.BaseViewHolder[RECYCLED_ROWS_COUNT];
+                    for(int ridx = 0; ridx < RECYCLED_ROWS_COUNT; ridx++) {
+                        recycledRows[ridx] = rowsAdapter.onCreateViewHolder(mainRecyclerView, DisplayAdapters.FileListAdapter.VIEW_TYPE_FILE_ITEM);
+                    }
+                    // The first binds load the icons and the lookup tables:
+                    for(int fidx = 0; fidx < fileItems.length; fidx++) {
+                        DisplayFragments.FileItemFragment.resetLayout(recycledRows[fidx % RECYCLED_ROWS_COUNT], fileItems[fidx]);
+                    }
+                    Debug.resetThreadAllocCount();
+                    Debug.startAllocCounting();
+                    for(int round = 0; round < BIND_ROUNDS; round++) {
+                        for(int ridx = 0; ridx < RECYCLED_ROWS_COUNT; ridx++) {
+                            DisplayTypes.FileType nextItem = fileItems[(round * RECYCLED_ROWS_COUNT + ridx) % fileItems.length];
+                            DisplayFragments.FileItemFragment.resetLayout(recycledRows[ridx], nextItem);
+                        }
+                    }
+                    Debug.stopAllocCounting();
+                    int bindAllocsCount = Debug.getThreadAllocCount();
+                    assertEquals("Objects allocated by " + (BIND_ROUNDS * RECYCLED_ROWS_COUNT) + " row binds", 0, bindAllocsCount);
+                    deleteTestFolder(testFolder);
+                }
+            });
+        } finally {
+            pickerScenario.close();
+        }
+    }
+
+    /* Files of the same type (so the rows keep the same icon) and of different sizes: */
+    private static DisplayTypes.FileType[] createTestFileItems(File testFolder) {
+        assertTrue(testFolder.isDirectory() || testFolder.mkdirs());
+        DisplayTypes.FileType[] fileItems = new DisplayTypes.FileType[TEST_FILES_COUNT];
+        FileUtils.FileAttributes fileAttrs = new FileUtils.FileAttributes();
+        for(int fidx = 0; fidx < TEST_FILES_COUNT; fidx++) {
+            File testFile = new File(testFolder, "row-" + fidx + ".txt");
+            try {
+                FileOutputStream fileOut = new FileOutputStream(testFile);
+                fileOut.write(new byte[fidx * 97]);
+                fileOut.close();
+            } catch(IOException ioe) {
+                fail("Unable to create " + testFile + ": " + ioe.getMessage());
+            }
+            assertTrue(fileAttrs.loadAttributes(testFile));
+            fileItems[fidx] = new DisplayTypes.FileType(testFile.getAbsolutePath(),
+                    FileUtils.getFileSizeString(fileAttrs.getFileSize()), fileAttrs.getPosixPermissionsString(),
+                    false, false, null, null);
+            fileItems[fidx].setFileAttributes(fileAttrs);
+            fileItems[fidx].precomputeDisplayLabels();
+        }
+        return fileItems;
+    }
+
+    private static void deleteTestFolder(File testFolder) {
+        File[] testFiles = testFolder.listFiles();
+        for(int fidx = 0; testFiles != null && fidx < testFiles.length; fidx++) {
+            testFiles[fidx].delete();
+        }
+        testFolder.delete();
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls the picker through a large folder and checks that the rows are recycled: the number of
+ * rows ever created stays bounded by a screen of rows plus the shared pool, however many are bound.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileRowsRecyclingTest {
+
+    private static String LOGTAG = FileRowsRecyclingTest.class.getSimpleName();
+
+    private static final int TEST_FILES_COUNT = 1500;
+    private static final int SCROLL_STEPS = 60;
+    private static final long PAGE_LOAD_WAIT_MILLIS = 40;
+
+    private File testFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        testFolder = PickerTestFolders.createTestFolder(appContext, "rows-recycling", TEST_FILES_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        FileChooserActivity.initialFileChooserBuilderInst = null;
+        PickerTestFolders.deleteTestFolder(testFolder);
+    }
+
+    @Test
+    public void scrollLargeFolder_recyclesRows() throws InterruptedException {
+        Instrumentation instr = InstrumentationRegistry.getInstrumentation();
+        final int createdRowsAtStart = DisplayAdapters.FileListAdapter.getCreatedRowsCount();
+        final int boundRowsAtStart = DisplayAdapters.FileListAdapter.getBoundRowsCount();
+        final int[] visibleRowsCount = new int[] { 0 };
+        final int[] pooledRowsCount = new int[] { 0 };
+        ActivityScenario<FileChooserActivity> pickerScenario = PickerTestFolders.launchPickerAt(testFolder);
+        try {
+            instr.waitForIdleSync();
+            for(int step = 0; step < 2 * SCROLL_STEPS; step++) {
+                // Down through the folder and then back up again:
+                final boolean scrollDown = step < SCROLL_STEPS;
+                pickerScenario.onActivity(new ActivityScenario.ActivityAction<FileChooserActivity>() {
+                    @Override
+                    public void perform(FileChooserActivity pickerActivity) {
+                        FileChooserRecyclerView mainRecyclerView = pickerActivity.findViewById(R.id.mainRecyclerView);
+                        visibleRowsCount[0] = Math.max(visibleRowsCount[0], mainRecyclerView.getChildCount());
+                        pooledRowsCount[0] = DisplayFragments.getViewportMaxFilesCount(); // The pool capacity per row type
+                        int scrollStep = mainRecyclerView.getHeight() / 2;
+                        mainRecyclerView.scrollBy(0, scrollDown ? scrollStep : -scrollStep);
+                    }
+                });
+                instr.waitForIdleSync();
+                // Let the sliding window load the next page of the folder:
+                Thread.sleep(PAGE_LOAD_WAIT_MILLIS);
+            }
+        } finally {
+            pickerScenario.close();
+        }
+        int createdRowsCount = DisplayAdapters.FileListAdapter.getCreatedRowsCount() - createdRowsAtStart;
+        int boundRowsCount = DisplayAdapters.FileListAdapter.getBoundRowsCount() - boundRowsAtStart;
+        int maxExpectedRows = visibleRowsCount[0] + pooledRowsCount[0] + 4;
+        Log.i(LOGTAG, String.format(Locale.US, "Scrolling created %d rows (%d visible) for %d binds",
+                createdRowsCount, visibleRowsCount[0], boundRowsCount));
+        assertTrue("Rows were bound: " + boundRowsCount, boundRowsCount > 4 * visibleRowsCount[0]);
+        assertTrue("Created " + createdRowsCount + " rows (at most " + maxExpectedRows + " expected)",
+                createdRowsCount <= maxExpectedRows);
+    }
+
+}
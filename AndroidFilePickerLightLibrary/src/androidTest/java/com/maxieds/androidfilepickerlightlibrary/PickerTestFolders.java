@@ -0,0 +1,47 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.content.Context;
+
+import androidx.test.core.app.ActivityScenario;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test folders of empty files in the app's cache directory, and launching the picker on them,
+ * shared by the instrumentation tests.
+ */
+public class PickerTestFolders {
+
+    /* A folder of empty files (all of one row type) in the app's cache directory: */
+    static File createTestFolder(Context appContext, String folderName, int filesCount) throws IOException {
+        File testFolder = new File(appContext.getCacheDir(), folderName);
+        deleteTestFolder(testFolder);
+        assertTrue(testFolder.mkdirs());
+        for(int fidx = 0; fidx < filesCount; fidx++) {
+            File testFile = new File(testFolder, String.format(Locale.US, "file-%05d.txt", fidx));
+            assertTrue(testFile.createNewFile());
+        }
+        return testFolder;
+    }
+
+    static void deleteTestFolder(File testFolder) {
+        File[] testFiles = testFolder.listFiles();
+        for(int fidx = 0; testFiles != null && fidx < testFiles.length; fidx++) {
+            testFiles[fidx].delete();
+        }
+        testFolder.delete();
+    }
+
+    static ActivityScenario<FileChooserActivity> launchPickerAt(File startFolder) {
+        FileChooserBuilder pickerConfig = new FileChooserBuilder(null);
+        pickerConfig.setInitialPathAbsolute(startFolder.getAbsolutePath());
+        pickerConfig.setActivityIdleTimeout(FileChooserBuilder.NO_ABORT_TIMEOUT);
+        FileChooserActivity.initialFileChooserBuilderInst = pickerConfig;
+        return ActivityScenario.launch(FileChooserActivity.class);
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the bounded top-K recent files collector against the full tree PriorityQueue scan that
+ * queryRecentDocuments used before, on a synthetic tree of 200k files, and compares the memory
+ * each allocates and the number of entries each holds on to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecentFilesBenchmarkTest {
+
+    private static String LOGTAG = RecentFilesBenchmarkTest.class.getSimpleName();
+
+    // 50 top-level folders x 20 subfolders x 200 files:
+    private static final int TOP_FOLDERS_COUNT = 50;
+    private static final int SUBFOLDERS_COUNT = 20;
+    private static final int FOLDER_FILES_COUNT = 200;
+    private static final int TREE_FILES_COUNT = TOP_FOLDERS_COUNT * SUBFOLDERS_COUNT * FOLDER_FILES_COUNT;
+    private static final int RECENT_FILES_COUNT = 6;
+    private static final int NEWEST_FILES_COUNT = 3;
+
+    private File treeRoot;
+    private List<File> newestFiles;
+
+    @Before
+    public void setUp() throws IOException {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        treeRoot = new File(appContext.getCacheDir(), "recents-benchmark");
+        deleteRecursively(treeRoot);
+        assertTrue(treeRoot.mkdirs());
+        for(int tidx = 0; tidx < TOP_FOLDERS_COUNT; tidx++) {
+            for(int sidx = 0; sidx < SUBFOLDERS_COUNT; sidx++) {
+                File subfolder = new File(treeRoot, String.format(Locale.US, "top-%02d/sub-%02d", tidx, sidx));
+                assertTrue(subfolder.mkdirs());
+                for(int fidx = 0; fidx < FOLDER_FILES_COUNT; fidx++) {
+                    assertTrue(new File(subfolder, String.format(Locale.US, "file-%03d.dat", fidx)).createNewFile());
+                }
+            }
+        }
+        // A few files (spread across the tree) that are newer than all of the others:
+        newestFiles = new ArrayList<File>();
+        long newestModified = System.currentTimeMillis() + 3600000L;
+        for(int nidx = 0; nidx < NEWEST_FILES_COUNT; nidx++) {
+            File newestFile = new File(treeRoot, String.format(Locale.US, "top-%02d/sub-%02d/file-%03d.dat",
+                    (17 * nidx + 3) % TOP_FOLDERS_COUNT, (7 * nidx + 1) % SUBFOLDERS_COUNT, (31 * nidx) % FOLDER_FILES_COUNT));
+            assertTrue(newestFile.setLastModified(newestModified - 60000L * nidx));
+            newestFiles.add(newestFile);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(treeRoot);
+    }
+
+    private static void deleteRecursively(File fileOnDisk) {
+        File[] folderEntries = fileOnDisk.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            deleteRecursively(folderEntries[fidx]);
+        }
+        fileOnDisk.delete();
+    }
+
+    /* The scan queryRecentDocuments used before: every file goes into an unbounded queue that calls
+     * lastModified() on each comparison. It is ordered most recent first here (the old comparator
+     * was reversed), so that its results can be checked against the top-K collector's:
+     */
+    private static List<File> legacyCollectRecentFiles(File rootFolder, int maxEntries, int[] heldEntriesCount) {
+        PriorityQueue<File> lastModifiedFiles = new PriorityQueue<File>(5, new Comparator<File>() {
+            public int compare(File i, File j) {
+                return Long.compare(j.lastModified(), i.lastModified());
+            }
+        });
+        final LinkedList<File> pending = new LinkedList<File>();
+        pending.add(rootFolder);
+        while(!pending.isEmpty()) {
+            final File file = pending.removeFirst();
+            if(file.isDirectory()) {
+                Collections.addAll(pending, file.listFiles());
+            } else {
+                lastModifiedFiles.add(file);
+            }
+        }
+        heldEntriesCount[0] = lastModifiedFiles.size();
+        List<File> recentFiles = new ArrayList<File>();
+        while(recentFiles.size() < maxEntries && !lastModifiedFiles.isEmpty()) {
+            recentFiles.add(lastModifiedFiles.remove());
+        }
+        return recentFiles;
+    }
+
+    @Test
+    public void collectRecentFiles_againstFullTreeQueue() {
+        RecentFilesCollector recentsCollector = new RecentFilesCollector();
+        // Warm up the class loading and the directory entry caches:
+        recentsCollector.collectRecentFiles(treeRoot, RECENT_FILES_COUNT);
+
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        long startTime = SystemClock.elapsedRealtime();
+        List<RecentFilesCollector.RecentFileEntry> recentEntries = recentsCollector.collectRecentFiles(treeRoot, RECENT_FILES_COUNT);
+        long collectorMillis = SystemClock.elapsedRealtime() - startTime;
+        Debug.stopAllocCounting();
+        long collectorAllocBytes = Debug.getGlobalAllocSize();
+
+        int[] legacyHeldEntries = new int[] { 0 };
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        startTime = SystemClock.elapsedRealtime();
+        List<File> legacyRecentFiles = legacyCollectRecentFiles(treeRoot, RECENT_FILES_COUNT, legacyHeldEntries);
+        long legacyMillis = SystemClock.elapsedRealtime() - startTime;
+        Debug.stopAllocCounting();
+        long legacyAllocBytes = Debug.getGlobalAllocSize();
+
+        Log.i(LOGTAG, String.format(Locale.US, "Top %d of %d files: %d ms, %d KB allocated, %d entries held (full queue: %d ms, %d KB, %d entries)",
+                RECENT_FILES_COUNT, TREE_FILES_COUNT, collectorMillis, collectorAllocBytes / 1024, RECENT_FILES_COUNT,
+                legacyMillis, legacyAllocBytes / 1024, legacyHeldEntries[0]));
+        assertEquals(TREE_FILES_COUNT, legacyHeldEntries[0]);
+        assertEquals(RECENT_FILES_COUNT, recentEntries.size());
+        for(int nidx = 0; nidx < NEWEST_FILES_COUNT; nidx++) {
+            assertEquals(newestFiles.get(nidx), recentEntries.get(nidx).getFile());
+            assertEquals(newestFiles.get(nidx), legacyRecentFiles.get(nidx));
+        }
+    }
+
+}
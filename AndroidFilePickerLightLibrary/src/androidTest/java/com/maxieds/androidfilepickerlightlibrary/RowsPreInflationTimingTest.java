@@ -0,0 +1,97 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from launching the picker to its first bound row being attached, with the rows
+ * pre-inflated in the background at launch and with all of them inflated on the UI thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowsPreInflationTimingTest {
+
+    private static String LOGTAG = RowsPreInflationTimingTest.class.getSimpleName();
+
+    private static final int TEST_FILES_COUNT = 300;
+    private static final int TIMED_LAUNCHES = 5;
+    private static final long FIRST_ROW_TIMEOUT_MILLIS = 10000;
+
+    private File testFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        testFolder = PickerTestFolders.createTestFolder(appContext, "rows-pre-inflation", TEST_FILES_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        DisplayAdapters.RowsPreInflater.getInstance().setPreInflationEnabled(true);
+        FileChooserActivity.initialFileChooserBuilderInst = null;
+        PickerTestFolders.deleteTestFolder(testFolder);
+    }
+
+    /* Returns the milliseconds from the launch to the first row shown: */
+    private long timeLaunchToFirstRow(boolean preInflateRows) throws InterruptedException {
+        Instrumentation instr = InstrumentationRegistry.getInstrumentation();
+        DisplayAdapters.RowsPreInflater rowsPreInflater = DisplayAdapters.RowsPreInflater.getInstance();
+        rowsPreInflater.setPreInflationEnabled(preInflateRows);
+        long launchTime = SystemClock.uptimeMillis();
+        ActivityScenario<FileChooserActivity> pickerScenario = PickerTestFolders.launchPickerAt(testFolder);
+        try {
+            while(rowsPreInflater.getFirstRowShownTime() < launchTime) {
+                assertTrue("No row was shown within " + FIRST_ROW_TIMEOUT_MILLIS + " ms of the launch",
+                        SystemClock.uptimeMillis() - launchTime < FIRST_ROW_TIMEOUT_MILLIS);
+                instr.waitForIdleSync();
+                Thread.sleep(5);
+            }
+            if(!preInflateRows) {
+                assertEquals(0, rowsPreInflater.getTakenRowsCount());
+            }
+            return rowsPreInflater.getFirstRowShownTime() - launchTime;
+        } finally {
+            pickerScenario.close();
+        }
+    }
+
+    private static long getMedian(long[] timings) {
+        long[] sortedTimings = Arrays.copyOf(timings, timings.length);
+        Arrays.sort(sortedTimings);
+        return sortedTimings[sortedTimings.length / 2];
+    }
+
+    @Test
+    public void launchToFirstRow_withAndWithoutPreInflation() throws InterruptedException {
+        // Warm up the process (class loading, resources) before timing anything:
+        timeLaunchToFirstRow(true);
+        long[] preInflatedTimings = new long[TIMED_LAUNCHES];
+        long[] uiThreadTimings = new long[TIMED_LAUNCHES];
+        for(int lidx = 0; lidx < TIMED_LAUNCHES; lidx++) {
+            // Alternated, so that both are measured under the same conditions:
+            preInflatedTimings[lidx] = timeLaunchToFirstRow(true);
+            uiThreadTimings[lidx] = timeLaunchToFirstRow(false);
+        }
+        Log.i(LOGTAG, String.format(Locale.US, "Launch to first row: %d ms median with pre-inflation %s, %d ms median without %s",
+                getMedian(preInflatedTimings), Arrays.toString(preInflatedTimings),
+                getMedian(uiThreadTimings), Arrays.toString(uiThreadTimings)));
+    }
+
+}
@@ -19,12 +19,16 @@ package com.maxieds.androidfilepickerlightlibrary;
 
 import static java.util.Locale.ROOT;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.pm.ProviderInfo;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.Environment;
 import android.os.Handler;
@@ -32,22 +36,19 @@ import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.provider.DocumentsProvider;
 import android.util.Log;
-import android.webkit.MimeTypeMap;
 
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
-import java.util.PriorityQueue;
 import java.util.Set;
 
 /*
@@ -58,7 +59,6 @@ public class BasicFileProvider extends DocumentsProvider {
 
     private static String LOGTAG = BasicFileProvider.class.getSimpleName();
 
-    private static final int MAX_ALLOWED_SEARCH_RESULTS = 20;
     private static final int MAX_ALLOWED_LAST_MODIFIED_FILES = 5;
 
     private static BasicFileProvider fileProviderStaticInst = null;
@@ -110,8 +110,51 @@ public class BasicFileProvider extends DocumentsProvider {
     private FileFilter.FileItemsSortFunc customFolderSort;
     public void setCustomFolderSort(FileFilter.FileItemsSortFunc sortComparisonObj) { customFolderSort = sortComparisonObj; }
 
+    private final FileSearchEngine fileSearchEngine = new FileSearchEngine();
+    private final RecentFilesCollector recentFilesCollector = new RecentFilesCollector();
+    public void setRecentFilesPruneByFolderModifiedTime(boolean enablePruning) {
+        recentFilesCollector.setPruneByFolderModifiedTime(enablePruning);
+    }
+    private int maxSearchResults = FileSearchEngine.DEFAULT_MAX_SEARCH_RESULTS;
+    public int getMaxSearchResults() { return maxSearchResults; }
+    public void setMaxSearchResults(int maxResults) {
+        if(maxResults > 0) {
+            maxSearchResults = maxResults;
+        }
+    }
+
+    private boolean fileNameIndexEnabled = false;
+    private final List<FileNameIndex> fileNameIndexes = new ArrayList<FileNameIndex>();
+    public boolean isFileNameIndexEnabled() { return fileNameIndexEnabled; }
+    public void setFileNameIndexEnabled(boolean enableIndex) { fileNameIndexEnabled = enableIndex; }
+
+    /* Returns the index covering the search folder, and otherwise starts to build one for it in the
+     * background (the search walks the storage until that index is ready):
+     */
+    private FileNameIndex getFileNameIndex(File searchFolder) {
+        if(!fileNameIndexEnabled || getContext() == null) {
+            return null;
+        }
+        synchronized(fileNameIndexes) {
+            for(FileNameIndex fileIndex : fileNameIndexes) {
+                if(fileIndex.coversFolder(searchFolder)) {
+                    return fileIndex;
+                }
+            }
+            FileNameIndex fileIndex = new FileNameIndex(searchFolder, getContext().getNoBackupFilesDir());
+            fileNameIndexes.add(fileIndex);
+            fileIndex.loadInBackground();
+            return fileIndex;
+        }
+    }
+
     private File baseDirPath;
-    private File[] docsQueryFilesList;
+    private FolderSnapshotCache.FolderSnapshot activeFolderSnapshot;
+
+    private final FolderSnapshotCache folderSnapshotCache = new FolderSnapshotCache();
+    public FolderSnapshotCache getFolderSnapshotCache() { return folderSnapshotCache; }
+    public long getFolderSnapshotCacheHits() { return folderSnapshotCache.getCacheHitsCount(); }
+    public long getFolderSnapshotCacheMisses() { return folderSnapshotCache.getCacheMissesCount(); }
 
     /*
      * Other storage related calls in the Context class still supported to look at later:
@@ -261,12 +304,18 @@ public class BasicFileProvider extends DocumentsProvider {
         return false;
     }
 
+    @Override
+    public void attachInfo(Context context, ProviderInfo providerInfo) {
+        super.attachInfo(context, providerInfo);
+        providerAuthority = providerInfo.authority;
+    }
+
     @Override
     public boolean onCreate() {
         if(fileProviderStaticInst == null) {
             fileProviderStaticInst = this;
             updateDocsQueryFilesList = false;
-            docsQueryFilesList = null;
+            activeFolderSnapshot = null;
         }
         if(FileChooserActivity.getInstance() != null) {
             selectBaseDirectoryByType(FileChooserBuilder.BaseFolderPathType.BASE_PATH_DEFAULT);
@@ -350,40 +399,11 @@ public class BasicFileProvider extends DocumentsProvider {
         final MatrixCursor mcResult = new MatrixCursor(resolveDocumentProjection(projection));
         final File parent = getFileForDocId(rootId);
 
-        // Create a queue to store the most recent documents, which orders by last modified.
-        PriorityQueue<File> lastModifiedFiles = new PriorityQueue<File>(5, new Comparator<File>() {
-            public int compare(File i, File j) {
-                return Long.compare(i.lastModified(), j.lastModified());
-            }
-        });
-
-        // Iterate through all files and directories in the file structure under the root.  If
-        // the file is more recent than the least recently modified, add it to the queue,
-        // limiting the number of results.
-        final LinkedList<File> pending = new LinkedList<File>();
-
-        // Start by adding the parent to the list of files to be processed
-        pending.add(parent);
-
-        // Do while we still have unexamined files
-        while (!pending.isEmpty()) {
-            // Take a file from the list of unprocessed files
-            final File file = pending.removeFirst();
-            if (file.isDirectory()) {
-                // If it's a directory, add all its children to the unprocessed list
-                Collections.addAll(pending, file.listFiles());
-            } else {
-                // If it's a file, add it to the ordered queue.
-                lastModifiedFiles.add(file);
-            }
-        }
-
-        // Add the most recent files to the cursor, not exceeding the max number of results.
-        int includedCount = 0;
-        while (includedCount < MAX_ALLOWED_LAST_MODIFIED_FILES + 1 && !lastModifiedFiles.isEmpty()) {
-            final File file = lastModifiedFiles.remove();
-            includeFile(mcResult, null, file);
-            includedCount++;
+        // Keep only the most recently modified files while walking the tree (one bounded heap per
+        // top-level folder, walked in parallel), and add them to the cursor most recent first:
+        List<RecentFilesCollector.RecentFileEntry> recentFiles = recentFilesCollector.collectRecentFiles(parent, MAX_ALLOWED_LAST_MODIFIED_FILES);
+        for(RecentFilesCollector.RecentFileEntry recentEntry : recentFiles) {
+            includeFile(mcResult, null, recentEntry.getFile());
         }
         return mcResult;
     }
@@ -399,30 +419,32 @@ public class BasicFileProvider extends DocumentsProvider {
         final MatrixCursor mcResult = new MatrixCursor(resolveDocumentProjection(projection));
         final File parent = getFileForDocId(rootId);
 
-        // Iterate through all files in the file structure under the root until we reach the
-        // desired number of matches.
-        final LinkedList<File> pending = new LinkedList<File>();
-
-        // Start by adding the parent to the list of files to be processed
-        pending.add(parent);
-
-        // Do while we still have unexamined files, and fewer than the max search results
-        while (!pending.isEmpty() && mcResult.getCount() < MAX_ALLOWED_SEARCH_RESULTS) {
-            // Take a file from the list of unprocessed files
-            final File file = pending.removeFirst();
-            if (file.isDirectory()) {
-                // If it's a directory, add all its children to the unprocessed list
-                Collections.addAll(pending, file.listFiles());
-            } else {
-                // If it's a file and it matches, add it to the result cursor.
-                if (file.getName().toLowerCase().contains(query)) {
-                    includeFile(mcResult, null, file);
-                }
-            }
+        // Answer from the file name index when it is enabled and ready. Otherwise, walk the file
+        // structure under the root in parallel until the walk is done or we reach the configured
+        // number of matches:
+        List<File> searchResults = null;
+        FileNameIndex fileIndex = getFileNameIndex(parent);
+        if(fileIndex != null) {
+            searchResults = fileIndex.searchFiles(parent, query, maxSearchResults);
+        }
+        if(searchResults == null) {
+            searchResults = fileSearchEngine.searchFiles(parent, query, maxSearchResults, null);
+        }
+        for(File fileMatch : searchResults) {
+            includeFile(mcResult, null, fileMatch);
         }
         return mcResult;
     }
 
+    /* Streams the matches of the search to the listener in pages (on the calling thread), stopping
+     * as soon as the signal is cancelled or the listener returns false:
+     */
+    public int searchDocuments(String rootId, String query, int pageSize, CancellationSignal signal,
+                               FileSearchEngine.SearchResultsListener resultsListener) throws FileNotFoundException {
+        final File parent = getFileForDocId(rootId);
+        return fileSearchEngine.searchFiles(parent, query, maxSearchResults, pageSize, signal, resultsListener);
+    }
+
     @Override
     public AssetFileDescriptor openDocumentThumbnail(String documentId, Point sizeHint,
                                                      CancellationSignal signal) throws FileNotFoundException {
@@ -430,11 +452,17 @@ public class BasicFileProvider extends DocumentsProvider {
         if(extDocsProviderStaticInst != null) {
             return extDocsProviderStaticInst.openDocumentThumbnail(documentId, sizeHint, signal);
         }
-        // The document needs to have the flag: FLAG_SUPPORTS_THUMBNAIL ???
-
+        // Only the image documents have the FLAG_SUPPORTS_THUMBNAIL flag set (see fillDocumentRowValues).
+        // Hand back a small JPEG decoded down to the size hint (and cached) instead of the whole file:
         final File file = getFileForDocId(documentId);
-        final ParcelFileDescriptor pfd =
-                ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        ParcelFileDescriptor pfd = null;
+        ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(getContext());
+        if(thumbnailCache != null) {
+            pfd = thumbnailCache.openThumbnailFile(file, sizeHint, signal);
+        }
+        if(pfd == null) {
+            pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
         return new AssetFileDescriptor(pfd, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
 
     }
@@ -461,61 +489,159 @@ public class BasicFileProvider extends DocumentsProvider {
             return extDocsProviderStaticInst.queryChildDocuments(parentDocumentId, projection, sortOrder);
         }
 
-        MatrixCursor mcResult = new MatrixCursor(resolveDocumentProjection(projection));
-        if(updateDocsQueryFilesList || docsQueryFilesList == null) {
-            final File parent = getFileForDocId(parentDocumentId);
-            if(customFileFilter != null) {
-                docsQueryFilesList = parent.listFiles(customFileFilter);
-            }
-            else {
-                docsQueryFilesList = parent.listFiles();
-            }
-            if (docsQueryFilesList == null) {
-                return mcResult;
-            } else if (docsQueryFilesList.length == 0) {
-                return mcResult;
-            }
-            if(customFolderSort != null) {
-                docsQueryFilesList = customFolderSort.sortFileItemsList(docsQueryFilesList);
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = getActiveFolderSnapshot(parentDocumentId);
+        int windowLength = Math.min(getFilesListLength(), folderSnapshot.getFilesCount());
+        int startFileIndex = resolveWindowStartIndex(folderSnapshot, getFilesStartIndex(), windowLength);
+        Cursor result = new WindowedDocumentsCursor(this, folderSnapshot, startFileIndex, windowLength, resolveDocumentProjection(projection));
+        if(!folderSnapshot.isEnumerationComplete()) {
+            setChildDocumentsLoading(result, parentDocumentId, folderSnapshot);
+        }
+        return result;
+
+    }
+
+    private String providerAuthority = null;
+    private FolderSnapshotCache.FolderSnapshot loadingNotifySnapshot = null;
+
+    /* The cursor of a folder that is still being listed only holds the entries listed so far (the
+     * binder thread never waits on the enumeration): flag it as loading, as the DocumentsProvider
+     * contract asks, and notify the client to query again once the first page and then the complete
+     * listing are in:
+     */
+    private void setChildDocumentsLoading(Cursor result, String parentDocumentId, FolderSnapshotCache.FolderSnapshot folderSnapshot) {
+        if(getContext() == null || providerAuthority == null) {
+            return;
+        }
+        final ContentResolver contentResolver = getContext().getContentResolver();
+        final Uri childDocsUri = DocumentsContract.buildChildDocumentsUri(providerAuthority, parentDocumentId);
+        Bundle cursorExtras = new Bundle();
+        cursorExtras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+        result.setExtras(cursorExtras);
+        result.setNotificationUri(contentResolver, childDocsUri);
+        synchronized(this) {
+            if(loadingNotifySnapshot == folderSnapshot) {
+                return; // Already registered by an earlier query of the same listing
             }
+            loadingNotifySnapshot = folderSnapshot;
         }
-        int startFileIndex = getFilesStartIndex();
-        int lastFileIndex = startFileIndex + getFilesListLength();
-        if(lastFileIndex >= docsQueryFilesList.length) {
-            lastFileIndex = docsQueryFilesList.length - 1;
-            startFileIndex = Math.max(0, lastFileIndex + 1 - getFilesListLength());
-        }
-        int curFileIndex = 0;
-        for(File file : docsQueryFilesList) {
-            if(curFileIndex < startFileIndex) {
-                curFileIndex++;
-                continue;
+        folderSnapshot.addEnumerationListener(new FolderSnapshotCache.FolderSnapshot.EnumerationListener() {
+            @Override
+            public void onFirstPageListed(FolderSnapshotCache.FolderSnapshot listedSnapshot) {
+                contentResolver.notifyChange(childDocsUri, null);
             }
-            else if(curFileIndex > lastFileIndex) {
-                break;
+            @Override
+            public void onEnumerationComplete(FolderSnapshotCache.FolderSnapshot listedSnapshot) {
+                contentResolver.notifyChange(childDocsUri, null);
             }
-            includeFile(mcResult, null, file);
-        }
-        return mcResult;
+        });
+    }
 
+    private static int resolveWindowStartIndex(FolderSnapshotCache.FolderSnapshot folderSnapshot, int startFileIndex, int windowLength) {
+        int filesCount = folderSnapshot.getFilesCount();
+        if(startFileIndex + windowLength > filesCount && folderSnapshot.isEnumerationComplete()) {
+            // Keep the full window length by sliding the window back from the end of the folder
+            // (while the folder is still being listed the tail of the window is just not there yet):
+            startFileIndex = Math.max(0, filesCount - windowLength);
+        }
+        return startFileIndex;
     }
 
     public int getFolderChildCount(String folderDocId) throws FileNotFoundException {
-        if(updateDocsQueryFilesList || docsQueryFilesList == null) {
-            final File parent = getFileForDocId(folderDocId);
-            if(customFileFilter != null) {
-                docsQueryFilesList = parent.listFiles(customFileFilter);
-            }
-            else {
-                docsQueryFilesList = parent.listFiles();
+        return getActiveFolderSnapshot(folderDocId).getFilesCount();
+    }
+
+    /* Typed in-process listing for the picker's own display: appends the file items in the current
+     * window of the folder (see setFilesStartIndex and setFilesListLength) to fileItemsList straight
+     * from the folder snapshot. This skips packing each row into cursor columns only to parse the
+     * strings back out again, and reads the attributes of each file with a single stat call.
+     * External callers keep using the DocumentsProvider cursor interface (queryChildDocuments).
+     * Returns the number of items added to the list:
+     */
+    public int getChildFileTypes(String parentDocumentId, DisplayTypes.DirectoryResultContext parentFolderCtx,
+                                 List<DisplayTypes.FileType> fileItemsList) throws FileNotFoundException {
+
+        if(extDocsProviderStaticInst != null) {
+            return getChildFileTypesFromCursor(parentDocumentId, parentFolderCtx, fileItemsList);
+        }
+
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = getActiveFolderSnapshot(parentDocumentId);
+        int windowLength = Math.min(getFilesListLength(), folderSnapshot.getFilesCount());
+        int startFileIndex = resolveWindowStartIndex(folderSnapshot, getFilesStartIndex(), windowLength);
+        FileUtils.FileAttributes fileAttrs = new FileUtils.FileAttributes();
+        int itemsAddedCount = 0;
+        for(int fileIndex = startFileIndex; fileIndex < startFileIndex + windowLength; fileIndex++) {
+            File nextFile = folderSnapshot.getFileAtIndex(fileIndex);
+            if(nextFile == null) {
+                break;
             }
-            if(customFolderSort != null) {
-                docsQueryFilesList = customFolderSort.sortFileItemsList(docsQueryFilesList);
+            fileAttrs.loadAttributes(nextFile);
+            String fileBaseName = nextFile.getName();
+            DisplayTypes.FileType fileItem = new DisplayTypes.FileType(
+                    nextFile.getAbsolutePath(),
+                    FileUtils.getFileSizeString(fileAttrs.getFileSize()),
+                    fileAttrs.getPosixPermissionsString(),
+                    fileAttrs.isDirectory(),
+                    fileBaseName.startsWith("."),
+                    getDocIdForFile(nextFile),
+                    parentFolderCtx
+            );
+            fileItem.setFolderIndex(fileIndex);
+            fileItem.setFileAttributes(fileAttrs);
+            fileItem.precomputeDisplayLabels();
+            fileItemsList.add(fileItem);
+            itemsAddedCount++;
+        }
+        return itemsAddedCount;
+
+    }
+
+    private int getChildFileTypesFromCursor(String parentDocumentId, DisplayTypes.DirectoryResultContext parentFolderCtx,
+                                            List<DisplayTypes.FileType> fileItemsList) throws FileNotFoundException {
+        Cursor childDocsCursor = queryChildDocuments(parentDocumentId, DEFAULT_DOCUMENT_PROJECTION, "");
+        int itemsAddedCount = 0;
+        try {
+            while(childDocsCursor.moveToNext()) {
+                String[] filePropertiesList = getPropertiesOfCurrentRow(childDocsCursor, !CURSOR_TYPE_IS_ROOT);
+                if(filePropertiesList == null) {
+                    continue;
+                }
+                DisplayTypes.FileType fileItem = new DisplayTypes.FileType(
+                        filePropertiesList[PROPERTY_ABSPATH],
+                        filePropertiesList[PROPERTY_FILE_SIZE],
+                        filePropertiesList[PROPERTY_POSIX_PERMS],
+                        Boolean.parseBoolean(filePropertiesList[PROPERTY_ISDIR]),
+                        Boolean.parseBoolean(filePropertiesList[PROPERTY_ISHIDDEN]),
+                        filePropertiesList[PROPERTY_FILE_PROVIDER_DOCID],
+                        parentFolderCtx
+                );
+                fileItem.precomputeDisplayLabels();
+                fileItemsList.add(fileItem);
+                itemsAddedCount++;
             }
+        } finally {
+            childDocsCursor.close();
         }
-        return docsQueryFilesList.length;
+        return itemsAddedCount;
     }
 
+    /* Resolves the (filtered and sorted) listing of the folder through the snapshot cache.
+     * The active snapshot is reused without touching the disk while the caller has
+     * requested no updates for the same folder, otherwise the cached copy is revalidated
+     * against the folder's last modified time before it is reused. A new listing is returned
+     * as soon as the requested window is available (the rest is enumerated in the background):
+     */
+    private FolderSnapshotCache.FolderSnapshot getActiveFolderSnapshot(String folderDocId) throws FileNotFoundException {
+        final File parent = getFileForDocId(folderDocId);
+        if(updateDocsQueryFilesList || activeFolderSnapshot == null ||
+           !activeFolderSnapshot.isListingOf(parent, customFileFilter, customFolderSort)) {
+            int firstPageSize = Math.max(getFilesStartIndex() + getFilesListLength(), DisplayFragments.DEFAULT_VIEWPORT_FILE_ITEMS_COUNT);
+            activeFolderSnapshot = folderSnapshotCache.getFolderSnapshot(parent, customFileFilter, customFolderSort, firstPageSize);
+        }
+        return activeFolderSnapshot;
+    }
+
+    public FolderSnapshotCache.FolderSnapshot getActiveFolderSnapshot() { return activeFolderSnapshot; }
+
     @Override
     public ParcelFileDescriptor openDocument(final String documentId, final String mode,
                                              CancellationSignal signal) throws FileNotFoundException {
@@ -592,13 +718,9 @@ public class BasicFileProvider extends DocumentsProvider {
     }
 
     private static String getTypeForName(String name) {
-        final int lastDot = name.lastIndexOf('.');
-        if (lastDot >= 0) {
-            final String extension = name.substring(lastDot + 1);
-            final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
-            if (mime != null) {
-                return mime;
-            }
+        final String mime = MimeTypeCache.getMimeTypeForPath(name);
+        if (mime != null) {
+            return mime;
         }
         return "application/octet-stream";
     }
@@ -638,59 +760,134 @@ public class BasicFileProvider extends DocumentsProvider {
     }
 
     private void includeFile(MatrixCursor result, String docId, File file) throws FileNotFoundException {
-        if (docId == null) {
-            docId = getDocIdForFile(file);
-        } else {
+        if (docId != null) {
             file = getFileForDocId(docId);
         }
+        String[] columnNames = result.getColumnNames();
+        Object[] rowValues = new Object[columnNames.length];
+        fillDocumentRowValues(file, columnNames, rowValues);
+        result.addRow(rowValues);
+    }
 
-        int flags = 0;
-
-        if (file.isDirectory()) {
-            // Request the folder to lay out as a grid rather than a list. This also allows a larger
-            // thumbnail to be displayed for each image.
-            //            flags |= Document.FLAG_DIR_PREFERS_GRID;
-
-            // Add FLAG_DIR_SUPPORTS_CREATE if the file is a writable directory.
-            if (file.isDirectory() && file.canWrite()) {
-                flags |= DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE;
+    /* Computes the values of the requested columns for a single document row. Column names
+     * that are not known to this provider are left as null (which mirrors how a MatrixCursor
+     * row builder silently ignores unknown column names).
+     * The file attributes are read with (at most) a single stat call, and only when one of the
+     * requested columns needs them. The write access check behind the document flags is the
+     * only other call that goes to the disk, and only when the flags column was requested:
+     */
+    public void fillDocumentRowValues(File file, String[] columnNames, Object[] rowValues, FileUtils.FileAttributes fileAttrs) {
+
+        boolean needsFileAttrs = false, needsFlags = false;
+        for(String columnName : columnNames) {
+            switch(columnName) {
+                case DocumentsContract.Document.COLUMN_FLAGS:
+                    needsFlags = true;
+                    needsFileAttrs = true;
+                    break;
+                case DocumentsContract.Document.COLUMN_SIZE:
+                case DocumentsContract.Document.COLUMN_MIME_TYPE:
+                case DocumentsContract.Document.COLUMN_LAST_MODIFIED:
+                case DOCUMENT_COLUMN_NAME_FILE_SIZE_LABEL:
+                case DOCUMENT_COLUMN_NAME_POSIX_PERMS:
+                case DOCUMENT_COLUMN_NAME_ISDIR:
+                    needsFileAttrs = true;
+                    break;
+                default:
+                    break;
             }
-        } else if (file.canWrite()) {
-            // If the file is writable set FLAG_SUPPORTS_WRITE and
-            // FLAG_SUPPORTS_DELETE
-            flags |= DocumentsContract.Document.FLAG_SUPPORTS_WRITE;
-            flags |= DocumentsContract.Document.FLAG_SUPPORTS_DELETE;
+        }
+        if(needsFileAttrs) {
+            fileAttrs.loadAttributes(file);
+        }
+        else {
+            fileAttrs.clear();
         }
 
         final String displayName = file.getName();
-        final String mimeType = getTypeForFile(file);
+        final boolean isDir = fileAttrs.isDirectory();
+        String mimeType = null;
+        int flags = 0;
 
-        if (mimeType.startsWith("image/")) {
-            // Allow the image to be represented by a thumbnail rather than an icon
-            flags |= DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL;
+        if(needsFlags) {
+            if (isDir) {
+                // Request the folder to lay out as a grid rather than a list. This also allows a larger
+                // thumbnail to be displayed for each image.
+                //            flags |= Document.FLAG_DIR_PREFERS_GRID;
+
+                // Add FLAG_DIR_SUPPORTS_CREATE if the file is a writable directory.
+                if (file.canWrite()) {
+                    flags |= DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE;
+                }
+            } else if (file.canWrite()) {
+                // If the file is writable set FLAG_SUPPORTS_WRITE and
+                // FLAG_SUPPORTS_DELETE
+                flags |= DocumentsContract.Document.FLAG_SUPPORTS_WRITE;
+                flags |= DocumentsContract.Document.FLAG_SUPPORTS_DELETE;
+            }
+            mimeType = isDir ? DocumentsContract.Document.MIME_TYPE_DIR : getTypeForName(displayName);
+            if (mimeType.startsWith("image/")) {
+                // Allow the image to be represented by a thumbnail rather than an icon
+                flags |= DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL;
+            }
         }
 
-        final MatrixCursor.RowBuilder row = result.newRow();
-        row.add(DocumentsContract.Document.COLUMN_DOCUMENT_ID, docId);
-        row.add(DocumentsContract.Document.COLUMN_DISPLAY_NAME, displayName);
-        row.add(DocumentsContract.Document.COLUMN_SIZE, file.length());
-        row.add(DocumentsContract.Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(DocumentsContract.Document.COLUMN_LAST_MODIFIED, file.lastModified());
-        row.add(DocumentsContract.Document.COLUMN_FLAGS, flags);
-        row.add(DocumentsContract.Document.COLUMN_ICON, R.drawable.library_profile_icon_round_background);
-        // Custom columns:
-        row.add(DOCUMENT_COLUMN_NAME_ABSPATH, file.getAbsolutePath());
-        row.add(DOCUMENT_COLUMN_NAME_FILE_SIZE_LABEL, FileUtils.getFileSizeString(file));
-        try {
-            row.add(DOCUMENT_COLUMN_NAME_POSIX_PERMS, FileUtils.getFilePosixPermissionsString(file.toPath()));
-        } catch(Exception ex) {
-            row.add(DOCUMENT_COLUMN_NAME_POSIX_PERMS, "---------");
+        for(int colIdx = 0; colIdx < columnNames.length; colIdx++) {
+            Object columnValue = null;
+            switch(columnNames[colIdx]) {
+                case DocumentsContract.Document.COLUMN_DOCUMENT_ID:
+                    columnValue = getDocIdForFile(file);
+                    break;
+                case DocumentsContract.Document.COLUMN_DISPLAY_NAME:
+                    columnValue = displayName;
+                    break;
+                case DocumentsContract.Document.COLUMN_SIZE:
+                    columnValue = fileAttrs.getFileSize();
+                    break;
+                case DocumentsContract.Document.COLUMN_MIME_TYPE:
+                    if(mimeType == null) {
+                        mimeType = isDir ? DocumentsContract.Document.MIME_TYPE_DIR : getTypeForName(displayName);
+                    }
+                    columnValue = mimeType;
+                    break;
+                case DocumentsContract.Document.COLUMN_LAST_MODIFIED:
+                    columnValue = fileAttrs.getLastModified();
+                    break;
+                case DocumentsContract.Document.COLUMN_FLAGS:
+                    columnValue = flags;
+                    break;
+                case DocumentsContract.Document.COLUMN_ICON:
+                    columnValue = R.drawable.library_profile_icon_round_background;
+                    break;
+                // Custom columns:
+                case DOCUMENT_COLUMN_NAME_ABSPATH:
+                    columnValue = file.getAbsolutePath();
+                    break;
+                case DOCUMENT_COLUMN_NAME_FILE_SIZE_LABEL:
+                    columnValue = FileUtils.getFileSizeString(fileAttrs.getFileSize());
+                    break;
+                case DOCUMENT_COLUMN_NAME_POSIX_PERMS:
+                    columnValue = fileAttrs.getPosixPermissionsString();
+                    break;
+                case DOCUMENT_COLUMN_NAME_ISDIR:
+                    columnValue = isDir ? "true" : "false";
+                    break;
+                case DOCUMENT_COLUMN_NAME_ISHIDDEN:
+                    // Same test as File.isHidden() on UNIX file systems, without the extra call:
+                    columnValue = displayName.startsWith(".") ? "true" : "false";
+                    break;
+                default:
+                    break;
+            }
+            rowValues[colIdx] = columnValue;
         }
-        row.add(DOCUMENT_COLUMN_NAME_ISDIR, file.isDirectory() ? "true" : "false");
-        row.add(DOCUMENT_COLUMN_NAME_ISHIDDEN, file.isHidden() ? "true" : "false");
 
     }
 
+    public void fillDocumentRowValues(File file, String[] columnNames, Object[] rowValues) {
+        fillDocumentRowValues(file, columnNames, rowValues, new FileUtils.FileAttributes());
+    }
+
     private File getFileForDocId(String docId) throws FileNotFoundException {
         File target = baseDirPath;
         if (docId.equals(ROOT)) {
@@ -716,7 +913,7 @@ public class BasicFileProvider extends DocumentsProvider {
 
     public static final boolean CURSOR_TYPE_IS_ROOT = true;
 
-    private static String getDocumentIdForCursorType(MatrixCursor mcResult, boolean cursorType) {
+    private static String getDocumentIdForCursorType(Cursor mcResult, boolean cursorType) {
         if(mcResult.getCount() == 0) {
             return null;
         }
@@ -734,7 +931,7 @@ public class BasicFileProvider extends DocumentsProvider {
         return null;
     }
 
-    public String getAbsPathAtCurrentRow(MatrixCursor mcResult, boolean cursorType) {
+    public String getAbsPathAtCurrentRow(Cursor mcResult, boolean cursorType) {
         if(mcResult.getCount() == 0) {
             return null;
         }
@@ -748,7 +945,7 @@ public class BasicFileProvider extends DocumentsProvider {
         }
     }
 
-    public String getBaseNameAtCurrentRow(MatrixCursor mcResult, boolean cursorType) {
+    public String getBaseNameAtCurrentRow(Cursor mcResult, boolean cursorType) {
         if(mcResult.getCount() == 0) {
             return null;
         }
@@ -769,7 +966,7 @@ public class BasicFileProvider extends DocumentsProvider {
     public static final int PROPERTY_ISDIR = 4;
     public static final int PROPERTY_ISHIDDEN = 5;
 
-    public String[] getPropertiesOfCurrentRow(MatrixCursor mcResult, boolean cursorType) {
+    public String[] getPropertiesOfCurrentRow(Cursor mcResult, boolean cursorType) {
         if(mcResult.getCount() == 0) {
             return null;
         }
@@ -802,28 +999,23 @@ public class BasicFileProvider extends DocumentsProvider {
         }
     }
 
-    private static final int BYTE_BUFFER_SIZE = 128;
-
+    /* Decodes (at most) maxBytes bytes of the document from the byte offset as UTF-8: */
     public StringBuilder readFileContentsAsString(final String documentId, int offset, int maxBytes) {
+        return readFileContentsAsString(documentId, offset, maxBytes, FileContentsReader.DEFAULT_CHARSET);
+    }
+
+    public StringBuilder readFileContentsAsString(final String documentId, long offset, int maxBytes, Charset charset) {
         if(offset < 0 || maxBytes <= 0) {
             return null;
         }
         try {
             ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
-            FileDescriptor fd = docDesc.getFileDescriptor();
-            FileInputStream inputStream = new FileInputStream(fd);
-            StringBuilder sbuilder = new StringBuilder();
-            byte[] byteBuf = new byte[BYTE_BUFFER_SIZE];
-            int bytesRead = inputStream.read(byteBuf, offset, Math.min(maxBytes, BYTE_BUFFER_SIZE));
-            while(bytesRead > 0) {
-                maxBytes -= bytesRead;
-                byte[] bytesReadBuf = Arrays.copyOf(byteBuf, bytesRead);
-                sbuilder.append(new String(bytesReadBuf));
-                bytesRead = inputStream.read(byteBuf, 0, Math.min(maxBytes, BYTE_BUFFER_SIZE));
+            FileChannel docChannel = FileContentsReader.openChannel(docDesc);
+            try {
+                return new StringBuilder(FileContentsReader.decodeRange(docChannel, charset, offset, maxBytes));
+            } finally {
+                docChannel.close();
             }
-            inputStream.close();
-            docDesc.close();
-            return sbuilder;
         } catch(FileNotFoundException fnfe) {
             fnfe.printStackTrace();
             return null;
@@ -833,33 +1025,85 @@ public class BasicFileProvider extends DocumentsProvider {
         }
     }
 
-    public byte[] readFileContentsAsByteArray(final String documentId, int offset, int maxBytes) {
+    /* Streams the lines of the document. The caller must close the iterator if it stops before the
+     * end of the file:
+     */
+    public FileContentsReader.LineIterator readFileContentsAsLines(final String documentId, Charset charset) {
+        try {
+            ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
+            return new FileContentsReader.LineIterator(FileContentsReader.openChannel(docDesc), charset);
+        } catch(FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+            return null;
+        }
+    }
+
+    public List<String> readFirstLines(final String documentId, int maxLines, Charset charset) {
+        try {
+            ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
+            return FileContentsReader.readFirstLines(FileContentsReader.openChannel(docDesc), charset, maxLines);
+        } catch(FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+            return null;
+        }
+    }
+
+    public List<String> readLastLines(final String documentId, int maxLines, Charset charset) {
+        try {
+            ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
+            return FileContentsReader.readLastLines(FileContentsReader.openChannel(docDesc), charset, maxLines);
+        } catch(FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+            return null;
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    /* The offset is a position in the document. Returns a read-only buffer with the (at most maxBytes)
+     * bytes from there to the end of the file, which is memory mapped for the large ranges
+     * (see FileContentsReader):
+     */
+    public ByteBuffer readFileContentsAsByteBuffer(final String documentId, long offset, int maxBytes) {
         if(offset < 0 || maxBytes <= 0) {
             return null;
         }
         try {
             ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
-            FileDescriptor fd = docDesc.getFileDescriptor();
-            FileInputStream inputStream = new FileInputStream(fd);
-            int actualSize = 0, bufCapacity = BYTE_BUFFER_SIZE;
-            byte[] returnBuf = new byte[BYTE_BUFFER_SIZE], byteBuf = new byte[BYTE_BUFFER_SIZE];
-            int bytesRead = inputStream.read(byteBuf, offset, Math.min(maxBytes, BYTE_BUFFER_SIZE));
-            while(bytesRead > 0) {
-                maxBytes -= bytesRead;
-                byte[] bytesReadBuf = Arrays.copyOf(byteBuf, bytesRead);
-                System.arraycopy(returnBuf, actualSize, bytesReadBuf, 0, bytesRead);
-                actualSize += bytesRead;
-                if(actualSize >= bufCapacity) {
-                    bufCapacity *= 2;
-                    byte[] nextReturnBuf = new byte[bufCapacity];
-                    System.arraycopy(nextReturnBuf, 0, returnBuf, 0, actualSize);
-                    returnBuf = nextReturnBuf;
-                }
-                bytesRead = inputStream.read(byteBuf, 0, Math.min(maxBytes, BYTE_BUFFER_SIZE));
+            FileChannel docChannel = FileContentsReader.openChannel(docDesc);
+            try {
+                return FileContentsReader.readRange(docChannel, offset, maxBytes);
+            } finally {
+                docChannel.close();
             }
-            inputStream.close();
-            docDesc.close();
-            return Arrays.copyOf(returnBuf, actualSize);
+        } catch(FileNotFoundException fnfe) {
+            fnfe.printStackTrace();
+            return null;
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return null;
+        }
+    }
+
+    public byte[] readFileContentsAsByteArray(final String documentId, int offset, int maxBytes) {
+        ByteBuffer contentsBuf = readFileContentsAsByteBuffer(documentId, offset, maxBytes);
+        if(contentsBuf == null) {
+            return null;
+        }
+        return FileContentsReader.toByteArray(contentsBuf);
+    }
+
+    /* Streams the document from the offset in chunks of chunkSize bytes. The caller must close the
+     * iterator if it stops before the end of the file:
+     */
+    public FileContentsReader.FileChunkIterator readFileContentsInChunks(final String documentId, long offset, int chunkSize) {
+        if(offset < 0 || chunkSize <= 0) {
+            return null;
+        }
+        try {
+            ParcelFileDescriptor docDesc = openDocument(documentId, "r", null);
+            return new FileContentsReader.FileChunkIterator(FileContentsReader.openChannel(docDesc), offset, -1L, chunkSize);
         } catch(FileNotFoundException fnfe) {
             fnfe.printStackTrace();
             return null;
@@ -975,6 +1219,27 @@ public class BasicFileProvider extends DocumentsProvider {
             return readFileContentsAsString(0, Integer.MAX_VALUE);
         }
 
+        public FileContentsReader.LineIterator readFileContentsAsLines() {
+            if(!isValid() || documentId == null) {
+                return null;
+            }
+            return fpInst.readFileContentsAsLines(documentId, FileContentsReader.DEFAULT_CHARSET);
+        }
+
+        public List<String> readFirstLines(int maxLines) {
+            if(!isValid() || documentId == null) {
+                return null;
+            }
+            return fpInst.readFirstLines(documentId, maxLines, FileContentsReader.DEFAULT_CHARSET);
+        }
+
+        public List<String> readLastLines(int maxLines) {
+            if(!isValid() || documentId == null) {
+                return null;
+            }
+            return fpInst.readLastLines(documentId, maxLines, FileContentsReader.DEFAULT_CHARSET);
+        }
+
         public byte[] readFileContentsAsByteArray(int offset, int maxBytes) {
             if(!isValid() || documentId == null) {
                 return null;
@@ -986,6 +1251,24 @@ public class BasicFileProvider extends DocumentsProvider {
             return readFileContentsAsByteArray(0, Integer.MAX_VALUE);
         }
 
+        public ByteBuffer readFileContentsAsByteBuffer(long offset, int maxBytes) {
+            if(!isValid() || documentId == null) {
+                return null;
+            }
+            return fpInst.readFileContentsAsByteBuffer(documentId, offset, maxBytes);
+        }
+
+        public FileContentsReader.FileChunkIterator readFileContentsInChunks(int chunkSize) {
+            if(!isValid() || documentId == null) {
+                return null;
+            }
+            return fpInst.readFileContentsInChunks(documentId, 0L, chunkSize);
+        }
+
+        public FileContentsReader.FileChunkIterator readFileContentsInChunks() {
+            return readFileContentsInChunks(FileContentsReader.DEFAULT_CHUNK_SIZE);
+        }
+
     }
 
 }
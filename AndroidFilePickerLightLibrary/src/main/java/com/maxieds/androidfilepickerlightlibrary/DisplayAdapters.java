@@ -17,6 +17,8 @@
 
 package com.maxieds.androidfilepickerlightlibrary;
 
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.LayoutInflater;
@@ -25,102 +27,320 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.ImageView;
+import android.widget.TextView;
 
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DisplayAdapters {
 
     private static String LOGTAG = DisplayAdapters.class.getSimpleName();
 
+    /* The adapter keeps its file items in an AsyncListDiffer: each new window of the folder is diffed
+     * against the displayed one on a background thread, and only the rows that entered or left
+     * the window (or whose displayed contents changed) are rebound. Rows are matched by the
+     * provider document id, falling back to the absolute path for items without one:
+     */
+    public static final DiffUtil.ItemCallback<DisplayTypes.FileType> FILE_ITEM_DIFF_CALLBACK = new DiffUtil.ItemCallback<DisplayTypes.FileType>() {
+        @Override
+        public boolean areItemsTheSame(DisplayTypes.FileType oldItem, DisplayTypes.FileType newItem) {
+            String oldDocId = oldItem.getFileProviderDocumentId();
+            String newDocId = newItem.getFileProviderDocumentId();
+            if(oldDocId != null && newDocId != null) {
+                return oldDocId.equals(newDocId);
+            }
+            return oldItem.getAbsolutePath().equals(newItem.getAbsolutePath());
+        }
+        @Override
+        public boolean areContentsTheSame(DisplayTypes.FileType oldItem, DisplayTypes.FileType newItem) {
+            if(oldItem == newItem) {
+                return true;
+            }
+            return oldItem.isDirectory() == newItem.isDirectory() &&
+                    oldItem.isHidden() == newItem.isHidden() &&
+                    TextUtils.equals(oldItem.getFileSizeString(), newItem.getFileSizeString()) &&
+                    TextUtils.equals(oldItem.getPosixPermissions(), newItem.getPosixPermissions());
+        }
+    };
+
     public static class FileListAdapter extends RecyclerView.Adapter<BaseViewHolder> {
 
         private static String LOGTAG = FileListAdapter.class.getSimpleName();
 
-        private List<String> fileListData;
-        private List<DisplayTypes.FileType> fileItemsData;
+        private final AsyncListDiffer<DisplayTypes.FileType> fileItemsDiffer;
+        private int submittedListsCount;
+        private int committedListsCount;
 
-        public FileListAdapter(List<String> nextFileListData, List<DisplayTypes.FileType> nextFileItemsData) {
-            this.fileListData = new ArrayList<String>();
-            this.fileItemsData = new ArrayList<DisplayTypes.FileType>();
+        public FileListAdapter(List<DisplayTypes.FileType> nextFileItemsData) {
+            this.fileItemsDiffer = new AsyncListDiffer<DisplayTypes.FileType>(this, FILE_ITEM_DIFF_CALLBACK);
+            this.submittedListsCount = this.committedListsCount = 0;
             this.setHasStableIds(true);
-            reloadDataSets(nextFileListData, nextFileItemsData, false);
+            submitFileItems(nextFileItemsData);
         }
 
-        public void reloadDataSets(List<String> nextDataSet, List<DisplayTypes.FileType> nextFileItemsData, boolean notifyAdapter) {
-            if(fileListData != nextDataSet) {
-                fileListData.clear();
-                fileListData.addAll(nextDataSet);
-            }
-            if(fileItemsData != nextFileItemsData) {
-                fileItemsData.clear();
-                fileItemsData.addAll(nextFileItemsData);
-            }
-            if(notifyAdapter) {
-                notifyDataSetChanged();
-            }
+        /* Posts the next window of file items to display. The list is copied (the differ requires an
+         * immutable snapshot of each submitted list), and the optional callback runs on the UI thread
+         * once the diff has been dispatched to the RecyclerView. A newer submission supersedes an
+         * older one whose diff is still being computed (the callback of the older one is not run):
+         */
+        public void submitFileItems(List<DisplayTypes.FileType> nextFileItemsData, final Runnable commitCallback) {
+            List<DisplayTypes.FileType> nextFileItemsList = nextFileItemsData == null ? null :
+                    Collections.unmodifiableList(new ArrayList<DisplayTypes.FileType>(nextFileItemsData));
+            final int submittedListIndex = ++submittedListsCount;
+            fileItemsDiffer.submitList(nextFileItemsList, new Runnable() {
+                @Override
+                public void run() {
+                    committedListsCount = submittedListIndex;
+                    if(commitCallback != null) {
+                        commitCallback.run();
+                    }
+                }
+            });
         }
 
-        public void reloadDataSets(List<String> nextDataSet, List<DisplayTypes.FileType> nextFileItemsData) {
-            reloadDataSets(nextDataSet, nextFileItemsData, true);
+        public void submitFileItems(List<DisplayTypes.FileType> nextFileItemsData) {
+            submitFileItems(nextFileItemsData, null);
+        }
+
+        /* Removes all rows right away (used when switching folders, where there is nothing to diff against): */
+        public void clearFileItems() {
+            submitFileItems(null, null);
+        }
+
+        public boolean hasPendingUpdates() {
+            return committedListsCount != submittedListsCount;
+        }
+
+        public List<DisplayTypes.FileType> getCurrentFileItems() {
+            return fileItemsDiffer.getCurrentList();
         }
 
         public DisplayTypes.FileType getFileItemByIndex(int indexPos) {
+            List<DisplayTypes.FileType> fileItemsData = fileItemsDiffer.getCurrentList();
             if(indexPos < 0 || indexPos >= fileItemsData.size()) {
                 return null;
             }
             return fileItemsData.get(indexPos);
         }
 
-        private static final int VIEW_TYPE_FILE_ITEM = 0;
+        /* Rows are typed by their kind rather than by position, so that any row scrolled off screen can be
+         * rebound to the next item of the same kind instead of inflating a new row. Folders and files
+         * are kept apart since their rows differ in which parts are shown (e.g., the selection box when
+         * only one of the two kinds can be selected):
+         */
+        public static final int VIEW_TYPE_FOLDER_ITEM = 0;
+        public static final int VIEW_TYPE_FILE_ITEM = 1;
+        public static final int[] VIEW_TYPES = new int[] { VIEW_TYPE_FOLDER_ITEM, VIEW_TYPE_FILE_ITEM };
+
+        /* Counters for checking that the rows are recycled (UI thread only; see the scroll
+         * statistics logged by FileChooserRecyclerView):
+         */
+        private static int inflatedRowsCount = 0;
+        private static int createdRowsCount = 0;
+        private static int boundRowsCount = 0;
+
+        public static int getInflatedRowsCount() { return inflatedRowsCount; }
+        public static int getCreatedRowsCount() { return createdRowsCount; } // Including the pre-inflated rows
+        public static int getBoundRowsCount() { return boundRowsCount; }
 
         @Override
         public BaseViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            View rowItem = LayoutInflater.from(parent.getContext()).inflate(R.layout.single_file_entry_item, parent, false);
+            // Take one of the rows inflated in the background at launch before inflating a new one:
+            View rowItem = RowsPreInflater.getInstance().pollPreInflatedRow();
+            if(rowItem == null) {
+                rowItem = LayoutInflater.from(parent.getContext()).inflate(R.layout.single_file_entry_item, parent, false);
+                inflatedRowsCount++;
+            }
+            createdRowsCount++;
             return new BaseViewHolder(rowItem);
         }
 
         @Override
         public void onBindViewHolder(BaseViewHolder bvHolder, int posIndex) {
+            boundRowsCount++;
             bvHolder.setInitialIndexPosition(posIndex);
-            if(!fileItemsData.isEmpty()) {
-                DisplayTypes.FileType fileItem = fileItemsData.get(posIndex);
+            DisplayTypes.FileType fileItem = getFileItemByIndex(posIndex);
+            if(fileItem != null) {
                 fileItem.setLayoutContainer(bvHolder.getMainViewLayoutContainer());
-                View viewItemContainer = bvHolder.getMainViewLayoutContainer();
-                DisplayFragments.FileItemFragment.resetLayout(viewItemContainer, fileItem, posIndex);
+                DisplayFragments.FileItemFragment.resetLayout(bvHolder, fileItem);
             }
             //Log.i(LOGTAG, String.format(Locale.getDefault(), "onBindViewHolder @ %d -- (ADAPTER -> %s) [DATA ITEMS SIZE = %d]", posIndex,
-            //        fileListData.get(posIndex), fileItemsData.size()));
+            //        fileItem.getBaseName(), getItemCount()));
         }
 
         @Override
-        public void onViewRecycled(BaseViewHolder bvHolder) {}
+        public void onViewRecycled(BaseViewHolder bvHolder) {
+            // Drop the thumbnail decode still pending for the row that scrolled off screen:
+            ImageView fileTypeIcon = bvHolder.getFileTypeIconView();
+            ThumbnailCache thumbnailCache = ThumbnailCache.getInstance(bvHolder.getMainViewLayoutContainer().getContext());
+            if(fileTypeIcon != null && thumbnailCache != null) {
+                thumbnailCache.cancelThumbnailLoad(fileTypeIcon);
+            }
+        }
 
         @Override
         public void onViewDetachedFromWindow(BaseViewHolder bvHolder) {}
 
         @Override
-        public void onViewAttachedToWindow(BaseViewHolder bvHolder) {}
+        public void onViewAttachedToWindow(BaseViewHolder bvHolder) {
+            RowsPreInflater.getInstance().notifyFirstRowAttached();
+        }
 
         @Override
         public int getItemCount() {
-            return fileListData.size();
+            return fileItemsDiffer.getCurrentList().size();
         }
 
         @Override
         public long getItemId(int posIndex) {
-            if(posIndex < fileListData.size()) {
-                return fileListData.get(posIndex).hashCode();
+            DisplayTypes.FileType fileItem = getFileItemByIndex(posIndex);
+            if(fileItem != null) {
+                return fileItem.getStableItemId();
             }
-            return posIndex;
+            return RecyclerView.NO_ID;
         }
 
         @Override
         public int getItemViewType(int posIndex) {
-            return posIndex;
+            DisplayTypes.FileType fileItem = getFileItemByIndex(posIndex);
+            return fileItem != null && fileItem.isDirectory() ? VIEW_TYPE_FOLDER_ITEM : VIEW_TYPE_FILE_ITEM;
+        }
+
+    }
+
+    /* Inflates the first screens of file item rows on a background thread while the picker is still
+     * launching (mostly, while the initial folder is queried on the UI thread), so that the first layout
+     * of the list only has to bind them. Rows that are not ready by the time they are needed are
+     * inflated on the UI thread as before. The timings from the launch to the first row shown (and how
+     * many of the rows came from the background) are logged to compare against the old behavior:
+     */
+    public static class RowsPreInflater {
+
+        private static String LOGTAG = RowsPreInflater.class.getSimpleName();
+
+        private static final RowsPreInflater localStaticInst = new RowsPreInflater();
+
+        public static RowsPreInflater getInstance() { return localStaticInst; }
+
+        private final ConcurrentLinkedQueue<View> preInflatedRows;
+        private AtomicBoolean cancelPreInflation;
+        private long launchStartTime;
+        private int launchInflatedRowsCount;
+        private int takenRowsCount;
+        private boolean firstRowAttached;
+        private volatile long firstRowShownTime; // Read by the launch timing tests
+        private volatile boolean preInflationEnabled;
+
+        private RowsPreInflater() {
+            preInflatedRows = new ConcurrentLinkedQueue<View>();
+            cancelPreInflation = new AtomicBoolean(false);
+            launchStartTime = firstRowShownTime = 0L;
+            launchInflatedRowsCount = takenRowsCount = 0;
+            firstRowAttached = true;
+            preInflationEnabled = true;
+        }
+
+        /* When disabled, the next launches inflate all of their rows on the UI thread (the first row
+         * is still timed, so that the two can be compared):
+         */
+        public void setPreInflationEnabled(boolean enable) { preInflationEnabled = enable; }
+
+        public boolean isPreInflationEnabled() { return preInflationEnabled; }
+
+        /* The uptime (in milliseconds) when the first row of the last launch was attached, or 0 if
+         * it has not been shown yet:
+         */
+        public long getFirstRowShownTime() { return firstRowShownTime; }
+
+        public long getLaunchStartTime() { return launchStartTime; }
+
+        public int getTakenRowsCount() { return takenRowsCount; }
+
+        /* Starts inflating rowCount rows for the list (called on the UI thread as soon as the list view
+         * has been created). Any rows left over from a previous launch belong to the old activity
+         * context, so they are dropped first:
+         */
+        public void startPreInflation(final ViewGroup rowsParent, final int rowCount) {
+            cancelPreInflation.set(true);
+            preInflatedRows.clear();
+            launchStartTime = SystemClock.uptimeMillis();
+            launchInflatedRowsCount = FileListAdapter.getInflatedRowsCount();
+            takenRowsCount = 0;
+            firstRowAttached = false;
+            firstRowShownTime = 0L;
+            if(rowsParent == null || rowCount <= 0 || !preInflationEnabled) {
+                return;
+            }
+            final AtomicBoolean cancelThisRun = new AtomicBoolean(false);
+            cancelPreInflation = cancelThisRun;
+            final LayoutInflater rowsInflater = LayoutInflater.from(rowsParent.getContext()).cloneInContext(rowsParent.getContext());
+            Thread preInflateThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long inflateStartTime = SystemClock.uptimeMillis();
+                    int inflatedCount = 0;
+                    try {
+                        for(; inflatedCount < rowCount && !cancelThisRun.get(); inflatedCount++) {
+                            preInflatedRows.offer(rowsInflater.inflate(R.layout.single_file_entry_item, rowsParent, false));
+                        }
+                    } catch(RuntimeException inflateEx) {
+                        // Not every view can be built off of the UI thread: the remaining rows are inflated there as needed
+                        Log.w(LOGTAG, "Stopping background row inflation: " + inflateEx.getMessage());
+                    }
+                    if(cancelThisRun.get()) {
+                        preInflatedRows.clear();
+                        return;
+                    }
+                    Log.i(LOGTAG, String.format(Locale.getDefault(), "Pre-inflated %d of %d rows in %d ms (ready %d ms after launch)",
+                            inflatedCount, rowCount, SystemClock.uptimeMillis() - inflateStartTime,
+                            SystemClock.uptimeMillis() - launchStartTime));
+                }
+            }, "RowsPreInflater");
+            preInflateThread.setPriority(Thread.NORM_PRIORITY - 1);
+            preInflateThread.setDaemon(true);
+            preInflateThread.start();
+            // Do not keep the rows (and with them the activity) around after the list goes away:
+            rowsParent.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+                @Override
+                public void onViewAttachedToWindow(View rowsParentView) {}
+                @Override
+                public void onViewDetachedFromWindow(View rowsParentView) {
+                    rowsParentView.removeOnAttachStateChangeListener(this);
+                    if(cancelPreInflation == cancelThisRun) {
+                        cancelThisRun.set(true);
+                        preInflatedRows.clear();
+                    }
+                }
+            });
+        }
+
+        public View pollPreInflatedRow() {
+            View rowItem = preInflatedRows.poll();
+            if(rowItem != null) {
+                takenRowsCount++;
+            }
+            return rowItem;
+        }
+
+        public void notifyFirstRowAttached() {
+            if(firstRowAttached) {
+                return;
+            }
+            firstRowAttached = true;
+            firstRowShownTime = SystemClock.uptimeMillis();
+            Log.i(LOGTAG, String.format(Locale.getDefault(), "First row shown %d ms after launch (%d rows pre-inflated, %d inflated on the UI thread)",
+                    firstRowShownTime - launchStartTime, takenRowsCount,
+                    FileListAdapter.getInflatedRowsCount() - launchInflatedRowsCount));
         }
 
     }
@@ -132,6 +352,13 @@ public class DisplayAdapters {
         private View fileItemContainerView;
         private int initIndexPos;
 
+        // Looked up once when the row is created instead of on every bind:
+        private final ImageView fileTypeIcon;
+        private final TextView fileSizeText;
+        private final TextView filePermsSummaryText;
+        private final TextView fileBaseNameText;
+        private final CheckBox fileSelectionBox;
+
         private GestureDetector gestureDetector = new GestureDetector(FileChooserActivity.getInstance(), new GestureDetector.SimpleOnGestureListener() {
             @Override
             public boolean onSingleTapUp(MotionEvent e) {
@@ -156,6 +383,11 @@ public class DisplayAdapters {
             v.setOnClickListener(this);
             v.setOnLongClickListener(this);
             initIndexPos = -1;
+            fileTypeIcon = v.findViewById(R.id.fileTypeIcon);
+            fileSizeText = v.findViewById(R.id.fileEntrySizeText);
+            filePermsSummaryText = v.findViewById(R.id.fileEntryPermsSummaryText);
+            fileBaseNameText = v.findViewById(R.id.fileEntryBaseName);
+            fileSelectionBox = v.findViewById(R.id.fileSelectCheckBox);
 
         }
 
@@ -164,6 +396,12 @@ public class DisplayAdapters {
 
         public View getMainViewLayoutContainer() { return fileItemContainerView; }
 
+        public ImageView getFileTypeIconView() { return fileTypeIcon; }
+        public TextView getFileSizeTextView() { return fileSizeText; }
+        public TextView getFilePermsSummaryTextView() { return filePermsSummaryText; }
+        public TextView getFileBaseNameTextView() { return fileBaseNameText; }
+        public CheckBox getFileSelectionBox() { return fileSelectionBox; }
+
         private static int getPositionForView(View v) {
             DisplayFragments displayCtx = DisplayFragments.getInstance();
             FileChooserRecyclerView mainRV = displayCtx.getMainRecyclerView();
@@ -171,7 +409,9 @@ public class DisplayAdapters {
             if(bvHolder == null) {
                 return -1;
             }
-            return bvHolder.getInitialIndexPosition();
+            // Rows can shift position after a diff without being rebound:
+            int adapterPos = bvHolder.getBindingAdapterPosition();
+            return adapterPos != RecyclerView.NO_POSITION ? adapterPos : bvHolder.getInitialIndexPosition();
         }
 
         public static DisplayTypes.FileType getFileItemForView(View v) {
@@ -228,9 +468,17 @@ public class DisplayAdapters {
 
         private static String LOGTAG = OnSelectListener.class.getSimpleName();
 
+        /* The listener keeps no state of its own (the item is found from the row of the box that
+         * changed), so all of the rows share this one instance:
+         */
+        private static final OnSelectListener SHARED_INSTANCE = new OnSelectListener();
+
+        public static OnSelectListener getSharedInstance() { return SHARED_INSTANCE; }
+
         public static boolean performNewFileItemClick(CheckBox cbView, DisplayTypes.FileType fileItem) {
+            FileSelectionSet activeSelections = DisplayFragments.getInstance().activeSelections;
             Log.d(LOGTAG, String.format(Locale.getDefault(), "INIT PERFORM CLICK: (selected, max allowed) = (%d, %d)",
-                    DisplayFragments.getInstance().curSelectionCount, DisplayFragments.getInstance().maxAllowedSelections));
+                    activeSelections.size(), activeSelections.getMaxSelections()));
             if(cbView == null || fileItem == null) {
                 return false;
             }
@@ -251,18 +499,21 @@ public class DisplayAdapters {
                 return false;
             }
             if(fileItem.isChecked()) {
-                // Deselect: uncheck GUI widget item and remove the fileItem from the active selections list:
+                // Deselect: uncheck GUI widget item and remove the fileItem from the active selections:
                 cbView.setChecked(false);
                 cbView.jumpDrawablesToCurrentState();
                 fileItem.setChecked(false);
                 cbView.setEnabled(true);
-                DisplayFragments.getInstance().activeSelectionsList.remove(fileItem);
-                DisplayFragments.getInstance().curSelectionCount--;
+                activeSelections.setSelected(fileItem, false);
+                if(DisplayFragments.getInstance().getSelectionDigests() != null) {
+                    DisplayFragments.getInstance().getSelectionDigests().cancelDigest(fileItem.getAbsolutePath());
+                }
                 Log.d(LOGTAG, String.format(Locale.getDefault(), "RETURNING PERFORM CLICK: (selected, max allowed) = (%d, %d)",
-                        DisplayFragments.getInstance().curSelectionCount, DisplayFragments.getInstance().maxAllowedSelections));
+                        activeSelections.size(), activeSelections.getMaxSelections()));
                 return true;
             }
-            else if(DisplayFragments.getInstance().curSelectionCount >= DisplayFragments.getInstance().maxAllowedSelections) {
+            else if(!activeSelections.setSelected(fileItem, true)) {
+                // The maximum number of items is already selected:
                 cbView.setChecked(false);
                 return false;
             }
@@ -270,10 +521,12 @@ public class DisplayAdapters {
             cbView.jumpDrawablesToCurrentState();
             fileItem.setChecked(true);
             cbView.setEnabled(true);
-            DisplayFragments.getInstance().activeSelectionsList.add(fileItem);
-            DisplayFragments.getInstance().curSelectionCount++;
+            if(DisplayFragments.getInstance().getSelectionDigests() != null && !isDir) {
+                // Start hashing right away so the digest is ready by the time the selection is returned:
+                DisplayFragments.getInstance().getSelectionDigests().requestDigest(new File(fileItem.getAbsolutePath()));
+            }
             Log.d(LOGTAG, String.format(Locale.getDefault(), "RETURNING PERFORM CLICK: (selected, max allowed) = (%d, %d)",
-                    DisplayFragments.getInstance().curSelectionCount, DisplayFragments.getInstance().maxAllowedSelections));
+                    activeSelections.size(), activeSelections.getMaxSelections()));
             return true;
         }
 
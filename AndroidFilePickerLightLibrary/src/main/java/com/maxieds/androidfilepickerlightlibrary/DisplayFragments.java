@@ -28,6 +28,7 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Stack;
@@ -49,10 +50,61 @@ public class DisplayFragments {
 
     public FileFilter.FileFilterBase localFilesListFilter;
     public FileFilter.FileItemsSortFunc localFilesListSortFunc;
+    public boolean showImageThumbnails = false;
+    private ThumbnailCache rowsThumbnailCache = null;
+    private int rowsThumbnailSize = 0;
+
+    /* Looked up once rather than on every bind, along with the size of the row thumbnails in pixels: */
+    private ThumbnailCache getRowsThumbnailCache(View rowLayout) {
+        if(rowsThumbnailCache == null) {
+            rowsThumbnailCache = ThumbnailCache.getInstance(rowLayout.getContext());
+            // Same size as the 32dp generic file type icons:
+            rowsThumbnailSize = (int) (FileItemFragment.FILE_ITEM_THUMBNAIL_SIZE_DP * rowLayout.getResources().getDisplayMetrics().density);
+        }
+        return rowsThumbnailCache;
+    }
 
     private Drawable folderIconInst;
     private Drawable fileIconInst;
     private Drawable hiddenFileIconInst;
+
+    /* The icon bitmaps are shared by every picker instance through their constant states, and each
+     * instance keeps one drawable per type (so binding a row never allocates a new drawable):
+     */
+    private static final Drawable.ConstantState[] fileTypeIconStates = new Drawable.ConstantState[FileChooserBuilder.DefaultFileTypes.values().length];
+    private final Drawable[] fileTypeIconsCache = new Drawable[FileChooserBuilder.DefaultFileTypes.values().length];
+
+    public Drawable getFileTypeIcon(FileChooserBuilder.DefaultFileTypes fileType) {
+        switch(fileType) {
+            case FOLDER_FILE_TYPE:
+                return folderIconInst;
+            case HIDDEN_FILE_TYPE:
+                return hiddenFileIconInst;
+            case UNKNOWN_FILE_TYPE:
+            case CUSTOM_FILE_TYPE:
+                return fileIconInst;
+            default:
+                break;
+        }
+        int typeIndex = fileType.ordinal();
+        if(fileTypeIconsCache[typeIndex] == null) {
+            Drawable.ConstantState iconState;
+            synchronized(fileTypeIconStates) {
+                iconState = fileTypeIconStates[typeIndex];
+                if(iconState == null) {
+                    Drawable iconDrawable = DisplayUtils.getDrawableFromResource(fileType.getIconResId());
+                    iconState = iconDrawable == null ? null : iconDrawable.getConstantState();
+                    if(iconState == null) {
+                        fileTypeIconsCache[typeIndex] = iconDrawable != null ? iconDrawable : fileIconInst;
+                        return fileTypeIconsCache[typeIndex];
+                    }
+                    fileTypeIconStates[typeIndex] = iconState;
+                }
+            }
+            fileTypeIconsCache[typeIndex] = iconState.newDrawable(FileChooserActivity.getInstance().getResources());
+        }
+        return fileTypeIconsCache[typeIndex];
+    }
     private CustomThemeBuilder.FileItemLayoutStylizer fileItemLayoutStylizer;
 
     public boolean setFileItemLayoutStylizer(CustomThemeBuilder.FileItemLayoutStylizer layoutStylizer, boolean freeOtherSpace) {
@@ -81,19 +133,116 @@ public class DisplayFragments {
     }
 
     public void setCwdFolderContext(DisplayTypes.DirectoryResultContext nextCwdCtx) {
+        DisplayTypes.DirectoryResultContext prevCwdCtx = getCwdFolderContext();
+        if(nextCwdCtx != prevCwdCtx) {
+            // Any prefetch work still queued or running was computed for the previous folder:
+            PrefetchTaskExecutor.getInstance().advanceFolderGeneration();
+            if(prevCwdCtx != null) {
+                prevCwdCtx.setListenForFolderChanges(false);
+            }
+        }
+        if(nextCwdCtx != null) {
+            nextCwdCtx.setListenForFolderChanges(true);
+        }
+        // Selections made in the previous folder are kept (by path) while browsing the next one:
+        activeSelections.setActiveFolder(nextCwdCtx != null ? nextCwdCtx.getFolderSnapshot() : null);
         FileChooserActivity.getInstance().setCwdFolderContext(nextCwdCtx);
     }
 
     public boolean recyclerViewAdapterInit = false;
     public boolean viewportCapacityMesaured = false;
 
-    public int maxAllowedSelections = 0;
-    public int curSelectionCount = 0;
     public boolean allowSelectFiles = true;
     public boolean allowSelectFolders = true;
     public int lastFileDataStartIndex = 0, lastFileDataEndIndex = DEFAULT_VIEWPORT_FILE_ITEMS_COUNT - 1;
 
-    public  List<DisplayTypes.FileType> activeSelectionsList = new ArrayList<DisplayTypes.FileType>();
+    public final FileSelectionSet activeSelections = new FileSelectionSet();
+    private FileContentDigests selectionDigests = null; // Set when the files should be hashed as they are selected
+
+    public FileContentDigests getSelectionDigests() { return selectionDigests; }
+
+    public void setContentDigestAlgorithm(FileContentDigests.DigestAlgorithm digestAlgo) {
+        if(selectionDigests != null) {
+            selectionDigests.shutdown();
+        }
+        selectionDigests = digestAlgo == null ? null : new FileContentDigests(digestAlgo);
+    }
+
+    public void clearActiveSelections() {
+        activeSelections.clear();
+        if(selectionDigests != null) {
+            selectionDigests.cancelAll();
+        }
+    }
+
+    /* Select all and invert work on the whole displayed folder (not only the loaded window) by
+     * flipping bits in the selection set, and then only touch the items that changed:
+     */
+    public int selectAllFileItems() {
+        BitSet changedIndices = new BitSet();
+        int selectedCount = activeSelections.selectAll(changedIndices);
+        onFolderSelectionsChanged(changedIndices);
+        return selectedCount;
+    }
+
+    public boolean invertFileItemsSelection() {
+        BitSet changedIndices = new BitSet();
+        boolean selectionInverted = activeSelections.invertSelection(changedIndices);
+        onFolderSelectionsChanged(changedIndices);
+        return selectionInverted;
+    }
+
+    /* Queues the digests of the displayed folder's items that were just checked (and cancels the ones
+     * of the items that were unchecked), then rebinds the loaded rows among them:
+     */
+    public void onFolderSelectionsChanged(BitSet changedIndices) {
+        if(changedIndices == null || changedIndices.isEmpty()) {
+            return;
+        }
+        DisplayTypes.DirectoryResultContext cwdFolderCtx = getCwdFolderContext();
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = cwdFolderCtx == null ? null : cwdFolderCtx.getFolderSnapshot();
+        if(selectionDigests != null && folderSnapshot != null) {
+            // A single batch for the digest worker to walk (no per-item work on the UI thread):
+            BitSet selectedIndices = activeSelections.getSelectedIndices(changedIndices);
+            BitSet deselectedIndices = (BitSet) changedIndices.clone();
+            deselectedIndices.andNot(selectedIndices);
+            selectionDigests.requestDigests(folderSnapshot, selectedIndices, deselectedIndices);
+        }
+        refreshDisplayedSelections(changedIndices.nextSetBit(0), changedIndices.length() - 1);
+    }
+
+    public void refreshDisplayedSelections() {
+        RecyclerView mainFileListRecyclerView = getMainRecyclerView();
+        if(mainFileListRecyclerView != null && mainFileListRecyclerView.getAdapter() != null) {
+            RecyclerView.Adapter<?> rvAdapter = mainFileListRecyclerView.getAdapter();
+            rvAdapter.notifyItemRangeChanged(0, rvAdapter.getItemCount());
+        }
+    }
+
+    /* Rebinds the loaded rows for the folder indices in [fromFolderIndex, toFolderIndex]. The loaded
+     * window is a contiguous run of the folder's snapshot, so the adapter positions are offsets from
+     * the index of its first row:
+     */
+    public void refreshDisplayedSelections(int fromFolderIndex, int toFolderIndex) {
+        RecyclerView mainFileListRecyclerView = getMainRecyclerView();
+        if(mainFileListRecyclerView == null || mainFileListRecyclerView.getAdapter() == null) {
+            return;
+        }
+        DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainFileListRecyclerView.getAdapter();
+        DisplayTypes.FileType firstFileItem = rvAdapter.getFileItemByIndex(0);
+        if(firstFileItem == null) {
+            return;
+        }
+        else if(firstFileItem.getFolderIndex() < 0) {
+            refreshDisplayedSelections();
+            return;
+        }
+        int fromPos = Math.max(0, fromFolderIndex - firstFileItem.getFolderIndex());
+        int toPos = Math.min(rvAdapter.getItemCount() - 1, toFolderIndex - firstFileItem.getFolderIndex());
+        if(fromPos <= toPos) {
+            rvAdapter.notifyItemRangeChanged(fromPos, toPos - fromPos + 1);
+        }
+    }
     public  List<DisplayTypes.FileType> activeFileItemsDataList = new ArrayList<DisplayTypes.FileType>();
     public List<String> fileItemBasePathsList = new ArrayList<String>();
     public Stack<DisplayTypes.DirectoryResultContext> pathHistoryStack;
@@ -120,6 +269,7 @@ public class DisplayFragments {
             Log.i(LOGTAG, String.format("DELAYED RESPONSE: VP Height = %d, FItemDisp Height = %d   ====>  %d",
                     viewportDisplayHeight, fileItemDisplayHeight, getViewportMaxFilesCount()));
             getMainRecyclerView().setItemViewCacheSize(getViewportMaxFilesCount());
+            resizeRecycledViewPool(getViewportMaxFilesCount());
             getMainRecyclerView().setDrawingCacheEnabled(true);
             getMainRecyclerView().setDrawingCacheQuality(View.DRAWING_CACHE_QUALITY_HIGH);
             viewportCapacityMesaured = true;
@@ -127,16 +277,31 @@ public class DisplayFragments {
         return true;
     }
 
+    /* The recycled rows are kept in one pool that outlives the adapter (a new one is created each time
+     * the layout is reset). Its capacity per row type is sized to a screen of rows, which is the most
+     * that can scroll out of view (into the pool) before the rows coming into view take them back out:
+     */
+    private final RecyclerView.RecycledViewPool fileItemsViewPool = new RecyclerView.RecycledViewPool();
+
+    public RecyclerView.RecycledViewPool getRecycledViewPool() { return fileItemsViewPool; }
+
+    private void resizeRecycledViewPool(int viewportFilesCount) {
+        for(int viewType : DisplayAdapters.FileListAdapter.VIEW_TYPES) {
+            fileItemsViewPool.setMaxRecycledViews(viewType, Math.max(1, viewportFilesCount));
+        }
+    }
+
     public void initializeRecyclerViewLayout(FileChooserRecyclerView rview, FileChooserBuilder fpConfig) {
         if(!recyclerViewAdapterInit) {
             viewportMaxFileItemsCount = fpConfig.getRecyclerViewStartBufferSize();
             FileChooserRecyclerView.setFlingVelocityDampenAtThreshold(fpConfig.getRecyclerViewLayoutFlingDampenThreshold());
             rview.setupRecyclerViewLayout();
+            resizeRecycledViewPool(viewportMaxFileItemsCount);
+            rview.setRecycledViewPool(fileItemsViewPool);
             setRecyclerView(rview);
             fileItemBasePathsList = new ArrayList<String>();
-            activeSelectionsList = new ArrayList<DisplayTypes.FileType>();
             activeFileItemsDataList = new ArrayList<DisplayTypes.FileType>();
-            DisplayAdapters.FileListAdapter rvAdapter = new DisplayAdapters.FileListAdapter(fileItemBasePathsList, activeFileItemsDataList);
+            DisplayAdapters.FileListAdapter rvAdapter = new DisplayAdapters.FileListAdapter(activeFileItemsDataList);
             rview.setAdapter(rvAdapter);
             recyclerView.smoothScrollToPosition(0);
             recyclerViewAdapterInit = true;
@@ -144,7 +309,7 @@ public class DisplayFragments {
     }
 
     public void resetRecyclerViewLayoutContext() {
-        activeSelectionsList.clear();
+        clearActiveSelections();
         activeFileItemsDataList.clear();
         fileItemBasePathsList.clear();
         viewportMaxFileItemsCount = DEFAULT_VIEWPORT_FILE_ITEMS_COUNT;
@@ -164,10 +329,7 @@ public class DisplayFragments {
         FileChooserRecyclerView mainRV = getMainRecyclerView();
         mainRV.invalidate();
         DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainRV.getAdapter();
-        int priorAdapterCount = rvAdapter.getItemCount();
-        rvAdapter.reloadDataSets(new ArrayList<String>(), new ArrayList<DisplayTypes.FileType>(), false);
-        rvAdapter.notifyItemRangeRemoved(0, priorAdapterCount);
-        rvAdapter.notifyDataSetChanged();
+        rvAdapter.clearFileItems();
         mainRV.removeAllViews();
         mainRV.removeAllViewsInLayout();
     }
@@ -270,7 +432,6 @@ public class DisplayFragments {
             return;
         }
 
-        activeSelectionsList.clear();
         activeFileItemsDataList.clear();
         fileItemBasePathsList.clear();
 
@@ -282,7 +443,7 @@ public class DisplayFragments {
         }
         if(notifyAdapter) {
             DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainFileListRecyclerView.getAdapter();
-            rvAdapter.reloadDataSets(fileItemBasePathsList, activeFileItemsDataList);
+            rvAdapter.submitFileItems(activeFileItemsDataList);
         }
 
     }
@@ -291,44 +452,120 @@ public class DisplayFragments {
         displayNextDirectoryFilesList(workingDirContentsList, true);
     }
 
+    /* Called on the UI thread once the first page of a folder that is being listed in the background
+     * is in (in directory order, so a sorted folder is reordered when the listing completes):
+     */
+    public void onFolderFirstPageListed(DisplayTypes.DirectoryResultContext folderCtx) {
+        if(folderCtx == null || folderCtx != getCwdFolderContext()) {
+            return;
+        }
+        refreshDisplayedFolderWindow(folderCtx);
+    }
+
+    /* Called on the UI thread after a folder that was still being listed when it was first displayed
+     * has been enumerated in full. Unsorted listings keep their order (the prefetcher picks up the
+     * new entries as the user scrolls), but a sorted listing has been reordered, so we recompute the
+     * visible window in place without dropping the user's selections. The same goes for a folder
+     * that was listed in full before its first page filled up, and so is not displayed yet:
+     */
+    public void onFolderEnumerationComplete(DisplayTypes.DirectoryResultContext folderCtx) {
+        if(folderCtx == null || folderCtx != getCwdFolderContext()) {
+            return;
+        }
+        else if(localFilesListSortFunc == null && activeFileItemsDataList.size() >= getViewportMaxFilesCount()) {
+            // The listing only grew, so the bottom edge of the window may need to be buffered:
+            FileChooserActivity.getInstance().requestPrefetchBalanceCheck();
+            return;
+        }
+        refreshDisplayedFolderWindow(folderCtx);
+    }
+
+    public void onFolderContentsChanged(DisplayTypes.DirectoryResultContext folderCtx) {
+        if(folderCtx == null || folderCtx != getCwdFolderContext() || !folderCtx.isFolderListingComplete()) {
+            return;
+        }
+        refreshDisplayedFolderWindow(folderCtx);
+        FileChooserActivity.getInstance().requestPrefetchBalanceCheck();
+    }
+
+    /* Reloads the displayed window of the folder from its (updated) snapshot: the adapter diffs the
+     * new items against the old ones, so only the rows that actually moved or changed are rebound:
+     */
+    private void refreshDisplayedFolderWindow(DisplayTypes.DirectoryResultContext folderCtx) {
+        RecyclerView mainFileListRecyclerView = getMainRecyclerView();
+        int folderChildCount = folderCtx.getFolderChildCount();
+        if(mainFileListRecyclerView == null) {
+            return;
+        }
+        else if(folderChildCount == 0) {
+            activeFileItemsDataList.clear();
+            fileItemBasePathsList.clear();
+            ((DisplayAdapters.FileListAdapter) mainFileListRecyclerView.getAdapter()).clearFileItems();
+            return;
+        }
+        int startIndexPos = Math.min(lastFileDataStartIndex, folderChildCount - 1);
+        int endIndexPos = Math.min(folderChildCount - 1, Math.max(lastFileDataEndIndex, startIndexPos + getViewportMaxFilesCount() - 1));
+        folderCtx.computeDirectoryContents(startIndexPos, endIndexPos);
+        activeFileItemsDataList.clear();
+        fileItemBasePathsList.clear();
+        List<DisplayTypes.FileType> nextFileContents = folderCtx.getWorkingDirectoryContents();
+        for(int fidx = 0; fidx < nextFileContents.size(); fidx++) {
+            DisplayTypes.FileType fileItem = nextFileContents.get(fidx);
+            fileItemBasePathsList.add(fileItem.getBaseName());
+            activeFileItemsDataList.add(fileItem);
+        }
+        DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainFileListRecyclerView.getAdapter();
+        rvAdapter.submitFileItems(activeFileItemsDataList);
+    }
+
     public static class FileItemFragment {
 
         private static String LOGTAG = FileItemFragment.class.getSimpleName();
 
-        public static void resetLayout(View layoutContainer, DisplayTypes.FileType fileItem, int displayPosition) {
+        private static final int FILE_ITEM_THUMBNAIL_SIZE_DP = 32;
+
+        /* Binds the file item to its row. This runs for every row that scrolls into view, so it only
+         * sets the labels precomputed with the item on the views cached in the holder (it should not
+         * allocate once the icons and labels have been loaded):
+         */
+        public static void resetLayout(DisplayAdapters.BaseViewHolder bvHolder, DisplayTypes.FileType fileItem) {
 
-            CustomThemeBuilder.FileItemLayoutStylizer fileItemLayoutStylizer = DisplayFragments.getInstance().getFileItemLayoutStylizer();
+            View layoutContainer = bvHolder.getMainViewLayoutContainer();
+            DisplayFragments displayCtx = DisplayFragments.getInstance();
+            CustomThemeBuilder.FileItemLayoutStylizer fileItemLayoutStylizer = displayCtx.getFileItemLayoutStylizer();
             if(fileItemLayoutStylizer == null) {
-                ImageView fileTypeIcon = layoutContainer.findViewById(R.id.fileTypeIcon);
-                if (!fileItem.isDirectory()) {
-                    if (!fileItem.isHidden()) {
-                        fileTypeIcon.setImageDrawable(getInstance().fileIconInst);
-                    } else {
-                        fileTypeIcon.setImageDrawable(getInstance().hiddenFileIconInst);
+                ImageView fileTypeIcon = bvHolder.getFileTypeIconView();
+                fileTypeIcon.setImageDrawable(displayCtx.getFileTypeIcon(fileItem.getDefaultFileType()));
+                ThumbnailCache thumbnailCache = displayCtx.getRowsThumbnailCache(layoutContainer);
+                if(thumbnailCache != null) {
+                    String fileMimeType = fileItem.isDirectory() || !displayCtx.showImageThumbnails ? null : fileItem.getMimeType();
+                    if(fileMimeType != null && fileMimeType.startsWith("image/")) {
+                        int thumbnailSize = displayCtx.rowsThumbnailSize;
+                        thumbnailCache.loadThumbnailInto(fileTypeIcon, fileItem.getAbsolutePath(), fileItem.getThumbnailKey(thumbnailSize), thumbnailSize);
+                    }
+                    else {
+                        thumbnailCache.cancelThumbnailLoad(fileTypeIcon);
                     }
-                } else {
-                    fileTypeIcon.setImageDrawable(getInstance().folderIconInst);
                 }
-                TextView fileSizeText = layoutContainer.findViewById(R.id.fileEntrySizeText);
-                fileSizeText.setText(fileItem.getFileSizeString());
-                TextView filePermsSummary = layoutContainer.findViewById(R.id.fileEntryPermsSummaryText);
-                filePermsSummary.setText(fileItem.getChmodStylePermissions());
-                TextView fileBaseNameDisplayText = layoutContainer.findViewById(R.id.fileEntryBaseName);
-                fileBaseNameDisplayText.setText(fileItem.getBaseName());
+                bvHolder.getFileSizeTextView().setText(fileItem.getFileSizeString());
+                bvHolder.getFilePermsSummaryTextView().setText(fileItem.getChmodStylePermissions());
+                bvHolder.getFileBaseNameTextView().setText(fileItem.getBaseName());
             }
             else {
                 fileItemLayoutStylizer.applyStyleToLayout(layoutContainer, fileItem);
             }
 
-            boolean displaySelectionBox = (fileItem.isDirectory() && getInstance().allowSelectFolders) ||
-                    (!fileItem.isDirectory() && getInstance().allowSelectFiles);
-            CheckBox selectionBox = layoutContainer.findViewById(R.id.fileSelectCheckBox);
-            if(!displaySelectionBox) {
-                selectionBox.setEnabled(false);
-                selectionBox.setVisibility(LinearLayout.INVISIBLE);
-            }
-            selectionBox.setTag(displayPosition);
-            selectionBox.setOnCheckedChangeListener(new DisplayAdapters.OnSelectListener());
+            boolean displaySelectionBox = (fileItem.isDirectory() && displayCtx.allowSelectFolders) ||
+                    (!fileItem.isDirectory() && displayCtx.allowSelectFiles);
+            CheckBox selectionBox = bvHolder.getFileSelectionBox();
+            // Set both ways, since the row may have been recycled from an item with the other setting:
+            selectionBox.setEnabled(displaySelectionBox);
+            selectionBox.setVisibility(displaySelectionBox ? LinearLayout.VISIBLE : LinearLayout.INVISIBLE);
+            // Show the state from the selection set (without going through the select listener):
+            selectionBox.setOnCheckedChangeListener(null);
+            selectionBox.setChecked(displaySelectionBox && fileItem.isChecked());
+            selectionBox.jumpDrawablesToCurrentState();
+            selectionBox.setOnCheckedChangeListener(DisplayAdapters.OnSelectListener.getSharedInstance());
 
         }
 
@@ -17,6 +17,7 @@
 
 package com.maxieds.androidfilepickerlightlibrary;
 
+import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.drawable.Drawable;
 import android.util.Log;
@@ -25,6 +26,7 @@ import android.widget.ImageView;
 
 import org.apache.commons.lang3.ArrayUtils;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -39,15 +41,16 @@ public class DisplayTypes {
 
         private static String LOGTAG = DirectoryResultContext.class.getSimpleName();
 
-        private MatrixCursor initMatrixCursorListing;
+        private Cursor initMatrixCursorListing;
         private List<FileType> directoryContentsList;
         private String parentDocId;
         private String activeCWDAbsPath;
-        private int folderMaxChildCount;
+        private volatile int folderMaxChildCount;
+        private FolderSnapshotCache.FolderSnapshot folderSnapshot;
         private boolean isTopLevelFolder;
         private boolean isRecentDocsFolder;
 
-        public DirectoryResultContext(MatrixCursor mcResult, String parentFolderDocId, String parentFolderAbsPath) {
+        public DirectoryResultContext(Cursor mcResult, String parentFolderDocId, String parentFolderAbsPath) {
             directoryContentsList = new ArrayList<FileType>();
             parentDocId = parentFolderDocId;
             initMatrixCursorListing = mcResult;
@@ -61,6 +64,7 @@ public class DisplayTypes {
                 }
                 else {
                     folderMaxChildCount = fpInst.getFolderChildCount(parentDocId);
+                    folderSnapshot = fpInst.getActiveFolderSnapshot();
                 }
             } catch(FileNotFoundException nfe) {
                 nfe.printStackTrace();
@@ -68,14 +72,118 @@ public class DisplayTypes {
             }
             isTopLevelFolder = false;
             isRecentDocsFolder = false;
+            listenForFolderEnumerationComplete();
             Log.d(LOGTAG, String.format(Locale.getDefault(), "Initializing new folder at path: \"%s\" ... ", activeCWDAbsPath));
         }
 
+        /* New folders are listed in the background (the UI thread never waits on the listing): let
+         * the display fill the visible window once the first page of entries is in, and update the
+         * final child count and refresh the window again once the complete (sorted) listing is
+         * available. The first page of a sorted folder comes in directory order:
+         */
+        private void listenForFolderEnumerationComplete() {
+            if(folderSnapshot == null || folderSnapshot.isEnumerationComplete()) {
+                return;
+            }
+            final DirectoryResultContext folderCtx = this;
+            boolean listenerAdded = folderSnapshot.addEnumerationListener(new FolderSnapshotCache.FolderSnapshot.EnumerationListener() {
+                @Override
+                public void onFirstPageListed(FolderSnapshotCache.FolderSnapshot listedSnapshot) {
+                    final FileChooserActivity activityInst = FileChooserActivity.getInstance();
+                    if(activityInst == null) {
+                        return;
+                    }
+                    activityInst.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            activityInst.getDisplayFragmentsInstance().onFolderFirstPageListed(folderCtx);
+                        }
+                    });
+                }
+                @Override
+                public void onEnumerationComplete(FolderSnapshotCache.FolderSnapshot completedSnapshot) {
+                    folderMaxChildCount = completedSnapshot.getFilesCount();
+                    Log.i(LOGTAG, String.format(Locale.getDefault(), "Finished listing folder \"%s\" (%d entries)", activeCWDAbsPath, folderMaxChildCount));
+                    final FileChooserActivity activityInst = FileChooserActivity.getInstance();
+                    if(activityInst == null) {
+                        return;
+                    }
+                    activityInst.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            activityInst.getDisplayFragmentsInstance().onFolderEnumerationComplete(folderCtx);
+                        }
+                    });
+                }
+            });
+            if(!listenerAdded) {
+                folderMaxChildCount = folderSnapshot.getFilesCount();
+            }
+        }
+
+        private FolderSnapshotCache.FolderSnapshot.ContentsChangeListener folderChangesListener = null;
+
+        /* Live updates of the displayed folder (files created, deleted or moved by other apps) are
+         * applied to the snapshot by its watcher: keep the child count in step and let the display
+         * resubmit the visible window (only the affected rows get notified by the adapter diff):
+         */
+        public void setListenForFolderChanges(boolean listenForChanges) {
+            if(folderSnapshot == null) {
+                return;
+            }
+            else if(!listenForChanges) {
+                if(folderChangesListener != null) {
+                    folderSnapshot.removeContentsChangeListener(folderChangesListener);
+                    folderChangesListener = null;
+                }
+                return;
+            }
+            else if(folderChangesListener != null) {
+                return;
+            }
+            final DirectoryResultContext folderCtx = this;
+            folderChangesListener = new FolderSnapshotCache.FolderSnapshot.ContentsChangeListener() {
+                @Override
+                public void onFolderContentsChanged(FolderSnapshotCache.FolderSnapshot changedSnapshot, int insertedCount, int removedCount, int modifiedCount) {
+                    folderMaxChildCount = changedSnapshot.getFilesCount();
+                    final FileChooserActivity activityInst = FileChooserActivity.getInstance();
+                    if(activityInst == null) {
+                        return;
+                    }
+                    activityInst.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            activityInst.getDisplayFragmentsInstance().onFolderContentsChanged(folderCtx);
+                        }
+                    });
+                }
+            };
+            folderSnapshot.addContentsChangeListener(folderChangesListener);
+            // Changes applied while the folder was not displayed:
+            if(folderSnapshot.isEnumerationComplete()) {
+                folderMaxChildCount = folderSnapshot.getFilesCount();
+            }
+        }
+
         public List<FileType> getWorkingDirectoryContents() { return directoryContentsList; }
 
         public void setNextDirectoryContents(List<FileType> nextFolderFiles) { directoryContentsList = nextFolderFiles; }
 
-        public int getFolderChildCount() { return folderMaxChildCount; }
+        public int getFolderChildCount() {
+            // The count grows while the folder is still being listed:
+            FolderSnapshotCache.FolderSnapshot curSnapshot = folderSnapshot;
+            if(curSnapshot != null && !curSnapshot.isEnumerationComplete()) {
+                return curSnapshot.getFilesCount();
+            }
+            return folderMaxChildCount;
+        }
+
+        /* Null for the listings that do not come from a folder snapshot (e.g., the recent documents): */
+        public FolderSnapshotCache.FolderSnapshot getFolderSnapshot() { return folderSnapshot; }
+
+        public boolean isFolderListingComplete() {
+            return folderSnapshot == null || folderSnapshot.isEnumerationComplete();
+        }
 
         public boolean isTopLevelFolder() { return isTopLevelFolder; }
         public void setTopLevelFolder(boolean topLevel) { isTopLevelFolder = topLevel; }
@@ -119,31 +227,19 @@ public class DisplayTypes {
             try {
                 fpInst.noUpdateQueryFilesList(); // save some time processing if we haven't recently loaded a new folder to process
                 String parentDocsId = parentDocId;
-                initMatrixCursorListing = (MatrixCursor) fpInst.queryChildDocuments(parentDocsId, BasicFileProvider.DEFAULT_DOCUMENT_PROJECTION, "");
-                initMatrixCursorListing.moveToPosition(0);
+                List<FileType> nextFileItemsList = new ArrayList<FileType>(Math.abs(newItemsCount));
+                fpInst.getChildFileTypes(parentDocsId, this, nextFileItemsList);
                 boolean appendNewItems = newItemsCount > 0;
                 List<FileType> filesDataList = directoryContentsList.subList(trimFromFrontCount, directoryContentsList.size() - trimFromBackCount);
-                int prependInsertIdx = 0, mcRowIdx;
-                for (mcRowIdx = 0; mcRowIdx < Math.min(initMatrixCursorListing.getCount(), Math.abs(newItemsCount)); mcRowIdx++) {
-                    String[] filePropertiesList = fpInst.getPropertiesOfCurrentRow(initMatrixCursorListing, !BasicFileProvider.CURSOR_TYPE_IS_ROOT);
-                    String fileAbsPath = filePropertiesList[BasicFileProvider.PROPERTY_ABSPATH];
-                    String fileProviderDocId = filePropertiesList[BasicFileProvider.PROPERTY_FILE_PROVIDER_DOCID];
-                    String fileSize = filePropertiesList[BasicFileProvider.PROPERTY_FILE_SIZE];
-                    String filePosixPerms = filePropertiesList[BasicFileProvider.PROPERTY_POSIX_PERMS];
-                    boolean isDir = Boolean.parseBoolean(filePropertiesList[BasicFileProvider.PROPERTY_ISDIR]);
-                    boolean isHidden = Boolean.parseBoolean(filePropertiesList[BasicFileProvider.PROPERTY_ISHIDDEN]);
-                    FileType nextFileItem = new FileType(fileAbsPath, fileSize, filePosixPerms, isDir, isHidden, fileProviderDocId, this);
-                    if(appendNewItems) {
-                        filesDataList.add(nextFileItem);
-                    }
-                    else {
-                        filesDataList.add(prependInsertIdx, nextFileItem);
-                        prependInsertIdx++;
-                    }
-                    initMatrixCursorListing.moveToNext();
+                int itemsReadCount = Math.min(nextFileItemsList.size(), Math.abs(newItemsCount));
+                if(appendNewItems) {
+                    filesDataList.addAll(nextFileItemsList.subList(0, itemsReadCount));
+                }
+                else {
+                    filesDataList.addAll(0, nextFileItemsList.subList(0, itemsReadCount));
                 }
                 if(updateGlobalIndices) {
-                    int resultSizeDiff = Math.abs(newItemsCount) - mcRowIdx;
+                    int resultSizeDiff = Math.abs(newItemsCount) - itemsReadCount;
                     Log.d(LOGTAG, String.format(Locale.getDefault(), "UPDATING GLOBAL INDICES: [%d, %d] -> [%d, %d]",
                             DisplayFragments.getInstance().lastFileDataStartIndex, DisplayFragments.getInstance().lastFileDataEndIndex,
                             initStartIndexPos, maxIndexPos - resultSizeDiff));
@@ -156,8 +252,6 @@ public class DisplayTypes {
                     Log.d(LOGTAG, String.format(Locale.getDefault(), "   [#%02d => %02d ACTUAL Idx] FILE BASE NAME => \"%s\" ... ", fcidx + 1,
                             fcidx + 1 + DisplayFragments.getInstance().lastFileDataStartIndex, directoryContentsList.get(fcidx).getBaseName()));
                 }
-                initMatrixCursorListing.close();
-                initMatrixCursorListing = null;
             }
             catch(FileNotFoundException ioe) {
                 ioe.printStackTrace();
@@ -228,7 +322,7 @@ public class DisplayTypes {
                 DisplayFragments.updateFolderHistoryPaths(initDirBaseName, false);
                 String cursoryProbeFolderCwd = cursoryProbe.getString(ArrayUtils.indexOf(cursoryProbe.getColumnNames(), BasicFileProvider.ROOT_COLUMN_NAME_ABSPATH));
                 String parentDocsId = cursoryProbe.getString(BasicFileProvider.ROOT_PROJ_ROOTID_COLUMN_INDEX);
-                MatrixCursor expandedFolderContents = (MatrixCursor) fpInst.queryChildDocuments(parentDocsId, BasicFileProvider.DEFAULT_DOCUMENT_PROJECTION, "");
+                Cursor expandedFolderContents = fpInst.queryChildDocuments(parentDocsId, BasicFileProvider.DEFAULT_DOCUMENT_PROJECTION, "");
                 return new DirectoryResultContext(expandedFolderContents, parentDocsId, cursoryProbeFolderCwd);
             }
             catch(IOException ioe) {
@@ -318,7 +412,18 @@ public class DisplayTypes {
         private boolean isDir;
         private boolean isHidden;
         private boolean isChecked;
+        private int folderIndex;
+        private long stableItemId;
+        private String fileBaseName;
+        private String chmodStylePerms;
+        private String fileMimeType;
+        private int posixModeBits;
+        private long fileSizeBytes;
+        private long fileLastModified;
+        private String thumbnailKey;
+        private int thumbnailKeySize;
         private View fileItemLayoutContainer;
+        private FileChooserBuilder.DefaultFileTypes defaultFileType;
 
         public FileType(String fileAbsPath, String fileSizeLabel, String posixPerms,
                         boolean isDirectory, boolean isHidden, String fpDocId,
@@ -331,21 +436,83 @@ public class DisplayTypes {
             this.isDir = isDirectory;
             this.isHidden = isHidden;
             this.isChecked = false;
+            this.folderIndex = -1;
+            this.stableItemId = 0L;
+            this.fileBaseName = null;
+            this.chmodStylePerms = null;
+            this.fileMimeType = null;
+            this.posixModeBits = FileUtils.FileAttributes.POSIX_MODE_BITS_UNKNOWN;
+            this.fileSizeBytes = -1L;
+            this.fileLastModified = 0L;
+            this.thumbnailKey = null;
+            this.thumbnailKeySize = 0;
             this.fileItemLayoutContainer = null;
         }
 
+        /* Keeps the numeric attributes read when the item was listed, so that the row labels and the
+         * thumbnail key do not have to be parsed (or stat'ed) again:
+         */
+        public void setFileAttributes(FileUtils.FileAttributes fileAttrs) {
+            if(fileAttrs == null || !fileAttrs.isValid()) {
+                return;
+            }
+            posixModeBits = fileAttrs.getPosixModeBits();
+            fileSizeBytes = fileAttrs.getFileSize();
+            fileLastModified = fileAttrs.getLastModified();
+            chmodStylePerms = null;
+            thumbnailKey = null;
+        }
+
+        public int getPosixModeBits() { return posixModeBits; }
+
         public DirectoryResultContext getParentFolderContext() {
             return parentFolder;
         }
 
         public String getFileProviderDocumentId() { return fileProviderDocId; }
 
+        /* The index of the item in its folder snapshot when it was listed (or -1): */
+        public int getFolderIndex() { return folderIndex; }
+        public void setFolderIndex(int snapshotIndex) { folderIndex = snapshotIndex; }
+
         public String getAbsolutePath() {
             return fileAbsPath;
         }
 
+        /* The RecyclerView item id of the row: a 64-bit FNV-1a hash of the same identity the list diffs
+         * match rows by (the provider document id, else the absolute path). Computed once per item:
+         */
+        public long getStableItemId() {
+            if(stableItemId == 0L) {
+                String itemIdentity = fileProviderDocId != null ? fileProviderDocId : fileAbsPath;
+                long idHash = 0xcbf29ce484222325L;
+                for(int cidx = 0; itemIdentity != null && cidx < itemIdentity.length(); cidx++) {
+                    char nextChar = itemIdentity.charAt(cidx);
+                    idHash = (idHash ^ (nextChar & 0xff)) * 0x100000001b3L;
+                    idHash = (idHash ^ (nextChar >>> 8)) * 0x100000001b3L;
+                }
+                // Zero marks the id as not computed yet, and RecyclerView.NO_ID (-1) is reserved:
+                stableItemId = idHash == 0L || idHash == -1L ? 1L : idHash;
+            }
+            return stableItemId;
+        }
+
+        /* Builds the labels shown in the row ahead of time (called when the items are listed, off of
+         * the UI thread), so that binding the row only has to set them:
+         */
+        public void precomputeDisplayLabels() {
+            getBaseName();
+            getMimeType();
+            getChmodStylePermissions();
+            getDefaultFileType();
+            getStableItemId();
+        }
+
         public String getBaseName() {
-            return FileUtils.getFileBaseNameFromPath(getAbsolutePath());
+            if(fileBaseName == null) {
+                fileBaseName = FileUtils.getFileBaseNameFromPath(getAbsolutePath());
+            }
+            return fileBaseName;
         }
 
         public String getBasePath() {
@@ -364,8 +531,19 @@ public class DisplayTypes {
             return FileUtils.getFileExtension(getAbsolutePath());
         }
 
+        /* Resolved once per item (the rows look it up on every bind): */
+        public FileChooserBuilder.DefaultFileTypes getDefaultFileType() {
+            if(defaultFileType == null) {
+                defaultFileType = FileChooserBuilder.DefaultFileTypes.getFileTypeByPath(getAbsolutePath(), isDirectory(), isHidden());
+            }
+            return defaultFileType;
+        }
+
         public String getMimeType() {
-            return FileUtils.getFileMimeType(getAbsolutePath());
+            if(fileMimeType == null) {
+                fileMimeType = FileUtils.getFileMimeType(getAbsolutePath());
+            }
+            return fileMimeType;
         }
 
         public String getPosixPermissions() {
@@ -373,16 +551,38 @@ public class DisplayTypes {
         }
 
         public String getChmodStylePermissions() {
-            String filePosixPerms = getPosixPermissions();
-            return FileUtils.filePermsStringToShortChmodStyleCode(filePosixPerms, isDirectory());
+            if(chmodStylePerms == null) {
+                chmodStylePerms = posixModeBits != FileUtils.FileAttributes.POSIX_MODE_BITS_UNKNOWN ?
+                        FileUtils.posixModeBitsToShortChmodStyleCode(posixModeBits, isDirectory()) :
+                        FileUtils.filePermsStringToShortChmodStyleCode(getPosixPermissions(), isDirectory());
+            }
+            return chmodStylePerms;
+        }
+
+        /* The memory cache key of the row's thumbnail (built once per item and size): */
+        public String getThumbnailKey(int targetSize) {
+            if(thumbnailKey == null || thumbnailKeySize != targetSize) {
+                thumbnailKey = fileSizeBytes >= 0L ?
+                        ThumbnailCache.getThumbnailKey(getAbsolutePath(), fileLastModified, fileSizeBytes, targetSize, targetSize) :
+                        ThumbnailCache.getThumbnailKey(new File(getAbsolutePath()), targetSize, targetSize);
+                thumbnailKeySize = targetSize;
+            }
+            return thumbnailKey;
         }
 
         public String getFileSizeString() {
             return fileSizeLabel;
         }
 
+        /* The selection state is kept in the picker's selection set (see FileSelectionSet), so that it is
+         * not lost when the items in the display window are recreated:
+         */
         public boolean isChecked() {
-            return isChecked;
+            FileChooserActivity pickerInst = FileChooserActivity.getInstance();
+            if(pickerInst == null || pickerInst.getDisplayFragmentsInstance() == null) {
+                return isChecked;
+            }
+            return pickerInst.getDisplayFragmentsInstance().activeSelections.isSelected(this);
         }
 
         public void setChecked(boolean enable) {
@@ -36,8 +36,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.jar.Manifest;
@@ -67,6 +67,9 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
     public void setTopLevelBaseFolder(FileChooserBuilder.BaseFolderPathType tlFolder) { topLevelBaseFolder = tlFolder; }
 
     private PrefetchFilesUpdater prefetchFilesUpdaterInst;
+    private boolean returnSelectionDetails = false;
+    private int resultInlineMaxItems = SelectionResultPayload.DEFAULT_INLINE_MAX_ITEMS;
+    private boolean activityIsPaused = false;
 
     public static final String[] ACTIVITY_REQUIRED_PERMISSIONS = {
             //"android.permission.READ_EXTERNAL_STORAGE",
@@ -85,29 +88,38 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
     };
 
     public void startPrefetchFileUpdatesThread() {
-        if(prefetchFilesUpdaterInst.isAlive()) {
-            prefetchFilesUpdaterInst.interrupt();
-        }
         int lastBalancedBufferSize = prefetchFilesUpdaterInst.getWeightBufferSize();
         long lastUpdateDelayMillis = prefetchFilesUpdaterInst.getUpdateDelayTimeout();
-        prefetchFilesUpdaterInst = new PrefetchFilesUpdater();
-        prefetchFilesUpdaterInst.setWeightBufferSize(lastBalancedBufferSize);
-        prefetchFilesUpdaterInst.setUpdateDelayTimeout(lastUpdateDelayMillis);
-        prefetchFilesUpdaterInst.start();
+        startPrefetchFileUpdatesThread(lastBalancedBufferSize, lastUpdateDelayMillis);
     }
 
     public void startPrefetchFileUpdatesThread(int balancedBufferSize, long updateDelayMillis) {
-        if(prefetchFilesUpdaterInst.isAlive()) {
-            prefetchFilesUpdaterInst.interrupt();
-        }
+        prefetchFilesUpdaterInst.detachFromRecyclerView();
         prefetchFilesUpdaterInst = new PrefetchFilesUpdater();
         prefetchFilesUpdaterInst.setWeightBufferSize(balancedBufferSize);
         prefetchFilesUpdaterInst.setUpdateDelayTimeout(updateDelayMillis);
-        prefetchFilesUpdaterInst.start();
+        if(activityIsPaused) {
+            prefetchFilesUpdaterInst.pause();
+        }
+        prefetchFilesUpdaterInst.attachToRecyclerView(DisplayFragments.getMainRecyclerView());
     }
 
     public void stopPrefetchFileUpdatesThread() {
-        prefetchFilesUpdaterInst.interrupt();
+        prefetchFilesUpdaterInst.detachFromRecyclerView();
+    }
+
+    public void requestPrefetchPagesAhead(boolean towardsBottom) {
+        if(prefetchFilesUpdaterInst != null) {
+            prefetchFilesUpdaterInst.requestPagesAhead(towardsBottom ?
+                    PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType.APPEND_DATA_TO_BOTTOM :
+                    PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType.PREPEND_DATA_AT_TOP);
+        }
+    }
+
+    public void requestPrefetchBalanceCheck() {
+        if(prefetchFilesUpdaterInst != null) {
+            prefetchFilesUpdaterInst.scheduleBalanceCheck();
+        }
     }
 
     /**
@@ -227,6 +239,11 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
 
         setTheme(R.style.LibraryDefaultTheme);
         setContentView(R.layout.main_picker_activity_base_layout);
+        // Inflate the first rows of the list in the background while the initial folder is queried:
+        DisplayAdapters.RowsPreInflater.getInstance().startPreInflation(
+                (FileChooserRecyclerView) findViewById(R.id.mainRecyclerView),
+                fpConfig.getRecyclerViewStartBufferSize()
+        );
         configureInitialMainLayout(fpConfig);
 
         // Keep the app from crashing when the screen rotates:
@@ -236,11 +253,15 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
         getDisplayFragmentsInstance().resetRecyclerViewLayoutContext();
         getDisplayFragmentsInstance().localFilesListFilter = fpConfig.getFileFilter();
         getDisplayFragmentsInstance().localFilesListSortFunc = fpConfig.getCustomSortFunc();
-        getDisplayFragmentsInstance().maxAllowedSelections = fpConfig.getMaxSelectedFilesCount();
-        getDisplayFragmentsInstance().curSelectionCount = 0;
-        getDisplayFragmentsInstance().activeSelectionsList.clear();
+        getDisplayFragmentsInstance().showImageThumbnails = fpConfig.getShowImageThumbnails();
+        getDisplayFragmentsInstance().clearActiveSelections();
+        getDisplayFragmentsInstance().activeSelections.setMaxSelections(fpConfig.getMaxSelectedFilesCount());
+        getDisplayFragmentsInstance().setContentDigestAlgorithm(fpConfig.getContentDigestAlgorithm());
+        returnSelectionDetails = fpConfig.getReturnSelectionDetails();
+        resultInlineMaxItems = fpConfig.getResultInlineMaxItems();
         getDisplayFragmentsInstance().allowSelectFiles = fpConfig.allowSelectFileItems();
         getDisplayFragmentsInstance().allowSelectFolders = fpConfig.allowSelectFolderItems();
+        getDisplayFragmentsInstance().activeSelections.setSelectableKinds(fpConfig.allowSelectFileItems(), fpConfig.allowSelectFolderItems());
 
         topLevelBaseFolder = fpConfig.getInitialBaseFolder();
         prefetchFilesUpdaterInst = new PrefetchFilesUpdater();
@@ -387,7 +408,7 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
             @Override
             public void onClick(View btnView) {
                 getDisplayFragmentsInstance().cancelAllOperationsInProgress();
-                if(DisplayFragments.getInstance().activeSelectionsList.size() == 0) {
+                if(DisplayFragments.getInstance().activeSelections.isEmpty()) {
                     /* Empty selection: try to degrade politely: */
                     //getInstance().postSelectedFilesActivityResult(new FileChooserException.CommunicateNoDataException());
                     //DisplayUtils.displayToastMessageShort(getInstance(), "No files selected.");
@@ -442,6 +463,24 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
         super.onNewIntent(broadcastIntent);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        activityIsPaused = true;
+        if(prefetchFilesUpdaterInst != null) {
+            prefetchFilesUpdaterInst.pause();
+        }
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        activityIsPaused = false;
+        if(prefetchFilesUpdaterInst != null) {
+            prefetchFilesUpdaterInst.resume();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permsList, int[] grantedPermsList) {
         super.onRequestPermissionsResult(requestCode, permsList, grantedPermsList);
@@ -481,35 +520,89 @@ public class FileChooserActivity extends AppCompatActivity implements EasyPermis
         //}
     }
 
+    /* Builds the result for the current selection, waiting for the content digests that are still
+     * being computed, so it must not be called from the UI thread:
+     */
     public Intent getSelectedFilesActivityResultIntent() {
         Intent resultIntent = new Intent();
         resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_TYPE_KEY, String.class);
-        int selectedFilesCount = getDisplayFragmentsInstance().activeSelectionsList != null ? getDisplayFragmentsInstance().activeSelectionsList.size() : 0;
-        String[] filePathsList = new String[selectedFilesCount];
+        List<String> selectedPaths = getDisplayFragmentsInstance().activeSelections.getSelectedPaths();
+        int selectedFilesCount = selectedPaths.size();
+        FileContentDigests selectionDigests = getDisplayFragmentsInstance().getSelectionDigests();
+        if(selectionDigests != null) {
+            // Queue any selected items that were not hashed one by one yet:
+            for(int fileIndex = 0; fileIndex < selectedFilesCount; fileIndex++) {
+                selectionDigests.requestDigest(new File(selectedPaths.get(fileIndex)));
+            }
+        }
+        boolean progressDisplayed = false;
+        List<SelectionResultPayload.SelectedFileRecord> selectedRecords = new ArrayList<SelectionResultPayload.SelectedFileRecord>(selectedFilesCount);
         for(int fileIndex = 0; fileIndex < selectedFilesCount; fileIndex++) {
-            filePathsList[fileIndex] = getDisplayFragmentsInstance().activeSelectionsList.get(fileIndex).getAbsolutePath();
-            Log.i(LOGTAG, "RETURNING SELECTION : " + filePathsList[fileIndex]);
+            File selectedFile = new File(selectedPaths.get(fileIndex));
+            SelectionResultPayload.SelectedFileRecord fileRecord = SelectionResultPayload.SelectedFileRecord.fromFile(selectedFile, returnSelectionDetails);
+            if(selectionDigests != null) {
+                // Most of these were already computed in the background when the files were checked:
+                if(!selectionDigests.isDigestReady(selectedFile.getAbsolutePath())) {
+                    if(!progressDisplayed) {
+                        DisplayUtils.EnableProgressBarDisplay(true);
+                        progressDisplayed = true;
+                    }
+                    DisplayUtils.DisplayProgressBar(this, "Hashing selected files", fileIndex + 1, selectedFilesCount);
+                }
+                fileRecord.setContentDigest(selectionDigests.getDigest(selectedFile));
+            }
+            selectedRecords.add(fileRecord);
+            Log.i(LOGTAG, "RETURNING SELECTION : " + fileRecord.getAbsolutePath());
+        }
+        if(progressDisplayed) {
+            DisplayUtils.EnableProgressBarDisplay(false);
         }
-        resultIntent.putStringArrayListExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_KEY, new ArrayList<String>(Arrays.asList(filePathsList)));
+        SelectionResultPayload.writeSelection(getApplicationContext(), resultIntent, selectedRecords, returnSelectionDetails,
+                selectionDigests != null ? selectionDigests.getDigestAlgorithm().getAlgorithmName() : null, resultInlineMaxItems);
         return resultIntent;
     }
 
-    public void postSelectedFilesActivityResult() {
+    private boolean selectionResultPending = false;
+
+    /* The result intent is built on a worker thread (hashing the selected files can take a while),
+     * and then it is set and the activity finished back on the UI thread:
+     */
+    private void postSelectedFilesActivityResult(final int resultCode, final FileChooserException.AndroidFilePickerLightException rteLocal) {
+        synchronized(this) {
+            if(selectionResultPending) {
+                return;
+            }
+            selectionResultPending = true;
+        }
         getDisplayFragmentsInstance().cancelAllOperationsInProgress();
-        Intent filesResultIntent = getSelectedFilesActivityResultIntent();
-        setResult(Activity.RESULT_OK, filesResultIntent);
-        finish();
+        Thread resultThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final Intent filesResultIntent = getSelectedFilesActivityResultIntent();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        getDisplayFragmentsInstance().setContentDigestAlgorithm(null);
+                        if(rteLocal != null) {
+                            filesResultIntent.putExtra(FileChooserBuilder.FILE_PICKER_EXCEPTION_MESSAGE_KEY, rteLocal.getMessage());
+                            filesResultIntent.putExtra(FileChooserBuilder.FILE_PICKER_EXCEPTION_CAUSE_KEY, rteLocal.getCauseAsString());
+                        }
+                        setResult(resultCode, filesResultIntent);
+                        finish();
+                    }
+                });
+            }
+        }, "SelectionResult");
+        resultThread.start();
+    }
+
+    public void postSelectedFilesActivityResult() {
+        postSelectedFilesActivityResult(Activity.RESULT_OK, null);
     }
 
     public void postSelectedFilesActivityResult(Exception runtimeExcpt) {
-        getDisplayFragmentsInstance().cancelAllOperationsInProgress();
         runtimeExcpt.printStackTrace();
-        Intent filesResultIntent = getSelectedFilesActivityResultIntent();
-        FileChooserException.AndroidFilePickerLightException rteLocal = (FileChooserException.AndroidFilePickerLightException) runtimeExcpt;
-        filesResultIntent.putExtra(FileChooserBuilder.FILE_PICKER_EXCEPTION_MESSAGE_KEY, rteLocal.getMessage());
-        filesResultIntent.putExtra(FileChooserBuilder.FILE_PICKER_EXCEPTION_CAUSE_KEY, rteLocal.getCauseAsString());
-        setResult(Activity.RESULT_CANCELED, filesResultIntent);
-        finish();
+        postSelectedFilesActivityResult(Activity.RESULT_CANCELED, (FileChooserException.AndroidFilePickerLightException) runtimeExcpt);
     }
 
     @Override
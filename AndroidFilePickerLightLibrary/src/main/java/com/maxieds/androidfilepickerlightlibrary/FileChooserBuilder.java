@@ -28,8 +28,10 @@ import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static android.app.Activity.RESULT_CANCELED;
@@ -70,6 +72,23 @@ public class FileChooserBuilder implements Serializable {
         UNKNOWN_FILE_TYPE(R.drawable.unknown_file_icon32, "Unknown", new String[] {}, new String[] { "*/*" }),
         CUSTOM_FILE_TYPE(R.drawable.unknown_file_icon32, "Custom", new String[] {}, new String[] { "*/*" }),;
 
+        /* Built once: the first type to list an extension owns it (lookups are by lowercase extension
+         * without the leading dot):
+         */
+        public static final Map<String, DefaultFileTypes> FILE_EXTENSION_TYPE_LOOKUP_MAP;
+        static {
+            Map<String, DefaultFileTypes> extTypeMap = new HashMap<String, DefaultFileTypes>();
+            for (DefaultFileTypes fileType : values()) {
+                for (String fileExt : fileType.fileExtList) {
+                    String extKey = fileExt.toLowerCase(Locale.ROOT);
+                    if (!extTypeMap.containsKey(extKey)) {
+                        extTypeMap.put(extKey, fileType);
+                    }
+                }
+            }
+            FILE_EXTENSION_TYPE_LOOKUP_MAP = Collections.unmodifiableMap(extTypeMap);
+        }
+
         private int iconResId;
         private String typeShortDesc;
         private String[] fileExtList;
@@ -82,6 +101,45 @@ public class FileChooserBuilder implements Serializable {
             supportedMimeTypes = mimeTypesParam;
         }
 
+        public int getIconResId() { return iconResId; }
+
+        public String getTypeShortDesc() { return typeShortDesc; }
+
+        public String[] getFileExtensions() { return Arrays.copyOf(fileExtList, fileExtList.length); }
+
+        public String[] getSupportedMimeTypes() { return Arrays.copyOf(supportedMimeTypes, supportedMimeTypes.length); }
+
+        /* Accepts the extension with or without its leading dot (returns null when no type lists it): */
+        public static DefaultFileTypes getFileTypeByExtension(String fileExt) {
+            if (fileExt == null || fileExt.length() == 0) {
+                return null;
+            }
+            else if (fileExt.charAt(0) == '.') {
+                fileExt = fileExt.substring(1);
+            }
+            DefaultFileTypes fileType = FILE_EXTENSION_TYPE_LOOKUP_MAP.get(fileExt);
+            if (fileType == null) {
+                fileType = FILE_EXTENSION_TYPE_LOOKUP_MAP.get(fileExt.toLowerCase(Locale.ROOT));
+            }
+            return fileType;
+        }
+
+        /* Only the extension of the base name counts (a dot in a parent folder name does not): */
+        public static DefaultFileTypes getFileTypeByPath(String filePath, boolean isDirectory, boolean isHidden) {
+            if (isDirectory) {
+                return FOLDER_FILE_TYPE;
+            }
+            else if (isHidden) {
+                return HIDDEN_FILE_TYPE;
+            }
+            int extSepPos = filePath == null ? -1 : filePath.lastIndexOf('.');
+            if (extSepPos < 0 || extSepPos < filePath.lastIndexOf('/') || extSepPos == filePath.length() - 1) {
+                return UNKNOWN_FILE_TYPE;
+            }
+            DefaultFileTypes fileType = getFileTypeByExtension(filePath.substring(extSepPos + 1));
+            return fileType == null ? UNKNOWN_FILE_TYPE : fileType;
+        }
+
     }
 
     public enum DefaultNavFoldersType {
@@ -223,6 +281,10 @@ public class FileChooserBuilder implements Serializable {
     private String startPathAbsolute, startPathRelative;
     private FileFilter.FileFilterBase localFileFilter;
     private FileFilter.FileItemsSortFunc customSortFunc;
+    private boolean showImageThumbnails;
+    private boolean returnSelectionDetails;
+    private FileContentDigests.DigestAlgorithm contentDigestAlgo;
+    private int resultInlineMaxItems;
 
     /* Non-display type configuration: */
     private int recyclerViewStartBufferSize;
@@ -251,6 +313,10 @@ public class FileChooserBuilder implements Serializable {
         idleTimeoutMillis = DEFAULT_TIMEOUT;
         startPathAbsolute = startPathRelative = null;
         localFileFilter = null;
+        showImageThumbnails = false;
+        returnSelectionDetails = false;
+        contentDigestAlgo = null;
+        resultInlineMaxItems = SelectionResultPayload.DEFAULT_INLINE_MAX_ITEMS;
         recyclerViewStartBufferSize = DisplayFragments.DEFAULT_VIEWPORT_FILE_ITEMS_COUNT;
         recyclerViewNotVisibleBufferSize = PrefetchFilesUpdater.DEFAULT_BALANCED_BUFFER_SIZE;
         recyclerViewLayoutFlingDampenThreshold = FileChooserRecyclerView.DEFAULT_FLING_VELOCITY_DAMPENAT;
@@ -397,11 +463,52 @@ public class FileChooserBuilder implements Serializable {
         return this;
     }
 
+    public FileChooserBuilder filterByPredicate(FileFilter.FilterPredicate filterPredicate, boolean includeExcludeInList) {
+        localFileFilter = new FileFilter.FileFilterByPredicate(filterPredicate, includeExcludeInList);
+        return this;
+    }
+
     public FileChooserBuilder setFilesListSortCompareFunction(FileFilter.FileItemsSortFunc customSortFunc) {
         this.customSortFunc = customSortFunc;
         return this;
     }
 
+    public FileChooserBuilder setFilesListSortMode(FileFilter.FileItemsSortFunc.SortMode sortMode, boolean reverseOrder) {
+        this.customSortFunc = new FileFilter.FileItemsSortFunc(sortMode, reverseOrder);
+        return this;
+    }
+
+    public FileChooserBuilder setFilesListSortMode(FileFilter.FileItemsSortFunc.SortMode sortMode) {
+        return setFilesListSortMode(sortMode, false);
+    }
+
+    public FileChooserBuilder setShowImageThumbnails(boolean enableThumbnails) {
+        showImageThumbnails = enableThumbnails;
+        return this;
+    }
+
+    /* Returns the size, MIME type and modification time of each selected item along with the paths: */
+    public FileChooserBuilder setReturnSelectionDetails(boolean enableDetails) {
+        returnSelectionDetails = enableDetails;
+        return this;
+    }
+
+    /* Hashes the contents of the selected files (in the background, as they are checked) and returns
+     * the digests with the selection. Pass null to turn this off again:
+     */
+    public FileChooserBuilder setComputeContentDigests(FileContentDigests.DigestAlgorithm digestAlgo) {
+        contentDigestAlgo = digestAlgo;
+        return this;
+    }
+
+    /* Selections larger than this are returned through a payload file rather than the Intent extras: */
+    public FileChooserBuilder setResultInlineMaxItems(int maxInlineItems) {
+        if(maxInlineItems >= 0) {
+            resultInlineMaxItems = maxInlineItems;
+        }
+        return this;
+    }
+
     public FileChooserBuilder setExternalFilesProvider(DocumentsProvider extFileProvider) {
         //throw new FileChooserException.NotImplementedException();
         externalFilesProvider = extFileProvider;
@@ -410,6 +517,14 @@ public class FileChooserBuilder implements Serializable {
 
     public boolean getShowNavigationLongForm() { return navPathBtnsLongForm; }
 
+    public boolean getShowImageThumbnails() { return showImageThumbnails; }
+
+    public boolean getReturnSelectionDetails() { return returnSelectionDetails; }
+
+    public FileContentDigests.DigestAlgorithm getContentDigestAlgorithm() { return contentDigestAlgo; }
+
+    public int getResultInlineMaxItems() { return resultInlineMaxItems; }
+
     public String getInitialPathAbsolute() { return startPathAbsolute; }
 
     public String getInitialPathRelative() { return startPathRelative; }
@@ -472,6 +587,13 @@ public class FileChooserBuilder implements Serializable {
 
     public static final String FILE_PICKER_INTENT_DATA_TYPE_KEY = "FilePickerIntentKey.SelectedIntentDataType";
     public static final String FILE_PICKER_INTENT_DATA_PAYLOAD_KEY = "FilePickerIntentKey.SelectedIntentDataPayloadList";
+    public static final String FILE_PICKER_INTENT_DATA_PAYLOAD_FILE_KEY = "FilePickerIntentKey.SelectedIntentDataPayloadFile";
+    public static final String FILE_PICKER_INTENT_DATA_PAYLOAD_COUNT_KEY = "FilePickerIntentKey.SelectedIntentDataPayloadCount";
+    public static final String FILE_PICKER_INTENT_DATA_SIZES_KEY = "FilePickerIntentKey.SelectedIntentDataSizes";
+    public static final String FILE_PICKER_INTENT_DATA_MTIMES_KEY = "FilePickerIntentKey.SelectedIntentDataModifiedTimes";
+    public static final String FILE_PICKER_INTENT_DATA_MIME_TYPES_KEY = "FilePickerIntentKey.SelectedIntentDataMimeTypes";
+    public static final String FILE_PICKER_INTENT_DATA_DIGESTS_KEY = "FilePickerIntentKey.SelectedIntentDataDigests";
+    public static final String FILE_PICKER_INTENT_DATA_DIGEST_ALGORITHM_KEY = "FilePickerIntentKey.SelectedIntentDataDigestAlgorithm";
     public static final String FILE_PICKER_EXCEPTION_MESSAGE_KEY = "FilePickerIntentKey.UnexpectedExitMessage";
     public static final String FILE_PICKER_EXCEPTION_CAUSE_KEY = "FilePickerIntentKey.ExceptionCauseDescKey";
 
@@ -514,7 +636,8 @@ public class FileChooserBuilder implements Serializable {
             postExceptionToUIThread(new FileChooserException.CommunicateNoDataException());
         }
         if(resultCode == RESULT_OK) {
-            List<String> selectedDataItems = data.getStringArrayListExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_KEY);
+            // Large selections are only read in from their payload file when the list is first accessed:
+            List<String> selectedDataItems = SelectionResultPayload.readSelection(data);
             finishActivityResultHandler(activityInst);
             try { // A short pause to give the calling Activity time to resume form at the top of the display:
                 Thread.sleep(50);
@@ -537,6 +660,16 @@ public class FileChooserBuilder implements Serializable {
         return new ArrayList<String>();
     }
 
+    /* The selected items with their (optional) sizes, MIME types, modification times and content digests.
+     * The list returned by handleActivityResult can also be cast to SelectionResultPayload.SelectedFilesList:
+     */
+    public static List<SelectionResultPayload.SelectedFileRecord> getSelectedFileRecords(Intent data) {
+        if(data == null) {
+            return new ArrayList<SelectionResultPayload.SelectedFileRecord>();
+        }
+        return SelectionResultPayload.readSelection(data).getSelectedFileRecords();
+    }
+
     /* The next procedure is necessary because for some reason the app otherwise
      * freezes without bringing the original Activity context back to the front:
      */
@@ -21,7 +21,6 @@ import android.content.Intent;
 
 import java.io.File;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -151,8 +150,7 @@ public class FileChooserException {
         }
 
         public List<String> packageDataItemsFromIntent(Intent fileItemsIntent) {
-            ArrayList<String> selectedFilePathsList = fileItemsIntent.getStringArrayListExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_KEY);
-            return selectedFilePathsList;
+            return SelectionResultPayload.readSelection(fileItemsIntent);
         }
 
         public <DataTypeT extends Object> void setDataItemsFieldFormatterInterface(ExceptionDataFieldFormatter dataFormatterObj) {
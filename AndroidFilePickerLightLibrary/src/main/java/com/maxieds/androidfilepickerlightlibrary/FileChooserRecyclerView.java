@@ -20,20 +20,32 @@ package com.maxieds.androidfilepickerlightlibrary;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
 import android.widget.LinearLayout;
 
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.BitSet;
+import java.util.Locale;
+
 public class FileChooserRecyclerView extends RecyclerView {
 
     private static final String LOGTAG = FileChooserRecyclerView.class.getSimpleName();
 
+    private DragSelectTouchListener dragSelectListener = null;
+    private RecyclingStatsScrollListener recyclingStatsListener = null;
+
     public FileChooserRecyclerView(Context layoutCtx) {
         super(layoutCtx);
         setupRecyclerViewLayout();
@@ -67,7 +79,21 @@ public class FileChooserRecyclerView extends RecyclerView {
                 )
         );
         getItemAnimator().setChangeDuration(0);
+        if(dragSelectListener == null) {
+            dragSelectListener = new DragSelectTouchListener(this);
+            addOnItemTouchListener(dragSelectListener);
+        }
+        if(recyclingStatsListener == null) {
+            recyclingStatsListener = new RecyclingStatsScrollListener();
+            addOnScrollListener(recyclingStatsListener);
+        }
+
+    }
 
+    public void setDragSelectEnabled(boolean enableDragSelect) {
+        if(dragSelectListener != null) {
+            dragSelectListener.setEnabled(enableDragSelect);
+        }
     }
 
     // We want it to move when flung and be responsive, but keep an approximately
@@ -88,6 +114,284 @@ public class FileChooserRecyclerView extends RecyclerView {
         return super.fling(0, scaledVelocityY);
     }
 
+    /* Logs how many rows were inflated (versus rebound) during each scroll. Once the recycled view
+     * pool has filled up with the first screens of rows, this should stay at (or near) zero:
+     */
+    public static class RecyclingStatsScrollListener extends RecyclerView.OnScrollListener {
+
+        private int scrollStartInflatedCount = 0;
+        private int scrollStartBoundCount = 0;
+        private boolean isScrolling = false;
+
+        @Override
+        public void onScrollStateChanged(RecyclerView rview, int newState) {
+            if(newState != RecyclerView.SCROLL_STATE_IDLE && !isScrolling) {
+                isScrolling = true;
+                scrollStartInflatedCount = DisplayAdapters.FileListAdapter.getInflatedRowsCount();
+                scrollStartBoundCount = DisplayAdapters.FileListAdapter.getBoundRowsCount();
+            }
+            else if(newState == RecyclerView.SCROLL_STATE_IDLE && isScrolling) {
+                isScrolling = false;
+                if(Log.isLoggable(LOGTAG, Log.DEBUG)) {
+                    Log.d(LOGTAG, String.format(Locale.getDefault(), "SCROLL RECYCLING STATS: %d rows inflated, %d rows bound (%d inflated in total)",
+                            DisplayAdapters.FileListAdapter.getInflatedRowsCount() - scrollStartInflatedCount,
+                            DisplayAdapters.FileListAdapter.getBoundRowsCount() - scrollStartBoundCount,
+                            DisplayAdapters.FileListAdapter.getInflatedRowsCount()));
+                }
+            }
+        }
+
+    }
+
+    /* Drag to select: pressing on a selection box and dragging up or down selects (or, when starting
+     * from a checked item, deselects) the whole range of items between there and the finger. The range
+     * is kept in the selection set as an interval of folder indices, so the items scrolled past do not
+     * need to be loaded, or toggled, one by one. Holding the finger near the top or bottom edge auto
+     * scrolls the list, faster the closer it is to the edge, and asks the sliding window for the next
+     * page before the loaded items run out:
+     */
+    public static class DragSelectTouchListener implements RecyclerView.OnItemTouchListener {
+
+        private static final float AUTO_SCROLL_EDGE_DP = 56.0f;
+        private static final float AUTO_SCROLL_MAX_STEP_DP = 20.0f; // Per animation frame
+        private static final long PAGES_AHEAD_REQUEST_INTERVAL = 100L; // Milliseconds
+
+        private final FileChooserRecyclerView mainRV;
+        private final int touchSlop;
+        private final int autoScrollEdgeSize;
+        private final int autoScrollMaxStep;
+        private final Rect selectionBoxRect;
+        private boolean isEnabled;
+        private boolean dragArmed, dragActive;
+        private float downX, downY, lastX, lastY;
+        private int lastFolderIndex;
+        private int autoScrollStep;
+        private boolean autoScrollPosted;
+        private long lastPagesAheadRequestTime;
+
+        private final Runnable autoScrollRunner = new Runnable() {
+            @Override
+            public void run() {
+                autoScrollPosted = false;
+                if(!dragActive || autoScrollStep == 0) {
+                    return;
+                }
+                autoScrollWithinLoadedItems();
+                updateDragToPoint(lastX, lastY);
+                autoScrollPosted = true;
+                mainRV.postOnAnimation(this);
+            }
+        };
+
+        public DragSelectTouchListener(FileChooserRecyclerView mainRV) {
+            this.mainRV = mainRV;
+            float displayDensity = mainRV.getResources().getDisplayMetrics().density;
+            touchSlop = ViewConfiguration.get(mainRV.getContext()).getScaledTouchSlop();
+            autoScrollEdgeSize = (int) (AUTO_SCROLL_EDGE_DP * displayDensity);
+            autoScrollMaxStep = Math.max(1, (int) (AUTO_SCROLL_MAX_STEP_DP * displayDensity));
+            selectionBoxRect = new Rect();
+            isEnabled = true;
+            dragArmed = dragActive = false;
+            lastFolderIndex = -1;
+            autoScrollStep = 0;
+            autoScrollPosted = false;
+            lastPagesAheadRequestTime = 0L;
+        }
+
+        public void setEnabled(boolean enable) {
+            isEnabled = enable;
+            if(!enable) {
+                finishDrag();
+            }
+        }
+
+        private boolean isOverSelectionBox(float x, float y) {
+            View childView = mainRV.findChildViewUnder(x, y);
+            if(childView == null) {
+                return false;
+            }
+            RecyclerView.ViewHolder childHolder = mainRV.getChildViewHolder(childView);
+            CheckBox selectionBox = childHolder instanceof DisplayAdapters.BaseViewHolder ?
+                    ((DisplayAdapters.BaseViewHolder) childHolder).getFileSelectionBox() : null;
+            if(selectionBox == null || !selectionBox.isEnabled() || selectionBox.getVisibility() != View.VISIBLE) {
+                return false;
+            }
+            selectionBox.getDrawingRect(selectionBoxRect);
+            mainRV.offsetDescendantRectToMyCoords(selectionBox, selectionBoxRect);
+            // Anywhere in the column of the selection boxes:
+            return x >= selectionBoxRect.left - touchSlop && x <= selectionBoxRect.right + touchSlop;
+        }
+
+        private DisplayTypes.FileType getFileItemUnder(float x, float y) {
+            float clampedY = Math.max(0.0f, Math.min(y, mainRV.getHeight() - 1));
+            View childView = mainRV.findChildViewUnder(x, clampedY);
+            if(childView == null) {
+                return null;
+            }
+            DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainRV.getAdapter();
+            int adapterPos = mainRV.getChildAdapterPosition(childView);
+            return rvAdapter == null || adapterPos == RecyclerView.NO_POSITION ? null : rvAdapter.getFileItemByIndex(adapterPos);
+        }
+
+        private boolean startDrag() {
+            DisplayTypes.FileType anchorItem = getFileItemUnder(downX, downY);
+            if(anchorItem == null || anchorItem.getFolderIndex() < 0) {
+                // Not backed by a folder snapshot (e.g., the recent documents): leave it to the selection boxes
+                return false;
+            }
+            FileSelectionSet activeSelections = DisplayFragments.getInstance().activeSelections;
+            BitSet changedIndices = new BitSet();
+            if(!activeSelections.beginRangeDrag(anchorItem.getFolderIndex(), !anchorItem.isChecked(), changedIndices)) {
+                return false;
+            }
+            lastFolderIndex = anchorItem.getFolderIndex();
+            dragActive = true;
+            DisplayFragments.getInstance().onFolderSelectionsChanged(changedIndices);
+            return true;
+        }
+
+        private void updateDragToPoint(float x, float y) {
+            DisplayTypes.FileType fileItem = getFileItemUnder(x, y);
+            if(fileItem == null || fileItem.getFolderIndex() < 0 || fileItem.getFolderIndex() == lastFolderIndex) {
+                return;
+            }
+            // Only the rows between the previous and the new end of the range change (and get hashed):
+            FileSelectionSet activeSelections = DisplayFragments.getInstance().activeSelections;
+            BitSet changedIndices = new BitSet();
+            activeSelections.updateRangeDrag(fileItem.getFolderIndex(), changedIndices);
+            lastFolderIndex = fileItem.getFolderIndex();
+            DisplayFragments.getInstance().onFolderSelectionsChanged(changedIndices);
+            if(!activeSelections.isRangeDragActive()) {
+                finishDrag();
+            }
+        }
+
+        private void updateAutoScroll(float y) {
+            int rvHeight = mainRV.getHeight();
+            if(y < autoScrollEdgeSize) {
+                autoScrollStep = -Math.max(1, (int) (autoScrollMaxStep * Math.min(1.0f, (autoScrollEdgeSize - y) / autoScrollEdgeSize)));
+            }
+            else if(y > rvHeight - autoScrollEdgeSize) {
+                autoScrollStep = Math.max(1, (int) (autoScrollMaxStep * Math.min(1.0f, (y - rvHeight + autoScrollEdgeSize) / autoScrollEdgeSize)));
+            }
+            else {
+                autoScrollStep = 0;
+            }
+            if(autoScrollStep != 0 && !autoScrollPosted) {
+                autoScrollPosted = true;
+                mainRV.postOnAnimation(autoScrollRunner);
+            }
+        }
+
+        /* Scrolls by the current step unless the edge of the loaded window is on screen, in which case we
+         * wait for the page requested from the sliding window to arrive:
+         */
+        private void autoScrollWithinLoadedItems() {
+            DisplayFragments displayCtx = DisplayFragments.getInstance();
+            LinearLayoutManager rvLayoutManager = (LinearLayoutManager) mainRV.getLayoutManager();
+            RecyclerView.Adapter<?> rvAdapter = mainRV.getAdapter();
+            if(rvLayoutManager == null || rvAdapter == null || displayCtx.getCwdFolderContext() == null) {
+                return;
+            }
+            int lookAheadCount = DisplayFragments.getViewportMaxFilesCount();
+            boolean towardsBottom = autoScrollStep > 0;
+            boolean atWindowEdge, moreInFolder;
+            if(towardsBottom) {
+                int lastVisiblePos = rvLayoutManager.findLastVisibleItemPosition();
+                atWindowEdge = lastVisiblePos >= rvAdapter.getItemCount() - 1;
+                moreInFolder = displayCtx.lastFileDataEndIndex + 1 < displayCtx.getCwdFolderContext().getFolderChildCount();
+                if(moreInFolder && lastVisiblePos >= rvAdapter.getItemCount() - 1 - lookAheadCount) {
+                    requestPagesAhead(true);
+                }
+            }
+            else {
+                int firstVisiblePos = rvLayoutManager.findFirstVisibleItemPosition();
+                atWindowEdge = firstVisiblePos <= 0;
+                moreInFolder = displayCtx.lastFileDataStartIndex > 0;
+                if(moreInFolder && firstVisiblePos <= lookAheadCount) {
+                    requestPagesAhead(false);
+                }
+            }
+            if(!atWindowEdge) {
+                mainRV.scrollBy(0, autoScrollStep);
+            }
+        }
+
+        private void requestPagesAhead(boolean towardsBottom) {
+            long curTime = SystemClock.uptimeMillis();
+            if(curTime - lastPagesAheadRequestTime < PAGES_AHEAD_REQUEST_INTERVAL) {
+                return;
+            }
+            lastPagesAheadRequestTime = curTime;
+            FileChooserActivity.getInstance().requestPrefetchPagesAhead(towardsBottom);
+        }
+
+        private void finishDrag() {
+            if(dragActive) {
+                DisplayFragments.getInstance().activeSelections.endRangeDrag();
+            }
+            dragArmed = dragActive = false;
+            lastFolderIndex = -1;
+            autoScrollStep = 0;
+            mainRV.removeCallbacks(autoScrollRunner);
+            autoScrollPosted = false;
+        }
+
+        @Override
+        public boolean onInterceptTouchEvent(RecyclerView rview, MotionEvent mevt) {
+            if(!isEnabled) {
+                return false;
+            }
+            switch(mevt.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    downX = lastX = mevt.getX();
+                    downY = lastY = mevt.getY();
+                    dragArmed = isOverSelectionBox(downX, downY);
+                    return false;
+                case MotionEvent.ACTION_MOVE:
+                    if(dragArmed && !dragActive && Math.abs(mevt.getY() - downY) > touchSlop) {
+                        dragArmed = false;
+                        if(startDrag()) {
+                            rview.getParent().requestDisallowInterceptTouchEvent(true);
+                            return true;
+                        }
+                    }
+                    return dragActive;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    dragArmed = false;
+                    return false;
+                default:
+                    return dragActive;
+            }
+        }
+
+        @Override
+        public void onTouchEvent(RecyclerView rview, MotionEvent mevt) {
+            if(!dragActive) {
+                return;
+            }
+            switch(mevt.getActionMasked()) {
+                case MotionEvent.ACTION_MOVE:
+                    lastX = mevt.getX();
+                    lastY = mevt.getY();
+                    updateDragToPoint(lastX, lastY);
+                    updateAutoScroll(lastY);
+                    break;
+                case MotionEvent.ACTION_UP:
+                case MotionEvent.ACTION_CANCEL:
+                    finishDrag();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) {}
+
+    }
+
     public interface RecyclerViewSlidingContextWindow {
 
         void setWeightBufferSize(int size);
@@ -0,0 +1,316 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Hashes the selected files while the user is still browsing: each file is queued on a small
+ * bounded pool as soon as it is checked (and the work is cancelled if it gets unchecked again), so
+ * that by the time the selection is returned most of the digests are already done. The contents
+ * are hashed over memory mapped chunks, so no copies of the file data are made on the Java heap.
+ */
+public class FileContentDigests {
+
+    private static String LOGTAG = FileContentDigests.class.getSimpleName();
+
+    public enum DigestAlgorithm {
+        SHA256("SHA-256"),
+        CRC32C("CRC32C"); // Fast (table driven), but not a cryptographic hash
+
+        private final String algorithmName;
+
+        DigestAlgorithm(String algoName) {
+            algorithmName = algoName;
+        }
+
+        public String getAlgorithmName() { return algorithmName; }
+
+    }
+
+    public static final int MAPPED_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_DIGEST_THREADS = 4;
+
+    private final DigestAlgorithm digestAlgo;
+    private final ExecutorService digestPool;
+    private final ExecutorService batchesExecutor;
+    private final ConcurrentHashMap<String, Future<String>> pendingDigests;
+
+    public FileContentDigests(DigestAlgorithm digestAlgo) {
+        this.digestAlgo = digestAlgo;
+        int poolSize = Math.max(1, Math.min(MAX_DIGEST_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        this.digestPool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread digestThread = new Thread(runnable, "FileDigest-" + threadCount.incrementAndGet());
+                digestThread.setPriority(Thread.MIN_PRIORITY);
+                digestThread.setDaemon(true);
+                return digestThread;
+            }
+        });
+        this.batchesExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread batchThread = new Thread(runnable, "FileDigestBatches");
+                batchThread.setDaemon(true);
+                return batchThread;
+            }
+        });
+        this.pendingDigests = new ConcurrentHashMap<String, Future<String>>();
+    }
+
+    public DigestAlgorithm getDigestAlgorithm() { return digestAlgo; }
+
+    /* Cheap enough to call for every item of a bulk selection: the check for folders (which have no
+     * digest) is made on the worker thread:
+     */
+    public void requestDigest(final File selectedFile) {
+        if(selectedFile == null) {
+            return;
+        }
+        final String filePath = selectedFile.getAbsolutePath();
+        if(pendingDigests.containsKey(filePath)) {
+            return;
+        }
+        Future<String> digestTask = digestPool.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if(selectedFile.isDirectory()) {
+                    return null;
+                }
+                return computeDigest(selectedFile, digestAlgo);
+            }
+        });
+        if(pendingDigests.putIfAbsent(filePath, digestTask) != null) {
+            digestTask.cancel(true);
+        }
+    }
+
+    /* Bulk selection changes (select all, invert, range drags) over the indices of a folder snapshot
+     * are handed over as a single batch: the UI thread only takes a reference to the listing and
+     * copies of the bitsets, and the batch thread walks them to queue (or cancel) the digest of each
+     * file. Batches are walked in the order they were requested:
+     */
+    public void requestDigests(FolderSnapshotCache.FolderSnapshot folderSnapshot, BitSet selectedIndices, BitSet deselectedIndices) {
+        if(folderSnapshot == null || (selectedIndices.isEmpty() && deselectedIndices.isEmpty())) {
+            return;
+        }
+        // Read the count before the array (see FolderSnapshot.getFilesArray):
+        final int filesCount = folderSnapshot.getFilesCount();
+        final File[] folderFiles = folderSnapshot.getFilesArray();
+        final BitSet requestBits = (BitSet) selectedIndices.clone();
+        final BitSet cancelBits = (BitSet) deselectedIndices.clone();
+        batchesExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for(int fidx = cancelBits.nextSetBit(0); fidx >= 0 && fidx < filesCount; fidx = cancelBits.nextSetBit(fidx + 1)) {
+                    cancelDigest(folderFiles[fidx].getAbsolutePath());
+                }
+                for(int fidx = requestBits.nextSetBit(0); fidx >= 0 && fidx < filesCount; fidx = requestBits.nextSetBit(fidx + 1)) {
+                    requestDigest(folderFiles[fidx]);
+                }
+            }
+        });
+    }
+
+    public void cancelDigest(String filePath) {
+        Future<String> digestTask = pendingDigests.remove(filePath);
+        if(digestTask != null) {
+            digestTask.cancel(true);
+        }
+    }
+
+    public void cancelAll() {
+        Iterator<Map.Entry<String, Future<String>>> digestsIter = pendingDigests.entrySet().iterator();
+        while(digestsIter.hasNext()) {
+            digestsIter.next().getValue().cancel(true);
+            digestsIter.remove();
+        }
+    }
+
+    public void shutdown() {
+        batchesExecutor.shutdownNow();
+        cancelAll();
+        digestPool.shutdownNow();
+    }
+
+    public boolean isDigestReady(String filePath) {
+        Future<String> digestTask = pendingDigests.get(filePath);
+        return digestTask != null && digestTask.isDone();
+    }
+
+    /* Waits for the digest of the file (computing it now if it was never requested). Returns the
+     * lowercase hex digest, or null if the file could not be read:
+     */
+    public String getDigest(File selectedFile) {
+        if(selectedFile == null || selectedFile.isDirectory()) {
+            return null;
+        }
+        requestDigest(selectedFile);
+        Future<String> digestTask = pendingDigests.get(selectedFile.getAbsolutePath());
+        if(digestTask == null) {
+            return null;
+        }
+        try {
+            return digestTask.get();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch(CancellationException ce) {
+            return null;
+        } catch(ExecutionException ee) {
+            Log.w(LOGTAG, "Unable to hash " + selectedFile.getAbsolutePath() + ": " + ee.getCause());
+            return null;
+        }
+    }
+
+    public static String computeDigest(File inputFile, DigestAlgorithm digestAlgo) throws IOException {
+        FileChannel fileChannel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ);
+        try {
+            long fileSize = fileChannel.size();
+            if(digestAlgo == DigestAlgorithm.CRC32C) {
+                Crc32cChecksum crcChecksum = new Crc32cChecksum();
+                for(long chunkPos = 0; chunkPos < fileSize; chunkPos += MAPPED_CHUNK_SIZE) {
+                    checkNotCancelled(inputFile);
+                    crcChecksum.update(mapNextChunk(fileChannel, chunkPos, fileSize));
+                }
+                return String.format("%08x", crcChecksum.getValue());
+            }
+            MessageDigest msgDigest = MessageDigest.getInstance(digestAlgo.getAlgorithmName());
+            for(long chunkPos = 0; chunkPos < fileSize; chunkPos += MAPPED_CHUNK_SIZE) {
+                checkNotCancelled(inputFile);
+                msgDigest.update(mapNextChunk(fileChannel, chunkPos, fileSize));
+            }
+            return toHexString(msgDigest.digest());
+        } catch(NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae);
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+    private static void checkNotCancelled(File inputFile) throws IOException {
+        if(Thread.interrupted()) {
+            throw new IOException("Digest of " + inputFile.getName() + " was cancelled");
+        }
+    }
+
+    private static MappedByteBuffer mapNextChunk(FileChannel fileChannel, long chunkPos, long fileSize) throws IOException {
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, chunkPos, Math.min((long) MAPPED_CHUNK_SIZE, fileSize - chunkPos));
+    }
+
+    /*
+     * CRC-32C (Castagnoli), which java.util.zip only provides from API level 34 on. The checksum is
+     * computed eight bytes at a time with the slicing-by-8 tables, reading the (mapped) buffers in
+     * place instead of copying them onto the heap.
+     */
+    public static class Crc32cChecksum {
+
+        private static final int CRC32C_REVERSED_POLY = 0x82F63B78;
+        private static final int[][] CRC32C_TABLES = new int[8][256];
+        static {
+            for(int bidx = 0; bidx < 256; bidx++) {
+                int crcValue = bidx;
+                for(int bitPos = 0; bitPos < 8; bitPos++) {
+                    crcValue = (crcValue >>> 1) ^ ((crcValue & 1) != 0 ? CRC32C_REVERSED_POLY : 0);
+                }
+                CRC32C_TABLES[0][bidx] = crcValue;
+            }
+            for(int bidx = 0; bidx < 256; bidx++) {
+                for(int tidx = 1; tidx < 8; tidx++) {
+                    int prevValue = CRC32C_TABLES[tidx - 1][bidx];
+                    CRC32C_TABLES[tidx][bidx] = (prevValue >>> 8) ^ CRC32C_TABLES[0][prevValue & 0xff];
+                }
+            }
+        }
+
+        private int crcState = 0xffffffff;
+
+        public void update(byte[] dataBytes, int offset, int length) {
+            update(ByteBuffer.wrap(dataBytes, offset, length));
+        }
+
+        public void update(ByteBuffer dataBuf) {
+            int[] t0 = CRC32C_TABLES[0], t1 = CRC32C_TABLES[1], t2 = CRC32C_TABLES[2], t3 = CRC32C_TABLES[3];
+            int[] t4 = CRC32C_TABLES[4], t5 = CRC32C_TABLES[5], t6 = CRC32C_TABLES[6], t7 = CRC32C_TABLES[7];
+            int crcValue = crcState;
+            int bufPos = dataBuf.position(), bufLimit = dataBuf.limit();
+            ByteOrder prevByteOrder = dataBuf.order();
+            dataBuf.order(ByteOrder.LITTLE_ENDIAN);
+            for(; bufLimit - bufPos >= 8; bufPos += 8) {
+                long dataWord = dataBuf.getLong(bufPos);
+                int lowWord = (int) dataWord ^ crcValue;
+                int highWord = (int) (dataWord >>> 32);
+                crcValue = t7[lowWord & 0xff] ^ t6[(lowWord >>> 8) & 0xff] ^
+                           t5[(lowWord >>> 16) & 0xff] ^ t4[lowWord >>> 24] ^
+                           t3[highWord & 0xff] ^ t2[(highWord >>> 8) & 0xff] ^
+                           t1[(highWord >>> 16) & 0xff] ^ t0[highWord >>> 24];
+            }
+            for(; bufPos < bufLimit; bufPos++) {
+                crcValue = (crcValue >>> 8) ^ t0[(crcValue ^ dataBuf.get(bufPos)) & 0xff];
+            }
+            dataBuf.order(prevByteOrder);
+            dataBuf.position(bufLimit);
+            crcState = crcValue;
+        }
+
+        public long getValue() {
+            return (~crcState) & 0xffffffffL;
+        }
+
+        public void reset() {
+            crcState = 0xffffffff;
+        }
+
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static String toHexString(byte[] digestBytes) {
+        char[] hexChars = new char[2 * digestBytes.length];
+        for(int bidx = 0; bidx < digestBytes.length; bidx++) {
+            hexChars[2 * bidx] = HEX_DIGITS[(digestBytes[bidx] >> 4) & 0x0f];
+            hexChars[2 * bidx + 1] = HEX_DIGITS[digestBytes[bidx] & 0x0f];
+        }
+        return new String(hexChars);
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * Reads ranges of the documents through their FileChannel instead of copying them through small
+ * stream buffers. Small ranges are read with a single positional read straight into a buffer of the
+ * exact size; large ranges are memory mapped, so the pages are only brought in as the caller reads
+ * them (and the mapping stays valid after the channel is closed). Whole files can be streamed with
+ * the chunk iterator, which reuses one direct buffer for every chunk.
+ * Text is decoded with a CharsetDecoder that carries the partial multi-byte sequences over from
+ * one buffer to the next, either line by line from the front of the file, or (for the log viewer
+ * style "last N lines" reads) by scanning mapped windows backwards from the end of the file.
+ */
+public class FileContentsReader {
+
+    private static String LOGTAG = FileContentsReader.class.getSimpleName();
+
+    public static final int DEFAULT_MAPPED_READ_THRESHOLD = 256 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_TEXT_BUFFER_SIZE = 64 * 1024;
+    public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    private static int mappedReadThreshold = DEFAULT_MAPPED_READ_THRESHOLD;
+    public static void setMappedReadThreshold(int thresholdBytes) { mappedReadThreshold = Math.max(1, thresholdBytes); }
+    public static int getMappedReadThreshold() { return mappedReadThreshold; }
+
+    public static FileChannel openChannel(ParcelFileDescriptor docDesc) {
+        return new ParcelFileDescriptor.AutoCloseInputStream(docDesc).getChannel();
+    }
+
+    /* Returns a read-only buffer over [position, position + maxBytes) clipped to the end of the file
+     * (positioned at zero with its limit set to the number of bytes read):
+     */
+    public static ByteBuffer readRange(FileChannel fileChannel, long position, int maxBytes) throws IOException {
+        if(position < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Negative read position or length");
+        }
+        long fileSize = fileChannel.size();
+        int rangeLength = (int) Math.max(0L, Math.min((long) maxBytes, fileSize - position));
+        if(rangeLength == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        else if(rangeLength >= mappedReadThreshold) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, position, rangeLength);
+        }
+        ByteBuffer rangeBuffer = ByteBuffer.allocate(rangeLength);
+        readFully(fileChannel, rangeBuffer, position);
+        rangeBuffer.flip();
+        return rangeBuffer.asReadOnlyBuffer();
+    }
+
+    /* Positional reads (the channel's own position is left alone) until the buffer is full or the end
+     * of the file is reached. Returns the number of bytes read:
+     */
+    public static int readFully(FileChannel fileChannel, ByteBuffer destBuffer, long position) throws IOException {
+        int totalBytesRead = 0;
+        while(destBuffer.hasRemaining()) {
+            int bytesRead = fileChannel.read(destBuffer, position + totalBytesRead);
+            if(bytesRead < 0) {
+                break;
+            }
+            totalBytesRead += bytesRead;
+        }
+        return totalBytesRead;
+    }
+
+    /* Streams a file in chunks of (at most) chunkSize bytes. The buffer returned by next() is reused for
+     * the following chunk, so it is only valid until the next call. Close the iterator (or read it to
+     * the end) to release the file:
+     */
+    public static class FileChunkIterator implements Iterator<ByteBuffer>, Closeable {
+
+        private final FileChannel fileChannel;
+        private final ByteBuffer chunkBuffer;
+        private final long endPosition;
+        private long nextPosition;
+        private boolean isClosed;
+
+        public FileChunkIterator(FileChannel fileChannel, long startPosition, long maxBytes, int chunkSize) throws IOException {
+            this.fileChannel = fileChannel;
+            this.chunkBuffer = ByteBuffer.allocateDirect(Math.max(1, chunkSize));
+            this.nextPosition = Math.max(0L, startPosition);
+            long fileSize = fileChannel.size();
+            this.endPosition = maxBytes < 0 || nextPosition + maxBytes > fileSize ? fileSize : nextPosition + maxBytes;
+            this.isClosed = false;
+        }
+
+        public FileChunkIterator(FileChannel fileChannel, int chunkSize) throws IOException {
+            this(fileChannel, 0L, -1L, chunkSize);
+        }
+
+        public long getNextPosition() { return nextPosition; }
+
+        @Override
+        public boolean hasNext() {
+            if(isClosed) {
+                return false;
+            }
+            else if(nextPosition >= endPosition) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            chunkBuffer.clear();
+            chunkBuffer.limit((int) Math.min((long) chunkBuffer.capacity(), endPosition - nextPosition));
+            try {
+                int bytesRead = readFully(fileChannel, chunkBuffer, nextPosition);
+                if(bytesRead == 0) {
+                    // The file was truncated while we were reading it:
+                    close();
+                    throw new NoSuchElementException();
+                }
+                nextPosition += bytesRead;
+            } catch(IOException ioe) {
+                close();
+                throw new IllegalStateException("Unable to read the next chunk: " + ioe.getMessage(), ioe);
+            }
+            chunkBuffer.flip();
+            return chunkBuffer;
+        }
+
+        @Override
+        public void close() {
+            if(isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                fileChannel.close();
+            } catch(IOException ioe) {
+                Log.w(LOGTAG, "Unable to close the file channel: " + ioe.getMessage());
+            }
+        }
+
+    }
+
+    public static CharsetDecoder newReplacingDecoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public static String decodeRange(FileChannel fileChannel, Charset charset, long position, int maxBytes) throws IOException {
+        ByteBuffer rangeBuffer = readRange(fileChannel, position, maxBytes);
+        return newReplacingDecoder(charset).decode(rangeBuffer).toString();
+    }
+
+    /* Iterates over the lines of the file (without the "\n" or "\r\n" terminators) starting at a
+     * byte position. Closes the file once the last line has been returned:
+     */
+    public static class LineIterator implements Iterator<String>, Closeable {
+
+        private final FileChannel fileChannel;
+        private final CharsetDecoder charsetDecoder;
+        private final ByteBuffer byteBuffer;
+        private final CharBuffer charBuffer;
+        private final StringBuilder lineBuilder;
+        private long nextPosition;
+        private boolean endOfInput;
+        private boolean isClosed;
+        private String nextLine;
+
+        public LineIterator(FileChannel fileChannel, Charset charset, long startPosition, int bufferSize) {
+            this.fileChannel = fileChannel;
+            this.charsetDecoder = newReplacingDecoder(charset);
+            this.byteBuffer = ByteBuffer.allocateDirect(Math.max(16, bufferSize));
+            this.charBuffer = CharBuffer.allocate(Math.max(16, bufferSize));
+            this.lineBuilder = new StringBuilder();
+            this.nextPosition = Math.max(0L, startPosition);
+            this.endOfInput = false;
+            this.isClosed = false;
+            this.nextLine = null;
+            // Both buffers start out empty in their read modes:
+            byteBuffer.flip();
+            charBuffer.flip();
+        }
+
+        public LineIterator(FileChannel fileChannel, Charset charset) {
+            this(fileChannel, charset, 0L, DEFAULT_TEXT_BUFFER_SIZE);
+        }
+
+        /* Decodes the next buffer of the file, keeping the bytes of a partial character for the next
+         * round. Returns false once the whole file has been decoded:
+         */
+        private boolean decodeNextBuffer() throws IOException {
+            if(endOfInput) {
+                return false;
+            }
+            charBuffer.compact();
+            byteBuffer.compact();
+            int bytesRead = fileChannel.read(byteBuffer, nextPosition);
+            if(bytesRead > 0) {
+                nextPosition += bytesRead;
+            }
+            byteBuffer.flip();
+            boolean atEndOfFile = bytesRead < 0;
+            CoderResult decodeResult = charsetDecoder.decode(byteBuffer, charBuffer, atEndOfFile);
+            if(atEndOfFile && !decodeResult.isOverflow()) {
+                charsetDecoder.flush(charBuffer);
+                endOfInput = true;
+            }
+            charBuffer.flip();
+            return true;
+        }
+
+        private String readNextLine() throws IOException {
+            lineBuilder.setLength(0);
+            boolean foundChars = false;
+            do {
+                while(charBuffer.hasRemaining()) {
+                    char nextChar = charBuffer.get();
+                    foundChars = true;
+                    if(nextChar == '\n') {
+                        return finishLine();
+                    }
+                    lineBuilder.append(nextChar);
+                }
+            } while(decodeNextBuffer());
+            return foundChars ? finishLine() : null;
+        }
+
+        private String finishLine() {
+            int lineLength = lineBuilder.length();
+            if(lineLength > 0 && lineBuilder.charAt(lineLength - 1) == '\r') {
+                lineBuilder.setLength(lineLength - 1);
+            }
+            return lineBuilder.toString();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(nextLine != null) {
+                return true;
+            }
+            else if(isClosed) {
+                return false;
+            }
+            try {
+                nextLine = readNextLine();
+            } catch(IOException ioe) {
+                close();
+                throw new IllegalStateException("Unable to read the next line: " + ioe.getMessage(), ioe);
+            }
+            if(nextLine == null) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String currentLine = nextLine;
+            nextLine = null;
+            return currentLine;
+        }
+
+        @Override
+        public void close() {
+            if(isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                fileChannel.close();
+            } catch(IOException ioe) {
+                Log.w(LOGTAG, "Unable to close the file channel: " + ioe.getMessage());
+            }
+        }
+
+    }
+
+    public static List<String> readFirstLines(FileChannel fileChannel, Charset charset, int maxLines) {
+        List<String> firstLines = new ArrayList<String>();
+        LineIterator lineIter = new LineIterator(fileChannel, charset);
+        try {
+            while(firstLines.size() < maxLines && lineIter.hasNext()) {
+                firstLines.add(lineIter.next());
+            }
+        } finally {
+            lineIter.close();
+        }
+        return firstLines;
+    }
+
+    /* The charsets where a 0x0A byte is always a newline (and never part of another character),
+     * so that the line breaks can be found without decoding the file:
+     */
+    private static boolean isNewlineByteSafe(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) ||
+                charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /* Finds the start of the last maxLines lines by scanning mapped windows backwards from the end of
+     * the file, and only decodes from there on. Other charsets fall back to a forward pass that keeps
+     * the last lines seen:
+     */
+    public static List<String> readLastLines(FileChannel fileChannel, Charset charset, int maxLines) throws IOException {
+        if(maxLines <= 0) {
+            fileChannel.close();
+            return new ArrayList<String>();
+        }
+        else if(!isNewlineByteSafe(charset)) {
+            ArrayDeque<String> lastLines = new ArrayDeque<String>(maxLines + 1);
+            LineIterator lineIter = new LineIterator(fileChannel, charset);
+            try {
+                while(lineIter.hasNext()) {
+                    lastLines.addLast(lineIter.next());
+                    if(lastLines.size() > maxLines) {
+                        lastLines.removeFirst();
+                    }
+                }
+            } finally {
+                lineIter.close();
+            }
+            return new ArrayList<String>(lastLines);
+        }
+        long fileSize = fileChannel.size();
+        long scanEnd = fileSize;
+        if(fileSize > 0) {
+            // A newline terminating the final line does not start another one:
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            readFully(fileChannel, lastByte, fileSize - 1);
+            if(lastByte.get(0) == '\n') {
+                scanEnd = fileSize - 1;
+            }
+        }
+        long startPosition = 0L;
+        int newlinesFound = 0;
+        long windowEnd = scanEnd;
+        scanWindows:
+        while(windowEnd > 0) {
+            long windowStart = Math.max(0L, windowEnd - DEFAULT_TEXT_BUFFER_SIZE);
+            MappedByteBuffer scanWindow = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            for(int bytePos = scanWindow.limit() - 1; bytePos >= 0; bytePos--) {
+                if(scanWindow.get(bytePos) == '\n' && ++newlinesFound == maxLines) {
+                    startPosition = windowStart + bytePos + 1;
+                    break scanWindows;
+                }
+            }
+            windowEnd = windowStart;
+        }
+        List<String> lastLines = new ArrayList<String>(Math.min(maxLines, 1024));
+        LineIterator lineIter = new LineIterator(fileChannel, charset, startPosition, DEFAULT_TEXT_BUFFER_SIZE);
+        try {
+            while(lineIter.hasNext()) {
+                lastLines.add(lineIter.next());
+            }
+        } finally {
+            lineIter.close();
+        }
+        return lastLines;
+    }
+
+    public static byte[] toByteArray(ByteBuffer byteBuffer) {
+        byte[] byteArray = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(byteArray);
+        return byteArray;
+    }
+
+}
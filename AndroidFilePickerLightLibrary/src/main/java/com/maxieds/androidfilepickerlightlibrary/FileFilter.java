@@ -19,10 +19,20 @@ package com.maxieds.androidfilepickerlightlibrary;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class FileFilter {
@@ -51,15 +61,20 @@ public class FileFilter {
 
     public static class FileFilterByMimeType extends FileFilterBase {
         private List<String> mimeTypesList;
+        private MimeTypeCache.MimeTypeMatcher mimeTypesMatcher;
         public FileFilterByMimeType(List<String> mimeTypesList, boolean inclExcl) {
             this.mimeTypesList = mimeTypesList;
+            this.mimeTypesMatcher = new MimeTypeCache.MimeTypeMatcher(mimeTypesList);
             setIncludeExcludeMatchesOption(inclExcl);
         }
+        @Override
+        public boolean accept(File parentDir, String fileBaseName) {
+            // Only the extension counts, so there is no need to build the full path:
+            return fileMatchesFilter(fileBaseName);
+        }
         public boolean fileMatchesFilter(String fileAbsName) {
-            for(int mtIdx = 0; mtIdx < mimeTypesList.size(); mtIdx++) {
-                if(FileUtils.getFileMimeType(fileAbsName).equals(mimeTypesList.get(mtIdx))) {
-                    return includeExcludeMatches == INCLUDE_FILES_IN_FILTER_PATTERN;
-                }
+            if(mimeTypesMatcher.matchesFilePath(fileAbsName)) {
+                return includeExcludeMatches == INCLUDE_FILES_IN_FILTER_PATTERN;
             }
             return includeExcludeMatches == EXCLUDE_FILES_IN_FILTER_PATTERN;
         }
@@ -81,30 +96,641 @@ public class FileFilter {
 
     public static class FileFilterByDefaultTypesList extends FileFilterBase {
         private List<FileChooserBuilder.DefaultFileTypes> defaultTypesList;
+        private FilterPredicate defaultTypesPredicate;
         public FileFilterByDefaultTypesList(List<FileChooserBuilder.DefaultFileTypes> defaultTypesList, boolean inclExcl) {
             this.defaultTypesList = defaultTypesList;
+            this.defaultTypesPredicate = FilterPredicate.defaultTypes(defaultTypesList.toArray(new FileChooserBuilder.DefaultFileTypes[0]));
             setIncludeExcludeMatchesOption(inclExcl);
         }
+        @Override
+        public boolean accept(File parentDir, String fileBaseName) {
+            if(defaultTypesPredicate.test(new FilterEntry(parentDir, fileBaseName))) {
+                return includeExcludeMatches == INCLUDE_FILES_IN_FILTER_PATTERN;
+            }
+            return includeExcludeMatches == EXCLUDE_FILES_IN_FILTER_PATTERN;
+        }
         public boolean fileMatchesFilter(String fileAbsName) {
-            for(int mtIdx = 0; mtIdx < defaultTypesList.size(); mtIdx++) {
-                if(true) {
-                    throw new FileChooserException.NotImplementedException();
+            File filePath = new File(fileAbsName);
+            return accept(filePath.getParentFile(), filePath.getName());
+        }
+    }
+
+    /* The entry a FilterPredicate is evaluated on: the base name of the file, plus its attributes,
+     * which are only read (by a single stat call shared by all of the predicates) when one of the
+     * predicates actually needs them:
+     */
+    public static class FilterEntry {
+
+        private final File parentDir;
+        private final String baseName;
+        private BasicFileAttributes fileAttrs;
+        private boolean fileAttrsRead;
+        private String extensionKey;
+
+        public FilterEntry(File parentDir, String baseName) {
+            this.parentDir = parentDir;
+            this.baseName = baseName;
+            this.fileAttrs = null;
+            this.fileAttrsRead = false;
+            this.extensionKey = null;
+        }
+
+        public String getBaseName() { return baseName; }
+
+        public boolean isHidden() { return baseName.length() > 0 && baseName.charAt(0) == '.'; }
+
+        // Lowercase, without the dot ("" when there is none):
+        public String getExtensionKey() {
+            if(extensionKey == null) {
+                String extKey = MimeTypeCache.getExtensionKey(baseName);
+                extensionKey = extKey == null ? "" : extKey;
+            }
+            return extensionKey;
+        }
+
+        // Returns null when the attributes cannot be read:
+        public BasicFileAttributes getFileAttributes() {
+            if(!fileAttrsRead) {
+                fileAttrsRead = true;
+                try {
+                    fileAttrs = Files.readAttributes(new File(parentDir, baseName).toPath(), BasicFileAttributes.class);
+                } catch(IOException | SecurityException ioe) {
+                    fileAttrs = null;
+                }
+            }
+            return fileAttrs;
+        }
+
+    }
+
+    /* A composable filter over the file base names and attributes. The predicates are combined with
+     * allOf, anyOf and not, and the combinators order their operands by an evaluation cost estimate
+     * (checks on the name first, then hash lookups, then pattern matching, and the stat call last),
+     * so the short-circuiting skips the expensive checks whenever a cheap one decides the result:
+     */
+    public static abstract class FilterPredicate {
+
+        public static final int COST_NAME_CHECK = 1;
+        public static final int COST_HASH_LOOKUP = 2;
+        public static final int COST_PATTERN_MATCH = 4;
+        public static final int COST_FILE_STAT = 16;
+
+        public abstract int getEvalCost();
+
+        public abstract boolean test(FilterEntry fileEntry);
+
+        public static FilterPredicate allOf(FilterPredicate... predicates) {
+            return new CombinedPredicate(true, predicates);
+        }
+
+        public static FilterPredicate anyOf(FilterPredicate... predicates) {
+            return new CombinedPredicate(false, predicates);
+        }
+
+        public static FilterPredicate not(final FilterPredicate predicate) {
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return predicate.getEvalCost(); }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return !predicate.test(fileEntry); }
+            };
+        }
+
+        public FilterPredicate and(FilterPredicate predicate) { return allOf(this, predicate); }
+
+        public FilterPredicate or(FilterPredicate predicate) { return anyOf(this, predicate); }
+
+        public FilterPredicate negate() { return not(this); }
+
+        public static FilterPredicate hidden() {
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_NAME_CHECK; }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return fileEntry.isHidden(); }
+            };
+        }
+
+        /* Matched against the base name (not the full path) of the files: */
+        public static FilterPredicate regex(String regexPatternSpec) {
+            final Pattern namePattern = Pattern.compile(regexPatternSpec);
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_PATTERN_MATCH; }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return namePattern.matcher(fileEntry.getBaseName()).matches(); }
+            };
+        }
+
+        /* Shell style patterns over the base name: '*' and '?' wildcards and [...] (or [!...]) character classes: */
+        public static FilterPredicate glob(String globPatternSpec, boolean ignoreCase) {
+            StringBuilder regexSpec = new StringBuilder();
+            boolean inCharClass = false;
+            int charClassStart = 0;
+            for(int cidx = 0; cidx < globPatternSpec.length(); cidx++) {
+                char globChar = globPatternSpec.charAt(cidx);
+                if(inCharClass) {
+                    if(globChar == ']' && regexSpec.length() > charClassStart) {
+                        inCharClass = false;
+                    }
+                    else if("\\[]&".indexOf(globChar) >= 0) {
+                        // Literal in a shell class (as is a leading ']'), but an escape, a nested class
+                        // or an intersection in a regex one:
+                        regexSpec.append('\\');
+                    }
+                    regexSpec.append(globChar);
+                    continue;
+                }
+                switch(globChar) {
+                    case '*':
+                        regexSpec.append(".*");
+                        break;
+                    case '?':
+                        regexSpec.append('.');
+                        break;
+                    case '[':
+                        inCharClass = true;
+                        regexSpec.append('[');
+                        if(cidx + 1 < globPatternSpec.length() && globPatternSpec.charAt(cidx + 1) == '!') {
+                            regexSpec.append('^');
+                            cidx++;
+                        }
+                        charClassStart = regexSpec.length();
+                        break;
+                    default:
+                        if("\\.^$|+(){}".indexOf(globChar) >= 0) {
+                            regexSpec.append('\\');
+                        }
+                        regexSpec.append(globChar);
+                        break;
+                }
+            }
+            final Pattern namePattern = Pattern.compile(regexSpec.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_PATTERN_MATCH; }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return namePattern.matcher(fileEntry.getBaseName()).matches(); }
+            };
+        }
+
+        /* Extensions are given with or without the leading dot, and compared case-insensitively: */
+        public static FilterPredicate extensions(String... fileExts) {
+            final Set<String> extensionsSet = new HashSet<String>();
+            for(String fileExt : fileExts) {
+                String extKey = fileExt.startsWith(".") ? fileExt.substring(1) : fileExt;
+                extensionsSet.add(extKey.toLowerCase(Locale.ROOT));
+            }
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_HASH_LOOKUP; }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return extensionsSet.contains(fileEntry.getExtensionKey()); }
+            };
+        }
+
+        /* Exact ("image/png") and wildcard ("image/*") MIME types: */
+        public static FilterPredicate mimeTypes(String... mimeTypePatterns) {
+            final MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Arrays.asList(mimeTypePatterns));
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_HASH_LOOKUP; }
+                @Override
+                public boolean test(FilterEntry fileEntry) { return mimeMatcher.matchesFilePath(fileEntry.getBaseName()); }
+            };
+        }
+
+        /* The types of regular files are told apart by their extension alone. Only when the folder type
+         * is one of the types does this cost a stat call (to tell folders from files):
+         */
+        public static FilterPredicate defaultTypes(FileChooserBuilder.DefaultFileTypes... fileTypes) {
+            final Set<FileChooserBuilder.DefaultFileTypes> fileTypesSet = EnumSet.noneOf(FileChooserBuilder.DefaultFileTypes.class);
+            fileTypesSet.addAll(Arrays.asList(fileTypes));
+            final boolean checkFolders = fileTypesSet.contains(FileChooserBuilder.DefaultFileTypes.FOLDER_FILE_TYPE);
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return checkFolders ? COST_FILE_STAT : COST_HASH_LOOKUP; }
+                @Override
+                public boolean test(FilterEntry fileEntry) {
+                    boolean isDirectory = false;
+                    if(checkFolders) {
+                        BasicFileAttributes fileAttrs = fileEntry.getFileAttributes();
+                        isDirectory = fileAttrs != null && fileAttrs.isDirectory();
+                    }
+                    FileChooserBuilder.DefaultFileTypes fileType = isDirectory ? FileChooserBuilder.DefaultFileTypes.FOLDER_FILE_TYPE :
+                            fileEntry.isHidden() ? FileChooserBuilder.DefaultFileTypes.HIDDEN_FILE_TYPE :
+                            FileChooserBuilder.DefaultFileTypes.getFileTypeByExtension(fileEntry.getExtensionKey());
+                    return fileTypesSet.contains(fileType == null ? FileChooserBuilder.DefaultFileTypes.UNKNOWN_FILE_TYPE : fileType);
+                }
+            };
+        }
+
+        /* Inclusive byte range (regular files only): */
+        public static FilterPredicate sizeBetween(final long minBytes, final long maxBytes) {
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_FILE_STAT; }
+                @Override
+                public boolean test(FilterEntry fileEntry) {
+                    BasicFileAttributes fileAttrs = fileEntry.getFileAttributes();
+                    return fileAttrs != null && fileAttrs.isRegularFile() && fileAttrs.size() >= minBytes && fileAttrs.size() <= maxBytes;
+                }
+            };
+        }
+
+        /* Inclusive range of last modified times (in epoch milliseconds): */
+        public static FilterPredicate modifiedBetween(final long fromTimeMillis, final long toTimeMillis) {
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_FILE_STAT; }
+                @Override
+                public boolean test(FilterEntry fileEntry) {
+                    BasicFileAttributes fileAttrs = fileEntry.getFileAttributes();
+                    if(fileAttrs == null) {
+                        return false;
+                    }
+                    long lastModified = fileAttrs.lastModifiedTime().toMillis();
+                    return lastModified >= fromTimeMillis && lastModified <= toTimeMillis;
+                }
+            };
+        }
+
+        public static FilterPredicate directory() {
+            return new FilterPredicate() {
+                @Override
+                public int getEvalCost() { return COST_FILE_STAT; }
+                @Override
+                public boolean test(FilterEntry fileEntry) {
+                    BasicFileAttributes fileAttrs = fileEntry.getFileAttributes();
+                    return fileAttrs != null && fileAttrs.isDirectory();
+                }
+            };
+        }
+
+    }
+
+    private static class CombinedPredicate extends FilterPredicate {
+
+        private final boolean matchAll;
+        private final FilterPredicate[] operands;
+        private final int evalCost;
+
+        CombinedPredicate(boolean matchAll, FilterPredicate[] predicates) {
+            this.matchAll = matchAll;
+            // Flatten nested combinations of the same kind, then order the operands cheapest first:
+            List<FilterPredicate> flatOperands = new ArrayList<FilterPredicate>();
+            for(FilterPredicate predicate : predicates) {
+                if(predicate instanceof CombinedPredicate && ((CombinedPredicate) predicate).matchAll == matchAll) {
+                    flatOperands.addAll(Arrays.asList(((CombinedPredicate) predicate).operands));
+                }
+                else if(predicate != null) {
+                    flatOperands.add(predicate);
                 }
             }
-            return false;
+            Collections.sort(flatOperands, new Comparator<FilterPredicate>() {
+                @Override
+                public int compare(FilterPredicate lhsPred, FilterPredicate rhsPred) {
+                    return Integer.compare(lhsPred.getEvalCost(), rhsPred.getEvalCost());
+                }
+            });
+            this.operands = flatOperands.toArray(new FilterPredicate[0]);
+            int totalCost = 0;
+            for(FilterPredicate operand : operands) {
+                totalCost += operand.getEvalCost();
+            }
+            this.evalCost = totalCost;
+        }
+
+        @Override
+        public int getEvalCost() { return evalCost; }
+
+        @Override
+        public boolean test(FilterEntry fileEntry) {
+            for(FilterPredicate operand : operands) {
+                if(operand.test(fileEntry) != matchAll) {
+                    return !matchAll;
+                }
+            }
+            return matchAll;
         }
+
     }
 
+    /* Filters the listings by a (compiled) FilterPredicate, evaluated on the base names without
+     * building the full path of each entry:
+     */
+    public static class FileFilterByPredicate extends FileFilterBase {
+        private FilterPredicate filterPredicate;
+        public FileFilterByPredicate(FilterPredicate filterPredicate, boolean inclExcl) {
+            this.filterPredicate = filterPredicate;
+            setIncludeExcludeMatchesOption(inclExcl);
+        }
+        @Override
+        public boolean accept(File parentDir, String fileBaseName) {
+            if(filterPredicate.test(new FilterEntry(parentDir, fileBaseName))) {
+                return includeExcludeMatches == INCLUDE_FILES_IN_FILTER_PATTERN;
+            }
+            return includeExcludeMatches == EXCLUDE_FILES_IN_FILTER_PATTERN;
+        }
+        public boolean fileMatchesFilter(String fileAbsName) {
+            File filePath = new File(fileAbsName);
+            return accept(filePath.getParentFile(), filePath.getName());
+        }
+    }
+
+    /* The pluggable sort of the folder listings. Subclasses that override compare() keep working as
+     * before (the comparator is used as-is). Otherwise the built-in sort modes extract the sort keys
+     * of each file once up front (at most one stat call and one name lookup per file), so that the
+     * O(n log n) comparisons only ever look at precomputed primitive, String or CollationKey values.
+     * Large folders are sorted with Arrays.parallelSort:
+     */
     public static class FileItemsSortFunc implements Comparator<File> {
+
+        public enum SortMode {
+            SORT_BY_PATH,              // legacy default: plain lexicographical order of the paths
+            SORT_BY_NAME_NATURAL,      // case insensitive, runs of digits compare by their numeric value
+            SORT_BY_NAME_COLLATED,     // locale-aware ordering of the names (default locale collator)
+            SORT_BY_SIZE,
+            SORT_BY_LAST_MODIFIED,
+            SORT_BY_TYPE_FOLDERS_FIRST // folders first, then by extension, then by (natural) name
+        }
+
+        public static final int DEFAULT_PARALLEL_SORT_THRESHOLD = 8192;
+
+        private final SortMode sortMode;
+        private final boolean reverseOrder;
+        private final boolean usesCustomCompare;
+        private final SortKeyComparator keysComparator;
+        private Collator sharedNameCollator;
+        private int parallelSortThreshold;
+
+        public FileItemsSortFunc(SortMode sortMode, boolean reverseOrder) {
+            this.sortMode = sortMode != null ? sortMode : SortMode.SORT_BY_PATH;
+            this.reverseOrder = reverseOrder;
+            this.usesCustomCompare = overridesCompare(getClass());
+            this.keysComparator = new SortKeyComparator(this.sortMode, reverseOrder);
+            this.sharedNameCollator = null;
+            this.parallelSortThreshold = DEFAULT_PARALLEL_SORT_THRESHOLD;
+        }
+
+        public FileItemsSortFunc(SortMode sortMode) {
+            this(sortMode, false);
+        }
+
+        public FileItemsSortFunc() {
+            this(SortMode.SORT_BY_PATH, false);
+        }
+
+        private static boolean overridesCompare(Class<?> sortClass) {
+            try {
+                return sortClass.getMethod("compare", File.class, File.class).getDeclaringClass() != FileItemsSortFunc.class;
+            } catch(NoSuchMethodException nsme) {
+                return false;
+            }
+        }
+
+        public SortMode getSortMode() { return sortMode; }
+
+        public boolean isReverseOrder() { return reverseOrder; }
+
+        public void setParallelSortThreshold(int threshold) {
+            parallelSortThreshold = Math.max(2, threshold);
+        }
+
+        public int getParallelSortThreshold() { return parallelSortThreshold; }
+
         public File[] sortFileItemsList(File[] folderContentsList) {
-            Arrays.sort(folderContentsList, this);
+            if(folderContentsList == null || folderContentsList.length < 2) {
+                return folderContentsList;
+            }
+            else if(usesCustomCompare) {
+                if(folderContentsList.length >= parallelSortThreshold) {
+                    Arrays.parallelSort(folderContentsList, this);
+                }
+                else {
+                    Arrays.sort(folderContentsList, this);
+                }
+                return folderContentsList;
+            }
+            SortKeyEntry[] sortEntries = sortFileItemKeys(folderContentsList);
+            for(int fidx = 0; fidx < sortEntries.length; fidx++) {
+                folderContentsList[fidx] = sortEntries[fidx].fileItem;
+            }
             return folderContentsList;
         }
+
+        /* Whether the built-in sort keys decide the order (false for subclasses that override compare): */
+        public boolean usesSortKeys() { return !usesCustomCompare; }
+
+        /* Returns the sort keys of the files in sorted order. The folder snapshots keep these next to
+         * the sorted listing, so that the entries added later can be placed by a binary search over the
+         * keys (rather than by re-reading the keys of both files on every comparison):
+         */
+        public SortKeyEntry[] sortFileItemKeys(File[] folderContentsList) {
+            SortKeyEntry[] sortEntries = extractSortKeys(folderContentsList);
+            if(sortEntries.length >= parallelSortThreshold) {
+                Arrays.parallelSort(sortEntries, keysComparator);
+            }
+            else {
+                Arrays.sort(sortEntries, keysComparator);
+            }
+            return sortEntries;
+        }
+
+        public Comparator<SortKeyEntry> getSortKeysComparator() { return keysComparator; }
+
+        /* The keys of a single file (e.g., one created in a listed folder). The collator is shared
+         * between the calls, and fileAttrs (if not null) is reused to read the attributes into:
+         */
+        public SortKeyEntry getSortKey(File fileItem, FileUtils.FileAttributes fileAttrs) {
+            SortKeyEntry sortEntry = new SortKeyEntry();
+            if(sortMode == SortMode.SORT_BY_NAME_COLLATED) {
+                synchronized(this) {
+                    if(sharedNameCollator == null) {
+                        sharedNameCollator = newNameCollator();
+                    }
+                    fillSortKey(sortEntry, fileItem, fileAttrs, sharedNameCollator);
+                }
+            }
+            else {
+                fillSortKey(sortEntry, fileItem, fileAttrs, null);
+            }
+            return sortEntry;
+        }
+
+        /* Only used when the sort function is called as a plain Comparator (the keys are not cached
+         * between calls in this case). Override for customized sorting:
+         */
         @Override
         public int compare(File f1, File f2) {
-            // default is standard lexicographical ordering (override the compare functor base classes for customized sorting):
-            return f1.getAbsolutePath().compareTo(f2.getAbsolutePath());
+            if(sortMode == SortMode.SORT_BY_PATH) {
+                // default is standard lexicographical ordering (override the compare functor base classes for customized sorting):
+                int pathCompare = f1.getAbsolutePath().compareTo(f2.getAbsolutePath());
+                return reverseOrder ? -pathCompare : pathCompare;
+            }
+            FileUtils.FileAttributes fileAttrs = needsFileAttributes() ? new FileUtils.FileAttributes() : null;
+            return keysComparator.compare(getSortKey(f1, fileAttrs), getSortKey(f2, fileAttrs));
+        }
+
+        public static class SortKeyEntry {
+            File fileItem;
+            String nameKey;
+            String typeKey;
+            CollationKey collatedKey;
+            long numericKey;
+
+            public File getFile() { return fileItem; }
+        }
+
+        private boolean needsFileAttributes() {
+            return sortMode == SortMode.SORT_BY_SIZE || sortMode == SortMode.SORT_BY_LAST_MODIFIED ||
+                   sortMode == SortMode.SORT_BY_TYPE_FOLDERS_FIRST;
+        }
+
+        private static Collator newNameCollator() {
+            Collator nameCollator = Collator.getInstance(Locale.getDefault());
+            nameCollator.setStrength(Collator.SECONDARY);
+            return nameCollator;
+        }
+
+        private void fillSortKey(SortKeyEntry sortEntry, File fileItem, FileUtils.FileAttributes fileAttrs, Collator nameCollator) {
+            sortEntry.fileItem = fileItem;
+            sortEntry.nameKey = sortMode == SortMode.SORT_BY_PATH ? fileItem.getPath() : fileItem.getName();
+            if(nameCollator != null) {
+                sortEntry.collatedKey = nameCollator.getCollationKey(sortEntry.nameKey);
+            }
+            if(!needsFileAttributes()) {
+                return;
+            }
+            if(fileAttrs == null) {
+                fileAttrs = new FileUtils.FileAttributes();
+            }
+            fileAttrs.loadAttributes(fileItem);
+            if(sortMode == SortMode.SORT_BY_SIZE) {
+                sortEntry.numericKey = fileAttrs.getFileSize();
+            }
+            else if(sortMode == SortMode.SORT_BY_LAST_MODIFIED) {
+                sortEntry.numericKey = fileAttrs.getLastModified();
+            }
+            else {
+                sortEntry.numericKey = fileAttrs.isDirectory() ? 0L : 1L;
+                sortEntry.typeKey = fileAttrs.isDirectory() ? "" : FileUtils.getFileExtension(sortEntry.nameKey).toLowerCase(Locale.ROOT);
+            }
         }
+
+        private SortKeyEntry[] extractSortKeys(File[] folderContentsList) {
+            // A collator of our own, since the shared one would have to be locked for every entry:
+            Collator nameCollator = sortMode == SortMode.SORT_BY_NAME_COLLATED ? newNameCollator() : null;
+            FileUtils.FileAttributes fileAttrs = needsFileAttributes() ? new FileUtils.FileAttributes() : null;
+            SortKeyEntry[] sortEntries = new SortKeyEntry[folderContentsList.length];
+            for(int fidx = 0; fidx < folderContentsList.length; fidx++) {
+                SortKeyEntry nextEntry = new SortKeyEntry();
+                fillSortKey(nextEntry, folderContentsList[fidx], fileAttrs, nameCollator);
+                sortEntries[fidx] = nextEntry;
+            }
+            return sortEntries;
+        }
+
+        private static class SortKeyComparator implements Comparator<SortKeyEntry> {
+
+            private final SortMode sortMode;
+            private final boolean reverseOrder;
+
+            public SortKeyComparator(SortMode sortMode, boolean reverseOrder) {
+                this.sortMode = sortMode;
+                this.reverseOrder = reverseOrder;
+            }
+
+            @Override
+            public int compare(SortKeyEntry lhs, SortKeyEntry rhs) {
+                int cmpResult;
+                switch(sortMode) {
+                    case SORT_BY_NAME_NATURAL:
+                        cmpResult = compareNatural(lhs.nameKey, rhs.nameKey);
+                        break;
+                    case SORT_BY_NAME_COLLATED:
+                        cmpResult = lhs.collatedKey.compareTo(rhs.collatedKey);
+                        if(cmpResult == 0) {
+                            // Names that only differ in case (or in ignorable characters) still need a fixed order:
+                            cmpResult = compareNatural(lhs.nameKey, rhs.nameKey);
+                        }
+                        break;
+                    case SORT_BY_SIZE:
+                    case SORT_BY_LAST_MODIFIED:
+                        cmpResult = Long.compare(lhs.numericKey, rhs.numericKey);
+                        if(cmpResult == 0) {
+                            cmpResult = compareNatural(lhs.nameKey, rhs.nameKey);
+                        }
+                        break;
+                    case SORT_BY_TYPE_FOLDERS_FIRST:
+                        cmpResult = Long.compare(lhs.numericKey, rhs.numericKey);
+                        if(cmpResult == 0) {
+                            cmpResult = lhs.typeKey.compareTo(rhs.typeKey);
+                        }
+                        if(cmpResult == 0) {
+                            cmpResult = compareNatural(lhs.nameKey, rhs.nameKey);
+                        }
+                        break;
+                    default:
+                        cmpResult = lhs.nameKey.compareTo(rhs.nameKey);
+                        break;
+                }
+                return reverseOrder ? -cmpResult : cmpResult;
+            }
+
+        }
+
+        /* Case insensitive comparison where runs of digits compare by numeric value ("img2" < "img10").
+         * Works on the characters in place (no substrings or number parsing), so it does not allocate.
+         * Only the ASCII digits make up a number (Character.isDigit also accepts the digits of other
+         * scripts, whose char values are not in numeric order). Names with the same numeric values
+         * (like "a01" and "a1") fall back to the plain String order:
+         */
+        public static int compareNatural(String lhs, String rhs) {
+            int lhsLen = lhs.length(), rhsLen = rhs.length();
+            int lidx = 0, ridx = 0;
+            while(lidx < lhsLen && ridx < rhsLen) {
+                char lch = lhs.charAt(lidx), rch = rhs.charAt(ridx);
+                if(isAsciiDigit(lch) && isAsciiDigit(rch)) {
+                    // Skip the leading zeros, then the longer run of digits is the larger number:
+                    int lstart = lidx, rstart = ridx;
+                    while(lstart < lhsLen && lhs.charAt(lstart) == '0') { lstart++; }
+                    while(rstart < rhsLen && rhs.charAt(rstart) == '0') { rstart++; }
+                    int lend = lstart, rend = rstart;
+                    while(lend < lhsLen && isAsciiDigit(lhs.charAt(lend))) { lend++; }
+                    while(rend < rhsLen && isAsciiDigit(rhs.charAt(rend))) { rend++; }
+                    int runLenDiff = (lend - lstart) - (rend - rstart);
+                    if(runLenDiff != 0) {
+                        return runLenDiff;
+                    }
+                    for(int didx = 0; didx < lend - lstart; didx++) {
+                        int digitDiff = lhs.charAt(lstart + didx) - rhs.charAt(rstart + didx);
+                        if(digitDiff != 0) {
+                            return digitDiff;
+                        }
+                    }
+                    lidx = lend;
+                    ridx = rend;
+                    continue;
+                }
+                if(lch != rch) {
+                    char lfold = Character.toLowerCase(Character.toUpperCase(lch));
+                    char rfold = Character.toLowerCase(Character.toUpperCase(rch));
+                    if(lfold != rfold) {
+                        return lfold - rfold;
+                    }
+                }
+                lidx++;
+                ridx++;
+            }
+            int lengthDiff = (lhsLen - lidx) - (rhsLen - ridx);
+            return lengthDiff != 0 ? lengthDiff : lhs.compareTo(rhs);
+        }
+
+        private static boolean isAsciiDigit(char ch) {
+            return ch >= '0' && ch <= '9';
+        }
+
     }
 
 }
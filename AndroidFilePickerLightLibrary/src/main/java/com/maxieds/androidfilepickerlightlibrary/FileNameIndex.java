@@ -0,0 +1,540 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * A persistent index of the file names under one folder tree (e.g., a storage root), kept in the
+ * app's no-backup files directory. The index records the names of the files and subfolders of every
+ * folder together with the folder's last modified time. A folder's mtime changes whenever an entry
+ * is created, removed or renamed directly inside it, so the index is kept current by re-listing only
+ * those folders whose mtime differs from the recorded one (at load time, and for the folders under
+ * the searched path after a query). All of this happens on the background worker: a query is always
+ * answered from the index as it is, and the folders are checked for changes at most once every
+ * couple of seconds, so that typing a query never stats the whole tree.
+ *
+ * Substring queries are narrowed with a trigram index: every (case folded) trigram of a file name maps
+ * to the set of folders containing a file name with that trigram. A query of three or more characters
+ * only scans the names of the folders found in the intersection of the sets for its own trigrams.
+ * Shorter queries scan all of the indexed names, which is still far cheaper than walking the storage.
+ *
+ * Like the FileSearchEngine walk, only regular files are matched and symbolic links to folders are
+ * not followed.
+ */
+public class FileNameIndex {
+
+    private static String LOGTAG = FileNameIndex.class.getSimpleName();
+
+    private static final int INDEX_FILE_VERSION = 1;
+    private static final String INDEX_FILE_PREFIX = "filename_index_";
+    private static final String INDEX_FILE_SUFFIX = ".bin";
+
+    private static final String[] EMPTY_NAMES = new String[0];
+
+    private static final long REVALIDATE_MIN_INTERVAL_MILLIS = 2000L;
+
+    private static final ExecutorService indexWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnableTask) {
+            Thread workerThread = new Thread(runnableTask, "FileNameIndex");
+            workerThread.setDaemon(true);
+            workerThread.setPriority(Thread.MIN_PRIORITY);
+            return workerThread;
+        }
+    });
+
+    private static class IndexedFolder {
+
+        final String folderPath;
+        final int folderId;
+        long folderLastModified;
+        String[] fileNames;
+        String[] subfolderNames;
+
+        IndexedFolder(String folderPath, int folderId) {
+            this.folderPath = folderPath;
+            this.folderId = folderId;
+            this.folderLastModified = 0L;
+            this.fileNames = EMPTY_NAMES;
+            this.subfolderNames = EMPTY_NAMES;
+        }
+
+    }
+
+    private final File indexRoot;
+    private final String indexRootPath;
+    private final File indexFile;
+    private final HashMap<String, IndexedFolder> foldersByPath;
+    private final ArrayList<IndexedFolder> foldersById;
+    private final HashMap<Long, BitSet> trigramFolders;
+    private volatile boolean indexReady;
+    private volatile boolean indexLoading;
+    private boolean indexDirty;
+    private boolean saveScheduled;
+    private boolean revalidateScheduled;
+    private long lastRevalidateTime;
+
+    public FileNameIndex(File indexRoot, File noBackupFilesDir) {
+        this.indexRoot = indexRoot;
+        this.indexRootPath = indexRoot.getAbsolutePath();
+        String indexFileName = INDEX_FILE_PREFIX + Integer.toHexString(indexRootPath.hashCode()) + INDEX_FILE_SUFFIX;
+        this.indexFile = new File(noBackupFilesDir, indexFileName);
+        this.foldersByPath = new HashMap<String, IndexedFolder>();
+        this.foldersById = new ArrayList<IndexedFolder>();
+        this.trigramFolders = new HashMap<Long, BitSet>();
+        this.indexReady = false;
+        this.indexLoading = false;
+        this.indexDirty = false;
+        this.saveScheduled = false;
+        this.revalidateScheduled = false;
+        this.lastRevalidateTime = 0L;
+    }
+
+    public File getIndexRoot() { return indexRoot; }
+
+    public boolean isIndexReady() { return indexReady; }
+
+    public synchronized int getIndexedFoldersCount() { return foldersByPath.size(); }
+
+    public boolean coversFolder(File searchFolder) {
+        return isUnderFolderPath(searchFolder.getAbsolutePath(), indexRootPath);
+    }
+
+    private static boolean isUnderFolderPath(String folderPath, String parentPath) {
+        if(!folderPath.startsWith(parentPath)) {
+            return false;
+        }
+        return folderPath.length() == parentPath.length() ||
+               parentPath.endsWith(File.separator) ||
+               folderPath.charAt(parentPath.length()) == File.separatorChar;
+    }
+
+    /* Loads the saved index (or builds it from scratch) on the background worker, and then brings
+     * the folders that changed since it was saved up to date:
+     */
+    public synchronized void loadInBackground() {
+        if(indexReady || indexLoading) {
+            return;
+        }
+        indexLoading = true;
+        indexWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean indexLoaded = false;
+                try {
+                    indexLoaded = loadIndexFile();
+                } catch(IOException ioe) {
+                    Log.w(LOGTAG, "Unable to load the file name index for " + indexRootPath + ": " + ioe.getMessage());
+                }
+                if(!indexLoaded) {
+                    synchronized(FileNameIndex.this) {
+                        clearIndex();
+                        indexFolderTree(indexRootPath);
+                    }
+                }
+                else {
+                    refreshChangedFolders(indexRootPath);
+                }
+                synchronized(FileNameIndex.this) {
+                    lastRevalidateTime = System.currentTimeMillis();
+                    indexReady = true;
+                    indexLoading = false;
+                    Log.i(LOGTAG, "File name index for " + indexRootPath + " ready with " + foldersByPath.size() + " folders");
+                }
+                saveIndexFile();
+            }
+        });
+    }
+
+    /* Returns null when the index is not ready yet (the caller should walk the storage instead): */
+    public List<File> searchFiles(File searchFolder, String searchQuery, int maxResults) {
+        if(!indexReady || searchQuery == null) {
+            return null;
+        }
+        List<File> searchResults = new ArrayList<File>();
+        if(searchQuery.length() == 0 || maxResults <= 0) {
+            return searchResults;
+        }
+        String searchFolderPath = searchFolder.getAbsolutePath();
+        synchronized(this) {
+            scheduleRevalidation(searchFolderPath);
+            BitSet candidateFolders = getCandidateFolders(searchQuery);
+            if(candidateFolders != null && candidateFolders.isEmpty()) {
+                return searchResults;
+            }
+            int folderId = candidateFolders == null ? 0 : candidateFolders.nextSetBit(0);
+            while(folderId >= 0 && folderId < foldersById.size() && searchResults.size() < maxResults) {
+                IndexedFolder folder = foldersById.get(folderId);
+                if(folder != null && isUnderFolderPath(folder.folderPath, searchFolderPath)) {
+                    for(String fileName : folder.fileNames) {
+                        if(FileSearchEngine.fileNameMatches(fileName, searchQuery)) {
+                            searchResults.add(new File(folder.folderPath, fileName));
+                            if(searchResults.size() >= maxResults) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                folderId = candidateFolders == null ? folderId + 1 : candidateFolders.nextSetBit(folderId + 1);
+            }
+        }
+        return searchResults;
+    }
+
+    /* The ids of the folders with a file name containing every trigram of the query, or null (for
+     * all of the folders) when the query is too short to have any trigrams:
+     */
+    synchronized BitSet getCandidateFolders(String searchQuery) {
+        BitSet candidateFolders = null;
+        for(int tgIdx = 0; tgIdx + 3 <= searchQuery.length(); tgIdx++) {
+            BitSet trigramSet = trigramFolders.get(packTrigram(searchQuery, tgIdx));
+            if(trigramSet == null) {
+                return new BitSet();
+            }
+            else if(candidateFolders == null) {
+                candidateFolders = (BitSet) trigramSet.clone();
+            }
+            else {
+                candidateFolders.and(trigramSet);
+            }
+        }
+        return candidateFolders;
+    }
+
+    /* Checks the folders under the searched path for changes on the background worker, at most once
+     * per REVALIDATE_MIN_INTERVAL_MILLIS (the changes show up in the results of a later query):
+     */
+    private void scheduleRevalidation(final String underFolderPath) {
+        if(revalidateScheduled || System.currentTimeMillis() - lastRevalidateTime < REVALIDATE_MIN_INTERVAL_MILLIS) {
+            return;
+        }
+        revalidateScheduled = true;
+        indexWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshChangedFolders(underFolderPath);
+                synchronized(FileNameIndex.this) {
+                    revalidateScheduled = false;
+                    lastRevalidateTime = System.currentTimeMillis();
+                    scheduleSaveIfDirty();
+                }
+            }
+        });
+    }
+
+    /* Case folded the same way as String.regionMatches(true, ...) compares characters: */
+    private static char foldCase(char ch) {
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+
+    private static long packTrigram(String name, int startPos) {
+        return ((long) foldCase(name.charAt(startPos)) << 32) |
+               ((long) foldCase(name.charAt(startPos + 1)) << 16) |
+               (long) foldCase(name.charAt(startPos + 2));
+    }
+
+    private static Set<Long> getFolderTrigrams(String[] fileNames) {
+        Set<Long> folderTrigrams = new HashSet<Long>();
+        for(String fileName : fileNames) {
+            for(int tgIdx = 0; tgIdx + 3 <= fileName.length(); tgIdx++) {
+                folderTrigrams.add(packTrigram(fileName, tgIdx));
+            }
+        }
+        return folderTrigrams;
+    }
+
+    private void clearIndex() {
+        foldersByPath.clear();
+        foldersById.clear();
+        trigramFolders.clear();
+        indexDirty = true;
+    }
+
+    private void putFolder(String folderPath, long folderLastModified, String[] fileNames, String[] subfolderNames) {
+        IndexedFolder folder = foldersByPath.get(folderPath);
+        if(folder == null) {
+            folder = new IndexedFolder(folderPath, foldersById.size());
+            foldersById.add(folder);
+            foldersByPath.put(folderPath, folder);
+        }
+        else {
+            removeFolderTrigrams(folder);
+        }
+        folder.folderLastModified = folderLastModified;
+        folder.fileNames = fileNames;
+        folder.subfolderNames = subfolderNames;
+        for(Long trigram : getFolderTrigrams(fileNames)) {
+            BitSet trigramSet = trigramFolders.get(trigram);
+            if(trigramSet == null) {
+                trigramSet = new BitSet();
+                trigramFolders.put(trigram, trigramSet);
+            }
+            trigramSet.set(folder.folderId);
+        }
+        indexDirty = true;
+    }
+
+    private void removeFolderTrigrams(IndexedFolder folder) {
+        for(Long trigram : getFolderTrigrams(folder.fileNames)) {
+            BitSet trigramSet = trigramFolders.get(trigram);
+            if(trigramSet != null) {
+                trigramSet.clear(folder.folderId);
+                if(trigramSet.isEmpty()) {
+                    trigramFolders.remove(trigram);
+                }
+            }
+        }
+    }
+
+    private void removeFolderTree(String folderPath) {
+        IndexedFolder folder = foldersByPath.remove(folderPath);
+        if(folder == null) {
+            return;
+        }
+        removeFolderTrigrams(folder);
+        foldersById.set(folder.folderId, null);
+        for(String subfolderName : folder.subfolderNames) {
+            removeFolderTree(new File(folderPath, subfolderName).getAbsolutePath());
+        }
+        indexDirty = true;
+    }
+
+    /* Lists one folder into the index, returning the absolute paths of its subfolders (or null if
+     * the folder is no longer readable):
+     */
+    private List<String> indexFolder(String folderPath) {
+        File folderFile = new File(folderPath);
+        long folderLastModified = folderFile.lastModified();
+        File[] folderEntries = folderFile.listFiles();
+        if(folderEntries == null) {
+            return null;
+        }
+        List<String> fileNames = new ArrayList<String>(folderEntries.length);
+        List<String> subfolderNames = new ArrayList<String>();
+        List<String> subfolderPaths = new ArrayList<String>();
+        for(File folderEntry : folderEntries) {
+            BasicFileAttributes entryAttrs;
+            try {
+                entryAttrs = Files.readAttributes(folderEntry.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch(IOException | SecurityException ioe) {
+                continue;
+            }
+            if(entryAttrs.isDirectory()) {
+                subfolderNames.add(folderEntry.getName());
+                subfolderPaths.add(folderEntry.getAbsolutePath());
+            }
+            else if(!entryAttrs.isSymbolicLink()) {
+                fileNames.add(folderEntry.getName());
+            }
+        }
+        putFolder(folderPath, folderLastModified, fileNames.toArray(EMPTY_NAMES), subfolderNames.toArray(EMPTY_NAMES));
+        return subfolderPaths;
+    }
+
+    private void indexFolderTree(String treeRootPath) {
+        LinkedList<String> pendingFolders = new LinkedList<String>();
+        pendingFolders.add(treeRootPath);
+        while(!pendingFolders.isEmpty()) {
+            List<String> subfolderPaths = indexFolder(pendingFolders.removeFirst());
+            if(subfolderPaths != null) {
+                pendingFolders.addAll(subfolderPaths);
+            }
+        }
+    }
+
+    /* Re-lists the indexed folders under the path whose mtime changed (the new subfolders of those are
+     * indexed as whole trees, and the removed ones are dropped with all of their descendants). Only
+     * called on the background worker, which is the only thread that changes the indexed folders:
+     * so the folders are stat'ed without holding the lock (queries go on meanwhile), and the lock is
+     * only taken to re-list the ones that changed:
+     */
+    void refreshChangedFolders(String underFolderPath) {
+        List<IndexedFolder> checkFolders = new ArrayList<IndexedFolder>();
+        synchronized(this) {
+            for(IndexedFolder folder : foldersByPath.values()) {
+                if(isUnderFolderPath(folder.folderPath, underFolderPath)) {
+                    checkFolders.add(folder);
+                }
+            }
+        }
+        List<IndexedFolder> changedFolders = new ArrayList<IndexedFolder>();
+        for(IndexedFolder folder : checkFolders) {
+            File folderFile = new File(folder.folderPath);
+            if(!folderFile.isDirectory() || folderFile.lastModified() != folder.folderLastModified) {
+                changedFolders.add(folder);
+            }
+        }
+        if(!changedFolders.isEmpty()) {
+            synchronized(this) {
+                relistChangedFolders(changedFolders);
+            }
+            Log.i(LOGTAG, "Refreshed " + changedFolders.size() + " changed folders under " + underFolderPath);
+        }
+    }
+
+    private void relistChangedFolders(List<IndexedFolder> changedFolders) {
+        for(IndexedFolder folder : changedFolders) {
+            if(foldersByPath.get(folder.folderPath) != folder) {
+                continue; // dropped along with a removed parent folder
+            }
+            else if(!new File(folder.folderPath).isDirectory()) {
+                removeFolderTree(folder.folderPath);
+                continue;
+            }
+            Set<String> priorSubfolders = new HashSet<String>();
+            for(String subfolderName : folder.subfolderNames) {
+                priorSubfolders.add(new File(folder.folderPath, subfolderName).getAbsolutePath());
+            }
+            List<String> subfolderPaths = indexFolder(folder.folderPath);
+            if(subfolderPaths == null) {
+                removeFolderTree(folder.folderPath);
+                continue;
+            }
+            for(String subfolderPath : subfolderPaths) {
+                if(!priorSubfolders.remove(subfolderPath)) {
+                    indexFolderTree(subfolderPath);
+                }
+            }
+            for(String removedSubfolderPath : priorSubfolders) {
+                removeFolderTree(removedSubfolderPath);
+            }
+        }
+    }
+
+    private void scheduleSaveIfDirty() {
+        if(!indexDirty || saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        indexWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveIndexFile();
+            }
+        });
+    }
+
+    private boolean loadIndexFile() throws IOException {
+        if(!indexFile.exists()) {
+            return false;
+        }
+        DataInputStream indexIn = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if(indexIn.readInt() != INDEX_FILE_VERSION || !indexRootPath.equals(indexIn.readUTF())) {
+                return false;
+            }
+            int foldersCount = indexIn.readInt();
+            synchronized(this) {
+                clearIndex();
+                for(int fidx = 0; fidx < foldersCount; fidx++) {
+                    String folderPath = indexIn.readUTF();
+                    long folderLastModified = indexIn.readLong();
+                    String[] fileNames = new String[indexIn.readInt()];
+                    for(int nidx = 0; nidx < fileNames.length; nidx++) {
+                        fileNames[nidx] = indexIn.readUTF();
+                    }
+                    String[] subfolderNames = new String[indexIn.readInt()];
+                    for(int nidx = 0; nidx < subfolderNames.length; nidx++) {
+                        subfolderNames[nidx] = indexIn.readUTF();
+                    }
+                    putFolder(folderPath, folderLastModified, fileNames, subfolderNames);
+                }
+                indexDirty = false;
+            }
+            return true;
+        } finally {
+            indexIn.close();
+        }
+    }
+
+    /* Writes a snapshot of the index to a temporary file and renames it over the last saved index: */
+    private void saveIndexFile() {
+        List<IndexedFolder> savedFolders;
+        synchronized(this) {
+            saveScheduled = false;
+            if(!indexDirty) {
+                return;
+            }
+            savedFolders = new ArrayList<IndexedFolder>(foldersByPath.size());
+            for(IndexedFolder folder : foldersByPath.values()) {
+                IndexedFolder folderCopy = new IndexedFolder(folder.folderPath, folder.folderId);
+                folderCopy.folderLastModified = folder.folderLastModified;
+                folderCopy.fileNames = folder.fileNames;
+                folderCopy.subfolderNames = folder.subfolderNames;
+                savedFolders.add(folderCopy);
+            }
+            indexDirty = false;
+        }
+        File tempIndexFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try {
+            DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempIndexFile)));
+            try {
+                indexOut.writeInt(INDEX_FILE_VERSION);
+                indexOut.writeUTF(indexRootPath);
+                indexOut.writeInt(savedFolders.size());
+                for(IndexedFolder folder : savedFolders) {
+                    indexOut.writeUTF(folder.folderPath);
+                    indexOut.writeLong(folder.folderLastModified);
+                    indexOut.writeInt(folder.fileNames.length);
+                    for(String fileName : folder.fileNames) {
+                        indexOut.writeUTF(fileName);
+                    }
+                    indexOut.writeInt(folder.subfolderNames.length);
+                    for(String subfolderName : folder.subfolderNames) {
+                        indexOut.writeUTF(subfolderName);
+                    }
+                }
+            } finally {
+                indexOut.close();
+            }
+            if(!tempIndexFile.renameTo(indexFile)) {
+                throw new IOException("Unable to rename " + tempIndexFile.getName());
+            }
+        } catch(IOException ioe) {
+            Log.w(LOGTAG, "Unable to save the file name index for " + indexRootPath + ": " + ioe.getMessage());
+            tempIndexFile.delete();
+            synchronized(this) {
+                indexDirty = true;
+            }
+        }
+    }
+
+}
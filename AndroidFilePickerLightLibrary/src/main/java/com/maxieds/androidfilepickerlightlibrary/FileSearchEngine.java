@@ -0,0 +1,284 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Searches the file names under a folder tree with a work-stealing ForkJoinPool. Every folder is its
+ * own task: wide trees keep all of the worker threads busy, and deep ones are picked apart by idle
+ * workers stealing the pending subfolders. Names are matched case-insensitively in place with
+ * String.regionMatches (no lowercased copy of each name). The walk stops promptly once the result
+ * limit is reached or the search is cancelled, since each task checks for that before listing its
+ * folder and between the entries. Matches are handed to the caller in pages as they are found,
+ * so the first results can be shown long before a large tree (e.g., all of /sdcard) is walked.
+ *
+ * Symbolic links to folders are not followed (there is no guard against cycles otherwise), and
+ * the order of the results depends on the scheduling of the walk.
+ */
+public class FileSearchEngine {
+
+    private static String LOGTAG = FileSearchEngine.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_SEARCH_RESULTS = 500;
+    public static final int DEFAULT_RESULTS_PAGE_SIZE = 50;
+
+    // Flush a partial page when no new match has turned up for this long:
+    private static final long RESULTS_PAGE_FLUSH_MILLIS = 150L;
+
+    public interface SearchResultsListener {
+        // Return false to stop the search:
+        boolean onSearchResultsPage(List<File> resultsPage, boolean searchComplete);
+    }
+
+    private static ForkJoinPool searchPoolStaticInst = null;
+
+    static synchronized ForkJoinPool getSharedSearchPool() {
+        if(searchPoolStaticInst == null) {
+            int poolParallelism = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+            searchPoolStaticInst = new ForkJoinPool(poolParallelism);
+        }
+        return searchPoolStaticInst;
+    }
+
+    private final ForkJoinPool searchPool;
+
+    public FileSearchEngine(ForkJoinPool searchPool) {
+        this.searchPool = searchPool != null ? searchPool : getSharedSearchPool();
+    }
+
+    public FileSearchEngine() {
+        this(null);
+    }
+
+    private static class SearchState {
+
+        // Queued after the last match, so that the results loop wakes up as soon as the walk is done:
+        static final File SEARCH_DONE_MARKER = new File("");
+
+        final String searchQuery;
+        final int maxResults;
+        final AtomicInteger matchesCount;
+        final LinkedBlockingQueue<File> matchesQueue;
+        volatile boolean stopWalk;
+        volatile boolean isCancelled;
+
+        SearchState(String searchQuery, int maxResults) {
+            this.searchQuery = searchQuery;
+            this.maxResults = maxResults;
+            this.matchesCount = new AtomicInteger(0);
+            this.matchesQueue = new LinkedBlockingQueue<File>();
+            this.stopWalk = false;
+            this.isCancelled = false;
+        }
+
+        void cancel() {
+            isCancelled = true;
+            stopWalk = true;
+        }
+
+        void offerMatch(File fileMatch) {
+            int matchIndex = matchesCount.incrementAndGet();
+            if(matchIndex <= maxResults) {
+                matchesQueue.offer(fileMatch);
+            }
+            if(matchIndex >= maxResults) {
+                stopWalk = true;
+            }
+        }
+
+    }
+
+    // The fork-join tasks are Serializable through ForkJoinTask, but are never serialized:
+    @SuppressWarnings("serial")
+    private static class FolderSearchTask extends RecursiveAction {
+
+        private final File searchFolder;
+        private final SearchState searchState;
+
+        FolderSearchTask(File searchFolder, SearchState searchState) {
+            this.searchFolder = searchFolder;
+            this.searchState = searchState;
+        }
+
+        @Override
+        protected void compute() {
+            if(searchState.stopWalk) {
+                return;
+            }
+            File[] folderEntries = searchFolder.listFiles();
+            if(folderEntries == null) {
+                return;
+            }
+            List<FolderSearchTask> subfolderTasks = null;
+            for(File folderEntry : folderEntries) {
+                if(searchState.stopWalk) {
+                    return;
+                }
+                BasicFileAttributes entryAttrs;
+                try {
+                    entryAttrs = Files.readAttributes(folderEntry.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch(IOException | SecurityException ioe) {
+                    continue;
+                }
+                if(entryAttrs.isDirectory()) {
+                    if(subfolderTasks == null) {
+                        subfolderTasks = new ArrayList<FolderSearchTask>();
+                    }
+                    subfolderTasks.add(new FolderSearchTask(folderEntry, searchState));
+                }
+                else if(!entryAttrs.isSymbolicLink() && fileNameMatches(folderEntry.getName(), searchState.searchQuery)) {
+                    searchState.offerMatch(folderEntry);
+                }
+            }
+            if(subfolderTasks != null) {
+                invokeAll(subfolderTasks);
+            }
+        }
+
+    }
+
+    @SuppressWarnings("serial")
+    private static class RootSearchTask extends RecursiveAction {
+
+        private final File rootFolder;
+        private final SearchState searchState;
+
+        RootSearchTask(File rootFolder, SearchState searchState) {
+            this.rootFolder = rootFolder;
+            this.searchState = searchState;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                new FolderSearchTask(rootFolder, searchState).compute();
+            } finally {
+                searchState.matchesQueue.offer(SearchState.SEARCH_DONE_MARKER);
+            }
+        }
+
+    }
+
+    public static boolean fileNameMatches(String fileName, String searchQuery) {
+        int queryLength = searchQuery.length();
+        int lastStartPos = fileName.length() - queryLength;
+        for(int startPos = 0; startPos <= lastStartPos; startPos++) {
+            if(fileName.regionMatches(true, startPos, searchQuery, 0, queryLength)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Runs the search on the pool and delivers the matches to the listener (on the calling thread)
+     * in pages of at most pageSize files. The last page is flagged as complete. Returns the number
+     * of matches delivered:
+     */
+    public int searchFiles(File rootFolder, String searchQuery, int maxResults, int pageSize,
+                           CancellationSignal cancelSignal, SearchResultsListener resultsListener) {
+
+        if(rootFolder == null || searchQuery == null || searchQuery.length() == 0 || maxResults <= 0) {
+            if(resultsListener != null) {
+                resultsListener.onSearchResultsPage(new ArrayList<File>(), true);
+            }
+            return 0;
+        }
+        pageSize = Math.max(1, pageSize);
+        final SearchState searchState = new SearchState(searchQuery, maxResults);
+        if(cancelSignal != null) {
+            if(cancelSignal.isCanceled()) {
+                return 0;
+            }
+            cancelSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    searchState.cancel();
+                }
+            });
+        }
+
+        searchPool.submit(new RootSearchTask(rootFolder, searchState));
+        List<File> resultsPage = new ArrayList<File>(pageSize);
+        int deliveredCount = 0;
+        try {
+            while(!searchState.isCancelled) {
+                File nextMatch = searchState.matchesQueue.poll(RESULTS_PAGE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if(nextMatch == SearchState.SEARCH_DONE_MARKER) {
+                    break;
+                }
+                else if(nextMatch != null) {
+                    resultsPage.add(nextMatch);
+                }
+                if(resultsPage.size() >= pageSize || (nextMatch == null && !resultsPage.isEmpty())) {
+                    deliveredCount += resultsPage.size();
+                    if(resultsListener != null && !resultsListener.onSearchResultsPage(resultsPage, false)) {
+                        searchState.cancel();
+                        break;
+                    }
+                    resultsPage = new ArrayList<File>(pageSize);
+                }
+            }
+        } catch(InterruptedException ie) {
+            searchState.cancel();
+            Thread.currentThread().interrupt();
+        } finally {
+            if(cancelSignal != null) {
+                cancelSignal.setOnCancelListener(null);
+            }
+        }
+        if(searchState.isCancelled) {
+            Log.i(LOGTAG, "Search for \"" + searchQuery + "\" cancelled after " + deliveredCount + " results");
+            return deliveredCount;
+        }
+        deliveredCount += resultsPage.size();
+        if(resultsListener != null) {
+            resultsListener.onSearchResultsPage(resultsPage, true);
+        }
+        return deliveredCount;
+
+    }
+
+    /* Blocking variant that collects all of the matches (up to maxResults) into a single list: */
+    public List<File> searchFiles(File rootFolder, String searchQuery, int maxResults, CancellationSignal cancelSignal) {
+        final List<File> searchResults = new ArrayList<File>();
+        searchFiles(rootFolder, searchQuery, maxResults, DEFAULT_RESULTS_PAGE_SIZE, cancelSignal, new SearchResultsListener() {
+            @Override
+            public boolean onSearchResultsPage(List<File> resultsPage, boolean searchComplete) {
+                searchResults.addAll(resultsPage);
+                return true;
+            }
+        });
+        return searchResults;
+    }
+
+}
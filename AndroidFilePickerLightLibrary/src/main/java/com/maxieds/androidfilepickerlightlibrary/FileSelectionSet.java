@@ -0,0 +1,520 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/*
+ * The picker's selection state. Selections in the displayed folder are a bitset over the indices of
+ * its folder snapshot, so select all, invert and range selections over very large folders only flip
+ * bits and never create a FileType per entry. Selections made in other folders (or in listings
+ * without a snapshot, like the recent documents) are kept by absolute path: the provider's
+ * document ids are relative to the current base folder, which changes with the navigation buttons.
+ * Since the state is not stored on the FileType objects, it is not lost when the display window is
+ * reloaded. When the watched snapshot inserts or removes entries, the set bits are moved to the new
+ * indices of their files. The bulk operations can report the indices whose state they changed, so
+ * that the caller only hashes (or cancels) and rebinds those items.
+ */
+public class FileSelectionSet {
+
+    private static String LOGTAG = FileSelectionSet.class.getSimpleName();
+
+    public static final int UNLIMITED_SELECTIONS = Integer.MAX_VALUE;
+
+    private FolderSnapshotCache.FolderSnapshot activeSnapshot;
+    private int indexedVersion;
+    private File[] indexedFiles;                        // The snapshot listing the set bits refer to (not a copy)
+    private int indexedFilesCount;                      // The entries of indexedFiles that were listed when read
+    private HashMap<String, Integer> indexedPathsMap;   // Built on demand for the items that moved
+    private int indexedPathsCount;                      // The prefix of indexedFiles in the map
+    private final BitSet activeFolderBits;
+    private int activeFolderCount;
+    private final LinkedHashSet<String> otherSelections;
+    private int maxSelections;
+    private boolean allowSelectFiles;
+    private boolean allowSelectFolders;
+    private BitSet dragBaselineBits;                    // The selections from before the current range drag
+    private int dragBaselineCount;
+    private int dragAnchorIndex;
+    private int dragCurrentIndex;
+    private int dragVersion;
+    private boolean dragSelects;
+
+    public FileSelectionSet() {
+        activeSnapshot = null;
+        indexedVersion = 0;
+        indexedFiles = null;
+        indexedFilesCount = 0;
+        indexedPathsMap = null;
+        indexedPathsCount = 0;
+        activeFolderBits = new BitSet();
+        activeFolderCount = 0;
+        otherSelections = new LinkedHashSet<String>();
+        maxSelections = UNLIMITED_SELECTIONS;
+        allowSelectFiles = allowSelectFolders = true;
+        dragBaselineBits = null;
+        dragBaselineCount = 0;
+        dragAnchorIndex = dragCurrentIndex = -1;
+        dragVersion = 0;
+        dragSelects = true;
+    }
+
+    public synchronized void setMaxSelections(int maxSelected) { maxSelections = Math.max(0, maxSelected); }
+
+    public synchronized int getMaxSelections() { return maxSelections; }
+
+    public synchronized void setSelectableKinds(boolean allowFiles, boolean allowFolders) {
+        allowSelectFiles = allowFiles;
+        allowSelectFolders = allowFolders;
+    }
+
+    public synchronized int size() { return activeFolderCount + otherSelections.size(); }
+
+    public synchronized boolean isEmpty() { return size() == 0; }
+
+    public synchronized int getRemainingCapacity() { return Math.max(0, maxSelections - size()); }
+
+    public synchronized void clear() {
+        activeFolderBits.clear();
+        activeFolderCount = 0;
+        otherSelections.clear();
+        indexedFiles = null;
+        indexedPathsMap = null;
+        dragBaselineBits = null;
+    }
+
+    /* Called when the displayed folder changes: the selections in the previous folder are kept by
+     * path, and the ones made earlier in the next folder are moved back into its bitset:
+     */
+    public synchronized void setActiveFolder(FolderSnapshotCache.FolderSnapshot folderSnapshot) {
+        if(folderSnapshot == activeSnapshot) {
+            return;
+        }
+        endRangeDrag();
+        if(activeFolderCount > 0) {
+            syncWithSnapshot();
+            ensureIndexedFiles(activeFolderBits.length() - 1);
+            for(int fidx = activeFolderBits.nextSetBit(0); fidx >= 0; fidx = activeFolderBits.nextSetBit(fidx + 1)) {
+                otherSelections.add(indexedFiles[fidx].getAbsolutePath());
+            }
+        }
+        activeFolderBits.clear();
+        activeFolderCount = 0;
+        indexedFiles = null;
+        indexedPathsMap = null;
+        activeSnapshot = folderSnapshot;
+        if(folderSnapshot == null) {
+            return;
+        }
+        indexedVersion = folderSnapshot.getContentsVersion();
+        String folderPath = folderSnapshot.getParentFolder().getAbsolutePath();
+        Iterator<String> othersIter = otherSelections.iterator();
+        while(othersIter.hasNext()) {
+            String selectedPath = othersIter.next();
+            if(selectedPath.lastIndexOf(File.separatorChar) != folderPath.length() || !selectedPath.startsWith(folderPath)) {
+                continue;
+            }
+            Integer fileIndex = getIndexedPathsMap().get(selectedPath);
+            if(fileIndex != null) {
+                // (Entries the running enumeration has not listed yet stay selected by path)
+                activeFolderBits.set(fileIndex);
+                activeFolderCount++;
+                othersIter.remove();
+            }
+        }
+    }
+
+    /* Moves the set bits to the current indices of their files after the snapshot contents changed: */
+    private void syncWithSnapshot() {
+        if(activeSnapshot == null) {
+            return;
+        }
+        int curVersion = activeSnapshot.getContentsVersion();
+        if(curVersion == indexedVersion) {
+            return;
+        }
+        indexedVersion = curVersion;
+        indexedPathsMap = null;
+        if(activeFolderCount == 0) {
+            indexedFiles = null;
+            return;
+        }
+        File[] prevFiles = indexedFiles;
+        int prevFilesCount = indexedFilesCount;
+        indexedFiles = null;
+        HashMap<String, Integer> nextPathsMap = getIndexedPathsMap();
+        BitSet prevBits = (BitSet) activeFolderBits.clone();
+        activeFolderBits.clear();
+        activeFolderCount = 0;
+        int unmappedCount = 0;
+        for(int fidx = prevBits.nextSetBit(0); fidx >= 0; fidx = prevBits.nextSetBit(fidx + 1)) {
+            if(prevFiles == null || fidx >= prevFilesCount) {
+                // No path was recorded for this index, so it can only keep its position:
+                if(fidx < indexedFilesCount && !activeFolderBits.get(fidx)) {
+                    activeFolderBits.set(fidx);
+                    activeFolderCount++;
+                }
+                unmappedCount++;
+                continue;
+            }
+            Integer nextIndex = nextPathsMap.get(prevFiles[fidx].getAbsolutePath());
+            if(nextIndex != null && !activeFolderBits.get(nextIndex)) { // Otherwise the file was deleted
+                activeFolderBits.set(nextIndex);
+                activeFolderCount++;
+            }
+        }
+        if(unmappedCount > 0) {
+            Log.w(LOGTAG, "Kept " + unmappedCount + " selections without a recorded path at their previous indices");
+        }
+    }
+
+    private void ensureIndexedFiles(int maxIndex) {
+        if(activeSnapshot != null && (indexedFiles == null || indexedFilesCount <= maxIndex)) {
+            // Same contents version, so the listing only grew at the end (enumeration in progress).
+            // Read the count before the array, and keep a reference to the array instead of a copy:
+            indexedFilesCount = activeSnapshot.getFilesCount();
+            indexedFiles = activeSnapshot.getFilesArray();
+        }
+    }
+
+    /* The paths map is rebuilt only when the contents version changes. While the folder is still being
+     * listed, the entries appended since the last lookup are added to it:
+     */
+    private HashMap<String, Integer> getIndexedPathsMap() {
+        ensureIndexedFiles(activeSnapshot.getFilesCount() - 1);
+        if(indexedPathsMap == null) {
+            indexedPathsMap = new HashMap<String, Integer>(Math.max(16, 2 * indexedFilesCount));
+            indexedPathsCount = 0;
+        }
+        for(; indexedPathsCount < indexedFilesCount; indexedPathsCount++) {
+            indexedPathsMap.put(indexedFiles[indexedPathsCount].getAbsolutePath(), indexedPathsCount);
+        }
+        return indexedPathsMap;
+    }
+
+    private int getActiveFilesCount() {
+        return activeSnapshot == null ? 0 : activeSnapshot.getFilesCount();
+    }
+
+    /* Returns the index of the item in the displayed folder's snapshot, or -1 if it is not listed there: */
+    private int indexOfItem(DisplayTypes.FileType fileItem) {
+        if(activeSnapshot == null || fileItem.getParentFolderContext() == null ||
+           fileItem.getParentFolderContext().getFolderSnapshot() != activeSnapshot) {
+            return -1;
+        }
+        syncWithSnapshot();
+        int fileIndex = fileItem.getFolderIndex();
+        if(fileIndex >= 0) {
+            File indexedFile = activeSnapshot.getFileAtIndex(fileIndex);
+            if(indexedFile != null && indexedFile.getAbsolutePath().equals(fileItem.getAbsolutePath())) {
+                return fileIndex;
+            }
+        }
+        // The listing changed since the item was created:
+        Integer movedIndex = getIndexedPathsMap().get(fileItem.getAbsolutePath());
+        return movedIndex == null ? -1 : movedIndex;
+    }
+
+    /* The indices in [fromIndex, toIndex) that may be selected (bit i stands for fromIndex + i). The
+     * folder bits recorded by the snapshot are used, so no entry is stat'ed on the UI thread:
+     */
+    private BitSet getSelectableBits(int fromIndex, int toIndex) {
+        BitSet selectableBits = new BitSet(toIndex - fromIndex);
+        if(allowSelectFiles) {
+            selectableBits.set(0, toIndex - fromIndex);
+        }
+        if(allowSelectFiles != allowSelectFolders) {
+            BitSet directoryBits = activeSnapshot.getDirectoryBits(fromIndex, toIndex);
+            if(allowSelectFolders) {
+                selectableBits.or(directoryBits);
+            }
+            else {
+                selectableBits.andNot(directoryBits);
+            }
+        }
+        return selectableBits;
+    }
+
+    public synchronized boolean isSelected(DisplayTypes.FileType fileItem) {
+        int fileIndex = indexOfItem(fileItem);
+        if(fileIndex >= 0) {
+            return activeFolderBits.get(fileIndex);
+        }
+        return otherSelections.contains(fileItem.getAbsolutePath());
+    }
+
+    public synchronized boolean isSelected(int fileIndex) {
+        syncWithSnapshot();
+        return fileIndex >= 0 && activeFolderBits.get(fileIndex);
+    }
+
+    /* The indices among the given ones that are selected in the displayed folder: */
+    public synchronized BitSet getSelectedIndices(BitSet indices) {
+        syncWithSnapshot();
+        BitSet selectedBits = (BitSet) indices.clone();
+        selectedBits.and(activeFolderBits);
+        return selectedBits;
+    }
+
+    /* Returns false when the item could not be selected (the limit on the number of selections was reached): */
+    public synchronized boolean setSelected(DisplayTypes.FileType fileItem, boolean selected) {
+        int fileIndex = indexOfItem(fileItem);
+        if(fileIndex >= 0) {
+            return setSelected(fileIndex, selected);
+        }
+        String filePath = fileItem.getAbsolutePath();
+        if(!selected) {
+            otherSelections.remove(filePath);
+            return true;
+        }
+        else if(otherSelections.contains(filePath)) {
+            return true;
+        }
+        else if(size() >= maxSelections) {
+            return false;
+        }
+        otherSelections.add(filePath);
+        return true;
+    }
+
+    public synchronized boolean setSelected(int fileIndex, boolean selected) {
+        syncWithSnapshot();
+        if(fileIndex < 0 || fileIndex >= getActiveFilesCount()) {
+            return false;
+        }
+        boolean isSelected = activeFolderBits.get(fileIndex);
+        if(isSelected == selected) {
+            return true;
+        }
+        else if(selected && size() >= maxSelections) {
+            return false;
+        }
+        ensureIndexedFiles(fileIndex);
+        activeFolderBits.set(fileIndex, selected);
+        activeFolderCount += selected ? 1 : -1;
+        return true;
+    }
+
+    /* Selects the indices in [fromIndex, toIndex) of the displayed folder (up to the limit on the number
+     * of selections). Returns the number of newly selected items, and sets their indices in
+     * changedIndices when it is not null:
+     */
+    public synchronized int selectRange(int fromIndex, int toIndex, BitSet changedIndices) {
+        syncWithSnapshot();
+        fromIndex = Math.max(0, fromIndex);
+        toIndex = Math.min(toIndex, getActiveFilesCount());
+        if(fromIndex >= toIndex) {
+            return 0;
+        }
+        ensureIndexedFiles(toIndex - 1);
+        int remainingCapacity = getRemainingCapacity();
+        if(allowSelectFiles && allowSelectFolders) {
+            BitSet prevRangeBits = activeFolderBits.get(fromIndex, toIndex);
+            int clearedCount = (toIndex - fromIndex) - prevRangeBits.cardinality();
+            if(clearedCount <= remainingCapacity) {
+                if(changedIndices != null) {
+                    for(int ridx = prevRangeBits.nextClearBit(0); ridx < toIndex - fromIndex; ridx = prevRangeBits.nextClearBit(ridx + 1)) {
+                        changedIndices.set(fromIndex + ridx);
+                    }
+                }
+                activeFolderBits.set(fromIndex, toIndex);
+                activeFolderCount += clearedCount;
+                return clearedCount;
+            }
+        }
+        BitSet selectBits = getSelectableBits(fromIndex, toIndex);
+        selectBits.andNot(activeFolderBits.get(fromIndex, toIndex));
+        int selectedCount = 0;
+        for(int ridx = selectBits.nextSetBit(0); ridx >= 0 && selectedCount < remainingCapacity; ridx = selectBits.nextSetBit(ridx + 1)) {
+            activeFolderBits.set(fromIndex + ridx);
+            selectedCount++;
+            if(changedIndices != null) {
+                changedIndices.set(fromIndex + ridx);
+            }
+        }
+        activeFolderCount += selectedCount;
+        return selectedCount;
+    }
+
+    public synchronized int selectRange(int fromIndex, int toIndex) {
+        return selectRange(fromIndex, toIndex, null);
+    }
+
+    public synchronized int deselectRange(int fromIndex, int toIndex, BitSet changedIndices) {
+        syncWithSnapshot();
+        fromIndex = Math.max(0, fromIndex);
+        toIndex = Math.min(toIndex, activeFolderBits.length());
+        if(fromIndex >= toIndex) {
+            return 0;
+        }
+        BitSet prevRangeBits = activeFolderBits.get(fromIndex, toIndex);
+        if(changedIndices != null) {
+            for(int ridx = prevRangeBits.nextSetBit(0); ridx >= 0; ridx = prevRangeBits.nextSetBit(ridx + 1)) {
+                changedIndices.set(fromIndex + ridx);
+            }
+        }
+        int deselectedCount = prevRangeBits.cardinality();
+        activeFolderBits.clear(fromIndex, toIndex);
+        activeFolderCount -= deselectedCount;
+        return deselectedCount;
+    }
+
+    public synchronized int deselectRange(int fromIndex, int toIndex) {
+        return deselectRange(fromIndex, toIndex, null);
+    }
+
+    public synchronized int selectAll(BitSet changedIndices) {
+        return selectRange(0, getActiveFilesCount(), changedIndices);
+    }
+
+    public synchronized int selectAll() {
+        return selectAll(null);
+    }
+
+    /* Inverts the selections in the displayed folder. Returns false (and changes nothing) if the
+     * result would exceed the limit on the number of selections. Otherwise the indices that were
+     * flipped are set in changedIndices when it is not null:
+     */
+    public synchronized boolean invertSelection(BitSet changedIndices) {
+        syncWithSnapshot();
+        int filesCount = getActiveFilesCount();
+        if(filesCount == 0) {
+            return true;
+        }
+        ensureIndexedFiles(filesCount - 1);
+        BitSet invertedBits = (BitSet) activeFolderBits.clone();
+        invertedBits.flip(0, filesCount);
+        if(!allowSelectFiles || !allowSelectFolders) {
+            invertedBits.and(getSelectableBits(0, filesCount));
+        }
+        int invertedCount = invertedBits.cardinality();
+        if(invertedCount + otherSelections.size() > maxSelections) {
+            return false;
+        }
+        if(changedIndices != null) {
+            BitSet flippedBits = (BitSet) activeFolderBits.clone();
+            flippedBits.xor(invertedBits);
+            changedIndices.or(flippedBits);
+        }
+        activeFolderBits.clear();
+        activeFolderBits.or(invertedBits);
+        activeFolderCount = invertedCount;
+        return true;
+    }
+
+    public synchronized boolean invertSelection() {
+        return invertSelection(null);
+    }
+
+    /* Range (drag) selections: the selected range is always the index interval between the anchor and
+     * the current index, applied on top of the selections from before the drag started. So moving the
+     * end of the range back and forth restores the items it no longer covers, and each update only sets
+     * or clears one interval of bits whatever the number of items in it. Only the span between the
+     * previous and the current end of the range (and the anchor) is restored and reapplied, and the
+     * indices whose state changed there are set in changedIndices when it is not null. Returns false
+     * when the anchor is not an index in the displayed folder:
+     */
+    public synchronized boolean beginRangeDrag(int anchorIndex, boolean selectRange, BitSet changedIndices) {
+        syncWithSnapshot();
+        if(activeSnapshot == null || anchorIndex < 0 || anchorIndex >= getActiveFilesCount()) {
+            return false;
+        }
+        dragBaselineBits = (BitSet) activeFolderBits.clone();
+        dragBaselineCount = activeFolderCount;
+        dragAnchorIndex = dragCurrentIndex = anchorIndex;
+        dragVersion = indexedVersion;
+        dragSelects = selectRange;
+        updateRangeDrag(anchorIndex, changedIndices);
+        return true;
+    }
+
+    public synchronized boolean beginRangeDrag(int anchorIndex, boolean selectRange) {
+        return beginRangeDrag(anchorIndex, selectRange, null);
+    }
+
+    public synchronized boolean isRangeDragActive() { return dragBaselineBits != null; }
+
+    public synchronized void updateRangeDrag(int currentIndex, BitSet changedIndices) {
+        if(dragBaselineBits == null) {
+            return;
+        }
+        syncWithSnapshot();
+        if(indexedVersion != dragVersion) {
+            // The listing changed under the drag: keep what was selected so far and stop here:
+            endRangeDrag();
+            return;
+        }
+        // Outside of this span the bits are still the ones from before the drag:
+        int spanFromIndex = Math.min(dragAnchorIndex, Math.min(dragCurrentIndex, currentIndex));
+        int spanToIndex = Math.max(dragAnchorIndex, Math.max(dragCurrentIndex, currentIndex)) + 1;
+        BitSet prevSpanBits = activeFolderBits.get(spanFromIndex, spanToIndex);
+        BitSet baselineSpanBits = dragBaselineBits.get(spanFromIndex, spanToIndex);
+        activeFolderBits.clear(spanFromIndex, spanToIndex);
+        for(int sidx = baselineSpanBits.nextSetBit(0); sidx >= 0; sidx = baselineSpanBits.nextSetBit(sidx + 1)) {
+            activeFolderBits.set(spanFromIndex + sidx);
+        }
+        activeFolderCount += baselineSpanBits.cardinality() - prevSpanBits.cardinality();
+        int fromIndex = Math.min(dragAnchorIndex, currentIndex);
+        int toIndex = Math.max(dragAnchorIndex, currentIndex) + 1;
+        if(dragSelects) {
+            selectRange(fromIndex, toIndex);
+        }
+        else {
+            deselectRange(fromIndex, toIndex);
+        }
+        dragCurrentIndex = currentIndex;
+        if(changedIndices != null) {
+            prevSpanBits.xor(activeFolderBits.get(spanFromIndex, spanToIndex));
+            for(int sidx = prevSpanBits.nextSetBit(0); sidx >= 0; sidx = prevSpanBits.nextSetBit(sidx + 1)) {
+                changedIndices.set(spanFromIndex + sidx);
+            }
+        }
+    }
+
+    public synchronized void updateRangeDrag(int currentIndex) {
+        updateRangeDrag(currentIndex, null);
+    }
+
+    public synchronized void endRangeDrag() {
+        dragBaselineBits = null;
+        dragAnchorIndex = dragCurrentIndex = -1;
+    }
+
+    /* The absolute paths of all of the selected items (the ones in other folders first): */
+    public synchronized List<String> getSelectedPaths() {
+        syncWithSnapshot();
+        List<String> selectedPaths = new ArrayList<String>(size());
+        selectedPaths.addAll(otherSelections);
+        if(activeFolderCount > 0) {
+            ensureIndexedFiles(activeFolderBits.length() - 1);
+            for(int fidx = activeFolderBits.nextSetBit(0); fidx >= 0; fidx = activeFolderBits.nextSetBit(fidx + 1)) {
+                selectedPaths.add(indexedFiles[fidx].getAbsolutePath());
+            }
+        }
+        return selectedPaths;
+    }
+
+}
@@ -18,12 +18,14 @@
 package com.maxieds.androidfilepickerlightlibrary;
 
 import android.util.Log;
-import android.webkit.MimeTypeMap;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Locale;
 
@@ -76,66 +78,181 @@ public class FileUtils {
     }
 
     public static String getFileMimeType(String filePath) {
-        if(getFileExtension(filePath).equals("")) {
-            return "*/*";
-        }
-        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(getFileExtension(filePath).toLowerCase());
+        String mimeType = MimeTypeCache.getMimeTypeForPath(filePath);
+        return mimeType == null ? "*/*" : mimeType;
     }
 
     public static String getFilePosixPermissionsString(Path fileOnDiskPath) throws IOException {
         return PosixFilePermissions.toString(Files.getPosixFilePermissions(fileOnDiskPath));
     }
 
-    public static String filePermsStringToShortChmodStyleCode(String rwxDashPerms, boolean isDir) {
-        if(rwxDashPerms.length() < 9) {
-            return "";
+    /* The short labels shown in each row are looked up in these tables by the numeric file mode
+     * bits or size (each entry is built once, the first time it is needed), so that listing a folder
+     * does not format (or allocate) the same few strings over and over again:
+     */
+    private static final int POSIX_MODE_BITS_COUNT = 512;
+    private static final String[] POSIX_RWX_STRINGS = new String[POSIX_MODE_BITS_COUNT];
+    private static final String[][] CHMOD_STYLE_CODES = new String[2][POSIX_MODE_BITS_COUNT];
+    private static final String[] FILE_SIZE_UNITS = new String[] { "B", "K", "M", "G", "T+" };
+    private static final String[][] FILE_SIZE_LABELS = new String[FILE_SIZE_UNITS.length][1024];
+    private static final char[] POSIX_RWX_CHARS = new char[] { 'r', 'w', 'x' };
+
+    public static String posixModeBitsToPermissionsString(int posixModeBits) {
+        if(posixModeBits < 0 || posixModeBits >= POSIX_MODE_BITS_COUNT) {
+            return "---------";
+        }
+        String rwxPerms = POSIX_RWX_STRINGS[posixModeBits];
+        if(rwxPerms == null) {
+            char[] rwxChars = new char[9];
+            for(int bitIdx = 0; bitIdx < 9; bitIdx++) {
+                boolean bitSet = (posixModeBits & (1 << (8 - bitIdx))) != 0;
+                rwxChars[bitIdx] = bitSet ? POSIX_RWX_CHARS[bitIdx % 3] : '-';
+            }
+            rwxPerms = new String(rwxChars);
+            POSIX_RWX_STRINGS[posixModeBits] = rwxPerms;
         }
-        String[] rwxTriplet = rwxDashPerms.replaceAll("...(?!$)", "$0 ").split(" ");
-        if(rwxTriplet.length != 3) {
+        return rwxPerms;
+    }
+
+    /* Parses a rwxrwxrwx style string back into its numeric mode bits (or returns -1 if malformed): */
+    public static int permissionsStringToPosixModeBits(String rwxDashPerms) {
+        if(rwxDashPerms == null || rwxDashPerms.length() != 9) {
+            return -1;
+        }
+        int posixModeBits = 0;
+        for(int bitIdx = 0; bitIdx < 9; bitIdx++) {
+            // Either case is accepted for the permission letters:
+            if((rwxDashPerms.charAt(bitIdx) | 0x20) == POSIX_RWX_CHARS[bitIdx % 3]) {
+                posixModeBits |= 1 << (8 - bitIdx);
+            }
+        }
+        return posixModeBits;
+    }
+
+    public static String posixModeBitsToShortChmodStyleCode(int posixModeBits, boolean isDir) {
+        if(posixModeBits < 0 || posixModeBits >= POSIX_MODE_BITS_COUNT) {
             return "";
         }
-        String chmodStylePermsCode = !isDir ? "0" : "d";
-        for(int tidx = 0; tidx < rwxTriplet.length; tidx++) {
-            String rwxTriple = rwxTriplet[tidx].toLowerCase(Locale.getDefault());
-            int octalBits[] = new int[] {
-                    rwxTriple.charAt(0) == 'r' ? 4 : 0,
-                    rwxTriple.charAt(1) == 'w' ? 2 : 0,
-                    rwxTriple.charAt(2) == 'x' ? 1 : 0
+        String[] chmodCodes = CHMOD_STYLE_CODES[isDir ? 1 : 0];
+        String chmodStylePermsCode = chmodCodes[posixModeBits];
+        if(chmodStylePermsCode == null) {
+            char[] codeChars = new char[] {
+                    !isDir ? '0' : 'd',
+                    (char) ('0' + ((posixModeBits >> 6) & 07)),
+                    (char) ('0' + ((posixModeBits >> 3) & 07)),
+                    (char) ('0' + (posixModeBits & 07))
             };
-            int octalCode = octalBits[0] + octalBits[1] + octalBits[2];
-            chmodStylePermsCode += String.format(Locale.getDefault(), "%d", octalCode);
+            chmodStylePermsCode = new String(codeChars);
+            chmodCodes[posixModeBits] = chmodStylePermsCode;
         }
         return chmodStylePermsCode;
     }
 
+    public static String filePermsStringToShortChmodStyleCode(String rwxDashPerms, boolean isDir) {
+        return posixModeBitsToShortChmodStyleCode(permissionsStringToPosixModeBits(rwxDashPerms), isDir);
+    }
+
     public static String getFileSizeString(File fileOnDisk) {
-        long fileSizeBytes = fileOnDisk.length();
-        if(fileSizeBytes < 1024) {
-            String initSizeLabel = String.format(Locale.getDefault(), "%dB", fileSizeBytes);
-            initSizeLabel += "          ".substring(0, Math.max(0, 5 - initSizeLabel.length()));
-            return initSizeLabel;
-        }
-        long fileSizeKB = fileSizeBytes / 1024;
-        if(fileSizeKB < 1024) {
-            String initSizeLabel = String.format(Locale.getDefault(), "%dK", fileSizeKB);
-            initSizeLabel += "          ".substring(0, Math.max(0, 5 - initSizeLabel.length()));
-            return initSizeLabel;
-        }
-        long fileSizeMB = fileSizeKB / 1024;
-        if(fileSizeMB < 1024) {
-            String initSizeLabel = String.format(Locale.getDefault(), "%dM", fileSizeMB);
-            initSizeLabel += "          ".substring(0, Math.max(0, 5 - initSizeLabel.length()));
-            return initSizeLabel;
-        }
-        long fileSizeGB = fileSizeMB / 1024;
-        if(fileSizeGB < 1024) {
-            String initSizeLabel = String.format(Locale.getDefault(), "%dG", fileSizeGB);
-            initSizeLabel += "          ".substring(0, Math.max(0, 5 - initSizeLabel.length()));
-            return initSizeLabel;
-        }
-        String initSizeLabel = String.format(Locale.getDefault(), "%dT+", fileSizeGB / 1024);
+        return getFileSizeString(fileOnDisk.length());
+    }
+
+    public static String getFileSizeString(long fileSizeBytes) {
+        int unitIdx = 0;
+        long unitSize = Math.max(0L, fileSizeBytes);
+        while(unitSize >= 1024 && unitIdx < FILE_SIZE_UNITS.length - 1) {
+            unitSize /= 1024;
+            unitIdx++;
+        }
+        if(unitSize >= 1024) {
+            return formatFileSizeLabel(unitSize, FILE_SIZE_UNITS[unitIdx]);
+        }
+        String fileSizeLabel = FILE_SIZE_LABELS[unitIdx][(int) unitSize];
+        if(fileSizeLabel == null) {
+            fileSizeLabel = formatFileSizeLabel(unitSize, FILE_SIZE_UNITS[unitIdx]);
+            FILE_SIZE_LABELS[unitIdx][(int) unitSize] = fileSizeLabel;
+        }
+        return fileSizeLabel;
+    }
+
+    private static String formatFileSizeLabel(long unitSize, String unitSuffix) {
+        String initSizeLabel = String.format(Locale.getDefault(), "%d%s", unitSize, unitSuffix);
         initSizeLabel += "          ".substring(0, Math.max(0, 5 - initSizeLabel.length()));
         return initSizeLabel;
     }
 
+    /* The attributes of a file as read with a single stat call. The same instance can be reused
+     * across rows to keep the listing loops from allocating. The POSIX permission bits are kept
+     * in their numeric (octal 0777) form and are only expanded into a rwx string on request:
+     */
+    public static class FileAttributes {
+
+        public static final int POSIX_MODE_BITS_UNKNOWN = -1;
+
+        private static final PosixFilePermission[] POSIX_PERMS_BY_BIT = PosixFilePermission.values();
+
+        private boolean attrsValid;
+        private boolean isDirectory;
+        private long fileSize;
+        private long lastModified;
+        private int posixModeBits;
+
+        public FileAttributes() {
+            clear();
+        }
+
+        public void clear() {
+            attrsValid = false;
+            isDirectory = false;
+            fileSize = 0L;
+            lastModified = 0L;
+            posixModeBits = POSIX_MODE_BITS_UNKNOWN;
+        }
+
+        public boolean loadAttributes(File fileOnDisk) {
+            clear();
+            Path filePath = fileOnDisk.toPath();
+            BasicFileAttributes basicAttrs;
+            try {
+                PosixFileAttributes posixAttrs = Files.readAttributes(filePath, PosixFileAttributes.class);
+                posixModeBits = posixPermissionsToModeBits(posixAttrs);
+                basicAttrs = posixAttrs;
+            } catch(UnsupportedOperationException | IOException posixEx) {
+                try {
+                    basicAttrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+                } catch(IOException ioe) {
+                    return false;
+                }
+            }
+            isDirectory = basicAttrs.isDirectory();
+            fileSize = basicAttrs.size();
+            lastModified = basicAttrs.lastModifiedTime().toMillis();
+            attrsValid = true;
+            return true;
+        }
+
+        private static int posixPermissionsToModeBits(PosixFileAttributes posixAttrs) {
+            int modeBits = 0;
+            // PosixFilePermission is declared in order OWNER_READ, ..., OTHERS_EXECUTE (high bit to low bit):
+            for(PosixFilePermission permBit : posixAttrs.permissions()) {
+                modeBits |= 1 << (POSIX_PERMS_BY_BIT.length - 1 - permBit.ordinal());
+            }
+            return modeBits;
+        }
+
+        public boolean isValid() { return attrsValid; }
+
+        public boolean isDirectory() { return isDirectory; }
+
+        public long getFileSize() { return fileSize; }
+
+        public long getLastModified() { return lastModified; }
+
+        public int getPosixModeBits() { return posixModeBits; }
+
+        public String getPosixPermissionsString() {
+            return posixModeBitsToPermissionsString(posixModeBits);
+        }
+
+    }
+
 }
@@ -0,0 +1,818 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Keeps the filtered and sorted listings of the most recently visited folders around so that
+ * navigating back up the folder tree (or re-querying the child count of the same folder) does
+ * not have to pay for another listFiles() + filter + sort pass over large directories.
+ * Each snapshot is revalidated against the folder's last modified time before it is handed
+ * back out of the cache, which only costs a single stat call on the parent directory.
+ * New listings are enumerated in the background with a DirectoryStream, and the caller only
+ * waits for the first page of entries (so very large folders start displaying right away).
+ * While a folder is cached, a FolderWatcher applies the entries created, deleted and modified in
+ * it to the snapshot, so that the listing stays current without being re-listed from scratch.
+ */
+public class FolderSnapshotCache {
+
+    private static String LOGTAG = FolderSnapshotCache.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CACHED_FOLDERS = 8;
+
+    /* Many of the storage backends report folder modification times with a coarse (one to two second)
+     * resolution. A listing that was taken within this window of the last reported change to the
+     * folder cannot be trusted to have seen every entry, so we re-list in that case:
+     */
+    private static final long FOLDER_MTIME_GRANULARITY_MILLIS = 2000L;
+
+    /* Each listing gets a thread of its own (idle threads are reused), so that opening a small folder
+     * never queues behind the enumeration of a huge one. Listings that are no longer wanted are
+     * cancelled instead (see FolderSnapshot.cancelEnumeration):
+     */
+    private static final ExecutorService folderEnumerationExecutor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnableTask) {
+                    Thread enumThread = new Thread(runnableTask, "FolderEnumeration");
+                    enumThread.setDaemon(true);
+                    return enumThread;
+                }
+            });
+
+    /* A folder snapshot is filled incrementally by a background DirectoryStream enumeration:
+     * readers can index into the entries listed so far while the rest of a large folder is
+     * still being read. Entries are appended in directory order and (when a sort is configured)
+     * the sorted listing replaces them in a single step once the enumeration completes.
+     */
+    public static class FolderSnapshot {
+
+        /* Both callbacks run on the enumeration thread. The first page is in directory order (a
+         * sorted folder is only reordered once it has been listed in full), and is not reported at
+         * all when the folder has fewer entries than the first page size:
+         */
+        public interface EnumerationListener {
+            void onFirstPageListed(FolderSnapshot folderSnapshot);
+            void onEnumerationComplete(FolderSnapshot folderSnapshot);
+        }
+
+        /* Invoked (on the folder watcher thread) after a batch of watched changes was applied: */
+        public interface ContentsChangeListener {
+            void onFolderContentsChanged(FolderSnapshot folderSnapshot, int insertedCount, int removedCount, int modifiedCount);
+        }
+
+        private static final int INITIAL_FILES_CAPACITY = 64;
+
+        private final File parentFolder;
+        private volatile long folderLastModified;
+        private final long listedAtTimeMillis;
+        private final FileFilter.FileFilterBase fileFilter;
+        private final FileFilter.FileItemsSortFunc folderSort;
+        private final int firstPageSize;
+        private final CountDownLatch firstPageLatch;
+        private final CountDownLatch enumerationLatch;
+        private final List<EnumerationListener> enumerationListeners;
+        private final List<ContentsChangeListener> contentsChangeListeners;
+        private FolderWatcher folderWatcher;
+        private volatile File[] filesList;
+        private FileFilter.FileItemsSortFunc.SortKeyEntry[] sortKeys; // Parallel to filesList once sorted (guarded by this)
+        private BitSet directoryBits;                                 // The indices of the folders in filesList (guarded by this)
+        private volatile int filesCount;
+        private volatile boolean firstPageListed;
+        private volatile boolean enumerationComplete;
+        private volatile boolean enumerationFailed;
+        private volatile boolean enumerationCancelled;
+        private volatile boolean snapshotInvalidated;
+        private volatile int contentsVersion; // Bumped whenever the indices of listed entries may change
+
+        public FolderSnapshot(File parentFolder, long folderLastModified, long listedAtTime,
+                              FileFilter.FileFilterBase fileFilter, FileFilter.FileItemsSortFunc folderSort,
+                              int firstPageSize) {
+            this.parentFolder = parentFolder;
+            this.folderLastModified = folderLastModified;
+            this.listedAtTimeMillis = listedAtTime;
+            this.fileFilter = fileFilter;
+            this.folderSort = folderSort;
+            this.firstPageSize = Math.max(1, firstPageSize);
+            this.firstPageLatch = new CountDownLatch(1);
+            this.enumerationLatch = new CountDownLatch(1);
+            this.enumerationListeners = new ArrayList<EnumerationListener>();
+            this.contentsChangeListeners = new ArrayList<ContentsChangeListener>();
+            this.folderWatcher = null;
+            this.filesList = new File[INITIAL_FILES_CAPACITY];
+            this.sortKeys = null;
+            this.directoryBits = new BitSet();
+            this.filesCount = 0;
+            this.firstPageListed = false;
+            this.enumerationComplete = false;
+            this.enumerationFailed = false;
+            this.enumerationCancelled = false;
+            this.snapshotInvalidated = false;
+            this.contentsVersion = 0;
+        }
+
+        public File getParentFolder() { return parentFolder; }
+
+        public long getFolderLastModified() { return folderLastModified; }
+
+        public FileFilter.FileFilterBase getFileFilter() { return fileFilter; }
+
+        public FileFilter.FileItemsSortFunc getFolderSort() { return folderSort; }
+
+        public boolean isFirstPageListed() { return firstPageListed || enumerationComplete; }
+
+        public boolean isEnumerationComplete() { return enumerationComplete; }
+
+        public boolean isEnumerationCancelled() { return enumerationCancelled; }
+
+        public File[] getFilesList() {
+            // Read the count before the array (see appendFile):
+            int curFilesCount = filesCount;
+            return Arrays.copyOf(filesList, curFilesCount);
+        }
+
+        /* The listing array itself, for readers that only index into it below the count they read
+         * (before the array). Those entries never change (see getFilesWindow), so unlike
+         * getFilesList this does not copy the listing, but the array must not be written to:
+         */
+        File[] getFilesArray() { return filesList; }
+
+        public int getFilesCount() { return filesCount; }
+
+        /* Which of the entries in [fromIndex, toIndex) are folders (bit i stands for fromIndex + i).
+         * The type of each entry is recorded while listing, so this never touches the disk:
+         */
+        public synchronized BitSet getDirectoryBits(int fromIndex, int toIndex) {
+            return directoryBits.get(Math.max(0, fromIndex), Math.max(fromIndex, Math.min(toIndex, filesCount)));
+        }
+
+        public int getContentsVersion() { return contentsVersion; }
+
+        public File getFileAtIndex(int indexPos) {
+            int curFilesCount = filesCount;
+            File[] curFilesList = filesList;
+            if(indexPos < 0 || indexPos >= curFilesCount || indexPos >= curFilesList.length) {
+                return null;
+            }
+            return curFilesList[indexPos];
+        }
+
+        /* Copies out the entries in [startIndex, startIndex + windowLength) of the current listing.
+         * Watched changes and the final sort publish a new array instead of shifting this one, so
+         * the copy stays a consistent view of the folder as it was when the window was taken:
+         */
+        public File[] getFilesWindow(int startIndex, int windowLength) {
+            int curFilesCount = filesCount;
+            File[] curFilesList = filesList;
+            int windowStart = Math.max(0, Math.min(startIndex, curFilesCount));
+            int windowEnd = Math.min(curFilesCount, windowStart + Math.max(0, windowLength));
+            return Arrays.copyOfRange(curFilesList, windowStart, windowEnd);
+        }
+
+        public boolean isListingOf(File folder, FileFilter.FileFilterBase filter, FileFilter.FileItemsSortFunc sort) {
+            return parentFolder.equals(folder) && fileFilter == filter && folderSort == sort;
+        }
+
+        public boolean isStillValid() {
+            if(enumerationFailed || enumerationCancelled || snapshotInvalidated) {
+                return false;
+            }
+            else if(!enumerationComplete) {
+                // The listing is still in flight: share it instead of starting a second enumeration:
+                return true;
+            }
+            long curLastModified = parentFolder.lastModified();
+            if(curLastModified == 0L) {
+                return false;
+            }
+            else if(isWatched()) {
+                // The watcher applies every change to the listing (the mtime only trails the batches):
+                return true;
+            }
+            else if(curLastModified != folderLastModified) {
+                return false;
+            }
+            return listedAtTimeMillis - folderLastModified > FOLDER_MTIME_GRANULARITY_MILLIS;
+        }
+
+        /* Registers a callback for the end of the enumeration (invoked on the enumeration thread).
+         * Returns false without registering the listener if the listing has already completed:
+         */
+        public synchronized boolean addEnumerationListener(EnumerationListener listener) {
+            if(enumerationComplete || listener == null) {
+                return false;
+            }
+            enumerationListeners.add(listener);
+            return true;
+        }
+
+        public synchronized void removeEnumerationListener(EnumerationListener listener) {
+            enumerationListeners.remove(listener);
+        }
+
+        public synchronized void addContentsChangeListener(ContentsChangeListener listener) {
+            if(listener != null && !contentsChangeListeners.contains(listener)) {
+                contentsChangeListeners.add(listener);
+            }
+        }
+
+        public synchronized void removeContentsChangeListener(ContentsChangeListener listener) {
+            contentsChangeListeners.remove(listener);
+        }
+
+        public synchronized boolean isWatched() {
+            return folderWatcher != null && folderWatcher.isWatching();
+        }
+
+        synchronized void startWatching() {
+            if(folderWatcher == null && !snapshotInvalidated) {
+                folderWatcher = new FolderWatcher(this);
+                folderWatcher.startWatching();
+            }
+        }
+
+        synchronized void stopWatching() {
+            if(folderWatcher != null) {
+                folderWatcher.stopWatching();
+                folderWatcher = null;
+            }
+        }
+
+        /* The watched folder was removed or moved away: */
+        void invalidateSnapshot() {
+            snapshotInvalidated = true;
+        }
+
+        /* Stops the enumeration of a snapshot that was evicted from (or replaced in) the cache. The
+         * entries listed so far stay readable, and the waiting readers and listeners are released
+         * as for a failed listing:
+         */
+        void cancelEnumeration() {
+            enumerationCancelled = true;
+        }
+
+        private static int indexOfFile(File[] curFilesList, int curFilesCount, File searchFile) {
+            for(int fidx = 0; fidx < curFilesCount; fidx++) {
+                if(curFilesList[fidx].equals(searchFile)) {
+                    return fidx;
+                }
+            }
+            return -1;
+        }
+
+        /* Returns the index of the file when it is already listed, or else -(insertion index + 1).
+         * With the sort keys of the listing at hand, the new file's keys are read once and the binary
+         * search runs over the cached keys (otherwise every probe compares two files by reading both
+         * of their keys again):
+         */
+        private int findInsertIndex(File[] curFilesList, FileFilter.FileItemsSortFunc.SortKeyEntry[] curSortKeys,
+                                    int curFilesCount, File insertFile, FileUtils.FileAttributes fileAttrs) {
+            int searchIndex;
+            if(folderSort == null) {
+                int fileIndex = indexOfFile(curFilesList, curFilesCount, insertFile);
+                return fileIndex >= 0 ? fileIndex : -(curFilesCount + 1);
+            }
+            else if(curSortKeys != null) {
+                FileFilter.FileItemsSortFunc.SortKeyEntry insertKey = folderSort.getSortKey(insertFile, fileAttrs);
+                searchIndex = Arrays.binarySearch(curSortKeys, 0, curFilesCount, insertKey, folderSort.getSortKeysComparator());
+            }
+            else {
+                searchIndex = Arrays.binarySearch(curFilesList, 0, curFilesCount, insertFile, folderSort);
+            }
+            if(searchIndex >= 0 && !curFilesList[searchIndex].equals(insertFile)) {
+                // Entries that compare as equal (e.g., the same size) may be spread around the index found:
+                int fileIndex = indexOfFile(curFilesList, curFilesCount, insertFile);
+                return fileIndex >= 0 ? fileIndex : -(searchIndex + 1);
+            }
+            return searchIndex;
+        }
+
+        /* The sort keys of a deleted file can no longer be read (so there is nothing to binary search
+         * for): instead of scanning the listing for each deleted name and then shifting the entries
+         * after it, the whole batch is removed in a single compacting pass over the listing, with a
+         * hash lookup of the deleted names per entry. Returns the number of entries removed:
+         */
+        private int removeDeletedFiles(File[] curFilesList, FileFilter.FileItemsSortFunc.SortKeyEntry[] curSortKeys,
+                                       BitSet curDirectoryBits, int curFilesCount, List<String> deletedNames) {
+            Set<String> deletedNamesSet = new HashSet<String>(deletedNames);
+            int keptCount = 0;
+            for(int fidx = 0; fidx < curFilesCount; fidx++) {
+                File curFile = curFilesList[fidx];
+                if(deletedNamesSet.contains(curFile.getName())) {
+                    continue;
+                }
+                curFilesList[keptCount] = curFile;
+                if(curSortKeys != null) {
+                    curSortKeys[keptCount] = curSortKeys[fidx];
+                }
+                curDirectoryBits.set(keptCount, curDirectoryBits.get(fidx));
+                keptCount++;
+            }
+            curDirectoryBits.clear(keptCount, curFilesCount);
+            Arrays.fill(curFilesList, keptCount, curFilesCount, null);
+            if(curSortKeys != null) {
+                Arrays.fill(curSortKeys, keptCount, curFilesCount, null);
+            }
+            return curFilesCount - keptCount;
+        }
+
+        private static void removeAtIndex(Object[] entriesList, int removeIndex, int entriesCount) {
+            if(entriesList != null) {
+                System.arraycopy(entriesList, removeIndex + 1, entriesList, removeIndex, entriesCount - removeIndex - 1);
+                entriesList[entriesCount - 1] = null;
+            }
+        }
+
+        private static void removeBitAtIndex(BitSet entryBits, int removeIndex, int entriesCount) {
+            BitSet tailBits = entryBits.get(removeIndex + 1, entriesCount);
+            entryBits.clear(removeIndex, entriesCount);
+            for(int bidx = tailBits.nextSetBit(0); bidx >= 0; bidx = tailBits.nextSetBit(bidx + 1)) {
+                entryBits.set(removeIndex + bidx);
+            }
+        }
+
+        private static void insertBitAtIndex(BitSet entryBits, int insertIndex, int entriesCount, boolean insertBit) {
+            BitSet tailBits = entryBits.get(insertIndex, entriesCount);
+            entryBits.clear(insertIndex, entriesCount + 1);
+            for(int bidx = tailBits.nextSetBit(0); bidx >= 0; bidx = tailBits.nextSetBit(bidx + 1)) {
+                entryBits.set(insertIndex + 1 + bidx);
+            }
+            entryBits.set(insertIndex, insertBit);
+        }
+
+        private static void insertAtIndex(Object[] entriesList, int insertIndex, int entriesCount, Object insertEntry) {
+            if(entriesList != null) {
+                System.arraycopy(entriesList, insertIndex, entriesList, insertIndex + 1, entriesCount - insertIndex);
+                entriesList[insertIndex] = insertEntry;
+            }
+        }
+
+        /* Applies a batch of watched entry changes to the complete listing: the created entries that
+         * pass the filter are inserted at their sorted positions (found by binary search) and the
+         * deleted ones are removed. The entries modified in place (written to, or with changed
+         * attributes) are taken out and placed again with freshly read sort keys, since their size
+         * or modification time may have moved them in the sorted order. A new array is published
+         * for the result, since readers index into the current one without holding the lock:
+         */
+        void applyFolderChanges(List<String> createdNames, List<String> deletedNames, List<String> modifiedNames) {
+            int insertedCount = 0, removedCount = 0, modifiedCount = 0;
+            List<ContentsChangeListener> listenersToNotify;
+            synchronized(this) {
+                if(!enumerationComplete || enumerationFailed || snapshotInvalidated) {
+                    return;
+                }
+                int curFilesCount = filesCount;
+                int nextCapacity = Math.max(INITIAL_FILES_CAPACITY, curFilesCount + createdNames.size() + modifiedNames.size());
+                File[] nextFilesList = Arrays.copyOf(filesList, nextCapacity);
+                FileFilter.FileItemsSortFunc.SortKeyEntry[] nextSortKeys = sortKeys == null ? null : Arrays.copyOf(sortKeys, nextCapacity);
+                BitSet nextDirectoryBits = (BitSet) directoryBits.clone();
+                FileUtils.FileAttributes fileAttrs = new FileUtils.FileAttributes();
+                if(!deletedNames.isEmpty()) {
+                    removedCount = removeDeletedFiles(nextFilesList, nextSortKeys, nextDirectoryBits, curFilesCount, deletedNames);
+                    curFilesCount -= removedCount;
+                }
+                for(String modifiedName : modifiedNames) {
+                    File modifiedFile = new File(parentFolder, modifiedName);
+                    int fileIndex = indexOfFile(nextFilesList, curFilesCount, modifiedFile);
+                    if(fileIndex < 0) {
+                        // Not listed yet (e.g., its creation event was missed), so handle it as a new entry:
+                        createdNames.add(modifiedName);
+                        continue;
+                    }
+                    modifiedCount++;
+                    if(folderSort == null) {
+                        continue; // Its position in the listing stays the same
+                    }
+                    boolean isDirectory = nextDirectoryBits.get(fileIndex);
+                    removeAtIndex(nextFilesList, fileIndex, curFilesCount);
+                    removeAtIndex(nextSortKeys, fileIndex, curFilesCount);
+                    removeBitAtIndex(nextDirectoryBits, fileIndex, curFilesCount);
+                    curFilesCount--;
+                    if(!modifiedFile.exists()) {
+                        removedCount++;
+                        continue;
+                    }
+                    int insertIndex = -(findInsertIndex(nextFilesList, nextSortKeys, curFilesCount, modifiedFile, fileAttrs) + 1);
+                    insertAtIndex(nextFilesList, insertIndex, curFilesCount, modifiedFile);
+                    insertBitAtIndex(nextDirectoryBits, insertIndex, curFilesCount, isDirectory);
+                    if(nextSortKeys != null) {
+                        insertAtIndex(nextSortKeys, insertIndex, curFilesCount, folderSort.getSortKey(modifiedFile, fileAttrs));
+                    }
+                    curFilesCount++;
+                }
+                for(String createdName : createdNames) {
+                    File createdFile = new File(parentFolder, createdName);
+                    if(!createdFile.exists() || (fileFilter != null && !fileFilter.accept(parentFolder, createdName))) {
+                        continue;
+                    }
+                    int fileIndex = findInsertIndex(nextFilesList, nextSortKeys, curFilesCount, createdFile, fileAttrs);
+                    if(fileIndex >= 0) {
+                        continue; // already listed
+                    }
+                    int insertIndex = -(fileIndex + 1);
+                    insertAtIndex(nextFilesList, insertIndex, curFilesCount, createdFile);
+                    insertBitAtIndex(nextDirectoryBits, insertIndex, curFilesCount, createdFile.isDirectory());
+                    if(nextSortKeys != null) {
+                        insertAtIndex(nextSortKeys, insertIndex, curFilesCount, folderSort.getSortKey(createdFile, fileAttrs));
+                    }
+                    curFilesCount++;
+                    insertedCount++;
+                }
+                if(insertedCount == 0 && removedCount == 0 && modifiedCount == 0) {
+                    return;
+                }
+                filesList = nextFilesList;
+                sortKeys = nextSortKeys;
+                directoryBits = nextDirectoryBits;
+                filesCount = curFilesCount;
+                contentsVersion++;
+                folderLastModified = parentFolder.lastModified();
+                listenersToNotify = new ArrayList<ContentsChangeListener>(contentsChangeListeners);
+            }
+            for(ContentsChangeListener listener : listenersToNotify) {
+                listener.onFolderContentsChanged(this, insertedCount, removedCount, modifiedCount);
+            }
+        }
+
+        /* Blocks until either the first page of entries is available or the folder
+         * has been listed in full (whichever happens first). Never call this on the UI thread,
+         * register an EnumerationListener instead:
+         */
+        public void awaitFirstPage() {
+            try {
+                firstPageLatch.await();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /* Blocks until the folder has been listed in full (and sorted): */
+        public void awaitEnumerationComplete() {
+            try {
+                enumerationLatch.await();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /* Returns true when this entry completes the first page: */
+        private synchronized boolean appendFile(File nextFile, boolean isDirectory) {
+            File[] curFilesList = filesList;
+            if(filesCount == curFilesList.length) {
+                curFilesList = Arrays.copyOf(curFilesList, curFilesList.length * 2);
+                filesList = curFilesList;
+            }
+            curFilesList[filesCount] = nextFile;
+            directoryBits.set(filesCount, isDirectory);
+            // Publish the new entry only after it has been stored (readers load the count first):
+            filesCount = filesCount + 1;
+            if(filesCount == firstPageSize) {
+                firstPageListed = true;
+                firstPageLatch.countDown();
+                return true;
+            }
+            return false;
+        }
+
+        private void notifyFirstPageListed() {
+            List<EnumerationListener> listenersToNotify;
+            synchronized(this) {
+                listenersToNotify = new ArrayList<EnumerationListener>(enumerationListeners);
+            }
+            for(EnumerationListener listener : listenersToNotify) {
+                listener.onFirstPageListed(this);
+            }
+        }
+
+        /* Carries the folder bits over to the sorted order of the listing: */
+        private BitSet getSortedDirectoryBits(File[] sortedFilesList) {
+            Set<File> listedFolders = new HashSet<File>();
+            for(int fidx = directoryBits.nextSetBit(0); fidx >= 0 && fidx < filesCount; fidx = directoryBits.nextSetBit(fidx + 1)) {
+                listedFolders.add(filesList[fidx]);
+            }
+            BitSet sortedBits = new BitSet(sortedFilesList.length);
+            for(int fidx = 0; fidx < sortedFilesList.length && !listedFolders.isEmpty(); fidx++) {
+                if(listedFolders.remove(sortedFilesList[fidx])) {
+                    sortedBits.set(fidx);
+                }
+            }
+            return sortedBits;
+        }
+
+        private void completeEnumeration(File[] sortedFilesList, FileFilter.FileItemsSortFunc.SortKeyEntry[] sortedKeys,
+                                         boolean listingFailed) {
+            List<EnumerationListener> listenersToNotify;
+            synchronized(this) {
+                if(sortedFilesList != null && sortedFilesList.length == filesCount) {
+                    directoryBits = getSortedDirectoryBits(sortedFilesList);
+                    filesList = sortedFilesList;
+                    sortKeys = sortedKeys != null && sortedKeys.length == sortedFilesList.length ? sortedKeys : null;
+                    contentsVersion++;
+                }
+                enumerationFailed = listingFailed;
+                enumerationComplete = true;
+                listenersToNotify = new ArrayList<EnumerationListener>(enumerationListeners);
+                enumerationListeners.clear();
+            }
+            firstPageLatch.countDown();
+            enumerationLatch.countDown();
+            for(EnumerationListener listener : listenersToNotify) {
+                listener.onEnumerationComplete(this);
+            }
+        }
+
+    }
+
+    /* The filter and sort objects are matched by identity: the picker configures a single
+     * instance of each per launch, and we cannot assume user subclasses implement equals():
+     */
+    private static class SnapshotKey {
+
+        private final String folderAbsPath;
+        private final FileFilter.FileFilterBase fileFilter;
+        private final FileFilter.FileItemsSortFunc folderSort;
+
+        public SnapshotKey(String folderAbsPath, FileFilter.FileFilterBase fileFilter, FileFilter.FileItemsSortFunc folderSort) {
+            this.folderAbsPath = folderAbsPath;
+            this.fileFilter = fileFilter;
+            this.folderSort = folderSort;
+        }
+
+        @Override
+        public boolean equals(Object rhsObj) {
+            if(!(rhsObj instanceof SnapshotKey)) {
+                return false;
+            }
+            SnapshotKey rhsKey = (SnapshotKey) rhsObj;
+            return folderAbsPath.equals(rhsKey.folderAbsPath) &&
+                    fileFilter == rhsKey.fileFilter && folderSort == rhsKey.folderSort;
+        }
+
+        @Override
+        public int hashCode() {
+            int hashValue = folderAbsPath.hashCode();
+            hashValue = 31 * hashValue + System.identityHashCode(fileFilter);
+            hashValue = 31 * hashValue + System.identityHashCode(folderSort);
+            return hashValue;
+        }
+
+    }
+
+    private final LinkedHashMap<SnapshotKey, FolderSnapshot> snapshotsMap;
+    private int maxCachedFolders;
+    private boolean watchCachedFolders;
+    private final AtomicLong cacheHitsCount;
+    private final AtomicLong cacheMissesCount;
+    private final AtomicLong cacheStaleCount;
+
+    public FolderSnapshotCache(int maxCachedFolders) {
+        this.maxCachedFolders = Math.max(1, maxCachedFolders);
+        this.watchCachedFolders = true;
+        cacheHitsCount = new AtomicLong(0);
+        cacheMissesCount = new AtomicLong(0);
+        cacheStaleCount = new AtomicLong(0);
+        snapshotsMap = new LinkedHashMap<SnapshotKey, FolderSnapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SnapshotKey, FolderSnapshot> eldestEntry) {
+                if(size() > FolderSnapshotCache.this.maxCachedFolders) {
+                    discardSnapshot(eldestEntry.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public FolderSnapshotCache() {
+        this(DEFAULT_MAX_CACHED_FOLDERS);
+    }
+
+    public synchronized void setMaxCachedFolders(int maxFolders) {
+        maxCachedFolders = Math.max(1, maxFolders);
+        while(snapshotsMap.size() > maxCachedFolders) {
+            SnapshotKey eldestKey = snapshotsMap.keySet().iterator().next();
+            discardSnapshot(snapshotsMap.remove(eldestKey));
+        }
+    }
+
+    public synchronized int getMaxCachedFolders() { return maxCachedFolders; }
+
+    public long getCacheHitsCount() { return cacheHitsCount.get(); }
+
+    public long getCacheMissesCount() { return cacheMissesCount.get(); }
+
+    public long getCacheStaleCount() { return cacheStaleCount.get(); }
+
+    public synchronized int getCachedFoldersCount() { return snapshotsMap.size(); }
+
+    /* Nobody can get at a snapshot once it has left the cache, so there is no point in finishing
+     * (or keeping up to date) its listing:
+     */
+    private static void discardSnapshot(FolderSnapshot folderSnapshot) {
+        if(folderSnapshot != null) {
+            folderSnapshot.stopWatching();
+            folderSnapshot.cancelEnumeration();
+        }
+    }
+
+    public synchronized void invalidateFolder(File parentFolder) {
+        if(parentFolder == null) {
+            return;
+        }
+        String folderAbsPath = parentFolder.getAbsolutePath();
+        Iterator<Map.Entry<SnapshotKey, FolderSnapshot>> entriesIter = snapshotsMap.entrySet().iterator();
+        while(entriesIter.hasNext()) {
+            Map.Entry<SnapshotKey, FolderSnapshot> cacheEntry = entriesIter.next();
+            if(cacheEntry.getKey().folderAbsPath.equals(folderAbsPath)) {
+                discardSnapshot(cacheEntry.getValue());
+                entriesIter.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for(FolderSnapshot cachedSnapshot : snapshotsMap.values()) {
+            discardSnapshot(cachedSnapshot);
+        }
+        snapshotsMap.clear();
+    }
+
+    /* Keep the cached listings current with a FolderWatcher per folder (instead of re-listing
+     * a folder once its mtime changes):
+     */
+    public synchronized void setWatchCachedFolders(boolean enableWatchers) {
+        watchCachedFolders = enableWatchers;
+        for(FolderSnapshot cachedSnapshot : snapshotsMap.values()) {
+            if(enableWatchers) {
+                cachedSnapshot.startWatching();
+            }
+            else {
+                cachedSnapshot.stopWatching();
+            }
+        }
+    }
+
+    public synchronized boolean getWatchCachedFolders() { return watchCachedFolders; }
+
+    public void resetCacheStatistics() {
+        cacheHitsCount.set(0);
+        cacheMissesCount.set(0);
+        cacheStaleCount.set(0);
+    }
+
+    /* Returns without blocking: a new (or still incomplete) snapshot is listed in the background, and
+     * the caller either registers an EnumerationListener for the first page and the complete
+     * listing, or (off the UI thread only) waits on awaitFirstPage:
+     */
+    public FolderSnapshot getFolderSnapshot(File parentFolder, FileFilter.FileFilterBase fileFilter,
+                                            FileFilter.FileItemsSortFunc folderSort, int firstPageSize) {
+        SnapshotKey snapshotKey = new SnapshotKey(parentFolder.getAbsolutePath(), fileFilter, folderSort);
+        FolderSnapshot nextSnapshot = null;
+        synchronized(this) {
+            FolderSnapshot cachedSnapshot = snapshotsMap.get(snapshotKey);
+            if(cachedSnapshot != null) {
+                if(cachedSnapshot.isStillValid()) {
+                    cacheHitsCount.incrementAndGet();
+                    nextSnapshot = cachedSnapshot;
+                }
+                else {
+                    discardSnapshot(snapshotsMap.remove(snapshotKey));
+                    cacheStaleCount.incrementAndGet();
+                }
+            }
+        }
+        if(nextSnapshot != null) {
+            // Possibly still being listed by an earlier request:
+            return nextSnapshot;
+        }
+        synchronized(this) {
+            cacheMissesCount.incrementAndGet();
+            /* Take the modification time before listing so that a change that races the
+             * listing makes the snapshot look stale (rather than hiding the new entries):
+             */
+            nextSnapshot = new FolderSnapshot(parentFolder, parentFolder.lastModified(), System.currentTimeMillis(),
+                                              fileFilter, folderSort, firstPageSize);
+            discardSnapshot(snapshotsMap.put(snapshotKey, nextSnapshot));
+            if(watchCachedFolders) {
+                // Start watching before the listing so that no change made while listing goes unseen:
+                nextSnapshot.startWatching();
+            }
+        }
+        startFolderEnumeration(nextSnapshot);
+        Log.d(LOGTAG, String.format(Locale.getDefault(), "Listing \"%s\" (%d entries so far, complete = %s) ;; hits = %d, misses = %d",
+                parentFolder.getAbsolutePath(), nextSnapshot.getFilesCount(), nextSnapshot.isEnumerationComplete() ? "true" : "false",
+                getCacheHitsCount(), getCacheMissesCount()));
+        return nextSnapshot;
+    }
+
+    public FolderSnapshot getFolderSnapshot(File parentFolder, FileFilter.FileFilterBase fileFilter,
+                                            FileFilter.FileItemsSortFunc folderSort) {
+        // Without a page size to hand back early, wait for the complete (sorted) listing. A cached
+        // snapshot may have been requested with a smaller first page, so wait on the enumeration
+        // itself rather than on the first page:
+        FolderSnapshot folderSnapshot = getFolderSnapshot(parentFolder, fileFilter, folderSort, Integer.MAX_VALUE);
+        folderSnapshot.awaitEnumerationComplete();
+        return folderSnapshot;
+    }
+
+    private static void startFolderEnumeration(final FolderSnapshot folderSnapshot) {
+        folderEnumerationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                enumerateFolderContents(folderSnapshot);
+            }
+        });
+    }
+
+    private static void enumerateFolderContents(FolderSnapshot folderSnapshot) {
+        File parentFolder = folderSnapshot.getParentFolder();
+        FileFilter.FileFilterBase fileFilter = folderSnapshot.getFileFilter();
+        FileFilter.FileItemsSortFunc folderSort = folderSnapshot.getFolderSort();
+        File[] sortedFilesList = null;
+        FileFilter.FileItemsSortFunc.SortKeyEntry[] sortedKeys = null;
+        boolean listingFailed = true;
+        DirectoryStream<Path> folderStream = null;
+        try {
+            folderStream = Files.newDirectoryStream(parentFolder.toPath());
+            for(Path entryPath : folderStream) {
+                String entryBaseName = entryPath.getFileName().toString();
+                if(fileFilter != null && !fileFilter.accept(parentFolder, entryBaseName)) {
+                    continue;
+                }
+                // Record the type of each entry here, off the UI thread (see getDirectoryBits):
+                if(folderSnapshot.appendFile(new File(parentFolder, entryBaseName), Files.isDirectory(entryPath))) {
+                    folderSnapshot.notifyFirstPageListed();
+                }
+                if(folderSnapshot.isEnumerationCancelled()) {
+                    Log.i(LOGTAG, "Cancelled listing folder \"" + parentFolder.getAbsolutePath() + "\"");
+                    return;
+                }
+            }
+            if(folderSort != null && folderSort.usesSortKeys()) {
+                // Keep the keys of the sorted listing for placing the entries created in the folder later:
+                sortedKeys = folderSort.sortFileItemKeys(folderSnapshot.getFilesList());
+                sortedFilesList = new File[sortedKeys.length];
+                for(int fidx = 0; fidx < sortedKeys.length; fidx++) {
+                    sortedFilesList[fidx] = sortedKeys[fidx].getFile();
+                }
+            }
+            else if(folderSort != null && folderSnapshot.getFilesCount() > 1) {
+                sortedFilesList = folderSort.sortFileItemsList(folderSnapshot.getFilesList());
+            }
+            listingFailed = false;
+        } catch(IOException | DirectoryIteratorException | SecurityException ioe) {
+            Log.w(LOGTAG, "Unable to list the contents of folder \"" + parentFolder.getAbsolutePath() + "\" : " + ioe.getMessage());
+        } finally {
+            if(folderStream != null) {
+                try {
+                    folderStream.close();
+                } catch(IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+            // Always release the waiting readers (a failed listing keeps the entries read so far):
+            folderSnapshot.completeEnumeration(sortedFilesList, sortedKeys, listingFailed);
+        }
+    }
+
+}
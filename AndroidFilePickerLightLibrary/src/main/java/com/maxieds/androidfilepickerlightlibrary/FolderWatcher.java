@@ -0,0 +1,188 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Watches a listed folder (via inotify) and applies the entries created, deleted, moved in or out
+ * of it and modified in place (written or with changed attributes) to the folder's snapshot, so that
+ * the cached listing (including its size and date orders) stays current without re-listing the
+ * whole folder. Events arrive one by one (e.g., a camera burst writing into DCIM), so they are
+ * collected and applied together once the folder has been quiet for a short debounce delay (or at
+ * the latest a few debounce delays after the first event of the batch, so that a steady stream of
+ * events cannot hold the changes back forever). Only the last event per name in a batch matters: a file created and deleted again within one batch
+ * never reaches the snapshot.
+ */
+public class FolderWatcher extends FileObserver {
+
+    private static String LOGTAG = FolderWatcher.class.getSimpleName();
+
+    public static final long DEFAULT_EVENTS_DEBOUNCE_MILLIS = 250L;
+    private static final int EVENTS_MAX_WAIT_DEBOUNCE_FACTOR = 4;
+
+    private static final int FOLDER_WATCH_EVENTS_MASK = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO |
+            FileObserver.CLOSE_WRITE | FileObserver.ATTRIB |
+            FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final int ENTRY_CREATED = 0;
+    private static final int ENTRY_DELETED = 1;
+    private static final int ENTRY_MODIFIED = 2;
+
+    private static Handler folderEventsHandler = null;
+
+    private static synchronized Handler getFolderEventsHandler() {
+        if(folderEventsHandler == null) {
+            HandlerThread eventsThread = new HandlerThread("FolderWatcher", Process.THREAD_PRIORITY_BACKGROUND);
+            eventsThread.start();
+            folderEventsHandler = new Handler(eventsThread.getLooper());
+        }
+        return folderEventsHandler;
+    }
+
+    private static long eventsDebounceMillis = DEFAULT_EVENTS_DEBOUNCE_MILLIS;
+    public static void setEventsDebounceDelay(long debounceMillis) { eventsDebounceMillis = Math.max(0L, debounceMillis); }
+
+    private final FolderSnapshotCache.FolderSnapshot folderSnapshot;
+    private final LinkedHashMap<String, Integer> pendingEntryChanges;
+    private final Runnable applyChangesRunner;
+    private long firstPendingEventTime;
+    private boolean isWatching;
+
+    public FolderWatcher(FolderSnapshotCache.FolderSnapshot folderSnapshot) {
+        super(folderSnapshot.getParentFolder(), FOLDER_WATCH_EVENTS_MASK);
+        this.folderSnapshot = folderSnapshot;
+        this.pendingEntryChanges = new LinkedHashMap<String, Integer>();
+        this.applyChangesRunner = new Runnable() {
+            @Override
+            public void run() {
+                applyPendingChanges();
+            }
+        };
+        this.firstPendingEventTime = 0L;
+        this.isWatching = false;
+    }
+
+    @Override
+    public synchronized void startWatching() {
+        if(!isWatching) {
+            isWatching = true;
+            super.startWatching();
+        }
+    }
+
+    @Override
+    public synchronized void stopWatching() {
+        if(isWatching) {
+            isWatching = false;
+            super.stopWatching();
+            getFolderEventsHandler().removeCallbacks(applyChangesRunner);
+            pendingEntryChanges.clear();
+        }
+    }
+
+    public synchronized boolean isWatching() { return isWatching; }
+
+    @Override
+    public void onEvent(int eventType, String entryName) {
+        eventType &= FileObserver.ALL_EVENTS;
+        if((eventType & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+            // The listing no longer exists under this path:
+            folderSnapshot.invalidateSnapshot();
+            stopWatching();
+            return;
+        }
+        else if(entryName == null) {
+            return;
+        }
+        int entryChange;
+        if((eventType & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+            entryChange = ENTRY_CREATED;
+        }
+        else if((eventType & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+            entryChange = ENTRY_DELETED;
+        }
+        else {
+            entryChange = ENTRY_MODIFIED;
+        }
+        synchronized(this) {
+            if(!isWatching) {
+                return;
+            }
+            long eventTime = SystemClock.uptimeMillis();
+            if(pendingEntryChanges.isEmpty()) {
+                firstPendingEventTime = eventTime;
+            }
+            Integer prevEntryChange = pendingEntryChanges.remove(entryName);
+            if(entryChange == ENTRY_MODIFIED && prevEntryChange != null && prevEntryChange == ENTRY_CREATED) {
+                // Still a new entry (its attributes are read when it is inserted):
+                entryChange = ENTRY_CREATED;
+            }
+            pendingEntryChanges.put(entryName, entryChange);
+            // Restart the quiet period with every new event, but never past the maximum wait:
+            long maxWaitRemaining = firstPendingEventTime + EVENTS_MAX_WAIT_DEBOUNCE_FACTOR * eventsDebounceMillis - eventTime;
+            Handler eventsHandler = getFolderEventsHandler();
+            eventsHandler.removeCallbacks(applyChangesRunner);
+            eventsHandler.postDelayed(applyChangesRunner, Math.max(0L, Math.min(eventsDebounceMillis, maxWaitRemaining)));
+        }
+    }
+
+    private void applyPendingChanges() {
+        if(!folderSnapshot.isEnumerationComplete()) {
+            // Let the listing finish first (applying the changes to it later is idempotent):
+            getFolderEventsHandler().postDelayed(applyChangesRunner, eventsDebounceMillis);
+            return;
+        }
+        List<String> createdNames = new ArrayList<String>();
+        List<String> deletedNames = new ArrayList<String>();
+        List<String> modifiedNames = new ArrayList<String>();
+        synchronized(this) {
+            for(Map.Entry<String, Integer> entryChange : pendingEntryChanges.entrySet()) {
+                switch(entryChange.getValue()) {
+                    case ENTRY_CREATED:
+                        createdNames.add(entryChange.getKey());
+                        break;
+                    case ENTRY_DELETED:
+                        deletedNames.add(entryChange.getKey());
+                        break;
+                    default:
+                        modifiedNames.add(entryChange.getKey());
+                        break;
+                }
+            }
+            pendingEntryChanges.clear();
+        }
+        if(!createdNames.isEmpty() || !deletedNames.isEmpty() || !modifiedNames.isEmpty()) {
+            Log.d(LOGTAG, "Applying " + createdNames.size() + " created, " + deletedNames.size() + " deleted and " +
+                          modifiedNames.size() + " modified entries to \"" + folderSnapshot.getParentFolder().getAbsolutePath() + "\"");
+            folderSnapshot.applyFolderChanges(createdNames, deletedNames, modifiedNames);
+        }
+    }
+
+}
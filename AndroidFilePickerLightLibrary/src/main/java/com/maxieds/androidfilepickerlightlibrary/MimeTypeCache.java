@@ -0,0 +1,159 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.webkit.MimeTypeMap;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Resolves file extensions to MIME types through MimeTypeMap once per extension. The results (and
+ * the misses) are kept in a concurrent cache, so the listing threads and the UI thread share the
+ * lookups, and the MIME type strings are interned so that every file of a type refers to the same
+ * instance. Extensions are looked up by their lowercase form without the leading dot.
+ */
+public class MimeTypeCache {
+
+    private static String LOGTAG = MimeTypeCache.class.getSimpleName();
+
+    // Stored for the extensions MimeTypeMap does not know (ConcurrentHashMap has no null values):
+    private static final String NO_MIME_TYPE = "";
+
+    private static final ConcurrentHashMap<String, String> extensionMimeTypes = new ConcurrentHashMap<String, String>();
+
+    /* Returns the extension of the last path component (without the dot), or null if there is none: */
+    public static String getExtensionKey(String filePath) {
+        if(filePath == null) {
+            return null;
+        }
+        int extSepPos = filePath.lastIndexOf('.');
+        if(extSepPos < 0 || extSepPos < filePath.lastIndexOf('/') || extSepPos == filePath.length() - 1) {
+            return null;
+        }
+        return filePath.substring(extSepPos + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /* Returns null when the extension has no known MIME type: */
+    public static String getMimeTypeForExtension(String fileExt) {
+        if(fileExt == null || fileExt.length() == 0) {
+            return null;
+        }
+        else if(fileExt.charAt(0) == '.') {
+            fileExt = fileExt.substring(1);
+        }
+        String mimeType = extensionMimeTypes.get(fileExt);
+        if(mimeType == null) {
+            String extKey = fileExt.toLowerCase(Locale.ROOT);
+            mimeType = extensionMimeTypes.get(extKey);
+            if(mimeType == null) {
+                mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extKey);
+                mimeType = mimeType == null ? NO_MIME_TYPE : mimeType.intern();
+                extensionMimeTypes.putIfAbsent(extKey, mimeType);
+            }
+        }
+        return mimeType == NO_MIME_TYPE ? null : mimeType;
+    }
+
+    /* Records the MIME type (or null for none) of an extension without asking MimeTypeMap, which
+     * is only a stub in the local unit tests:
+     */
+    static void putMimeTypeForExtension(String fileExt, String mimeType) {
+        extensionMimeTypes.put(fileExt.toLowerCase(Locale.ROOT), mimeType == null ? NO_MIME_TYPE : mimeType.intern());
+    }
+
+    /* Returns null when the file has no extension or the extension has no known MIME type: */
+    public static String getMimeTypeForPath(String filePath) {
+        return getMimeTypeForExtension(getExtensionKey(filePath));
+    }
+
+    /* Matches the MIME type of files against a fixed set of exact ("image/png") and wildcard ("image/*",
+     * or "*" + "/*" for everything) MIME types. The patterns are split up once, and the decision for
+     * each extension is cached, so that after the first file with an extension every other one costs
+     * a single hash lookup:
+     */
+    public static class MimeTypeMatcher {
+
+        private final Set<String> exactMimeTypes;
+        private final Set<String> wildcardMajorTypes;
+        private final boolean matchesAll;
+        private final ConcurrentHashMap<String, Boolean> extensionMatches;
+
+        public MimeTypeMatcher(Collection<String> mimeTypePatterns) {
+            exactMimeTypes = new HashSet<String>();
+            wildcardMajorTypes = new HashSet<String>();
+            boolean matchesAnyType = false;
+            if(mimeTypePatterns != null) {
+                for(String mimePattern : mimeTypePatterns) {
+                    if(mimePattern == null) {
+                        continue;
+                    }
+                    String mimeSpec = mimePattern.trim().toLowerCase(Locale.ROOT);
+                    if(mimeSpec.equals("*/*") || mimeSpec.equals("*")) {
+                        matchesAnyType = true;
+                    }
+                    else if(mimeSpec.endsWith("/*")) {
+                        wildcardMajorTypes.add(mimeSpec.substring(0, mimeSpec.length() - 2));
+                    }
+                    else {
+                        exactMimeTypes.add(mimeSpec);
+                    }
+                }
+            }
+            matchesAll = matchesAnyType;
+            extensionMatches = new ConcurrentHashMap<String, Boolean>();
+        }
+
+        public boolean matchesMimeType(String mimeType) {
+            if(matchesAll) {
+                return true;
+            }
+            else if(mimeType == null) {
+                // Files without a (known) MIME type only match the catch-all pattern:
+                return false;
+            }
+            String mimeSpec = mimeType.toLowerCase(Locale.ROOT);
+            if(exactMimeTypes.contains(mimeSpec)) {
+                return true;
+            }
+            int majorSepPos = mimeSpec.indexOf('/');
+            return majorSepPos > 0 && wildcardMajorTypes.contains(mimeSpec.substring(0, majorSepPos));
+        }
+
+        public boolean matchesFilePath(String filePath) {
+            if(matchesAll) {
+                return true;
+            }
+            String extKey = getExtensionKey(filePath);
+            if(extKey == null) {
+                return false;
+            }
+            Boolean extMatches = extensionMatches.get(extKey);
+            if(extMatches == null) {
+                extMatches = matchesMimeType(getMimeTypeForExtension(extKey));
+                extensionMatches.putIfAbsent(extKey, extMatches);
+            }
+            return extMatches;
+        }
+
+    }
+
+}
@@ -17,10 +17,12 @@
 
 package com.maxieds.androidfilepickerlightlibrary;
 
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 
+import androidx.recyclerview.widget.RecyclerView;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -57,8 +59,9 @@ import java.util.Locale;
  * heuristic to try to keep an evenly balanced (by size) buffer of file items to the left (right) / top (bottom).
  * With the FileProvider required in recent Android 10-11+, and the heavy layout presence, it takes a noticeable
  * lag to feed in the scroller requested views in realtime (c.f., the short pause in launching the File Chooser from the
- * demo application). The next Thread derivative runner / utility class operates by periodically polling the state of the
- * RecyclerView's LayoutManager to see where the the first and last visible item indices are positioned in the RecyclerView.
+ * demo application). The next utility class listens to the scroll and layout callbacks of the RecyclerView and checks
+ * the state of its LayoutManager (where the first and last visible item indices are positioned) exactly when these
+ * change, rather than periodically polling it from a background thread while the list sits idle.
  * The balancing operation is maintained by (pre)appending fresh items to balance out a top versus bottom heavy new scroller
  * result with a new chunk of new files (loaded in small sized sublists). Then we trim the fat, so to speak, off of the other side,
  * and post notifications to the adapter. The scroller (and its listener) know what to do by default when it can just
@@ -66,7 +69,7 @@ import java.util.Locale;
  * avoid the messy UI intensive work in the scroll handler.
  *
  */
-public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerView.RecyclerViewSlidingContextWindow {
+public class PrefetchFilesUpdater implements FileChooserRecyclerView.RecyclerViewSlidingContextWindow {
 
     private static String LOGTAG = PrefetchFilesUpdater.class.getSimpleName();
 
@@ -120,6 +123,11 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
 
     public static final int DEFAULT_BALANCED_BUFFER_SIZE = 35;
 
+    private FileChooserRecyclerView attachedRecyclerView;
+    private boolean isPaused;
+    private boolean balanceCheckPending;
+    private long lastBalancePassTime;
+
     public PrefetchFilesUpdater() {
 
         // Set a sane default with some scroll buffer space:
@@ -129,12 +137,10 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
         BalancedBufferSize = DEFAULT_BALANCED_BUFFER_SIZE;
         topBufferSize = bottomBufferSize = 0;
         isInit = false;
-
-        setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
-            public void uncaughtException(Thread threadRef, Throwable ex) {
-                threadRef.interrupt();
-            }
-        });
+        attachedRecyclerView = null;
+        isPaused = false;
+        balanceCheckPending = false;
+        lastBalancePassTime = 0L;
 
     }
 
@@ -144,20 +150,23 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
         isInit = true;
     }
 
-    private class PrefetchFilesAsyncTask extends AsyncTask<Void, Integer, Long> {
+    private class PrefetchFilesTask extends PrefetchTaskExecutor.PrefetchRequest {
 
         private int balanceBottomCount, balanceTopCount;
         private int firstVisibleIndex, lastVisibleIndex;
         private DisplayFragments displayCtx;
+        private DisplayTypes.DirectoryResultContext folderCtx;
         private UpdateDataStruct.UpdateDataType updateDataType;
         private UpdateDataStruct updateDataBlock;
         private boolean prunedReverseEdge;
         private int itemsAppendedCount, itemsPrunedCount;
 
-        public PrefetchFilesAsyncTask() {
+        public PrefetchFilesTask(UpdateDataStruct.UpdateDataType updateDirection, int folderGeneration) {
+            super(updateDirection, folderGeneration);
             balanceTopCount = balanceBottomCount = 0;
             firstVisibleIndex = lastVisibleIndex = 0;
             displayCtx = null;
+            folderCtx = null;
             updateDataType = UpdateDataStruct.UpdateDataType.ACTION_NONE;
             updateDataBlock = null;
             prunedReverseEdge = false;
@@ -179,12 +188,15 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
                 itemsPrunedCount = topItemsToPruneCount;
                 int startQueryIndex = displayCtx.lastFileDataStartIndex + topItemsToPruneCount;
                 int endQueryIndex = displayCtx.lastFileDataEndIndex + itemsCountToAppend;
-                displayCtx.getCwdFolderContext().computeDirectoryContents(
+                if(isCancelled()) {
+                    return;
+                }
+                folderCtx.computeDirectoryContents(
                         startQueryIndex, endQueryIndex,
                         topItemsToPruneCount, 0,
                         itemsCountToAppend, true
                 );
-                List<DisplayTypes.FileType> nextFileItemsList = displayCtx.getCwdFolderContext().getWorkingDirectoryContents();
+                List<DisplayTypes.FileType> nextFileItemsList = folderCtx.getWorkingDirectoryContents();
                 List<String> nextFileNamesList = new ArrayList<String>();
                 for (DisplayTypes.FileType fileItem : nextFileItemsList) {
                     nextFileNamesList.add(fileItem.getBaseName());
@@ -215,12 +227,15 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
                 itemsPrunedCount = bottomItemsToPrune;
                 int startQueryIndex = Math.min(0, displayCtx.lastFileDataStartIndex - itemsCountToAppend);
                 int endQueryIndex = Math.max(startQueryIndex, displayCtx.lastFileDataEndIndex - bottomItemsToPrune);
-                displayCtx.getCwdFolderContext().computeDirectoryContents(
+                if(isCancelled()) {
+                    return;
+                }
+                folderCtx.computeDirectoryContents(
                         startQueryIndex, endQueryIndex,
                         0, bottomItemsToPrune,
                         itemsCountToAppend, true
                 );
-                List<DisplayTypes.FileType> nextFileItemsList = displayCtx.getCwdFolderContext().getWorkingDirectoryContents();
+                List<DisplayTypes.FileType> nextFileItemsList = folderCtx.getWorkingDirectoryContents();
                 List<String> nextFileNamesList = new ArrayList<String>();
                 for (DisplayTypes.FileType fileItem : nextFileItemsList) {
                     nextFileNamesList.add(fileItem.getBaseName());
@@ -236,28 +251,18 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
             }
         }
 
-        protected Long doInBackground(Void... unusedArgsList) {
-
-            if(balanceTopCount > 0 && balanceBottomCount > 0) {
-                if(balanceTopCount > balanceBottomCount) {
-                    loadInDataAtTopEdge();
-                }
-                else {
-                    loadInDataAtBottomEdge();
-                }
+        @Override
+        protected void doInBackground() {
+            if(getUpdateDirection().equals(UpdateDataStruct.UpdateDataType.PREPEND_DATA_AT_TOP)) {
+                loadInDataAtTopEdge();
             }
-            else if(balanceBottomCount > 0) {
+            else {
                 loadInDataAtBottomEdge();
             }
-            else if(balanceTopCount > 0) {
-                loadInDataAtTopEdge();
-            }
-
-            return Long.valueOf(0);
-
         }
 
-        protected void onPreExecute() {
+        @Override
+        protected boolean onPrepare() {
 
             balanceBottomCount = getActiveCountToBalanceBottom();
             balanceTopCount = getActiveCountToBalanceTop();
@@ -265,155 +270,237 @@ public class PrefetchFilesUpdater extends Thread implements FileChooserRecyclerV
             lastVisibleIndex = getLayoutLastVisibleItemIndex();
 
             Log.d(LOGTAG, String.format(Locale.getDefault(),
-                    "PrefetchUpdaterThread: CHECK FOR UPDATES: Visible[%d, %d] ;; ToBalance[%d, %d] (%d, %d);; ItemsCount = %d, DirLen = %d",
+                    "PrefetchUpdater: CHECK FOR UPDATES: Visible[%d, %d] ;; ToBalance[%d, %d] (%d, %d);; ItemsCount = %d, DirLen = %d",
                     firstVisibleIndex, lastVisibleIndex,
                     balanceTopCount, balanceBottomCount,
                     topBufferSize, bottomBufferSize,
                     getActiveLayoutItemsCount(), getActiveFolderContentsSize()));
 
             displayCtx = DisplayFragments.getInstance();
+            folderCtx = displayCtx.getCwdFolderContext();
+            DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) displayCtx.getMainRecyclerView().getAdapter();
+            if(folderCtx == null || rvAdapter.hasPendingUpdates()) {
+                // The visible range is only meaningful once the last window shift reached the adapter
+                // (we check again when it does):
+                return false;
+            }
+            else if(getUpdateDirection().equals(UpdateDataStruct.UpdateDataType.PREPEND_DATA_AT_TOP)) {
+                return balanceTopCount > 0;
+            }
+            return balanceBottomCount > 0;
 
         }
 
-        protected void onProgressUpdate(Integer... progress) {
-            //publishProgress(inProgressValue); ... In the background function ... Gets passed back as arguments progress ...
-        }
-
-        protected void onPostExecute(Long result) {
+        @Override
+        protected void onPostResult() {
 
             FileChooserRecyclerView mainRV = displayCtx.getMainRecyclerView();
             DisplayAdapters.FileListAdapter rvAdapter = (DisplayAdapters.FileListAdapter) mainRV.getAdapter();
 
             if(updateDataType.equals(UpdateDataStruct.UpdateDataType.APPEND_DATA_TO_BOTTOM)) {
-
                 Log.d(LOGTAG, String.format(Locale.getDefault(),
                         "POSTING update to RecyclerView: APPEND #%d data items to BOTTOM, RM #%d from TOP",
                         itemsAppendedCount, itemsPrunedCount));
-                int prevFirstVisibleIndex = firstVisibleIndex;
                 if(prunedReverseEdge) {
-                    int lastOfFirstRangeIndex = updateDataBlock.nextFileNamesList.size() - itemsAppendedCount;
-                    rvAdapter.reloadDataSets(
-                            updateDataBlock.nextFileNamesList.subList(0, lastOfFirstRangeIndex),
-                            updateDataBlock.nextFileItemsList.subList(0, lastOfFirstRangeIndex),
-                            false
-                    );
-                    rvAdapter.notifyItemRangeRemoved(0, itemsPrunedCount);
                     topBufferSize -= itemsPrunedCount;
                 }
-                rvAdapter.reloadDataSets(updateDataBlock.nextFileNamesList, updateDataBlock.nextFileItemsList, false);
-                rvAdapter.notifyItemRangeInserted(updateDataBlock.nextFileNamesList.size() - itemsAppendedCount, itemsAppendedCount);
                 bottomBufferSize += itemsAppendedCount;
-                rvAdapter.notifyDataSetChanged();
-                mainRV.scrollToPosition(prevFirstVisibleIndex);
-
             }
             else if(updateDataType.equals(UpdateDataStruct.UpdateDataType.PREPEND_DATA_AT_TOP)) { // Prepend items to top, trim the extra from the bottom:
-
                 Log.d(LOGTAG, String.format(Locale.getDefault(),
                         "POSTING update to RecyclerView: PREPEND #%d data items to TOP, RM #%02d from BOTTOM",
                         itemsAppendedCount, itemsPrunedCount));
-                int prevFirstVisibleIndex = firstVisibleIndex;
                 if(prunedReverseEdge) {
-                    int lastOfFirstRangeIndex = itemsAppendedCount;
-                    rvAdapter.reloadDataSets(
-                            updateDataBlock.nextFileNamesList.subList(lastOfFirstRangeIndex, updateDataBlock.nextFileNamesList.size()),
-                            updateDataBlock.nextFileItemsList.subList(lastOfFirstRangeIndex, updateDataBlock.nextFileNamesList.size()),
-                            false
-                    );
-                    rvAdapter.notifyItemRangeRemoved(
-                            updateDataBlock.nextFileNamesList.size() - itemsAppendedCount,
-                            updateDataBlock.nextFileNamesList.size() - itemsAppendedCount + itemsPrunedCount
-                    );
                     bottomBufferSize -= itemsPrunedCount;
                 }
-                rvAdapter.reloadDataSets(updateDataBlock.nextFileNamesList, updateDataBlock.nextFileItemsList, false);
-                rvAdapter.notifyItemRangeInserted(0, itemsAppendedCount);
                 topBufferSize += itemsAppendedCount;
-                rvAdapter.notifyDataSetChanged();
-                mainRV.scrollToPosition(prevFirstVisibleIndex);
-
             }
+            else {
+                return;
+            }
+
+            /* The differ works out the pruned and inserted ranges of the window shift by itself, and the
+             * LinearLayoutManager keeps the anchored rows in place across the inserts at the top.
+             * The user may have kept scrolling while this block was loading, so check the edges
+             * again once the rows are in the adapter:
+             */
+            rvAdapter.submitFileItems(updateDataBlock.nextFileItemsList, new Runnable() {
+                @Override
+                public void run() {
+                    scheduleBalanceCheck();
+                }
+            });
 
         }
 
     }
 
-    private static final long THREAD_INIT_PAUSE_TIMEOUT = 250L; // Milliseconds
-    public static final long DEFAULT_THREAD_PAUSE_TIMEOUT = 550L; // Milliseconds
+    /* The (legacy named) update delay is now the minimum spacing between two consecutive balancing
+     * passes while the user keeps scrolling. The first check after the list settles runs right away:
+     */
+    public static final long DEFAULT_THREAD_PAUSE_TIMEOUT = 100L; // Milliseconds
 
     private static long THREAD_PAUSE_TIMEOUT = DEFAULT_THREAD_PAUSE_TIMEOUT;
     public void setUpdateDelayTimeout(long nextDelay) {
-        THREAD_PAUSE_TIMEOUT = nextDelay;
+        THREAD_PAUSE_TIMEOUT = Math.max(0L, nextDelay);
     }
     public long getUpdateDelayTimeout() {
         return THREAD_PAUSE_TIMEOUT;
     }
 
-    @Override
-    public void run() {
+    private final RecyclerView.OnScrollListener prefetchScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView rview, int dx, int dy) {
+            if(dy != 0) {
+                scheduleBalanceCheck();
+            }
+        }
+        @Override
+        public void onScrollStateChanged(RecyclerView rview, int newState) {
+            if(newState == RecyclerView.SCROLL_STATE_IDLE) {
+                scheduleBalanceCheck();
+            }
+        }
+    };
+
+    private final View.OnLayoutChangeListener prefetchLayoutChangeListener = new View.OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View layoutView, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            scheduleBalanceCheck();
+        }
+    };
 
-        DisplayFragments displayCtx = DisplayFragments.getInstance();
-        while(true) {
-
-            try {
-
-                if (!isInit) {
-
-                    FileChooserActivity.getInstance().runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (!displayCtx.viewportCapacityMesaured && displayCtx.getMainRecyclerView().getLayoutManager().getChildCount() != 0) {
-                                displayCtx.fileItemDisplayHeight = displayCtx.getMainRecyclerView().getLayoutManager().getChildAt(0).getMeasuredHeight();
-
-                                if (displayCtx.resetViewportMaxFilesCount(displayCtx.getMainRecyclerView())) {
-                                    displayCtx.getMainRecyclerView().scrollToPosition(0);
-                                    initializeFromRenderedLayout();
-                                }
-                            } else if (displayCtx.viewportCapacityMesaured) {
-                                displayCtx.getMainRecyclerView().scrollToPosition(0);
-                                initializeFromRenderedLayout();
-                            }
-                        }
-                    });
-
-                    try {
-                        Thread.sleep(THREAD_INIT_PAUSE_TIMEOUT);
-                        continue;
-                    } catch (InterruptedException ie) {
-                        throw new InterruptedException();
-                    }
-
-                } else if (displayCtx.getCwdFolderContext() == null) {
-
-                    try {
-                        Thread.sleep(THREAD_INIT_PAUSE_TIMEOUT);
-                        continue;
-                    } catch (InterruptedException ie) {
-                        throw new InterruptedException();
-                    }
+    private final Runnable balanceCheckRunner = new Runnable() {
+        @Override
+        public void run() {
+            balanceCheckPending = false;
+            runBalanceCheck();
+        }
+    };
 
-                }
+    public void attachToRecyclerView(FileChooserRecyclerView mainRV) {
+        detachFromRecyclerView();
+        if(mainRV == null) {
+            return;
+        }
+        attachedRecyclerView = mainRV;
+        attachedRecyclerView.addOnScrollListener(prefetchScrollListener);
+        attachedRecyclerView.addOnLayoutChangeListener(prefetchLayoutChangeListener);
+        scheduleBalanceCheck();
+    }
 
-                PrefetchFilesAsyncTask nextPrefetchInBgTask = new PrefetchFilesAsyncTask();
-                nextPrefetchInBgTask.execute();
+    public void detachFromRecyclerView() {
+        if(attachedRecyclerView == null) {
+            return;
+        }
+        attachedRecyclerView.removeOnScrollListener(prefetchScrollListener);
+        attachedRecyclerView.removeOnLayoutChangeListener(prefetchLayoutChangeListener);
+        attachedRecyclerView.removeCallbacks(balanceCheckRunner);
+        attachedRecyclerView = null;
+        balanceCheckPending = false;
+        PrefetchTaskExecutor.getInstance().cancelAll();
+    }
 
-                try {
-                    Thread.sleep(THREAD_PAUSE_TIMEOUT);
-                } catch (InterruptedException ie) {
-                    throw new InterruptedException();
-                }
+    public boolean isAttached() {
+        return attachedRecyclerView != null;
+    }
 
-            } catch(Exception ie) {
-                break;
-            }
+    /* Lifecycle hooks (from the activity's onPause and onResume): no checks are scheduled while paused,
+     * and we check once on resume in case the folder contents changed while we were in the background:
+     */
+    public void pause() {
+        isPaused = true;
+        if(attachedRecyclerView != null) {
+            attachedRecyclerView.removeCallbacks(balanceCheckRunner);
+        }
+        balanceCheckPending = false;
+    }
+
+    public void resume() {
+        isPaused = false;
+        scheduleBalanceCheck();
+    }
+
+    public boolean isPaused() {
+        return isPaused;
+    }
+
+    /* Requests a check of the buffered edges of the sliding window on the next frame. Multiple
+     * requests before then (e.g., every onScrolled callback of a fling) collapse into a single check.
+     * We always post the check since the adapter cannot be modified from within a scroll callback:
+     */
+    public void scheduleBalanceCheck() {
+        if(attachedRecyclerView == null || isPaused || balanceCheckPending) {
+            return;
+        }
+        balanceCheckPending = true;
+        long sinceLastPassMillis = SystemClock.uptimeMillis() - lastBalancePassTime;
+        long nextCheckDelay = Math.max(0L, THREAD_PAUSE_TIMEOUT - sinceLastPassMillis);
+        if(nextCheckDelay == 0L) {
+            attachedRecyclerView.post(balanceCheckRunner);
+        }
+        else {
+            attachedRecyclerView.postDelayed(balanceCheckRunner, nextCheckDelay);
+        }
+    }
 
+    private void runBalanceCheck() {
+
+        if(attachedRecyclerView == null || isPaused) {
+            return;
+        }
+        DisplayFragments displayCtx = DisplayFragments.getInstance();
+        if (!isInit) {
+            if (!displayCtx.viewportCapacityMesaured && attachedRecyclerView.getLayoutManager().getChildCount() != 0) {
+                displayCtx.fileItemDisplayHeight = attachedRecyclerView.getLayoutManager().getChildAt(0).getMeasuredHeight();
+                if (displayCtx.resetViewportMaxFilesCount(attachedRecyclerView)) {
+                    attachedRecyclerView.scrollToPosition(0);
+                    initializeFromRenderedLayout();
+                }
+            } else if (displayCtx.viewportCapacityMesaured) {
+                attachedRecyclerView.scrollToPosition(0);
+                initializeFromRenderedLayout();
+            }
+            if(!isInit) {
+                return; // wait for the next layout pass to measure the rendered items
+            }
+        }
+        if(displayCtx.getCwdFolderContext() == null) {
+            return;
+        }
+        int balanceTopCount = getActiveCountToBalanceTop();
+        int balanceBottomCount = getActiveCountToBalanceBottom();
+        if(balanceTopCount == 0 && balanceBottomCount == 0) {
+            return;
         }
+        UpdateDataStruct.UpdateDataType updateDirection = balanceTopCount > balanceBottomCount ?
+                UpdateDataStruct.UpdateDataType.PREPEND_DATA_AT_TOP :
+                UpdateDataStruct.UpdateDataType.APPEND_DATA_TO_BOTTOM;
+        lastBalancePassTime = SystemClock.uptimeMillis();
+        // Replaces a request for the same edge that is still waiting behind a running one:
+        PrefetchTaskExecutor prefetchExecutor = PrefetchTaskExecutor.getInstance();
+        prefetchExecutor.submit(new PrefetchFilesTask(updateDirection, prefetchExecutor.getFolderGeneration()));
 
     }
 
+    /* Loads the next page past the edge of the window right away (skipping the usual wait between
+     * balance passes), e.g., while a drag selection auto-scrolls towards that edge:
+     */
+    public void requestPagesAhead(UpdateDataStruct.UpdateDataType updateDirection) {
+        if(attachedRecyclerView == null || isPaused || !isInit || DisplayFragments.getInstance().getCwdFolderContext() == null) {
+            return;
+        }
+        attachedRecyclerView.removeCallbacks(balanceCheckRunner);
+        balanceCheckPending = false;
+        lastBalancePassTime = SystemClock.uptimeMillis();
+        PrefetchTaskExecutor prefetchExecutor = PrefetchTaskExecutor.getInstance();
+        prefetchExecutor.submit(new PrefetchFilesTask(updateDirection, prefetchExecutor.getFolderGeneration()));
+    }
+
     public void setWeightBufferSize(int size) throws IllegalStateException {
-        if(isAlive()) {
-            throw new IllegalStateException("The buffer size parameter must be reset _BEFORE_ starting the updater thread");
+        if(isAttached()) {
+            throw new IllegalStateException("The buffer size parameter must be reset _BEFORE_ attaching the updater to the RecyclerView");
         }
         else if(size <= 0) {
             return;
@@ -0,0 +1,221 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs the prefetch (sliding window balancing) work of the RecyclerView on a dedicated worker thread.
+ * At most one request runs at a time, since each one updates the shared folder context and window
+ * indices. While one is running, at most one more request per direction (top or bottom edge) waits
+ * to run: a newer request for the same direction replaces the waiting one, because only the latest
+ * scroll position matters. Every request is tagged with the folder generation it was issued for.
+ * Navigating to another folder advances the generation, cancels the waiting and running requests,
+ * and the results of any request that finishes for an older generation are dropped instead of
+ * being posted to the adapter.
+ *
+ * The request callbacks follow the AsyncTask model: onPrepare() and onPostResult() run on the UI
+ * thread (right before and after the worker runs doInBackground()). The submit and cancel
+ * methods are expected to be called from the UI thread.
+ */
+public class PrefetchTaskExecutor {
+
+    private static String LOGTAG = PrefetchTaskExecutor.class.getSimpleName();
+
+    public static abstract class PrefetchRequest {
+
+        private final PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType updateDirection;
+        private final int folderGeneration;
+        private volatile boolean isCancelled;
+
+        protected PrefetchRequest(PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType updateDirection, int folderGeneration) {
+            this.updateDirection = updateDirection;
+            this.folderGeneration = folderGeneration;
+            this.isCancelled = false;
+        }
+
+        public PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType getUpdateDirection() { return updateDirection; }
+
+        public int getFolderGeneration() { return folderGeneration; }
+
+        public boolean isCancelled() { return isCancelled; }
+
+        private void cancel() { isCancelled = true; }
+
+        // UI thread: refresh the parameters of the request against the current layout (return false to skip it):
+        protected boolean onPrepare() { return true; }
+
+        // Worker thread: check isCancelled() between the expensive steps:
+        protected abstract void doInBackground();
+
+        // UI thread: only invoked when the request is still current for the displayed folder:
+        protected abstract void onPostResult();
+
+    }
+
+    private static PrefetchTaskExecutor localStaticInst = null;
+
+    public static synchronized PrefetchTaskExecutor getInstance() {
+        if(localStaticInst == null) {
+            localStaticInst = new PrefetchTaskExecutor();
+        }
+        return localStaticInst;
+    }
+
+    private final ExecutorService prefetchWorker;
+    private final Handler mainThreadHandler;
+    private final LinkedHashMap<PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType, PrefetchRequest> pendingRequests;
+    private PrefetchRequest inFlightRequest;
+    private int folderGeneration;
+    private final AtomicLong submittedCount;
+    private final AtomicLong droppedCount;
+    private final AtomicLong cancelledCount;
+    private final AtomicLong staleResultsCount;
+
+    private PrefetchTaskExecutor() {
+        prefetchWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnableTask) {
+                Thread workerThread = new Thread(runnableTask, "PrefetchFilesWorker");
+                workerThread.setDaemon(true);
+                return workerThread;
+            }
+        });
+        mainThreadHandler = new Handler(Looper.getMainLooper());
+        pendingRequests = new LinkedHashMap<PrefetchFilesUpdater.UpdateDataStruct.UpdateDataType, PrefetchRequest>();
+        inFlightRequest = null;
+        folderGeneration = 0;
+        submittedCount = new AtomicLong(0);
+        droppedCount = new AtomicLong(0);
+        cancelledCount = new AtomicLong(0);
+        staleResultsCount = new AtomicLong(0);
+    }
+
+    public synchronized int getFolderGeneration() { return folderGeneration; }
+
+    /* Called whenever the displayed folder changes: all queued and running work belongs to the old folder: */
+    public synchronized int advanceFolderGeneration() {
+        cancelAll();
+        return ++folderGeneration;
+    }
+
+    public synchronized void submit(PrefetchRequest prefetchRequest) {
+        if(prefetchRequest == null) {
+            return;
+        }
+        submittedCount.incrementAndGet();
+        if(prefetchRequest.getFolderGeneration() != folderGeneration) {
+            cancelledCount.incrementAndGet();
+            return;
+        }
+        PrefetchRequest replacedRequest = pendingRequests.remove(prefetchRequest.getUpdateDirection());
+        if(replacedRequest != null) {
+            droppedCount.incrementAndGet();
+        }
+        pendingRequests.put(prefetchRequest.getUpdateDirection(), prefetchRequest);
+        startNextRequestIfIdle();
+    }
+
+    public synchronized void cancelAll() {
+        cancelledCount.addAndGet(pendingRequests.size());
+        pendingRequests.clear();
+        if(inFlightRequest != null && !inFlightRequest.isCancelled()) {
+            inFlightRequest.cancel();
+            cancelledCount.incrementAndGet();
+        }
+    }
+
+    public synchronized int getQueueDepth() { return pendingRequests.size(); }
+
+    public synchronized boolean isBusy() { return inFlightRequest != null; }
+
+    public long getSubmittedCount() { return submittedCount.get(); }
+
+    public long getDroppedCount() { return droppedCount.get(); }
+
+    public long getCancelledCount() { return cancelledCount.get(); }
+
+    public long getStaleResultsCount() { return staleResultsCount.get(); }
+
+    public void resetStatistics() {
+        submittedCount.set(0);
+        droppedCount.set(0);
+        cancelledCount.set(0);
+        staleResultsCount.set(0);
+    }
+
+    private void startNextRequestIfIdle() {
+        Iterator<PrefetchRequest> pendingIter = pendingRequests.values().iterator();
+        while(inFlightRequest == null && pendingIter.hasNext()) {
+            final PrefetchRequest nextRequest = pendingIter.next();
+            pendingIter.remove();
+            if(nextRequest.getFolderGeneration() != folderGeneration) {
+                cancelledCount.incrementAndGet();
+                continue;
+            }
+            else if(!nextRequest.onPrepare()) {
+                continue; // the window edges were already balanced by an earlier request
+            }
+            inFlightRequest = nextRequest;
+            prefetchWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    try {
+                        if(!nextRequest.isCancelled()) {
+                            nextRequest.doInBackground();
+                        }
+                    } catch(RuntimeException rte) {
+                        Log.e(LOGTAG, "Prefetch request failed: " + rte.getMessage());
+                        nextRequest.cancel();
+                    }
+                    mainThreadHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            finishRequest(nextRequest);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    private synchronized void finishRequest(PrefetchRequest finishedRequest) {
+        if(inFlightRequest == finishedRequest) {
+            inFlightRequest = null;
+        }
+        if(finishedRequest.isCancelled() || finishedRequest.getFolderGeneration() != folderGeneration) {
+            staleResultsCount.incrementAndGet();
+        }
+        else {
+            finishedRequest.onPostResult();
+        }
+        startNextRequestIfIdle();
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Collects the K most recently modified files under a folder tree. Each top-level subfolder is walked
+ * by its own task on the shared search ForkJoinPool into a bounded min-heap of K entries (the oldest of
+ * the current top K at its head), so memory stays O(K) per task no matter how many files there are.
+ * The mtime of every entry is read once (by the same lstat call that tells files and folders apart)
+ * and kept with the entry, rather than being re-read on each heap comparison.
+ *
+ * Optionally, subtrees can be pruned whenever the folder's own mtime is older than the current K-th
+ * result across all tasks. This is a heuristic: a folder's mtime only changes when entries are added,
+ * removed or renamed directly inside it, so a file rewritten in place (or created deeper down) is
+ * missed when its folders are pruned. It is off by default.
+ */
+public class RecentFilesCollector {
+
+    private static String LOGTAG = RecentFilesCollector.class.getSimpleName();
+
+    public static class RecentFileEntry {
+
+        private final File recentFile;
+        private final long lastModified;
+
+        RecentFileEntry(File recentFile, long lastModified) {
+            this.recentFile = recentFile;
+            this.lastModified = lastModified;
+        }
+
+        public File getFile() { return recentFile; }
+
+        public long getLastModified() { return lastModified; }
+
+    }
+
+    private static final Comparator<RecentFileEntry> OLDEST_FIRST_COMPARATOR = new Comparator<RecentFileEntry>() {
+        @Override
+        public int compare(RecentFileEntry lhsEntry, RecentFileEntry rhsEntry) {
+            return Long.compare(lhsEntry.lastModified, rhsEntry.lastModified);
+        }
+    };
+
+    private final ForkJoinPool collectorPool;
+    private boolean pruneByFolderModifiedTime;
+
+    public RecentFilesCollector(ForkJoinPool collectorPool) {
+        this.collectorPool = collectorPool != null ? collectorPool : FileSearchEngine.getSharedSearchPool();
+        this.pruneByFolderModifiedTime = false;
+    }
+
+    public RecentFilesCollector() {
+        this(null);
+    }
+
+    public void setPruneByFolderModifiedTime(boolean enablePruning) { pruneByFolderModifiedTime = enablePruning; }
+
+    private static class TopRecentFiles {
+
+        private final int maxEntries;
+        private final PriorityQueue<RecentFileEntry> oldestFirstHeap;
+
+        TopRecentFiles(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.oldestFirstHeap = new PriorityQueue<RecentFileEntry>(maxEntries + 1, OLDEST_FIRST_COMPARATOR);
+        }
+
+        boolean isFull() { return oldestFirstHeap.size() >= maxEntries; }
+
+        long getOldestModified() { return oldestFirstHeap.isEmpty() ? Long.MIN_VALUE : oldestFirstHeap.peek().lastModified; }
+
+        void offer(RecentFileEntry fileEntry) {
+            if(!isFull()) {
+                oldestFirstHeap.add(fileEntry);
+            }
+            else if(fileEntry.lastModified > oldestFirstHeap.peek().lastModified) {
+                oldestFirstHeap.poll();
+                oldestFirstHeap.add(fileEntry);
+            }
+        }
+
+        void mergeFrom(TopRecentFiles otherTopFiles) {
+            for(RecentFileEntry fileEntry : otherTopFiles.oldestFirstHeap) {
+                offer(fileEntry);
+            }
+        }
+
+        List<RecentFileEntry> getMostRecentFirst() {
+            RecentFileEntry[] sortedEntries = oldestFirstHeap.toArray(new RecentFileEntry[0]);
+            Arrays.sort(sortedEntries, Collections.reverseOrder(OLDEST_FIRST_COMPARATOR));
+            return Arrays.asList(sortedEntries);
+        }
+
+    }
+
+    // Serializable through ForkJoinTask, but never serialized:
+    @SuppressWarnings("serial")
+    private class FolderTreeTask extends RecursiveTask<TopRecentFiles> {
+
+        private final File treeRoot;
+        private final int maxEntries;
+        private final AtomicLong pruneThreshold;
+
+        FolderTreeTask(File treeRoot, int maxEntries, AtomicLong pruneThreshold) {
+            this.treeRoot = treeRoot;
+            this.maxEntries = maxEntries;
+            this.pruneThreshold = pruneThreshold;
+        }
+
+        @Override
+        protected TopRecentFiles compute() {
+            TopRecentFiles topFiles = new TopRecentFiles(maxEntries);
+            LinkedList<File> pendingFolders = new LinkedList<File>();
+            pendingFolders.add(treeRoot);
+            while(!pendingFolders.isEmpty()) {
+                File[] folderEntries = pendingFolders.removeFirst().listFiles();
+                if(folderEntries == null) {
+                    continue;
+                }
+                for(File folderEntry : folderEntries) {
+                    BasicFileAttributes entryAttrs;
+                    try {
+                        entryAttrs = Files.readAttributes(folderEntry.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch(IOException | SecurityException ioe) {
+                        continue;
+                    }
+                    long entryModified = entryAttrs.lastModifiedTime().toMillis();
+                    if(entryAttrs.isDirectory()) {
+                        if(!pruneByFolderModifiedTime || entryModified >= pruneThreshold.get()) {
+                            pendingFolders.add(folderEntry);
+                        }
+                    }
+                    else if(entryAttrs.isRegularFile()) {
+                        topFiles.offer(new RecentFileEntry(folderEntry, entryModified));
+                        if(pruneByFolderModifiedTime && topFiles.isFull()) {
+                            raisePruneThreshold(topFiles.getOldestModified());
+                        }
+                    }
+                }
+            }
+            return topFiles;
+        }
+
+        private void raisePruneThreshold(long localOldestModified) {
+            long curThreshold = pruneThreshold.get();
+            while(localOldestModified > curThreshold && !pruneThreshold.compareAndSet(curThreshold, localOldestModified)) {
+                curThreshold = pruneThreshold.get();
+            }
+        }
+
+    }
+
+    /* Returns (at most) maxEntries of the files under the folder, ordered most recently modified first: */
+    public List<RecentFileEntry> collectRecentFiles(File rootFolder, int maxEntries) {
+        if(rootFolder == null || maxEntries <= 0) {
+            return new ArrayList<RecentFileEntry>();
+        }
+        final AtomicLong pruneThreshold = new AtomicLong(Long.MIN_VALUE);
+        TopRecentFiles topFiles = new TopRecentFiles(maxEntries);
+        List<FolderTreeTask> subfolderTasks = new ArrayList<FolderTreeTask>();
+        File[] rootEntries = rootFolder.listFiles();
+        if(rootEntries != null) {
+            for(File rootEntry : rootEntries) {
+                BasicFileAttributes entryAttrs;
+                try {
+                    entryAttrs = Files.readAttributes(rootEntry.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch(IOException | SecurityException ioe) {
+                    continue;
+                }
+                if(entryAttrs.isDirectory()) {
+                    FolderTreeTask subfolderTask = new FolderTreeTask(rootEntry, maxEntries, pruneThreshold);
+                    subfolderTasks.add(subfolderTask);
+                    collectorPool.execute(subfolderTask);
+                }
+                else if(entryAttrs.isRegularFile()) {
+                    topFiles.offer(new RecentFileEntry(rootEntry, entryAttrs.lastModifiedTime().toMillis()));
+                }
+            }
+        }
+        for(FolderTreeTask subfolderTask : subfolderTasks) {
+            topFiles.mergeFrom(subfolderTask.join());
+        }
+        return topFiles.getMostRecentFirst();
+    }
+
+}
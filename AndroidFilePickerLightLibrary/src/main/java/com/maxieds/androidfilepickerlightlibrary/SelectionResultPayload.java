@@ -0,0 +1,304 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.content.Context;
+import android.content.Intent;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Packages the selected files into the result Intent. Small selections are sent inline as the
+ * usual string list extra (with the optional details as parallel array extras). Large selections
+ * would run into the Binder transaction size limit, so above a threshold the records are written to
+ * a payload file in the app's cache directory (the picker Activity runs in the host app's process)
+ * and only its path goes into the Intent. The host side reads the payload lazily, the first time
+ * the returned list is accessed.
+ */
+public class SelectionResultPayload {
+
+    private static String LOGTAG = SelectionResultPayload.class.getSimpleName();
+
+    public static final int DEFAULT_INLINE_MAX_ITEMS = 256;
+    public static final int INLINE_MAX_PAYLOAD_BYTES = 128 * 1024;
+
+    private static final String PAYLOAD_FILES_DIR = "picker_results";
+    private static final int PAYLOAD_FILE_MAGIC = 0x41465053;
+    private static final int PAYLOAD_FILE_VERSION = 1;
+    private static final int PAYLOAD_FLAG_DETAILS = 0x01;
+    private static final int PAYLOAD_FLAG_DIGESTS = 0x02;
+
+    public static final long UNKNOWN_VALUE = -1L;
+
+    public static class SelectedFileRecord {
+
+        private String filePath;
+        private long fileSize;
+        private long lastModified;
+        private String mimeType;
+        private String contentDigest;
+
+        public SelectedFileRecord(String filePath) {
+            this(filePath, UNKNOWN_VALUE, UNKNOWN_VALUE, null, null);
+        }
+
+        public SelectedFileRecord(String filePath, long fileSize, long lastModified, String mimeType, String contentDigest) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.contentDigest = contentDigest;
+        }
+
+        public static SelectedFileRecord fromFile(File selectedFile, boolean withDetails) {
+            if(!withDetails) {
+                return new SelectedFileRecord(selectedFile.getAbsolutePath());
+            }
+            boolean isDir = selectedFile.isDirectory();
+            return new SelectedFileRecord(selectedFile.getAbsolutePath(),
+                    isDir ? UNKNOWN_VALUE : selectedFile.length(), selectedFile.lastModified(),
+                    isDir ? DocumentsContract.Document.MIME_TYPE_DIR : MimeTypeCache.getMimeTypeForPath(selectedFile.getName()), null);
+        }
+
+        public String getAbsolutePath() { return filePath; }
+        public long getFileSize() { return fileSize; }
+        public long getLastModified() { return lastModified; }
+        public String getMimeType() { return mimeType; }
+        public String getContentDigest() { return contentDigest; }
+
+        public void setContentDigest(String digestHex) { contentDigest = digestHex; }
+
+    }
+
+    public static void writeSelection(Context appCtx, Intent resultIntent, List<SelectedFileRecord> selectedRecords,
+                                      boolean withDetails, String digestAlgoName, int inlineMaxItems) {
+        boolean withDigests = digestAlgoName != null;
+        int recordsCount = selectedRecords.size();
+        if(withDigests) {
+            resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_DIGEST_ALGORITHM_KEY, digestAlgoName);
+        }
+        long payloadBytesEstimate = 0;
+        for(int ridx = 0; ridx < recordsCount; ridx++) {
+            payloadBytesEstimate += 2 * selectedRecords.get(ridx).getAbsolutePath().length() + 64;
+        }
+        if(recordsCount > inlineMaxItems || payloadBytesEstimate > INLINE_MAX_PAYLOAD_BYTES) {
+            File payloadFile = writePayloadFile(appCtx, selectedRecords, withDetails, withDigests);
+            if(payloadFile != null) {
+                resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_FILE_KEY, payloadFile.getAbsolutePath());
+                resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_COUNT_KEY, recordsCount);
+                return;
+            }
+            // Otherwise try our luck sending them inline:
+        }
+        ArrayList<String> filePathsList = new ArrayList<String>(recordsCount);
+        long[] fileSizes = withDetails ? new long[recordsCount] : null;
+        long[] lastModTimes = withDetails ? new long[recordsCount] : null;
+        String[] mimeTypes = withDetails ? new String[recordsCount] : null;
+        String[] contentDigests = withDigests ? new String[recordsCount] : null;
+        for(int ridx = 0; ridx < recordsCount; ridx++) {
+            SelectedFileRecord fileRecord = selectedRecords.get(ridx);
+            filePathsList.add(fileRecord.getAbsolutePath());
+            if(withDetails) {
+                fileSizes[ridx] = fileRecord.getFileSize();
+                lastModTimes[ridx] = fileRecord.getLastModified();
+                mimeTypes[ridx] = fileRecord.getMimeType();
+            }
+            if(withDigests) {
+                contentDigests[ridx] = fileRecord.getContentDigest();
+            }
+        }
+        resultIntent.putStringArrayListExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_KEY, filePathsList);
+        if(withDetails) {
+            resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_SIZES_KEY, fileSizes);
+            resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_MTIMES_KEY, lastModTimes);
+            resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_MIME_TYPES_KEY, mimeTypes);
+        }
+        if(withDigests) {
+            resultIntent.putExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_DIGESTS_KEY, contentDigests);
+        }
+    }
+
+    private static File writePayloadFile(Context appCtx, List<SelectedFileRecord> selectedRecords,
+                                         boolean withDetails, boolean withDigests) {
+        File payloadDir = new File(appCtx.getCacheDir(), PAYLOAD_FILES_DIR);
+        if(!payloadDir.isDirectory() && !payloadDir.mkdirs()) {
+            Log.w(LOGTAG, "Unable to create the selection payload folder " + payloadDir.getAbsolutePath());
+            return null;
+        }
+        // Only the most recent result is ever read back, so drop the payloads of the earlier ones:
+        File[] stalePayloads = payloadDir.listFiles();
+        if(stalePayloads != null) {
+            for(File staleFile : stalePayloads) {
+                staleFile.delete();
+            }
+        }
+        File payloadFile = new File(payloadDir, "selection-" + System.currentTimeMillis() + ".bin");
+        int payloadFlags = (withDetails ? PAYLOAD_FLAG_DETAILS : 0) | (withDigests ? PAYLOAD_FLAG_DIGESTS : 0);
+        DataOutputStream payloadOut = null;
+        try {
+            payloadOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(payloadFile), 64 * 1024));
+            payloadOut.writeInt(PAYLOAD_FILE_MAGIC);
+            payloadOut.writeInt(PAYLOAD_FILE_VERSION);
+            payloadOut.writeInt(payloadFlags);
+            payloadOut.writeInt(selectedRecords.size());
+            for(SelectedFileRecord fileRecord : selectedRecords) {
+                payloadOut.writeUTF(fileRecord.getAbsolutePath());
+                if(withDetails) {
+                    payloadOut.writeLong(fileRecord.getFileSize());
+                    payloadOut.writeLong(fileRecord.getLastModified());
+                    payloadOut.writeUTF(fileRecord.getMimeType() == null ? "" : fileRecord.getMimeType());
+                }
+                if(withDigests) {
+                    payloadOut.writeUTF(fileRecord.getContentDigest() == null ? "" : fileRecord.getContentDigest());
+                }
+            }
+            payloadOut.close();
+            return payloadFile;
+        } catch(IOException ioe) {
+            Log.w(LOGTAG, "Unable to write the selection payload: " + ioe.getMessage());
+            if(payloadOut != null) {
+                try {
+                    payloadOut.close();
+                } catch(IOException ioe2) {}
+            }
+            payloadFile.delete();
+            return null;
+        }
+    }
+
+    private static List<SelectedFileRecord> readPayloadFile(File payloadFile) throws IOException {
+        DataInputStream payloadIn = new DataInputStream(new BufferedInputStream(new FileInputStream(payloadFile), 64 * 1024));
+        try {
+            if(payloadIn.readInt() != PAYLOAD_FILE_MAGIC || payloadIn.readInt() != PAYLOAD_FILE_VERSION) {
+                throw new IOException("Unrecognized selection payload format");
+            }
+            int payloadFlags = payloadIn.readInt();
+            boolean withDetails = (payloadFlags & PAYLOAD_FLAG_DETAILS) != 0;
+            boolean withDigests = (payloadFlags & PAYLOAD_FLAG_DIGESTS) != 0;
+            int recordsCount = payloadIn.readInt();
+            List<SelectedFileRecord> selectedRecords = new ArrayList<SelectedFileRecord>(recordsCount);
+            for(int ridx = 0; ridx < recordsCount; ridx++) {
+                SelectedFileRecord fileRecord = new SelectedFileRecord(payloadIn.readUTF());
+                if(withDetails) {
+                    fileRecord.fileSize = payloadIn.readLong();
+                    fileRecord.lastModified = payloadIn.readLong();
+                    String mimeType = payloadIn.readUTF();
+                    fileRecord.mimeType = mimeType.length() == 0 ? null : mimeType;
+                }
+                if(withDigests) {
+                    String digestHex = payloadIn.readUTF();
+                    fileRecord.contentDigest = digestHex.length() == 0 ? null : digestHex;
+                }
+                selectedRecords.add(fileRecord);
+            }
+            return selectedRecords;
+        } finally {
+            payloadIn.close();
+        }
+    }
+
+    private static List<SelectedFileRecord> readInlineRecords(Intent resultIntent) {
+        List<String> filePathsList = resultIntent.getStringArrayListExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_KEY);
+        if(filePathsList == null) {
+            return Collections.emptyList();
+        }
+        long[] fileSizes = resultIntent.getLongArrayExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_SIZES_KEY);
+        long[] lastModTimes = resultIntent.getLongArrayExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_MTIMES_KEY);
+        String[] mimeTypes = resultIntent.getStringArrayExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_MIME_TYPES_KEY);
+        String[] contentDigests = resultIntent.getStringArrayExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_DIGESTS_KEY);
+        List<SelectedFileRecord> selectedRecords = new ArrayList<SelectedFileRecord>(filePathsList.size());
+        for(int ridx = 0; ridx < filePathsList.size(); ridx++) {
+            selectedRecords.add(new SelectedFileRecord(filePathsList.get(ridx),
+                    fileSizes != null ? fileSizes[ridx] : UNKNOWN_VALUE,
+                    lastModTimes != null ? lastModTimes[ridx] : UNKNOWN_VALUE,
+                    mimeTypes != null ? mimeTypes[ridx] : null,
+                    contentDigests != null ? contentDigests[ridx] : null));
+        }
+        return selectedRecords;
+    }
+
+    /* The selected paths as returned to the host by FileChooserBuilder.handleActivityResult. Nothing is
+     * read until the list is first accessed (the size of a file payload is known from the Intent):
+     */
+    public static class SelectedFilesList extends AbstractList<String> {
+
+        private final Intent resultIntent;
+        private List<SelectedFileRecord> selectedRecords;
+
+        public SelectedFilesList(Intent resultIntent) {
+            this.resultIntent = resultIntent;
+            this.selectedRecords = null;
+        }
+
+        public synchronized List<SelectedFileRecord> getSelectedFileRecords() {
+            if(selectedRecords == null) {
+                String payloadFilePath = resultIntent.getStringExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_FILE_KEY);
+                if(payloadFilePath == null) {
+                    selectedRecords = readInlineRecords(resultIntent);
+                }
+                else {
+                    try {
+                        selectedRecords = readPayloadFile(new File(payloadFilePath));
+                    } catch(IOException ioe) {
+                        Log.w(LOGTAG, "Unable to read the selection payload: " + ioe.getMessage());
+                        selectedRecords = Collections.emptyList();
+                    }
+                }
+            }
+            return selectedRecords;
+        }
+
+        public String getDigestAlgorithmName() {
+            return resultIntent.getStringExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_DIGEST_ALGORITHM_KEY);
+        }
+
+        @Override
+        public String get(int index) {
+            return getSelectedFileRecords().get(index).getAbsolutePath();
+        }
+
+        @Override
+        public int size() {
+            synchronized(this) {
+                if(selectedRecords == null && resultIntent.hasExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_FILE_KEY)) {
+                    return resultIntent.getIntExtra(FileChooserBuilder.FILE_PICKER_INTENT_DATA_PAYLOAD_COUNT_KEY, 0);
+                }
+            }
+            return getSelectedFileRecords().size();
+        }
+
+    }
+
+    public static SelectedFilesList readSelection(Intent resultIntent) {
+        return new SelectedFilesList(resultIntent);
+    }
+
+}
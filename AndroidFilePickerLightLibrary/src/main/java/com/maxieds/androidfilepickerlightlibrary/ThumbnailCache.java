@@ -0,0 +1,463 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.media.ExifInterface;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Produces small thumbnails of image files for the provider's openDocumentThumbnail() and for the
+ * icons of the picker's own rows. Images are decoded straight down to (about) the requested size
+ * with BitmapFactory's inSampleSize, and the thumbnail embedded in the EXIF data of a photo is used
+ * instead of the full image whenever it is at least as large as requested. The decoded thumbnails
+ * are kept in a bounded in-memory LRU cache, and are also written to a size-capped disk cache in the
+ * app's cache directory. The disk cache is keyed by the path, last modified time, size and requested
+ * dimensions of the file, so that a changed image never hands out a stale thumbnail.
+ *
+ * Rows request their thumbnails asynchronously on a small decode pool. A request is dropped (before
+ * it decodes anything) when its row was recycled or rebound to another file in the meantime, which
+ * keeps a fast fling from queueing up the decoding of every image scrolled past.
+ */
+public class ThumbnailCache {
+
+    private static String LOGTAG = ThumbnailCache.class.getSimpleName();
+
+    public static final long DEFAULT_DISK_CACHE_MAX_BYTES = 16L * 1024L * 1024L;
+    private static final String DISK_CACHE_FOLDER_NAME = "thumbnails";
+    private static final String DISK_CACHE_TEMP_SUFFIX = ".tmp";
+    private static final int THUMBNAIL_DECODE_THREADS = 2;
+    private static final int THUMBNAIL_JPEG_QUALITY = 85;
+
+    private static ThumbnailCache localStaticInst = null;
+
+    public static synchronized ThumbnailCache getInstance(Context appContext) {
+        if(localStaticInst == null && appContext != null) {
+            localStaticInst = new ThumbnailCache(appContext.getApplicationContext());
+        }
+        return localStaticInst;
+    }
+
+    private static class ThumbnailRequest implements Runnable {
+
+        private final ThumbnailCache thumbnailCache;
+        private final ImageView targetView;
+        private final File imageFile;
+        private final int targetSize;
+        private volatile boolean isCancelled;
+
+        ThumbnailRequest(ThumbnailCache thumbnailCache, ImageView targetView, File imageFile, int targetSize) {
+            this.thumbnailCache = thumbnailCache;
+            this.targetView = targetView;
+            this.imageFile = imageFile;
+            this.targetSize = targetSize;
+            this.isCancelled = false;
+        }
+
+        void cancel() { isCancelled = true; }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if(isCancelled) {
+                thumbnailCache.droppedRequestsCount.incrementAndGet();
+                return;
+            }
+            final Bitmap thumbnailBitmap = thumbnailCache.getThumbnail(imageFile, new Point(targetSize, targetSize), null);
+            thumbnailCache.mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(thumbnailCache.pendingViewRequests.get(targetView) != ThumbnailRequest.this) {
+                        return;
+                    }
+                    thumbnailCache.pendingViewRequests.remove(targetView);
+                    if(!isCancelled && thumbnailBitmap != null) {
+                        targetView.setImageBitmap(thumbnailBitmap);
+                    }
+                }
+            });
+        }
+
+    }
+
+    private final File diskCacheDir;
+    private long diskCacheMaxBytes;
+    private long diskCacheBytes;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ThreadPoolExecutor decodeExecutor;
+    private final Handler mainThreadHandler;
+    private final WeakHashMap<ImageView, ThumbnailRequest> pendingViewRequests;
+    private final AtomicLong droppedRequestsCount;
+
+    private ThumbnailCache(Context appContext) {
+        diskCacheDir = new File(appContext.getCacheDir(), DISK_CACHE_FOLDER_NAME);
+        diskCacheMaxBytes = DEFAULT_DISK_CACHE_MAX_BYTES;
+        diskCacheBytes = -1L;
+        int memoryCacheKBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 1024L / 16L, 16L * 1024L);
+        memoryCache = new LruCache<String, Bitmap>(memoryCacheKBytes) {
+            @Override
+            protected int sizeOf(String thumbKey, Bitmap thumbBitmap) {
+                return Math.max(1, thumbBitmap.getAllocationByteCount() / 1024);
+            }
+        };
+        decodeExecutor = new ThreadPoolExecutor(THUMBNAIL_DECODE_THREADS, THUMBNAIL_DECODE_THREADS,
+                30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnableTask) {
+                        Thread decodeThread = new Thread(runnableTask, "ThumbnailDecode");
+                        decodeThread.setDaemon(true);
+                        return decodeThread;
+                    }
+                });
+        decodeExecutor.allowCoreThreadTimeOut(true);
+        mainThreadHandler = new Handler(Looper.getMainLooper());
+        pendingViewRequests = new WeakHashMap<ImageView, ThumbnailRequest>();
+        droppedRequestsCount = new AtomicLong(0);
+    }
+
+    public synchronized void setDiskCacheMaxBytes(long maxBytes) {
+        diskCacheMaxBytes = Math.max(0L, maxBytes);
+        trimDiskCache();
+    }
+
+    public long getDroppedRequestsCount() { return droppedRequestsCount.get(); }
+
+    public void clearMemoryCache() { memoryCache.evictAll(); }
+
+    public static String getThumbnailKey(String imagePath, long lastModified, long fileSize, int targetWidth, int targetHeight) {
+        return imagePath + ":" + lastModified + ":" + fileSize + ":" + targetWidth + "x" + targetHeight;
+    }
+
+    public static String getThumbnailKey(File imageFile, int targetWidth, int targetHeight) {
+        return getThumbnailKey(imageFile.getAbsolutePath(), imageFile.lastModified(), imageFile.length(), targetWidth, targetHeight);
+    }
+
+    private static String getDiskCacheFileName(String thumbnailKey) {
+        try {
+            MessageDigest keyDigest = MessageDigest.getInstance("SHA-1");
+            byte[] keyHash = keyDigest.digest(thumbnailKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexName = new StringBuilder(keyHash.length * 2 + 4);
+            for(byte hashByte : keyHash) {
+                hexName.append(Character.forDigit((hashByte >> 4) & 0x0f, 16));
+                hexName.append(Character.forDigit(hashByte & 0x0f, 16));
+            }
+            return hexName.append(".jpg").toString();
+        } catch(NoSuchAlgorithmException nsae) {
+            return Integer.toHexString(thumbnailKey.hashCode()) + ".jpg";
+        }
+    }
+
+    private static int[] getTargetDimensions(Point sizeHint) {
+        int targetWidth = sizeHint != null && sizeHint.x > 0 ? sizeHint.x : 96;
+        int targetHeight = sizeHint != null && sizeHint.y > 0 ? sizeHint.y : targetWidth;
+        return new int[] { targetWidth, targetHeight };
+    }
+
+    /* Returns the thumbnail from the memory cache, the disk cache, or else by decoding the image
+     * (null when the file cannot be decoded as an image):
+     */
+    public Bitmap getThumbnail(File imageFile, Point sizeHint, CancellationSignal signal) {
+        int[] targetDims = getTargetDimensions(sizeHint);
+        String thumbnailKey = getThumbnailKey(imageFile, targetDims[0], targetDims[1]);
+        Bitmap thumbnailBitmap = memoryCache.get(thumbnailKey);
+        if(thumbnailBitmap != null) {
+            return thumbnailBitmap;
+        }
+        File diskCacheFile = new File(diskCacheDir, getDiskCacheFileName(thumbnailKey));
+        if(diskCacheFile.exists()) {
+            thumbnailBitmap = BitmapFactory.decodeFile(diskCacheFile.getAbsolutePath());
+            if(thumbnailBitmap != null) {
+                diskCacheFile.setLastModified(System.currentTimeMillis());
+                memoryCache.put(thumbnailKey, thumbnailBitmap);
+                return thumbnailBitmap;
+            }
+        }
+        if(signal != null) {
+            signal.throwIfCanceled();
+        }
+        thumbnailBitmap = decodeThumbnail(imageFile, targetDims[0], targetDims[1]);
+        if(thumbnailBitmap == null) {
+            return null;
+        }
+        memoryCache.put(thumbnailKey, thumbnailBitmap);
+        writeDiskCacheFile(diskCacheFile, thumbnailBitmap);
+        return thumbnailBitmap;
+    }
+
+    /* Opens a (disk cached) JPEG thumbnail of the image for openDocumentThumbnail(), or returns null
+     * when the file cannot be decoded as an image:
+     */
+    public ParcelFileDescriptor openThumbnailFile(File imageFile, Point sizeHint, CancellationSignal signal) {
+        int[] targetDims = getTargetDimensions(sizeHint);
+        String thumbnailKey = getThumbnailKey(imageFile, targetDims[0], targetDims[1]);
+        File diskCacheFile = new File(diskCacheDir, getDiskCacheFileName(thumbnailKey));
+        ParcelFileDescriptor thumbnailPfd = openDiskCacheFile(diskCacheFile);
+        if(thumbnailPfd != null) {
+            return thumbnailPfd;
+        }
+        Bitmap thumbnailBitmap = getThumbnail(imageFile, sizeHint, signal);
+        if(thumbnailBitmap == null) {
+            return null;
+        }
+        thumbnailPfd = openDiskCacheFile(diskCacheFile);
+        if(thumbnailPfd == null) {
+            // Found in the memory cache after the file was trimmed from the disk cache:
+            writeDiskCacheFile(diskCacheFile, thumbnailBitmap);
+            thumbnailPfd = openDiskCacheFile(diskCacheFile);
+        }
+        return thumbnailPfd;
+    }
+
+    /* Opened under the lock that trimDiskCache holds, so the file cannot be deleted between the
+     * check and the open (the open descriptor stays readable if it is trimmed afterwards):
+     */
+    private synchronized ParcelFileDescriptor openDiskCacheFile(File diskCacheFile) {
+        if(!diskCacheFile.exists()) {
+            return null;
+        }
+        try {
+            ParcelFileDescriptor thumbnailPfd = ParcelFileDescriptor.open(diskCacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            diskCacheFile.setLastModified(System.currentTimeMillis());
+            return thumbnailPfd;
+        } catch(FileNotFoundException fnfe) {
+            return null;
+        }
+    }
+
+    /* Called from the UI thread when binding a row: the icon is replaced by the thumbnail once it is
+     * ready, unless the view was rebound or recycled before that:
+     */
+    public void loadThumbnailInto(ImageView targetView, File imageFile, int targetSize) {
+        loadThumbnailInto(targetView, imageFile.getAbsolutePath(), getThumbnailKey(imageFile, targetSize, targetSize), targetSize);
+    }
+
+    /* Same as above with the key the row item already keeps, so that a thumbnail found in the memory
+     * cache is shown without stat'ing the file (the File is only created for a decode request):
+     */
+    public void loadThumbnailInto(ImageView targetView, String imagePath, String thumbnailKey, int targetSize) {
+        cancelThumbnailLoad(targetView);
+        Bitmap cachedBitmap = memoryCache.get(thumbnailKey);
+        if(cachedBitmap != null) {
+            targetView.setImageBitmap(cachedBitmap);
+            return;
+        }
+        ThumbnailRequest thumbRequest = new ThumbnailRequest(this, targetView, new File(imagePath), targetSize);
+        pendingViewRequests.put(targetView, thumbRequest);
+        decodeExecutor.execute(thumbRequest);
+    }
+
+    public void cancelThumbnailLoad(ImageView targetView) {
+        ThumbnailRequest pendingRequest = pendingViewRequests.remove(targetView);
+        if(pendingRequest != null) {
+            pendingRequest.cancel();
+            if(decodeExecutor.remove(pendingRequest)) {
+                droppedRequestsCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static int computeSampleSize(int imageWidth, int imageHeight, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while(imageWidth / (sampleSize * 2) >= targetWidth && imageHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodeSampledBytes(byte[] imageBytes, int targetWidth, int targetHeight) {
+        BitmapFactory.Options decodeOpts = new BitmapFactory.Options();
+        decodeOpts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, decodeOpts);
+        if(decodeOpts.outWidth < targetWidth || decodeOpts.outHeight < targetHeight) {
+            return null;
+        }
+        decodeOpts.inSampleSize = computeSampleSize(decodeOpts.outWidth, decodeOpts.outHeight, targetWidth, targetHeight);
+        decodeOpts.inJustDecodeBounds = false;
+        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, decodeOpts);
+    }
+
+    private static Bitmap decodeThumbnail(File imageFile, int targetWidth, int targetHeight) {
+        String imagePath = imageFile.getAbsolutePath();
+        int exifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
+        Bitmap thumbnailBitmap = null;
+        try {
+            ExifInterface imageExif = new ExifInterface(imagePath);
+            exifOrientation = imageExif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            byte[] exifThumbnailBytes = imageExif.hasThumbnail() ? imageExif.getThumbnailBytes() : null;
+            if(exifThumbnailBytes != null) {
+                thumbnailBitmap = decodeSampledBytes(exifThumbnailBytes, targetWidth, targetHeight);
+            }
+        } catch(IOException | RuntimeException exifError) {
+            // Not a format with EXIF data (e.g., PNG): decode the image itself below
+        }
+        if(thumbnailBitmap == null) {
+            BitmapFactory.Options decodeOpts = new BitmapFactory.Options();
+            decodeOpts.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(imagePath, decodeOpts);
+            if(decodeOpts.outWidth <= 0 || decodeOpts.outHeight <= 0) {
+                return null;
+            }
+            decodeOpts.inSampleSize = computeSampleSize(decodeOpts.outWidth, decodeOpts.outHeight, targetWidth, targetHeight);
+            decodeOpts.inJustDecodeBounds = false;
+            thumbnailBitmap = BitmapFactory.decodeFile(imagePath, decodeOpts);
+        }
+        if(thumbnailBitmap == null) {
+            return null;
+        }
+        int rotateDegrees = 0;
+        switch(exifOrientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                rotateDegrees = 90;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                rotateDegrees = 180;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                rotateDegrees = 270;
+                break;
+            default:
+                break;
+        }
+        if(rotateDegrees != 0) {
+            Matrix rotateMatrix = new Matrix();
+            rotateMatrix.postRotate(rotateDegrees);
+            thumbnailBitmap = Bitmap.createBitmap(thumbnailBitmap, 0, 0, thumbnailBitmap.getWidth(),
+                                                  thumbnailBitmap.getHeight(), rotateMatrix, true);
+        }
+        return thumbnailBitmap;
+    }
+
+    /* The thumbnail is compressed into a temporary file of its own outside of the lock, so the decode
+     * threads and openDocumentThumbnail() only wait on each other for the rename and the accounting:
+     */
+    private void writeDiskCacheFile(File diskCacheFile, Bitmap thumbnailBitmap) {
+        synchronized(this) {
+            if(diskCacheMaxBytes == 0L) {
+                return;
+            }
+        }
+        if(!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            return;
+        }
+        File tempCacheFile = null;
+        try {
+            tempCacheFile = File.createTempFile(diskCacheFile.getName(), DISK_CACHE_TEMP_SUFFIX, diskCacheDir);
+            FileOutputStream thumbOutStream = new FileOutputStream(tempCacheFile);
+            try {
+                thumbnailBitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_JPEG_QUALITY, thumbOutStream);
+            } finally {
+                thumbOutStream.close();
+            }
+        } catch(IOException ioe) {
+            Log.w(LOGTAG, "Unable to write the thumbnail cache file: " + ioe.getMessage());
+            if(tempCacheFile != null) {
+                tempCacheFile.delete();
+            }
+            return;
+        }
+        commitDiskCacheFile(tempCacheFile, diskCacheFile);
+    }
+
+    private synchronized void commitDiskCacheFile(File tempCacheFile, File diskCacheFile) {
+        // Another thread may have written the same thumbnail in the meantime:
+        long replacedBytes = diskCacheFile.length();
+        if(!tempCacheFile.renameTo(diskCacheFile)) {
+            Log.w(LOGTAG, "Unable to write the thumbnail cache file: cannot rename " + tempCacheFile.getName());
+            tempCacheFile.delete();
+            return;
+        }
+        if(diskCacheBytes < 0L) {
+            diskCacheBytes = 0L;
+            File[] cacheFiles = diskCacheDir.listFiles();
+            for(int fidx = 0; cacheFiles != null && fidx < cacheFiles.length; fidx++) {
+                if(!cacheFiles[fidx].getName().endsWith(DISK_CACHE_TEMP_SUFFIX)) {
+                    diskCacheBytes += cacheFiles[fidx].length();
+                }
+            }
+        }
+        else {
+            diskCacheBytes += diskCacheFile.length() - replacedBytes;
+        }
+        trimDiskCache();
+    }
+
+    /* Removes the least recently used thumbnails (by file mtime, which is refreshed on every hit)
+     * until the cache is back down to 90% of its maximum size:
+     */
+    private synchronized void trimDiskCache() {
+        if(diskCacheBytes <= diskCacheMaxBytes) {
+            return;
+        }
+        File[] cacheFiles = diskCacheDir.listFiles();
+        if(cacheFiles == null) {
+            return;
+        }
+        final long[] cacheFilesMTimes = new long[cacheFiles.length];
+        Integer[] sortedIndices = new Integer[cacheFiles.length];
+        for(int fidx = 0; fidx < cacheFiles.length; fidx++) {
+            cacheFilesMTimes[fidx] = cacheFiles[fidx].lastModified();
+            sortedIndices[fidx] = fidx;
+        }
+        Arrays.sort(sortedIndices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhsIndex, Integer rhsIndex) {
+                return Long.compare(cacheFilesMTimes[lhsIndex], cacheFilesMTimes[rhsIndex]);
+            }
+        });
+        long trimToBytes = diskCacheMaxBytes - diskCacheMaxBytes / 10L;
+        for(int sidx = 0; sidx < sortedIndices.length && diskCacheBytes > trimToBytes; sidx++) {
+            File cacheFile = cacheFiles[sortedIndices[sidx]];
+            if(cacheFile.getName().endsWith(DISK_CACHE_TEMP_SUFFIX)) {
+                // Still being written by a decode thread:
+                continue;
+            }
+            long cacheFileBytes = cacheFile.length();
+            if(cacheFile.delete()) {
+                diskCacheBytes -= cacheFileBytes;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+        This program (the AndroidFilePickerLight library) is free software written by
+        Maxie Dion Schmidt: you can redistribute it and/or modify
+        it under the terms of the GNU General Public License as published by
+        the Free Software Foundation, either version 3 of the License, or
+        (at your option) any later version.
+
+        This program is distributed in the hope that it will be useful,
+        but WITHOUT ANY WARRANTY; without even the implied warranty of
+        MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+        GNU General Public License for more details.
+
+        The complete license provided with source distributions of this library is
+        available at the following link:
+        https://github.com/maxieds/AndroidFilePickerLight
+*/
+
+package com.maxieds.androidfilepickerlightlibrary;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.io.File;
+
+/*
+ * A read-only cursor over a contiguous window [start, start + length) of a folder snapshot.
+ * Unlike building a MatrixCursor up front, the window is sliced out of the snapshot by
+ * index (no skip-iteration from the start of the folder), and the column values of a row
+ * are only computed when the cursor is positioned on that row and a column is read.
+ * The cost of a prefetch page is then proportional to the number of rows actually read,
+ * no matter how deep into the folder the window starts.
+ */
+public class WindowedDocumentsCursor extends AbstractCursor {
+
+    private static String LOGTAG = WindowedDocumentsCursor.class.getSimpleName();
+
+    private final BasicFileProvider fpInst;
+    private final int windowStartIndex;
+    private final File[] windowFiles;
+    private final String[] columnNames;
+    private final Object[] curRowValues;
+    private final FileUtils.FileAttributes curRowAttrs;
+    private int filledRowPosition;
+
+    public WindowedDocumentsCursor(BasicFileProvider fpInst, FolderSnapshotCache.FolderSnapshot folderSnapshot,
+                                   int startIndex, int windowLength, String[] projection) {
+        this.fpInst = fpInst;
+        this.windowStartIndex = Math.max(0, startIndex);
+        // Take the rows from a copy of the window, so that the count stays fixed and no row
+        // shifts (or disappears) under the reader when the watched folder changes afterwards:
+        this.windowFiles = folderSnapshot.getFilesWindow(this.windowStartIndex, windowLength);
+        this.columnNames = projection;
+        this.curRowValues = new Object[projection.length];
+        this.curRowAttrs = new FileUtils.FileAttributes();
+        this.filledRowPosition = -1;
+    }
+
+    public int getWindowStartIndex() { return windowStartIndex; }
+
+    public File getFileAtCursorPosition() {
+        checkPosition();
+        return windowFiles[getPosition()];
+    }
+
+    private Object getRowValue(int columnIndex) {
+        checkPosition();
+        if(columnIndex < 0 || columnIndex >= columnNames.length) {
+            throw new IllegalArgumentException("Requested column " + columnIndex + " is out of range");
+        }
+        int curPosition = getPosition();
+        if(filledRowPosition != curPosition) {
+            fpInst.fillDocumentRowValues(windowFiles[curPosition], columnNames, curRowValues, curRowAttrs);
+            filledRowPosition = curPosition;
+        }
+        return curRowValues[columnIndex];
+    }
+
+    @Override
+    public int getCount() {
+        return windowFiles.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        Object rowValue = getRowValue(columnIndex);
+        return rowValue == null ? null : rowValue.toString();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        Object rowValue = getRowValue(columnIndex);
+        if(rowValue == null) {
+            return 0L;
+        }
+        else if(rowValue instanceof Number) {
+            return ((Number) rowValue).longValue();
+        }
+        return Long.parseLong(rowValue.toString());
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        Object rowValue = getRowValue(columnIndex);
+        if(rowValue == null) {
+            return 0.0;
+        }
+        else if(rowValue instanceof Number) {
+            return ((Number) rowValue).doubleValue();
+        }
+        return Double.parseDouble(rowValue.toString());
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        Object rowValue = getRowValue(columnIndex);
+        if(rowValue == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        }
+        else if(rowValue instanceof Float || rowValue instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        }
+        else if(rowValue instanceof Number) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        }
+        else if(rowValue instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return getRowValue(columnIndex) == null;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the table driven CRC-32C checksum used for the selection digests, and for
+ * handing the digests of a bulk selection over as a single batch.
+ */
+public class FileContentDigestsTest {
+
+    private static long bitwiseCrc32c(byte[] dataBytes, int offset, int length) {
+        int crcValue = 0xffffffff;
+        for(int bidx = offset; bidx < offset + length; bidx++) {
+            crcValue ^= dataBytes[bidx] & 0xff;
+            for(int bitPos = 0; bitPos < 8; bitPos++) {
+                crcValue = (crcValue >>> 1) ^ ((crcValue & 1) != 0 ? 0x82F63B78 : 0);
+            }
+        }
+        return (~crcValue) & 0xffffffffL;
+    }
+
+    @Test
+    public void crc32c_matchesCheckValue() {
+        byte[] checkBytes = "123456789".getBytes(StandardCharsets.US_ASCII);
+        FileContentDigests.Crc32cChecksum crcChecksum = new FileContentDigests.Crc32cChecksum();
+        crcChecksum.update(checkBytes, 0, checkBytes.length);
+        assertEquals(0xE3069283L, crcChecksum.getValue());
+        crcChecksum.reset();
+        assertEquals(0L, crcChecksum.getValue());
+    }
+
+    @Test
+    public void crc32c_matchesBitwiseAtEveryAlignment() {
+        Random rng = new Random(0x5eed);
+        byte[] dataBytes = new byte[300];
+        rng.nextBytes(dataBytes);
+        for(int offset = 0; offset < 9; offset++) {
+            for(int length = 0; length <= dataBytes.length - offset; length += 7) {
+                FileContentDigests.Crc32cChecksum crcChecksum = new FileContentDigests.Crc32cChecksum();
+                crcChecksum.update(dataBytes, offset, length);
+                assertEquals(bitwiseCrc32c(dataBytes, offset, length), crcChecksum.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void crc32c_splitUpdatesAndDirectBuffers() {
+        Random rng = new Random(42);
+        byte[] dataBytes = new byte[4099];
+        rng.nextBytes(dataBytes);
+        ByteBuffer directBuf = ByteBuffer.allocateDirect(dataBytes.length);
+        directBuf.put(dataBytes);
+        FileContentDigests.Crc32cChecksum crcChecksum = new FileContentDigests.Crc32cChecksum();
+        for(int splitPos = 0; splitPos < dataBytes.length; splitPos += 1021) {
+            directBuf.limit(Math.min(dataBytes.length, splitPos + 1021));
+            directBuf.position(splitPos);
+            crcChecksum.update(directBuf);
+            assertEquals(directBuf.limit(), directBuf.position());
+        }
+        assertEquals(bitwiseCrc32c(dataBytes, 0, dataBytes.length), crcChecksum.getValue());
+    }
+
+    private static boolean waitForDigestReady(FileContentDigests fileDigests, File file, boolean ready) throws Exception {
+        long waitDeadline = System.currentTimeMillis() + 5000L;
+        while(fileDigests.isDigestReady(file.getAbsolutePath()) != ready && System.currentTimeMillis() < waitDeadline) {
+            Thread.sleep(5L);
+        }
+        return fileDigests.isDigestReady(file.getAbsolutePath()) == ready;
+    }
+
+    @Test
+    public void requestDigests_walksTheBatchOffTheCaller() throws Exception {
+        File testFolder = File.createTempFile("digests", "");
+        assertTrue(testFolder.delete() && testFolder.mkdir());
+        FileContentDigests fileDigests = new FileContentDigests(FileContentDigests.DigestAlgorithm.CRC32C);
+        try {
+            for(int fidx = 0; fidx < 3; fidx++) {
+                FileOutputStream fileOut = new FileOutputStream(new File(testFolder, "f" + fidx));
+                fileOut.write(("contents " + fidx).getBytes(StandardCharsets.US_ASCII));
+                fileOut.close();
+            }
+            FolderSnapshotCache snapshotCache = new FolderSnapshotCache();
+            snapshotCache.setWatchCachedFolders(false);
+            FolderSnapshotCache.FolderSnapshot folderSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, new FileFilter.FileItemsSortFunc());
+            BitSet selectedIndices = new BitSet();
+            selectedIndices.set(0);
+            selectedIndices.set(2);
+            fileDigests.requestDigests(folderSnapshot, selectedIndices, new BitSet());
+            assertTrue(waitForDigestReady(fileDigests, new File(testFolder, "f2"), true));
+            assertTrue(waitForDigestReady(fileDigests, new File(testFolder, "f0"), true));
+            assertFalse(fileDigests.isDigestReady(new File(testFolder, "f1").getAbsolutePath()));
+            // Unchecked again in the next batch:
+            fileDigests.requestDigests(folderSnapshot, new BitSet(), selectedIndices);
+            assertTrue(waitForDigestReady(fileDigests, new File(testFolder, "f2"), false));
+            assertFalse(fileDigests.isDigestReady(new File(testFolder, "f0").getAbsolutePath()));
+        } finally {
+            fileDigests.shutdown();
+            File[] testFiles = testFolder.listFiles();
+            for(int fidx = 0; testFiles != null && fidx < testFiles.length; fidx++) {
+                testFiles[fidx].delete();
+            }
+            testFolder.delete();
+        }
+    }
+
+    @Test
+    public void computeDigest_crc32cOfFile() throws Exception {
+        File tempFile = File.createTempFile("digest", ".bin");
+        tempFile.deleteOnExit();
+        byte[] dataBytes = new byte[100003];
+        new Random(7).nextBytes(dataBytes);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            fileOut.write(dataBytes);
+        } finally {
+            fileOut.close();
+        }
+        String hexDigest = FileContentDigests.computeDigest(tempFile, FileContentDigests.DigestAlgorithm.CRC32C);
+        assertEquals(String.format("%08x", bitwiseCrc32c(dataBytes, 0, dataBytes.length)), hexDigest);
+    }
+
+}
@@ -0,0 +1,276 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the FileChannel based document reads: ranged reads (heap and mapped), the
+ * chunk iterator, and the line reads with lines, CRLF pairs and multi-byte characters that straddle
+ * the decoding buffers and the backwards scan windows. Also times the ranged reads against the
+ * 128-byte buffered reads they replaced.
+ */
+public class FileContentsReaderTest {
+
+    // Small enough that the lines below cross many buffer boundaries:
+    private static final int SMALL_TEXT_BUFFER_SIZE = 16;
+    // One, two, three and four (a surrogate pair) byte characters in UTF-8:
+    private static final String[] LINE_FRAGMENTS = new String[] { "a", "é", "€", "𝄞", "xy", "ßü" };
+
+    private File testFile;
+
+    @Before
+    public void setUp() throws IOException {
+        testFile = File.createTempFile("contents", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        FileContentsReader.setMappedReadThreshold(FileContentsReader.DEFAULT_MAPPED_READ_THRESHOLD);
+        testFile.delete();
+    }
+
+    private void writeTestFile(byte[] fileBytes) throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(testFile);
+        fileOut.write(fileBytes);
+        fileOut.close();
+    }
+
+    private FileChannel openTestFile() throws IOException {
+        return new RandomAccessFile(testFile, "r").getChannel();
+    }
+
+    private static byte[] randomBytes(int byteCount, long randomSeed) {
+        byte[] dataBytes = new byte[byteCount];
+        new Random(randomSeed).nextBytes(dataBytes);
+        return dataBytes;
+    }
+
+    /* Lines of varying lengths made of mixed width characters, so that every kind of character (and
+     * the line breaks) falls on every offset relative to the buffer boundaries:
+     */
+    private static List<String> createTestLines(int linesCount) {
+        List<String> testLines = new ArrayList<String>();
+        for(int lidx = 0; lidx < linesCount; lidx++) {
+            StringBuilder lineBuilder = new StringBuilder();
+            for(int cidx = 0; cidx < lidx % 23; cidx++) {
+                lineBuilder.append(LINE_FRAGMENTS[(lidx + cidx) % LINE_FRAGMENTS.length]);
+            }
+            testLines.add(lineBuilder.toString());
+        }
+        return testLines;
+    }
+
+    private static String joinLines(List<String> textLines, String lineBreak, boolean finalLineBreak) {
+        StringBuilder textBuilder = new StringBuilder();
+        for(int lidx = 0; lidx < textLines.size(); lidx++) {
+            textBuilder.append(textLines.get(lidx));
+            if(lidx + 1 < textLines.size() || finalLineBreak) {
+                textBuilder.append(lineBreak);
+            }
+        }
+        return textBuilder.toString();
+    }
+
+    private List<String> readAllLines(Charset charset, int bufferSize) throws IOException {
+        List<String> textLines = new ArrayList<String>();
+        FileContentsReader.LineIterator lineIter = new FileContentsReader.LineIterator(openTestFile(), charset, 0L, bufferSize);
+        while(lineIter.hasNext()) {
+            textLines.add(lineIter.next());
+        }
+        assertFalse(lineIter.hasNext());
+        return textLines;
+    }
+
+    @Test
+    public void readRange_heapAndMappedReturnSameBytes() throws IOException {
+        byte[] fileBytes = randomBytes(300000, 1);
+        writeTestFile(fileBytes);
+        for(int threshold : new int[] { FileContentsReader.DEFAULT_MAPPED_READ_THRESHOLD, 1 }) {
+            FileContentsReader.setMappedReadThreshold(threshold);
+            FileChannel fileChannel = openTestFile();
+            ByteBuffer rangeBuffer = FileContentsReader.readRange(fileChannel, 12345, 1000);
+            assertEquals(threshold == 1, rangeBuffer instanceof MappedByteBuffer);
+            assertArrayEquals(Arrays.copyOfRange(fileBytes, 12345, 13345), FileContentsReader.toByteArray(rangeBuffer));
+            // Clipped at the end of the file, and empty past it:
+            rangeBuffer = FileContentsReader.readRange(fileChannel, fileBytes.length - 10, 1000);
+            assertArrayEquals(Arrays.copyOfRange(fileBytes, fileBytes.length - 10, fileBytes.length), FileContentsReader.toByteArray(rangeBuffer));
+            assertEquals(0, FileContentsReader.readRange(fileChannel, fileBytes.length + 5, 1000).remaining());
+            assertEquals(0L, fileChannel.position());
+            fileChannel.close();
+        }
+    }
+
+    @Test
+    public void fileChunkIterator_streamsWholeFile() throws IOException {
+        byte[] fileBytes = randomBytes(100003, 2);
+        writeTestFile(fileBytes);
+        ByteArrayOutputStream streamedBytes = new ByteArrayOutputStream();
+        FileContentsReader.FileChunkIterator chunkIter = new FileContentsReader.FileChunkIterator(openTestFile(), 4096);
+        while(chunkIter.hasNext()) {
+            ByteBuffer nextChunk = chunkIter.next();
+            assertTrue(nextChunk.remaining() <= 4096);
+            streamedBytes.write(FileContentsReader.toByteArray(nextChunk));
+        }
+        assertArrayEquals(fileBytes, streamedBytes.toByteArray());
+        // A range that starts and ends mid-chunk:
+        streamedBytes.reset();
+        chunkIter = new FileContentsReader.FileChunkIterator(openTestFile(), 5000L, 9000L, 4096);
+        while(chunkIter.hasNext()) {
+            streamedBytes.write(FileContentsReader.toByteArray(chunkIter.next()));
+        }
+        assertArrayEquals(Arrays.copyOfRange(fileBytes, 5000, 14000), streamedBytes.toByteArray());
+    }
+
+    @Test
+    public void lineIterator_multiByteCharsAcrossBuffers() throws IOException {
+        List<String> testLines = createTestLines(200);
+        for(String lineBreak : new String[] { "\n", "\r\n" }) {
+            for(boolean finalLineBreak : new boolean[] { true, false }) {
+                writeTestFile(joinLines(testLines, lineBreak, finalLineBreak).getBytes(StandardCharsets.UTF_8));
+                for(int bufferSize = SMALL_TEXT_BUFFER_SIZE; bufferSize <= SMALL_TEXT_BUFFER_SIZE + 7; bufferSize++) {
+                    assertEquals("Buffer size " + bufferSize, testLines, readAllLines(StandardCharsets.UTF_8, bufferSize));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lineIterator_utf16AcrossBuffers() throws IOException {
+        List<String> testLines = createTestLines(120);
+        writeTestFile(joinLines(testLines, "\r\n", true).getBytes(StandardCharsets.UTF_16LE));
+        for(int bufferSize = SMALL_TEXT_BUFFER_SIZE; bufferSize <= SMALL_TEXT_BUFFER_SIZE + 3; bufferSize++) {
+            assertEquals(testLines, readAllLines(StandardCharsets.UTF_16LE, bufferSize));
+        }
+    }
+
+    @Test
+    public void lineIterator_emptyLinesAndTruncatedChar() throws IOException {
+        writeTestFile("\n\nabc\n\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("", "", "abc", ""), readAllLines(StandardCharsets.UTF_8, SMALL_TEXT_BUFFER_SIZE));
+        writeTestFile(new byte[0]);
+        assertTrue(readAllLines(StandardCharsets.UTF_8, SMALL_TEXT_BUFFER_SIZE).isEmpty());
+        // The first two bytes of the three byte Euro sign at the end of the file are replaced:
+        byte[] euroBytes = "€".getBytes(StandardCharsets.UTF_8);
+        writeTestFile(new byte[] { 'o', 'k', '\n', euroBytes[0], euroBytes[1] });
+        assertEquals(Arrays.asList("ok", "�"), readAllLines(StandardCharsets.UTF_8, SMALL_TEXT_BUFFER_SIZE));
+    }
+
+    @Test
+    public void readFirstLines_stopsAtMaxLines() throws IOException {
+        List<String> testLines = createTestLines(50);
+        writeTestFile(joinLines(testLines, "\n", true).getBytes(StandardCharsets.UTF_8));
+        assertEquals(testLines.subList(0, 7), FileContentsReader.readFirstLines(openTestFile(), StandardCharsets.UTF_8, 7));
+        assertEquals(testLines, FileContentsReader.readFirstLines(openTestFile(), StandardCharsets.UTF_8, 1000));
+    }
+
+    @Test
+    public void readLastLines_acrossScanWindows() throws IOException {
+        // Enough lines that the backwards scan crosses several windows of DEFAULT_TEXT_BUFFER_SIZE bytes:
+        List<String> testLines = createTestLines(12000);
+        for(boolean finalLineBreak : new boolean[] { true, false }) {
+            byte[] fileBytes = joinLines(testLines, "\r\n", finalLineBreak).getBytes(StandardCharsets.UTF_8);
+            assertTrue(fileBytes.length > 3 * FileContentsReader.DEFAULT_TEXT_BUFFER_SIZE);
+            writeTestFile(fileBytes);
+            for(int maxLines : new int[] { 1, 2, 37, 3000, 11999, 12000, 20000 }) {
+                int fromLine = Math.max(0, testLines.size() - maxLines);
+                assertEquals("Last " + maxLines + " lines", testLines.subList(fromLine, testLines.size()),
+                        FileContentsReader.readLastLines(openTestFile(), StandardCharsets.UTF_8, maxLines));
+            }
+        }
+    }
+
+    @Test
+    public void readLastLines_newlineAtWindowBoundary() throws IOException {
+        // Put the line breaks right at (and right next to) the start of the last scan window:
+        int windowSize = FileContentsReader.DEFAULT_TEXT_BUFFER_SIZE;
+        for(int breakOffset = -2; breakOffset <= 2; breakOffset++) {
+            byte[] fileBytes = new byte[2 * windowSize + 10];
+            Arrays.fill(fileBytes, (byte) 'z');
+            int breakPos = fileBytes.length - 1 - windowSize + breakOffset;
+            fileBytes[breakPos] = '\n';
+            fileBytes[fileBytes.length - 1] = '\n';
+            writeTestFile(fileBytes);
+            List<String> lastLines = FileContentsReader.readLastLines(openTestFile(), StandardCharsets.UTF_8, 1);
+            assertEquals(1, lastLines.size());
+            assertEquals(fileBytes.length - 2 - breakPos, lastLines.get(0).length());
+            lastLines = FileContentsReader.readLastLines(openTestFile(), StandardCharsets.UTF_8, 2);
+            assertEquals(2, lastLines.size());
+            assertEquals(breakPos, lastLines.get(0).length());
+        }
+    }
+
+    @Test
+    public void readLastLines_otherCharsets() throws IOException {
+        List<String> testLines = createTestLines(300);
+        writeTestFile(joinLines(testLines, "\n", true).getBytes(StandardCharsets.UTF_16BE));
+        assertEquals(testLines.subList(290, 300), FileContentsReader.readLastLines(openTestFile(), StandardCharsets.UTF_16BE, 10));
+        assertTrue(FileContentsReader.readLastLines(openTestFile(), StandardCharsets.UTF_16BE, 0).isEmpty());
+    }
+
+    /* The 128-byte buffered read readFileContentsAsByteArray made before (with the reversed
+     * System.arraycopy arguments fixed, so that it returns the file contents):
+     */
+    private static byte[] legacyReadFileContents(File fileOnDisk, int maxBytes) throws IOException {
+        final int BYTE_BUFFER_SIZE = 128;
+        FileInputStream inputStream = new FileInputStream(fileOnDisk);
+        int actualSize = 0, bufCapacity = BYTE_BUFFER_SIZE;
+        byte[] returnBuf = new byte[BYTE_BUFFER_SIZE], byteBuf = new byte[BYTE_BUFFER_SIZE];
+        int bytesRead = inputStream.read(byteBuf, 0, Math.min(maxBytes, BYTE_BUFFER_SIZE));
+        while(bytesRead > 0) {
+            maxBytes -= bytesRead;
+            byte[] bytesReadBuf = Arrays.copyOf(byteBuf, bytesRead);
+            if(actualSize + bytesRead > bufCapacity) {
+                bufCapacity *= 2;
+                returnBuf = Arrays.copyOf(returnBuf, bufCapacity);
+            }
+            System.arraycopy(bytesReadBuf, 0, returnBuf, actualSize, bytesRead);
+            actualSize += bytesRead;
+            bytesRead = inputStream.read(byteBuf, 0, Math.min(maxBytes, BYTE_BUFFER_SIZE));
+        }
+        inputStream.close();
+        return Arrays.copyOf(returnBuf, actualSize);
+    }
+
+    @Test
+    public void readRange_timedAgainstLegacyReads() throws IOException {
+        final int fileSize = 8 * 1024 * 1024;
+        byte[] fileBytes = randomBytes(fileSize, 3);
+        writeTestFile(fileBytes);
+        long rangeNanos = Long.MAX_VALUE, legacyNanos = Long.MAX_VALUE;
+        for(int round = 0; round < 3; round++) {
+            long startTime = System.nanoTime();
+            FileChannel fileChannel = openTestFile();
+            byte[] rangeBytes = FileContentsReader.toByteArray(FileContentsReader.readRange(fileChannel, 0, fileSize));
+            fileChannel.close();
+            rangeNanos = Math.min(rangeNanos, System.nanoTime() - startTime);
+            assertArrayEquals(fileBytes, rangeBytes);
+            startTime = System.nanoTime();
+            byte[] legacyBytes = legacyReadFileContents(testFile, fileSize);
+            legacyNanos = Math.min(legacyNanos, System.nanoTime() - startTime);
+            assertArrayEquals(fileBytes, legacyBytes);
+        }
+        System.out.println(String.format(Locale.US, "Read %d MB at %.1f MB/s (128-byte reads: %.1f MB/s)", fileSize >> 20,
+                fileSize * 1000.0 / rangeNanos, fileSize * 1000.0 / legacyNanos));
+    }
+
+}
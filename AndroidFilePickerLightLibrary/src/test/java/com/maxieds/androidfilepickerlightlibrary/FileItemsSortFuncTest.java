@@ -0,0 +1,179 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the built-in folder sort modes: the order of each mode (forward and reversed),
+ * the natural name order, the keyed sort against the plain compare() and the parallel sort of large
+ * listings.
+ */
+public class FileItemsSortFuncTest {
+
+    private static final long BASE_MODIFIED_TIME = 1500000000000L;
+
+    private Locale defaultLocale;
+    private File testFolder;
+    private File[] testFiles;
+    private File testSubfolder;
+
+    @Before
+    public void setUp() throws Exception {
+        defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+        testFolder = File.createTempFile("sorting", "");
+        assertTrue(testFolder.delete() && testFolder.mkdir());
+        testFiles = new File[] {
+                createFile("b10.txt", 300, 1),
+                createFile("B2.txt", 100, 3),
+                createFile("a.jpg", 200, 2),
+                createFile("c1.txt", 400, 0)
+        };
+        testSubfolder = new File(testFolder, "dir");
+        assertTrue(testSubfolder.mkdir());
+    }
+
+    private File createFile(String fileName, int fileSize, int modifiedOffset) throws Exception {
+        File testFile = new File(testFolder, fileName);
+        FileOutputStream fileOut = new FileOutputStream(testFile);
+        try {
+            fileOut.write(new byte[fileSize]);
+        } finally {
+            fileOut.close();
+        }
+        assertTrue(testFile.setLastModified(BASE_MODIFIED_TIME + 1000L * modifiedOffset));
+        return testFile;
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(defaultLocale);
+        File[] folderEntries = testFolder.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            folderEntries[fidx].delete();
+        }
+        testFolder.delete();
+    }
+
+    private static List<String> sortedNames(FileFilter.FileItemsSortFunc sortFunc, File[] files) {
+        File[] sortedFiles = sortFunc.sortFileItemsList(Arrays.copyOf(files, files.length));
+        List<String> fileNames = new ArrayList<String>();
+        for(File sortedFile : sortedFiles) {
+            fileNames.add(sortedFile.getName());
+        }
+        return fileNames;
+    }
+
+    private void assertSortOrder(FileFilter.FileItemsSortFunc.SortMode sortMode, File[] files, String... expectedNames) {
+        List<String> expectedOrder = Arrays.asList(expectedNames);
+        assertEquals(sortMode.name(), expectedOrder, sortedNames(new FileFilter.FileItemsSortFunc(sortMode, false), files));
+        List<String> reversedOrder = new ArrayList<String>(expectedOrder);
+        Collections.reverse(reversedOrder);
+        assertEquals(sortMode.name() + " (reversed)", reversedOrder, sortedNames(new FileFilter.FileItemsSortFunc(sortMode, true), files));
+    }
+
+    @Test
+    public void sortModes_forwardAndReversed() {
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_PATH, testFiles, "B2.txt", "a.jpg", "b10.txt", "c1.txt");
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_NAME_NATURAL, testFiles, "a.jpg", "B2.txt", "b10.txt", "c1.txt");
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_NAME_COLLATED, testFiles, "a.jpg", "b10.txt", "B2.txt", "c1.txt");
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_SIZE, testFiles, "B2.txt", "a.jpg", "b10.txt", "c1.txt");
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_LAST_MODIFIED, testFiles, "c1.txt", "b10.txt", "a.jpg", "B2.txt");
+        File[] filesAndFolder = Arrays.copyOf(testFiles, testFiles.length + 1);
+        filesAndFolder[testFiles.length] = testSubfolder;
+        assertSortOrder(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_TYPE_FOLDERS_FIRST, filesAndFolder, "dir", "a.jpg", "B2.txt", "b10.txt", "c1.txt");
+    }
+
+    @Test
+    public void compareNatural_numericRuns() {
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("img2", "img10") < 0);
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("img10", "img2") > 0);
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("IMG2.jpg", "img10.JPG") < 0);
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("img002", "img10") < 0);
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("a9b", "a10a") < 0);
+        // The same numeric value with and without leading zeros: a fixed, antisymmetric order:
+        int leadingZerosCmp = FileFilter.FileItemsSortFunc.compareNatural("a01", "a1");
+        assertNotEquals(0, leadingZerosCmp);
+        assertEquals(-Integer.signum(leadingZerosCmp), Integer.signum(FileFilter.FileItemsSortFunc.compareNatural("a1", "a01")));
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("a01", "a1x") < 0);
+        assertEquals(0, FileFilter.FileItemsSortFunc.compareNatural("same10", "same10"));
+        // Only ASCII digits form numbers (these Arabic-Indic digits read 10 and 9 if they did):
+        assertTrue(FileFilter.FileItemsSortFunc.compareNatural("x١٠", "x٩") < 0);
+    }
+
+    @Test
+    public void collatedNames_tieBreakOnEqualKeys() {
+        FileFilter.FileItemsSortFunc sortFunc = new FileFilter.FileItemsSortFunc(FileFilter.FileItemsSortFunc.SortMode.SORT_BY_NAME_COLLATED);
+        File upperFile = new File(testFolder, "Notes.txt");
+        File lowerFile = new File(testFolder, "notes.txt");
+        int cmpResult = sortFunc.compare(upperFile, lowerFile);
+        assertNotEquals(0, cmpResult);
+        assertEquals(-Integer.signum(cmpResult), Integer.signum(sortFunc.compare(lowerFile, upperFile)));
+    }
+
+    @Test
+    public void keyedSort_agreesWithCompare() {
+        File[] filesAndFolder = Arrays.copyOf(testFiles, testFiles.length + 1);
+        filesAndFolder[testFiles.length] = testSubfolder;
+        for(FileFilter.FileItemsSortFunc.SortMode sortMode : FileFilter.FileItemsSortFunc.SortMode.values()) {
+            for(boolean reverseOrder : new boolean[] { false, true }) {
+                FileFilter.FileItemsSortFunc sortFunc = new FileFilter.FileItemsSortFunc(sortMode, reverseOrder);
+                assertTrue(sortFunc.usesSortKeys());
+                for(File lhsFile : filesAndFolder) {
+                    for(File rhsFile : filesAndFolder) {
+                        int keysCmp = sortFunc.getSortKeysComparator().compare(sortFunc.getSortKey(lhsFile, null), sortFunc.getSortKey(rhsFile, null));
+                        assertEquals(sortMode.name(), Integer.signum(sortFunc.compare(lhsFile, rhsFile)), Integer.signum(keysCmp));
+                    }
+                }
+                File[] comparedFiles = Arrays.copyOf(filesAndFolder, filesAndFolder.length);
+                Arrays.sort(comparedFiles, sortFunc);
+                assertArrayEquals(sortMode.name(), comparedFiles, sortFunc.sortFileItemsList(Arrays.copyOf(filesAndFolder, filesAndFolder.length)));
+            }
+        }
+        // A subclass with its own compare() is used as a plain comparator:
+        FileFilter.FileItemsSortFunc customSort = new FileFilter.FileItemsSortFunc() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f2.length(), f1.length());
+            }
+        };
+        assertFalse(customSort.usesSortKeys());
+        assertEquals(Arrays.asList("c1.txt", "b10.txt", "a.jpg", "B2.txt"), sortedNames(customSort, testFiles));
+    }
+
+    @Test
+    public void parallelSort_matchesSequentialSort() {
+        Random rng = new Random(8192);
+        File[] manyFiles = new File[FileFilter.FileItemsSortFunc.DEFAULT_PARALLEL_SORT_THRESHOLD + 1000];
+        for(int fidx = 0; fidx < manyFiles.length; fidx++) {
+            // Not on disk: the name modes never stat the files:
+            manyFiles[fidx] = new File(testFolder, String.format(Locale.US, "%s-%d.dat", rng.nextBoolean() ? "Photo" : "photo", rng.nextInt(5000)));
+        }
+        for(FileFilter.FileItemsSortFunc.SortMode sortMode : new FileFilter.FileItemsSortFunc.SortMode[] {
+                FileFilter.FileItemsSortFunc.SortMode.SORT_BY_NAME_NATURAL, FileFilter.FileItemsSortFunc.SortMode.SORT_BY_NAME_COLLATED }) {
+            FileFilter.FileItemsSortFunc parallelSort = new FileFilter.FileItemsSortFunc(sortMode);
+            assertTrue(manyFiles.length >= parallelSort.getParallelSortThreshold());
+            FileFilter.FileItemsSortFunc sequentialSort = new FileFilter.FileItemsSortFunc(sortMode);
+            sequentialSort.setParallelSortThreshold(Integer.MAX_VALUE);
+            File[] parallelSorted = parallelSort.sortFileItemsList(Arrays.copyOf(manyFiles, manyFiles.length));
+            File[] sequentialSorted = sequentialSort.sortFileItemsList(Arrays.copyOf(manyFiles, manyFiles.length));
+            assertArrayEquals(sortMode.name(), sequentialSorted, parallelSorted);
+            for(int fidx = 1; fidx < parallelSorted.length; fidx++) {
+                assertTrue(parallelSort.compare(parallelSorted[fidx - 1], parallelSorted[fidx]) <= 0);
+            }
+        }
+    }
+
+}
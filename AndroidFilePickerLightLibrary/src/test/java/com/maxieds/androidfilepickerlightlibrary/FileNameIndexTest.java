@@ -0,0 +1,152 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the persistent file name index: the trigram candidate folders, queries too
+ * short for trigrams, dropping removed subtrees and saving and loading the index file.
+ */
+public class FileNameIndexTest {
+
+    private File treeRoot;
+    private File indexDir;
+
+    @Before
+    public void setUp() throws Exception {
+        treeRoot = File.createTempFile("nameindex", "");
+        assertTrue(treeRoot.delete() && treeRoot.mkdir());
+        indexDir = File.createTempFile("nameindex-files", "");
+        assertTrue(indexDir.delete() && indexDir.mkdir());
+        createFiles(treeRoot, "readme.txt", "notes.txt");
+        createFiles(new File(treeRoot, "photos"), "IMG_0001.jpg", "IMG_0002.jpg", "cover.png");
+        createFiles(new File(treeRoot, "photos/holiday"), "beach-IMG.jpg", "ab.txt");
+        createFiles(new File(treeRoot, "docs"), "Quarterly-Report.pdf", "report-draft.odt");
+    }
+
+    private static void createFiles(File parentFolder, String... fileNames) throws Exception {
+        assertTrue(parentFolder.isDirectory() || parentFolder.mkdirs());
+        for(String fileName : fileNames) {
+            assertTrue(new File(parentFolder, fileName).createNewFile());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(treeRoot);
+        deleteRecursively(indexDir);
+    }
+
+    private static void deleteRecursively(File fileOnDisk) {
+        File[] folderEntries = fileOnDisk.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            deleteRecursively(folderEntries[fidx]);
+        }
+        fileOnDisk.delete();
+    }
+
+    private FileNameIndex loadIndex() throws Exception {
+        FileNameIndex fileIndex = new FileNameIndex(treeRoot, indexDir);
+        fileIndex.loadInBackground();
+        long waitDeadline = System.currentTimeMillis() + 10000L;
+        while(!fileIndex.isIndexReady() && System.currentTimeMillis() < waitDeadline) {
+            Thread.sleep(5L);
+        }
+        assertTrue(fileIndex.isIndexReady());
+        return fileIndex;
+    }
+
+    private static HashSet<String> getNames(List<File> searchResults) {
+        HashSet<String> fileNames = new HashSet<String>();
+        for(File resultFile : searchResults) {
+            fileNames.add(resultFile.getName());
+        }
+        return fileNames;
+    }
+
+    private static HashSet<String> namesOf(String... fileNames) {
+        HashSet<String> namesSet = new HashSet<String>();
+        for(String fileName : fileNames) {
+            namesSet.add(fileName);
+        }
+        return namesSet;
+    }
+
+    @Test
+    public void searchFiles_narrowsByTrigrams() throws Exception {
+        FileNameIndex fileIndex = loadIndex();
+        assertEquals(4, fileIndex.getIndexedFoldersCount());
+        // Only the folder with the report files has every trigram of the query:
+        BitSet candidateFolders = fileIndex.getCandidateFolders("REPORT");
+        assertNotNull(candidateFolders);
+        assertEquals(1, candidateFolders.cardinality());
+        assertEquals(namesOf("Quarterly-Report.pdf", "report-draft.odt"), getNames(fileIndex.searchFiles(treeRoot, "REPORT", 100)));
+        // The search is limited to the folders under the searched one:
+        assertEquals(namesOf("beach-IMG.jpg"), getNames(fileIndex.searchFiles(new File(treeRoot, "photos/holiday"), "img", 100)));
+        assertEquals(namesOf("beach-IMG.jpg"), getNames(fileIndex.searchFiles(treeRoot, "h-img", 100)));
+        assertTrue(fileIndex.getCandidateFolders("xyzzy").isEmpty());
+        assertTrue(fileIndex.searchFiles(treeRoot, "xyzzy", 100).isEmpty());
+    }
+
+    @Test
+    public void searchFiles_shortQueriesScanAllFolders() throws Exception {
+        FileNameIndex fileIndex = loadIndex();
+        assertNull(fileIndex.getCandidateFolders("ab"));
+        assertEquals(namesOf("ab.txt"), getNames(fileIndex.searchFiles(treeRoot, "ab", 100)));
+        assertEquals(namesOf("IMG_0001.jpg", "IMG_0002.jpg", "beach-IMG.jpg"),
+                     getNames(fileIndex.searchFiles(new File(treeRoot, "photos"), "im", 100)));
+        assertEquals(2, fileIndex.searchFiles(treeRoot, ".", 2).size());
+        assertTrue(fileIndex.searchFiles(treeRoot, "", 100).isEmpty());
+    }
+
+    @Test
+    public void refreshChangedFolders_dropsRemovedSubtrees() throws Exception {
+        FileNameIndex fileIndex = loadIndex();
+        deleteRecursively(new File(treeRoot, "photos"));
+        createFiles(new File(treeRoot, "music"), "IMG-cover.jpg");
+        fileIndex.refreshChangedFolders(treeRoot.getAbsolutePath());
+        assertEquals(3, fileIndex.getIndexedFoldersCount());
+        assertEquals(namesOf("IMG-cover.jpg"), getNames(fileIndex.searchFiles(treeRoot, "img", 100)));
+    }
+
+    @Test
+    public void saveAndLoad_roundTrip() throws Exception {
+        FileNameIndex fileIndex = loadIndex();
+        List<File> savedResults = fileIndex.searchFiles(treeRoot, "jpg", 100);
+        File[] indexFiles = new File[0];
+        long waitDeadline = System.currentTimeMillis() + 10000L;
+        while(System.currentTimeMillis() < waitDeadline) {
+            indexFiles = indexDir.listFiles();
+            if(indexFiles != null && indexFiles.length == 1 && !indexFiles[0].getName().endsWith(".tmp")) {
+                break;
+            }
+            Thread.sleep(5L);
+        }
+        assertEquals(1, indexFiles.length);
+        // A file added behind the index's back (the folder keeps its recorded mtime) is only found
+        // by an index built from scratch, so the next index must have been loaded from the file:
+        File docsFolder = new File(treeRoot, "docs");
+        long docsLastModified = docsFolder.lastModified();
+        assertTrue(new File(docsFolder, "hidden-report.txt").createNewFile());
+        assertTrue(docsFolder.setLastModified(docsLastModified));
+        FileNameIndex loadedIndex = loadIndex();
+        assertEquals(fileIndex.getIndexedFoldersCount(), loadedIndex.getIndexedFoldersCount());
+        assertEquals(new HashSet<File>(savedResults), new HashSet<File>(loadedIndex.searchFiles(treeRoot, "jpg", 100)));
+        assertEquals(namesOf("Quarterly-Report.pdf", "report-draft.odt"), getNames(loadedIndex.searchFiles(treeRoot, "report", 100)));
+        deleteRecursively(indexDir);
+        assertTrue(indexDir.mkdir());
+        FileNameIndex rebuiltIndex = loadIndex();
+        assertEquals(namesOf("Quarterly-Report.pdf", "report-draft.odt", "hidden-report.txt"),
+                     getNames(rebuiltIndex.searchFiles(treeRoot, "report", 100)));
+    }
+
+}
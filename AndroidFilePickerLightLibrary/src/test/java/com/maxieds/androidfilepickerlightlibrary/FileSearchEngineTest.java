@@ -0,0 +1,173 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the fork-join file name search, checked against (and timed next to) the
+ * single threaded breadth first walk that querySearchDocuments used before.
+ */
+public class FileSearchEngineTest {
+
+    // A synthetic tree of 4 + 16 + 64 + 256 folders with 40 files in each (13600 files):
+    private static final int TREE_DEPTH = 4;
+    private static final int SUBFOLDERS_COUNT = 4;
+    private static final int FOLDER_FILES_COUNT = 40;
+    // Every tenth file name contains the query (in mixed case):
+    private static final int MATCH_EVERY_FILES = 10;
+    private static final String SEARCH_QUERY = "report";
+    private static final int TIMED_ROUNDS = 3;
+
+    private static File searchRoot;
+    private static int expectedMatchesCount;
+
+    @BeforeClass
+    public static void createSearchTree() throws Exception {
+        searchRoot = File.createTempFile("search", "");
+        assertTrue(searchRoot.delete() && searchRoot.mkdir());
+        expectedMatchesCount = createSearchFolder(searchRoot, 0);
+    }
+
+    private static int createSearchFolder(File searchFolder, int folderDepth) throws Exception {
+        int matchesCount = 0;
+        for(int fidx = 0; fidx < FOLDER_FILES_COUNT; fidx++) {
+            boolean nameMatches = fidx % MATCH_EVERY_FILES == 0;
+            String fileName = String.format(Locale.US, nameMatches ? "%d-Quarterly-RePort.pdf" : "%d-notes.txt", fidx);
+            assertTrue(new File(searchFolder, fileName).createNewFile());
+            matchesCount += nameMatches ? 1 : 0;
+        }
+        if(folderDepth < TREE_DEPTH) {
+            for(int sidx = 0; sidx < SUBFOLDERS_COUNT; sidx++) {
+                // The folder names match too, but only files are search results:
+                File subfolder = new File(searchFolder, "reports-" + sidx);
+                assertTrue(subfolder.mkdir());
+                matchesCount += createSearchFolder(subfolder, folderDepth + 1);
+            }
+        }
+        return matchesCount;
+    }
+
+    @AfterClass
+    public static void deleteSearchTree() {
+        deleteRecursively(searchRoot);
+    }
+
+    private static void deleteRecursively(File fileOnDisk) {
+        File[] folderEntries = fileOnDisk.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            deleteRecursively(folderEntries[fidx]);
+        }
+        fileOnDisk.delete();
+    }
+
+    /* The walk querySearchDocuments used before (without its hard limit of 20 results): */
+    private static List<File> legacySearchFiles(File rootFolder, String searchQuery, int maxResults) {
+        List<File> searchResults = new ArrayList<File>();
+        final LinkedList<File> pending = new LinkedList<File>();
+        pending.add(rootFolder);
+        while(!pending.isEmpty() && searchResults.size() < maxResults) {
+            final File file = pending.removeFirst();
+            if(file.isDirectory()) {
+                Collections.addAll(pending, file.listFiles());
+            }
+            else if(file.getName().toLowerCase().contains(searchQuery)) {
+                searchResults.add(file);
+            }
+        }
+        return searchResults;
+    }
+
+    @Test
+    public void fileNameMatches_ignoresCase() {
+        assertTrue(FileSearchEngine.fileNameMatches("Quarterly-REPORT.pdf", "report"));
+        assertTrue(FileSearchEngine.fileNameMatches("report", "REPORT"));
+        assertFalse(FileSearchEngine.fileNameMatches("repor", "report"));
+        assertFalse(FileSearchEngine.fileNameMatches("notes.txt", "report"));
+    }
+
+    @Test
+    public void searchFiles_findsSameFilesAsLegacyWalk() {
+        List<File> searchResults = new FileSearchEngine().searchFiles(searchRoot, SEARCH_QUERY, Integer.MAX_VALUE, null);
+        List<File> legacyResults = legacySearchFiles(searchRoot, SEARCH_QUERY, Integer.MAX_VALUE);
+        assertEquals(expectedMatchesCount, legacyResults.size());
+        assertEquals(expectedMatchesCount, searchResults.size());
+        assertEquals(new HashSet<File>(legacyResults), new HashSet<File>(searchResults));
+    }
+
+    @Test
+    public void searchFiles_stopsAtMaxResults() {
+        List<File> searchResults = new FileSearchEngine().searchFiles(searchRoot, SEARCH_QUERY, 25, null);
+        assertEquals(25, searchResults.size());
+        assertEquals(25, new HashSet<File>(searchResults).size());
+    }
+
+    @Test
+    public void searchFiles_deliversBoundedPages() {
+        final List<Integer> pageSizes = new ArrayList<Integer>();
+        final Set<File> searchResults = new HashSet<File>();
+        final boolean[] completeFlags = new boolean[] { false };
+        int deliveredCount = new FileSearchEngine().searchFiles(searchRoot, SEARCH_QUERY, 300, 32, null,
+                new FileSearchEngine.SearchResultsListener() {
+                    @Override
+                    public boolean onSearchResultsPage(List<File> resultsPage, boolean searchComplete) {
+                        assertFalse(completeFlags[0]);
+                        pageSizes.add(resultsPage.size());
+                        searchResults.addAll(resultsPage);
+                        completeFlags[0] = searchComplete;
+                        return true;
+                    }
+                });
+        assertTrue(completeFlags[0]);
+        assertEquals(300, deliveredCount);
+        assertEquals(300, searchResults.size());
+        for(int pageSize : pageSizes) {
+            assertTrue("Page of " + pageSize + " results", pageSize <= 32);
+        }
+    }
+
+    @Test
+    public void searchFiles_listenerStopsTheWalk() {
+        final int[] pagesCount = new int[] { 0 };
+        int deliveredCount = new FileSearchEngine().searchFiles(searchRoot, SEARCH_QUERY, Integer.MAX_VALUE, 10, null,
+                new FileSearchEngine.SearchResultsListener() {
+                    @Override
+                    public boolean onSearchResultsPage(List<File> resultsPage, boolean searchComplete) {
+                        pagesCount[0]++;
+                        return false;
+                    }
+                });
+        assertEquals(1, pagesCount[0]);
+        assertTrue(deliveredCount <= 10);
+    }
+
+    @Test
+    public void searchFiles_timedAgainstLegacyWalk() {
+        FileSearchEngine searchEngine = new FileSearchEngine();
+        long searchMillis = Long.MAX_VALUE, legacyMillis = Long.MAX_VALUE;
+        for(int round = 0; round < TIMED_ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            int resultsCount = searchEngine.searchFiles(searchRoot, SEARCH_QUERY, Integer.MAX_VALUE, null).size();
+            searchMillis = Math.min(searchMillis, (System.nanoTime() - startTime) / 1000000L);
+            assertEquals(expectedMatchesCount, resultsCount);
+            startTime = System.nanoTime();
+            resultsCount = legacySearchFiles(searchRoot, SEARCH_QUERY, Integer.MAX_VALUE).size();
+            legacyMillis = Math.min(legacyMillis, (System.nanoTime() - startTime) / 1000000L);
+            assertEquals(expectedMatchesCount, resultsCount);
+        }
+        System.out.println(String.format(Locale.US, "Searched for %d matches in %d ms (legacy walk: %d ms)",
+                expectedMatchesCount, searchMillis, legacyMillis));
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the bitset selections over a folder snapshot (select, invert, ranges and
+ * keeping the selections across changes to the watched listing).
+ */
+public class FileSelectionSetTest {
+
+    private static final int FOLDER_FILES_COUNT = 200;
+
+    private File testFolder;
+    private FolderSnapshotCache snapshotCache;
+    private FolderSnapshotCache.FolderSnapshot folderSnapshot;
+    private FileSelectionSet fileSelections;
+
+    private static String fileName(int fileIndex) {
+        return String.format(Locale.US, "f%04d", fileIndex);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testFolder = File.createTempFile("selections", "");
+        assertTrue(testFolder.delete() && testFolder.mkdir());
+        for(int fidx = 0; fidx < FOLDER_FILES_COUNT; fidx++) {
+            assertTrue(new File(testFolder, fileName(fidx)).createNewFile());
+        }
+        snapshotCache = new FolderSnapshotCache();
+        snapshotCache.setWatchCachedFolders(false);
+        folderSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, new FileFilter.FileItemsSortFunc());
+        assertEquals(FOLDER_FILES_COUNT, folderSnapshot.getFilesCount());
+        fileSelections = new FileSelectionSet();
+        fileSelections.setActiveFolder(folderSnapshot);
+    }
+
+    @After
+    public void tearDown() {
+        File[] testFiles = testFolder.listFiles();
+        for(int fidx = 0; testFiles != null && fidx < testFiles.length; fidx++) {
+            testFiles[fidx].delete();
+        }
+        testFolder.delete();
+    }
+
+    private static BitSet bitsOf(int... indices) {
+        BitSet indexBits = new BitSet();
+        for(int index : indices) {
+            indexBits.set(index);
+        }
+        return indexBits;
+    }
+
+    @Test
+    public void selectRange_reportsOnlyNewlySelected() {
+        assertTrue(fileSelections.setSelected(2, true));
+        BitSet changedIndices = new BitSet();
+        assertEquals(4, fileSelections.selectRange(0, 5, changedIndices));
+        assertEquals(bitsOf(0, 1, 3, 4), changedIndices);
+        assertEquals(5, fileSelections.size());
+    }
+
+    @Test
+    public void selectRange_stopsAtMaxSelections() {
+        fileSelections.setMaxSelections(3);
+        BitSet changedIndices = new BitSet();
+        assertEquals(3, fileSelections.selectRange(10, 20, changedIndices));
+        assertEquals(bitsOf(10, 11, 12), changedIndices);
+        assertFalse(fileSelections.isSelected(13));
+    }
+
+    @Test
+    public void deselectRange_reportsOnlyPreviouslySelected() {
+        fileSelections.setSelected(3, true);
+        fileSelections.setSelected(7, true);
+        fileSelections.setSelected(50, true);
+        BitSet changedIndices = new BitSet();
+        assertEquals(2, fileSelections.deselectRange(0, 10, changedIndices));
+        assertEquals(bitsOf(3, 7), changedIndices);
+        assertEquals(1, fileSelections.size());
+    }
+
+    @Test
+    public void selectAll_selectsWholeFolder() {
+        fileSelections.setSelected(0, true);
+        BitSet changedIndices = new BitSet();
+        assertEquals(FOLDER_FILES_COUNT - 1, fileSelections.selectAll(changedIndices));
+        assertEquals(FOLDER_FILES_COUNT - 1, changedIndices.cardinality());
+        assertFalse(changedIndices.get(0));
+        List<String> selectedPaths = fileSelections.getSelectedPaths();
+        assertEquals(FOLDER_FILES_COUNT, selectedPaths.size());
+        assertEquals(new File(testFolder, fileName(0)).getAbsolutePath(), selectedPaths.get(0));
+    }
+
+    @Test
+    public void invertSelection_flipsEveryIndex() {
+        fileSelections.setSelected(1, true);
+        fileSelections.setSelected(3, true);
+        BitSet changedIndices = new BitSet();
+        assertTrue(fileSelections.invertSelection(changedIndices));
+        assertEquals(FOLDER_FILES_COUNT, changedIndices.cardinality());
+        assertEquals(FOLDER_FILES_COUNT - 2, fileSelections.size());
+        assertFalse(fileSelections.isSelected(1));
+        assertTrue(fileSelections.isSelected(2));
+    }
+
+    @Test
+    public void invertSelection_overLimitChangesNothing() {
+        fileSelections.setMaxSelections(10);
+        fileSelections.setSelected(5, true);
+        BitSet changedIndices = new BitSet();
+        assertFalse(fileSelections.invertSelection(changedIndices));
+        assertTrue(changedIndices.isEmpty());
+        assertEquals(1, fileSelections.size());
+        assertTrue(fileSelections.isSelected(5));
+    }
+
+    @Test
+    public void rangeDrag_reportsOnlyTheIntervalMoved() {
+        fileSelections.setSelected(12, true);
+        BitSet changedIndices = new BitSet();
+        assertTrue(fileSelections.beginRangeDrag(10, true, changedIndices));
+        assertEquals(bitsOf(10), changedIndices);
+        changedIndices.clear();
+        fileSelections.updateRangeDrag(15, changedIndices);
+        assertEquals(bitsOf(11, 13, 14, 15), changedIndices);
+        assertEquals(6, fileSelections.size());
+        // Moving the end back restores the baseline of the items the range no longer covers:
+        changedIndices.clear();
+        fileSelections.updateRangeDrag(11, changedIndices);
+        assertEquals(bitsOf(13, 14, 15), changedIndices);
+        assertTrue(fileSelections.isSelected(12));
+        assertEquals(3, fileSelections.size());
+        // Crossing over the anchor:
+        changedIndices.clear();
+        fileSelections.updateRangeDrag(8, changedIndices);
+        assertEquals(bitsOf(8, 9, 11), changedIndices);
+        assertEquals(4, fileSelections.size());
+        fileSelections.endRangeDrag();
+        assertFalse(fileSelections.isRangeDragActive());
+        assertEquals(bitsOf(8, 9, 10, 12), selectedIndices());
+    }
+
+    @Test
+    public void rangeDrag_deselects() {
+        fileSelections.selectRange(0, 20);
+        BitSet changedIndices = new BitSet();
+        assertTrue(fileSelections.beginRangeDrag(5, false, changedIndices));
+        fileSelections.updateRangeDrag(7, changedIndices);
+        assertEquals(bitsOf(5, 6, 7), changedIndices);
+        assertEquals(17, fileSelections.size());
+    }
+
+    private BitSet selectedIndices() {
+        BitSet selectedBits = new BitSet();
+        for(int fidx = 0; fidx < FOLDER_FILES_COUNT; fidx++) {
+            selectedBits.set(fidx, fileSelections.isSelected(fidx));
+        }
+        return selectedBits;
+    }
+
+    @Test
+    public void syncWithSnapshot_movesBitsWithTheirFiles() throws Exception {
+        fileSelections.setSelected(5, true);
+        fileSelections.setSelected(7, true);
+        fileSelections.setSelected(9, true);
+        List<String> expectedPaths = fileSelections.getSelectedPaths();
+        // One entry sorted before all of the others, and one of the selected files deleted:
+        assertTrue(new File(testFolder, "a0000").createNewFile());
+        assertTrue(new File(testFolder, fileName(9)).delete());
+        folderSnapshot.applyFolderChanges(new ArrayList<String>(Collections.singletonList("a0000")),
+                                          new ArrayList<String>(Collections.singletonList(fileName(9))),
+                                          new ArrayList<String>());
+        assertEquals(FOLDER_FILES_COUNT, folderSnapshot.getFilesCount());
+        assertTrue(fileSelections.isSelected(6));
+        assertTrue(fileSelections.isSelected(8));
+        assertFalse(fileSelections.isSelected(5));
+        assertEquals(2, fileSelections.size());
+        assertEquals(expectedPaths.subList(0, 2), fileSelections.getSelectedPaths());
+    }
+
+    private FolderSnapshotCache.FolderSnapshot listWithSubfolders(int... folderIndices) throws Exception {
+        for(int folderIndex : folderIndices) {
+            File subfolder = new File(testFolder, fileName(folderIndex));
+            assertTrue(subfolder.delete() && subfolder.mkdir());
+        }
+        snapshotCache.invalidateAll();
+        FolderSnapshotCache.FolderSnapshot nextSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, new FileFilter.FileItemsSortFunc());
+        fileSelections.setActiveFolder(nextSnapshot);
+        return nextSnapshot;
+    }
+
+    @Test
+    public void selectableKinds_useRecordedFolderBits() throws Exception {
+        FolderSnapshotCache.FolderSnapshot nextSnapshot = listWithSubfolders(3, 4, 10);
+        assertEquals(bitsOf(1, 2, 8), nextSnapshot.getDirectoryBits(2, 12));
+        fileSelections.setSelectableKinds(false, true);
+        BitSet changedIndices = new BitSet();
+        assertEquals(3, fileSelections.selectAll(changedIndices));
+        assertEquals(bitsOf(3, 4, 10), changedIndices);
+        fileSelections.clear();
+        fileSelections.setSelectableKinds(true, false);
+        assertEquals(8, fileSelections.selectRange(0, 11));
+        assertFalse(fileSelections.isSelected(3));
+        assertTrue(fileSelections.invertSelection());
+        assertEquals(FOLDER_FILES_COUNT - 3 - 8, fileSelections.size());
+        assertFalse(fileSelections.isSelected(10));
+        assertTrue(fileSelections.isSelected(11));
+    }
+
+    @Test
+    public void folderBits_moveWithWatchedChanges() throws Exception {
+        FolderSnapshotCache.FolderSnapshot nextSnapshot = listWithSubfolders(3, 10);
+        assertTrue(new File(testFolder, "a0000").mkdir());
+        assertTrue(new File(testFolder, fileName(5)).delete());
+        nextSnapshot.applyFolderChanges(new ArrayList<String>(Collections.singletonList("a0000")),
+                                        new ArrayList<String>(Collections.singletonList(fileName(5))),
+                                        new ArrayList<String>());
+        assertEquals(bitsOf(0, 4, 10), nextSnapshot.getDirectoryBits(0, FOLDER_FILES_COUNT));
+    }
+
+    @Test
+    public void setActiveFolder_keepsSelectionsByPath() {
+        fileSelections.selectRange(20, 25);
+        List<String> expectedPaths = fileSelections.getSelectedPaths();
+        fileSelections.setActiveFolder(null);
+        assertEquals(5, fileSelections.size());
+        assertEquals(expectedPaths, fileSelections.getSelectedPaths());
+        fileSelections.setActiveFolder(folderSnapshot);
+        assertTrue(fileSelections.isSelected(20));
+        assertTrue(fileSelections.isSelected(24));
+        assertEquals(expectedPaths, fileSelections.getSelectedPaths());
+    }
+
+}
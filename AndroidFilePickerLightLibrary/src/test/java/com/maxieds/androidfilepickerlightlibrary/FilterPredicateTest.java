@@ -0,0 +1,208 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the composable filter predicates: the glob patterns, the flattening and
+ * cost ordering of the combinators, negation and the size and modification time ranges.
+ */
+public class FilterPredicateTest {
+
+    private static final long BASE_MODIFIED_TIME = 1500000000000L;
+
+    private File testFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        testFolder = File.createTempFile("predicates", "");
+        assertTrue(testFolder.delete() && testFolder.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] folderEntries = testFolder.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            folderEntries[fidx].delete();
+        }
+        testFolder.delete();
+    }
+
+    private File createFile(String fileName, int fileSize, long lastModified) throws Exception {
+        File testFile = new File(testFolder, fileName);
+        FileOutputStream fileOut = new FileOutputStream(testFile);
+        try {
+            fileOut.write(new byte[fileSize]);
+        } finally {
+            fileOut.close();
+        }
+        assertTrue(testFile.setLastModified(lastModified));
+        return testFile;
+    }
+
+    private boolean matches(FileFilter.FilterPredicate predicate, String baseName) {
+        return predicate.test(new FileFilter.FilterEntry(testFolder, baseName));
+    }
+
+    /* Records the order the operands are evaluated in: */
+    private static FileFilter.FilterPredicate recording(final String predName, final int evalCost, final boolean testResult,
+                                                        final List<String> evalOrder) {
+        return new FileFilter.FilterPredicate() {
+            @Override
+            public int getEvalCost() { return evalCost; }
+            @Override
+            public boolean test(FileFilter.FilterEntry fileEntry) {
+                evalOrder.add(predName);
+                return testResult;
+            }
+        };
+    }
+
+    @Test
+    public void glob_wildcardsAndClasses() {
+        FileFilter.FilterPredicate jpegGlob = FileFilter.FilterPredicate.glob("IMG_????.jp*g", false);
+        assertTrue(matches(jpegGlob, "IMG_0001.jpg"));
+        assertTrue(matches(jpegGlob, "IMG_0001.jpeg"));
+        assertFalse(matches(jpegGlob, "IMG_01.jpg"));
+        assertFalse(matches(jpegGlob, "img_0001.jpg"));
+        assertTrue(matches(FileFilter.FilterPredicate.glob("IMG_????.jp*g", true), "img_0001.JPG"));
+        FileFilter.FilterPredicate classGlob = FileFilter.FilterPredicate.glob("log[0-9][!a-c].txt", false);
+        assertTrue(matches(classGlob, "log1d.txt"));
+        assertFalse(matches(classGlob, "log1b.txt"));
+        assertFalse(matches(classGlob, "logx1.txt"));
+        // Matched against the whole base name:
+        assertFalse(matches(FileFilter.FilterPredicate.glob("*.txt", false), "notes.txt.bak"));
+    }
+
+    @Test
+    public void glob_escapesRegexMetacharacters() {
+        FileFilter.FilterPredicate literalGlob = FileFilter.FilterPredicate.glob("a.b+c(1)$^{2}|x\\y", false);
+        assertTrue(matches(literalGlob, "a.b+c(1)$^{2}|x\\y"));
+        assertFalse(matches(literalGlob, "aXb+c(1)$^{2}|x\\y"));
+        assertFalse(matches(literalGlob, "a.bbc(1)$^{2}|x\\y"));
+        assertTrue(matches(FileFilter.FilterPredicate.glob("*.tar.gz", false), "backup.tar.gz"));
+        assertFalse(matches(FileFilter.FilterPredicate.glob("*.tar.gz", false), "backup_tar_gz"));
+        // Brackets, backslashes and '&&' are literal inside a class (as is a leading ']'):
+        FileFilter.FilterPredicate bracketGlob = FileFilter.FilterPredicate.glob("[[]*[]]", false);
+        assertTrue(matches(bracketGlob, "[draft]"));
+        assertFalse(matches(bracketGlob, "draft]"));
+        FileFilter.FilterPredicate ampersandGlob = FileFilter.FilterPredicate.glob("x[a&&b\\]", false);
+        assertTrue(matches(ampersandGlob, "x&"));
+        assertTrue(matches(ampersandGlob, "xa"));
+        assertTrue(matches(ampersandGlob, "x\\"));
+        assertFalse(matches(ampersandGlob, "xc"));
+    }
+
+    @Test
+    public void combinators_orderOperandsByCost() {
+        List<String> evalOrder = new ArrayList<String>();
+        FileFilter.FilterPredicate statPred = recording("stat", FileFilter.FilterPredicate.COST_FILE_STAT, true, evalOrder);
+        FileFilter.FilterPredicate patternPred = recording("pattern", FileFilter.FilterPredicate.COST_PATTERN_MATCH, true, evalOrder);
+        FileFilter.FilterPredicate namePred = recording("name", FileFilter.FilterPredicate.COST_NAME_CHECK, true, evalOrder);
+        FileFilter.FilterPredicate allPred = FileFilter.FilterPredicate.allOf(statPred, patternPred, null, namePred);
+        assertEquals(FileFilter.FilterPredicate.COST_FILE_STAT + FileFilter.FilterPredicate.COST_PATTERN_MATCH +
+                     FileFilter.FilterPredicate.COST_NAME_CHECK, allPred.getEvalCost());
+        assertTrue(matches(allPred, "file"));
+        assertEquals(Arrays.asList("name", "pattern", "stat"), evalOrder);
+        // A cheap operand that decides the result skips the expensive ones:
+        evalOrder.clear();
+        FileFilter.FilterPredicate failingName = recording("noname", FileFilter.FilterPredicate.COST_NAME_CHECK, false, evalOrder);
+        assertFalse(matches(FileFilter.FilterPredicate.allOf(statPred, failingName), "file"));
+        assertEquals(Arrays.asList("noname"), evalOrder);
+        evalOrder.clear();
+        assertTrue(matches(FileFilter.FilterPredicate.anyOf(statPred, namePred), "file"));
+        assertEquals(Arrays.asList("name"), evalOrder);
+        evalOrder.clear();
+        assertFalse(matches(FileFilter.FilterPredicate.anyOf(failingName, FileFilter.FilterPredicate.not(statPred)), "file"));
+        assertEquals(Arrays.asList("noname", "stat"), evalOrder);
+    }
+
+    @Test
+    public void combinators_flattenNestedCombinationsOfTheSameKind() {
+        List<String> evalOrder = new ArrayList<String>();
+        FileFilter.FilterPredicate statPred = recording("stat", FileFilter.FilterPredicate.COST_FILE_STAT, true, evalOrder);
+        FileFilter.FilterPredicate hashPred = recording("hash", FileFilter.FilterPredicate.COST_HASH_LOOKUP, true, evalOrder);
+        FileFilter.FilterPredicate namePred = recording("name", FileFilter.FilterPredicate.COST_NAME_CHECK, true, evalOrder);
+        // Flattened: the name check moves ahead of the hash lookup:
+        assertTrue(matches(FileFilter.FilterPredicate.allOf(FileFilter.FilterPredicate.allOf(namePred, statPred), hashPred), "file"));
+        assertEquals(Arrays.asList("name", "hash", "stat"), evalOrder);
+        evalOrder.clear();
+        assertTrue(matches(namePred.and(statPred).and(hashPred), "file"));
+        assertEquals(Arrays.asList("name", "hash", "stat"), evalOrder);
+        // An anyOf inside an allOf stays a single operand (costed as a whole):
+        evalOrder.clear();
+        FileFilter.FilterPredicate mixedPred = FileFilter.FilterPredicate.allOf(FileFilter.FilterPredicate.anyOf(namePred, statPred), hashPred);
+        assertTrue(matches(mixedPred, "file"));
+        assertEquals(Arrays.asList("hash", "name"), evalOrder);
+        evalOrder.clear();
+        assertTrue(matches(FileFilter.FilterPredicate.anyOf(statPred, FileFilter.FilterPredicate.anyOf(hashPred, namePred)), "file"));
+        assertEquals(Arrays.asList("name"), evalOrder);
+        // No operands:
+        assertTrue(matches(FileFilter.FilterPredicate.allOf(), "file"));
+        assertFalse(matches(FileFilter.FilterPredicate.anyOf(), "file"));
+    }
+
+    @Test
+    public void not_negatesAndKeepsTheCost() {
+        FileFilter.FilterPredicate hiddenPred = FileFilter.FilterPredicate.hidden();
+        FileFilter.FilterPredicate visiblePred = FileFilter.FilterPredicate.not(hiddenPred);
+        assertEquals(hiddenPred.getEvalCost(), visiblePred.getEvalCost());
+        assertTrue(matches(visiblePred, "notes.txt"));
+        assertFalse(matches(visiblePred, ".nomedia"));
+        assertTrue(matches(visiblePred.negate(), ".nomedia"));
+        FileFilter.FilterPredicate notDocs = FileFilter.FilterPredicate.extensions(".PDF", "txt").negate();
+        assertFalse(matches(notDocs, "report.pdf"));
+        assertFalse(matches(notDocs, "notes.TXT"));
+        assertTrue(matches(notDocs, "photo.png"));
+        assertTrue(matches(notDocs, "README"));
+    }
+
+    @Test
+    public void sizeBetween_inclusiveRegularFiles() throws Exception {
+        createFile("empty.dat", 0, BASE_MODIFIED_TIME);
+        createFile("low.dat", 10, BASE_MODIFIED_TIME);
+        createFile("high.dat", 20, BASE_MODIFIED_TIME);
+        createFile("over.dat", 21, BASE_MODIFIED_TIME);
+        assertTrue(new File(testFolder, "folder").mkdir());
+        FileFilter.FilterPredicate sizePred = FileFilter.FilterPredicate.sizeBetween(10, 20);
+        assertEquals(FileFilter.FilterPredicate.COST_FILE_STAT, sizePred.getEvalCost());
+        assertFalse(matches(sizePred, "empty.dat"));
+        assertTrue(matches(sizePred, "low.dat"));
+        assertTrue(matches(sizePred, "high.dat"));
+        assertFalse(matches(sizePred, "over.dat"));
+        assertFalse(matches(FileFilter.FilterPredicate.sizeBetween(0, Long.MAX_VALUE), "folder"));
+        assertFalse(matches(FileFilter.FilterPredicate.sizeBetween(0, Long.MAX_VALUE), "missing.dat"));
+        assertTrue(matches(FileFilter.FilterPredicate.sizeBetween(0, 0), "empty.dat"));
+    }
+
+    @Test
+    public void modifiedBetween_inclusiveBounds() throws Exception {
+        createFile("before.dat", 1, BASE_MODIFIED_TIME - 1000L);
+        createFile("from.dat", 1, BASE_MODIFIED_TIME);
+        createFile("to.dat", 1, BASE_MODIFIED_TIME + 60000L);
+        createFile("after.dat", 1, BASE_MODIFIED_TIME + 61000L);
+        assertTrue(new File(testFolder, "folder").mkdir());
+        assertTrue(new File(testFolder, "folder").setLastModified(BASE_MODIFIED_TIME + 30000L));
+        FileFilter.FilterPredicate modifiedPred = FileFilter.FilterPredicate.modifiedBetween(BASE_MODIFIED_TIME, BASE_MODIFIED_TIME + 60000L);
+        assertFalse(matches(modifiedPred, "before.dat"));
+        assertTrue(matches(modifiedPred, "from.dat"));
+        assertTrue(matches(modifiedPred, "to.dat"));
+        assertFalse(matches(modifiedPred, "after.dat"));
+        assertTrue(matches(modifiedPred, "folder"));
+        assertFalse(matches(modifiedPred, "missing.dat"));
+        // Both ranges read the attributes of an entry with one stat call:
+        FileFilter.FilterEntry fileEntry = new FileFilter.FilterEntry(testFolder, "to.dat");
+        assertTrue(FileFilter.FilterPredicate.allOf(modifiedPred, FileFilter.FilterPredicate.sizeBetween(1, 1)).test(fileEntry));
+        assertSame(fileEntry.getFileAttributes(), fileEntry.getFileAttributes());
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the cache of folder listings: hits and misses, the LRU eviction, the
+ * modification time staleness rule and matching a listing by its filter and sort instances.
+ */
+public class FolderSnapshotCacheTest {
+
+    private File testRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        testRoot = File.createTempFile("snapshots", "");
+        assertTrue(testRoot.delete() && testRoot.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(testRoot);
+    }
+
+    private static void deleteRecursively(File fileOnDisk) {
+        File[] folderEntries = fileOnDisk.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            deleteRecursively(folderEntries[fidx]);
+        }
+        fileOnDisk.delete();
+    }
+
+    /* A folder whose mtime is well before any listing of it, so that its snapshots stay valid: */
+    private File createFolder(String folderName, String... fileNames) throws Exception {
+        File testFolder = new File(testRoot, folderName);
+        assertTrue(testFolder.mkdir());
+        for(String fileName : fileNames) {
+            assertTrue(new File(testFolder, fileName).createNewFile());
+        }
+        assertTrue(testFolder.setLastModified(System.currentTimeMillis() - 60000L));
+        return testFolder;
+    }
+
+    private static FolderSnapshotCache createCache(int maxCachedFolders) {
+        FolderSnapshotCache snapshotCache = new FolderSnapshotCache(maxCachedFolders);
+        snapshotCache.setWatchCachedFolders(false);
+        return snapshotCache;
+    }
+
+    @Test
+    public void getFolderSnapshot_missThenHit() throws Exception {
+        File testFolder = createFolder("folder", "b.txt", "a.txt", "c.txt");
+        FolderSnapshotCache snapshotCache = createCache(4);
+        FileFilter.FileItemsSortFunc folderSort = new FileFilter.FileItemsSortFunc();
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, folderSort);
+        assertEquals(3, folderSnapshot.getFilesCount());
+        assertTrue(folderSnapshot.isEnumerationComplete());
+        assertEquals(new File(testFolder, "a.txt"), folderSnapshot.getFileAtIndex(0));
+        assertEquals(1, snapshotCache.getCacheMissesCount());
+        assertEquals(0, snapshotCache.getCacheHitsCount());
+        assertSame(folderSnapshot, snapshotCache.getFolderSnapshot(testFolder, null, folderSort));
+        assertSame(folderSnapshot, snapshotCache.getFolderSnapshot(new File(testFolder.getPath()), null, folderSort));
+        assertEquals(1, snapshotCache.getCacheMissesCount());
+        assertEquals(2, snapshotCache.getCacheHitsCount());
+        assertEquals(0, snapshotCache.getCacheStaleCount());
+        assertEquals(1, snapshotCache.getCachedFoldersCount());
+        snapshotCache.invalidateFolder(testFolder);
+        assertEquals(0, snapshotCache.getCachedFoldersCount());
+        assertNotSame(folderSnapshot, snapshotCache.getFolderSnapshot(testFolder, null, folderSort));
+        assertEquals(2, snapshotCache.getCacheMissesCount());
+    }
+
+    @Test
+    public void getFolderSnapshot_evictsLeastRecentlyUsed() throws Exception {
+        File folderA = createFolder("a", "1.txt");
+        File folderB = createFolder("b", "2.txt");
+        File folderC = createFolder("c", "3.txt");
+        FolderSnapshotCache snapshotCache = createCache(2);
+        FileFilter.FileItemsSortFunc folderSort = new FileFilter.FileItemsSortFunc();
+        FolderSnapshotCache.FolderSnapshot snapshotA = snapshotCache.getFolderSnapshot(folderA, null, folderSort);
+        FolderSnapshotCache.FolderSnapshot snapshotB = snapshotCache.getFolderSnapshot(folderB, null, folderSort);
+        // Using A again makes B the eldest entry:
+        assertSame(snapshotA, snapshotCache.getFolderSnapshot(folderA, null, folderSort));
+        FolderSnapshotCache.FolderSnapshot snapshotC = snapshotCache.getFolderSnapshot(folderC, null, folderSort);
+        assertEquals(2, snapshotCache.getCachedFoldersCount());
+        assertSame(snapshotA, snapshotCache.getFolderSnapshot(folderA, null, folderSort));
+        assertSame(snapshotC, snapshotCache.getFolderSnapshot(folderC, null, folderSort));
+        assertEquals(3, snapshotCache.getCacheMissesCount());
+        assertFalse(snapshotB.isStillValid());
+        assertNotSame(snapshotB, snapshotCache.getFolderSnapshot(folderB, null, folderSort));
+        assertEquals(4, snapshotCache.getCacheMissesCount());
+        // Shrinking the cache drops the eldest entries (C, then A) right away:
+        snapshotCache.setMaxCachedFolders(1);
+        assertEquals(1, snapshotCache.getCachedFoldersCount());
+        assertFalse(snapshotC.isStillValid());
+        assertFalse(snapshotA.isStillValid());
+    }
+
+    @Test
+    public void getFolderSnapshot_staleByModifiedTime() throws Exception {
+        File testFolder = createFolder("folder", "1.txt", "2.txt");
+        FolderSnapshotCache snapshotCache = createCache(4);
+        FileFilter.FileItemsSortFunc folderSort = new FileFilter.FileItemsSortFunc();
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, folderSort);
+        assertTrue(folderSnapshot.isStillValid());
+        // A change after the listing updates the folder mtime:
+        assertTrue(new File(testFolder, "3.txt").createNewFile());
+        assertTrue(testFolder.setLastModified(System.currentTimeMillis() - 30000L));
+        assertFalse(folderSnapshot.isStillValid());
+        FolderSnapshotCache.FolderSnapshot relistedSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, folderSort);
+        assertNotSame(folderSnapshot, relistedSnapshot);
+        assertEquals(3, relistedSnapshot.getFilesCount());
+        assertEquals(1, snapshotCache.getCacheStaleCount());
+        assertTrue(relistedSnapshot.isStillValid());
+        // The mtime lies within the 2 s granularity of the listing time: a change in the same
+        // tick as the listing would not move it, so the listing is never reused:
+        assertTrue(testFolder.setLastModified(System.currentTimeMillis()));
+        FolderSnapshotCache.FolderSnapshot recentSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, folderSort);
+        assertEquals(2, snapshotCache.getCacheStaleCount());
+        assertFalse(recentSnapshot.isStillValid());
+        assertNotSame(recentSnapshot, snapshotCache.getFolderSnapshot(testFolder, null, folderSort));
+        assertEquals(3, snapshotCache.getCacheStaleCount());
+        assertEquals(0, snapshotCache.getCacheHitsCount());
+        // A folder that no longer exists:
+        deleteRecursively(testFolder);
+        assertFalse(relistedSnapshot.isStillValid());
+    }
+
+    @Test
+    public void isListingOf_matchesFilterAndSortByIdentity() throws Exception {
+        File testFolder = createFolder("folder", "1.txt", "2.jpg");
+        File otherFolder = createFolder("other", "3.txt");
+        FolderSnapshotCache snapshotCache = createCache(4);
+        FileFilter.FileItemsSortFunc folderSort = new FileFilter.FileItemsSortFunc();
+        FileFilter.FileItemsSortFunc sameOrderSort = new FileFilter.FileItemsSortFunc();
+        FileFilter.FileFilterBase txtFilter = new FileFilter.FileFilterByRegex(".*\\.txt", FileFilter.INCLUDE_FILES_IN_FILTER_PATTERN);
+        FolderSnapshotCache.FolderSnapshot folderSnapshot = snapshotCache.getFolderSnapshot(testFolder, txtFilter, folderSort);
+        assertEquals(1, folderSnapshot.getFilesCount());
+        assertTrue(folderSnapshot.isListingOf(testFolder, txtFilter, folderSort));
+        assertTrue(folderSnapshot.isListingOf(new File(testFolder.getPath()), txtFilter, folderSort));
+        assertFalse(folderSnapshot.isListingOf(otherFolder, txtFilter, folderSort));
+        assertFalse(folderSnapshot.isListingOf(testFolder, null, folderSort));
+        assertFalse(folderSnapshot.isListingOf(testFolder, new FileFilter.FileFilterByRegex(".*\\.txt", FileFilter.INCLUDE_FILES_IN_FILTER_PATTERN), folderSort));
+        assertFalse(folderSnapshot.isListingOf(testFolder, txtFilter, sameOrderSort));
+        // Equivalent but distinct filter and sort instances are cached as separate listings:
+        FolderSnapshotCache.FolderSnapshot unfilteredSnapshot = snapshotCache.getFolderSnapshot(testFolder, null, folderSort);
+        assertEquals(2, unfilteredSnapshot.getFilesCount());
+        FolderSnapshotCache.FolderSnapshot resortedSnapshot = snapshotCache.getFolderSnapshot(testFolder, txtFilter, sameOrderSort);
+        assertNotSame(folderSnapshot, resortedSnapshot);
+        assertTrue(resortedSnapshot.isListingOf(testFolder, txtFilter, sameOrderSort));
+        assertEquals(3, snapshotCache.getCacheMissesCount());
+        assertEquals(3, snapshotCache.getCachedFoldersCount());
+        assertSame(folderSnapshot, snapshotCache.getFolderSnapshot(testFolder, txtFilter, folderSort));
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the MIME type filter matcher. MimeTypeMap is only a stub here, so the
+ * extensions the tests use are put into the cache up front.
+ */
+public class MimeTypeCacheTest {
+
+    @BeforeClass
+    public static void cacheTestExtensions() {
+        MimeTypeCache.putMimeTypeForExtension("png", "image/png");
+        MimeTypeCache.putMimeTypeForExtension("jpg", "image/jpeg");
+        MimeTypeCache.putMimeTypeForExtension("txt", "text/plain");
+        MimeTypeCache.putMimeTypeForExtension("pdf", "application/pdf");
+        MimeTypeCache.putMimeTypeForExtension("zzqx", null);
+    }
+
+    @Test
+    public void getExtensionKey_lastPathComponentOnly() {
+        assertEquals("png", MimeTypeCache.getExtensionKey("/sdcard/Pictures/Photo.PNG"));
+        assertEquals("gz", MimeTypeCache.getExtensionKey("archive.tar.gz"));
+        assertNull(MimeTypeCache.getExtensionKey("/sdcard/folder.d/README"));
+        assertNull(MimeTypeCache.getExtensionKey("trailing."));
+        assertNull(MimeTypeCache.getExtensionKey(null));
+        assertEquals("image/png", MimeTypeCache.getMimeTypeForExtension(".PNG"));
+        assertNull(MimeTypeCache.getMimeTypeForPath("notes.zzqx"));
+        assertNull(MimeTypeCache.getMimeTypeForPath("README"));
+    }
+
+    @Test
+    public void matcher_anyType() {
+        for(String anyPattern : new String[] { "*/*", "*", " */* " }) {
+            MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Collections.singletonList(anyPattern));
+            assertTrue(mimeMatcher.matchesMimeType("image/png"));
+            assertTrue(mimeMatcher.matchesMimeType(null));
+            assertTrue(mimeMatcher.matchesFilePath("/sdcard/photo.png"));
+            assertTrue(mimeMatcher.matchesFilePath("/sdcard/notes.zzqx"));
+            assertTrue(mimeMatcher.matchesFilePath("/sdcard/README"));
+        }
+    }
+
+    @Test
+    public void matcher_wildcardMajorType() {
+        MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Arrays.asList("image/*"));
+        assertTrue(mimeMatcher.matchesMimeType("image/png"));
+        assertTrue(mimeMatcher.matchesMimeType("image/jpeg"));
+        assertFalse(mimeMatcher.matchesMimeType("text/plain"));
+        assertFalse(mimeMatcher.matchesMimeType("imagex/png"));
+        assertFalse(mimeMatcher.matchesMimeType("image"));
+        assertFalse(mimeMatcher.matchesMimeType("/png"));
+        assertTrue(mimeMatcher.matchesFilePath("/sdcard/photo.png"));
+        assertTrue(mimeMatcher.matchesFilePath("/sdcard/photo.jpg"));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/notes.txt"));
+    }
+
+    @Test
+    public void matcher_exactTypes() {
+        MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Arrays.asList("image/png", "application/pdf", null));
+        assertTrue(mimeMatcher.matchesMimeType("image/png"));
+        assertTrue(mimeMatcher.matchesMimeType("application/pdf"));
+        assertFalse(mimeMatcher.matchesMimeType("image/jpeg"));
+        assertFalse(mimeMatcher.matchesMimeType("application/pdfx"));
+        assertTrue(mimeMatcher.matchesFilePath("report.pdf"));
+        assertFalse(mimeMatcher.matchesFilePath("photo.jpg"));
+        assertFalse(new MimeTypeCache.MimeTypeMatcher(null).matchesMimeType("image/png"));
+        assertFalse(new MimeTypeCache.MimeTypeMatcher(Collections.<String>emptyList()).matchesFilePath("photo.png"));
+    }
+
+    @Test
+    public void matcher_ignoresCase() {
+        MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Arrays.asList(" Image/PNG ", "TEXT/*"));
+        assertTrue(mimeMatcher.matchesMimeType("image/png"));
+        assertTrue(mimeMatcher.matchesMimeType("IMAGE/Png"));
+        assertTrue(mimeMatcher.matchesMimeType("Text/Plain"));
+        assertTrue(mimeMatcher.matchesFilePath("/sdcard/PHOTO.PNG"));
+        assertTrue(mimeMatcher.matchesFilePath("/sdcard/Notes.Txt"));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/photo.JPG"));
+    }
+
+    @Test
+    public void matcher_unknownExtensions() {
+        MimeTypeCache.MimeTypeMatcher mimeMatcher = new MimeTypeCache.MimeTypeMatcher(Arrays.asList("image/*", "text/plain"));
+        assertFalse(mimeMatcher.matchesMimeType(null));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/notes.zzqx"));
+        // The decision is cached per extension, and still the same the second time around:
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/other.ZZQX"));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/README"));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/folder.png/README"));
+        assertFalse(mimeMatcher.matchesFilePath("/sdcard/trailing."));
+        assertTrue(mimeMatcher.matchesFilePath("/sdcard/photo.png"));
+    }
+
+}
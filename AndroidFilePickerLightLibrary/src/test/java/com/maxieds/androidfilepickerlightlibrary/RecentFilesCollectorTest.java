@@ -0,0 +1,158 @@
+package com.maxieds.androidfilepickerlightlibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the bounded top-K recent files collector, checked against a full sort of
+ * every file in a small tree with known (and distinct) modification times.
+ */
+public class RecentFilesCollectorTest {
+
+    private static final int TOP_FOLDERS_COUNT = 6;
+    private static final int SUBFOLDERS_COUNT = 2;
+    private static final int FOLDER_FILES_COUNT = 50;
+    private static final int ROOT_FILES_COUNT = 20;
+    private static final long BASE_MODIFIED_TIME = 1500000000000L;
+
+    private File treeRoot;
+    private List<File> treeFiles;
+
+    @Before
+    public void setUp() throws Exception {
+        treeRoot = File.createTempFile("recents", "");
+        assertTrue(treeRoot.delete() && treeRoot.mkdir());
+        treeFiles = new ArrayList<File>();
+        createFiles(treeRoot, "root", ROOT_FILES_COUNT);
+        for(int tidx = 0; tidx < TOP_FOLDERS_COUNT; tidx++) {
+            File topFolder = new File(treeRoot, "top-" + tidx);
+            assertTrue(topFolder.mkdir());
+            for(int sidx = 0; sidx < SUBFOLDERS_COUNT; sidx++) {
+                File subfolder = new File(topFolder, "sub-" + sidx);
+                assertTrue(subfolder.mkdir());
+                createFiles(subfolder, "file-" + tidx + "-" + sidx, FOLDER_FILES_COUNT);
+            }
+        }
+        // Distinct whole second mtimes in a random order across the tree:
+        List<Integer> timeOffsets = new ArrayList<Integer>();
+        for(int fidx = 0; fidx < treeFiles.size(); fidx++) {
+            timeOffsets.add(fidx);
+        }
+        Collections.shuffle(timeOffsets, new Random(12345));
+        for(int fidx = 0; fidx < treeFiles.size(); fidx++) {
+            assertTrue(treeFiles.get(fidx).setLastModified(BASE_MODIFIED_TIME + 1000L * timeOffsets.get(fidx)));
+        }
+    }
+
+    private void createFiles(File parentFolder, String namePrefix, int filesCount) throws Exception {
+        for(int fidx = 0; fidx < filesCount; fidx++) {
+            File treeFile = new File(parentFolder, String.format(Locale.US, "%s-%03d.txt", namePrefix, fidx));
+            assertTrue(treeFile.createNewFile());
+            treeFiles.add(treeFile);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(treeRoot);
+    }
+
+    private static void deleteRecursively(File fileOnDisk) {
+        File[] folderEntries = fileOnDisk.listFiles();
+        for(int fidx = 0; folderEntries != null && fidx < folderEntries.length; fidx++) {
+            deleteRecursively(folderEntries[fidx]);
+        }
+        fileOnDisk.delete();
+    }
+
+    private List<File> getMostRecentBySorting(int maxEntries) {
+        List<File> sortedFiles = new ArrayList<File>(treeFiles);
+        Collections.sort(sortedFiles, new Comparator<File>() {
+            @Override
+            public int compare(File lhsFile, File rhsFile) {
+                return Long.compare(rhsFile.lastModified(), lhsFile.lastModified());
+            }
+        });
+        return sortedFiles.subList(0, Math.min(maxEntries, sortedFiles.size()));
+    }
+
+    private static List<File> getFiles(List<RecentFilesCollector.RecentFileEntry> recentEntries) {
+        List<File> recentFiles = new ArrayList<File>();
+        for(RecentFilesCollector.RecentFileEntry recentEntry : recentEntries) {
+            recentFiles.add(recentEntry.getFile());
+        }
+        return recentFiles;
+    }
+
+    @Test
+    public void collectRecentFiles_matchesFullSort() {
+        for(int maxEntries : new int[] { 1, 5, 25, 100 }) {
+            List<RecentFilesCollector.RecentFileEntry> recentEntries = new RecentFilesCollector().collectRecentFiles(treeRoot, maxEntries);
+            assertEquals(getMostRecentBySorting(maxEntries), getFiles(recentEntries));
+        }
+    }
+
+    @Test
+    public void collectRecentFiles_keepsReadModifiedTimes() {
+        List<RecentFilesCollector.RecentFileEntry> recentEntries = new RecentFilesCollector().collectRecentFiles(treeRoot, 10);
+        for(int eidx = 0; eidx < recentEntries.size(); eidx++) {
+            assertEquals(recentEntries.get(eidx).getFile().lastModified(), recentEntries.get(eidx).getLastModified());
+            if(eidx > 0) {
+                assertTrue(recentEntries.get(eidx - 1).getLastModified() > recentEntries.get(eidx).getLastModified());
+            }
+        }
+    }
+
+    @Test
+    public void collectRecentFiles_fewerFilesThanLimit() {
+        List<RecentFilesCollector.RecentFileEntry> recentEntries = new RecentFilesCollector().collectRecentFiles(treeRoot, 10000);
+        assertEquals(treeFiles.size(), recentEntries.size());
+        assertEquals(getMostRecentBySorting(treeFiles.size()), getFiles(recentEntries));
+        assertTrue(new RecentFilesCollector().collectRecentFiles(treeRoot, 0).isEmpty());
+        assertTrue(new RecentFilesCollector().collectRecentFiles(null, 10).isEmpty());
+    }
+
+    @Test
+    public void collectRecentFiles_prunesOldFolders() {
+        // One recent file in a folder whose own mtime is older than every file:
+        File staleFolder = new File(treeRoot, "top-0");
+        File hiddenRecentFile = new File(new File(staleFolder, "sub-0"), "file-0-0-000.txt");
+        long newestModified = BASE_MODIFIED_TIME + 1000L * (treeFiles.size() + 10);
+        assertTrue(hiddenRecentFile.setLastModified(newestModified));
+        for(int tidx = 0; tidx < TOP_FOLDERS_COUNT; tidx++) {
+            File topFolder = new File(treeRoot, "top-" + tidx);
+            long folderModified = tidx == 0 ? BASE_MODIFIED_TIME - 1000L : newestModified;
+            assertTrue(topFolder.setLastModified(folderModified));
+            for(int sidx = 0; sidx < SUBFOLDERS_COUNT; sidx++) {
+                assertTrue(new File(topFolder, "sub-" + sidx).setLastModified(folderModified));
+            }
+        }
+        RecentFilesCollector recentsCollector = new RecentFilesCollector();
+        List<File> recentFiles = getFiles(recentsCollector.collectRecentFiles(treeRoot, 5));
+        assertEquals(hiddenRecentFile, recentFiles.get(0));
+        // Only the folders with an older mtime than the current top 5 are pruned (so which files
+        // of top-0 are seen depends on the walk), but no more recent file elsewhere is ever missed:
+        recentsCollector.setPruneByFolderModifiedTime(true);
+        List<RecentFilesCollector.RecentFileEntry> prunedEntries = recentsCollector.collectRecentFiles(treeRoot, 5);
+        assertEquals(5, prunedEntries.size());
+        long oldestPrunedModified = prunedEntries.get(4).getLastModified();
+        List<File> prunedRecentFiles = getFiles(prunedEntries);
+        for(File treeFile : treeFiles) {
+            if(!treeFile.getPath().startsWith(staleFolder.getPath() + File.separator) && treeFile.lastModified() > oldestPrunedModified) {
+                assertTrue(treeFile + " is missing", prunedRecentFiles.contains(treeFile));
+            }
+        }
+    }
+
+}